@@ -0,0 +1,364 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+/**
+ * Applies a file of orders without going through the menu. Each line of the file is one operation:
+ * "add,First Surname,Meal Name,quantity" or "remove,First Surname,Meal Name,quantity".
+ * Blank lines and lines starting with '#' are ignored.
+ * Operations are shared out between a pool of worker threads by subscriber, so every operation for the same subscriber
+ * is applied by the same worker in the order it appears in the file. The same rules as the menu apply, through
+ * Subscriber.subscribe() and Subscriber.unsubscribe(), and a summary of what was applied and rejected is printed at the end.
+ * Every applied operation is appended to the WriteAheadLog, which commits operations from all the workers in groups,
+ * and the run waits for the log to be synced to disk before printing the summary.
+ */
+public class BatchProcessor
+{
+    /**
+     * The reasons an operation can be rejected for, in the order they are printed in the summary
+     */
+    private enum Reject
+    {
+        MALFORMED("malformed line"),
+        UNKNOWN_SUBSCRIBER("subscriber not found"),
+        UNKNOWN_MEAL("meal not found"),
+        NEGATIVE_QUANTITY("negative quantity"),
+        SUBSCRIPTION_LIMIT("already at " + Subscriber.MAX_SUBSCRIPTIONS + " subscriptions"),
+        NOT_ENOUGH_MEALS("not enough meals left"),
+        NOT_ENOUGH_SUBSCRIBED("removing more than subscribed"),
+        FAILED("failed unexpectedly");
+
+        /**
+         * Description printed in the summary
+         */
+        private final String description;
+
+        Reject(String description)
+        {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Marker put on each worker's queue to tell it there is nothing left to do
+     */
+    private static final String[] END = new String[0];
+    /**
+     * How many operations can be waiting for each worker before the reader has to wait
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * The subscribers orders are applied to
+     */
+    private final SortedList<Subscriber> subscribers;
+    /**
+     * The meals which can be ordered
+     */
+    private final SortedLinkedList<Meal> meals;
+    /**
+     * Called when there are not enough meals left to fulfil an order, e.g. to write a letter
+     */
+    private final BiConsumer<Subscriber, Meal> shortfallHandler;
+    /**
+     * The log applied operations are written to
+     */
+    private final WriteAheadLog log;
+    /**
+     * Where applied and rejected operations are also recorded, alongside this run's own summary
+     */
+    private final Metrics metrics;
+    /**
+     * Number of worker threads
+     */
+    private final int workers;
+    /**
+     * Number of operations applied successfully
+     */
+    private final LongAdder applied;
+    /**
+     * Number of operations rejected, indexed by Reject ordinal
+     */
+    private final LongAdder[] rejected;
+    /**
+     * Number of applied operations which could not be written to the log
+     */
+    private final LongAdder notLogged;
+
+    /**
+     * Constructor for a BatchProcessor
+     * @param subscribers The subscribers, which must have a name index
+     * @param meals The meals, which must have a name index
+     * @param shortfallHandler Called when there are not enough meals left to fulfil an order
+     * @param log The log applied operations are written to
+     * @param metrics Where applied and rejected operations are also recorded
+     * @param workers Number of worker threads to use
+     */
+    public BatchProcessor(SortedList<Subscriber> subscribers, SortedLinkedList<Meal> meals,
+                          BiConsumer<Subscriber, Meal> shortfallHandler, WriteAheadLog log, Metrics metrics, int workers)
+    {
+        this.subscribers = subscribers;
+        this.meals = meals;
+        this.shortfallHandler = shortfallHandler;
+        this.log = log;
+        this.metrics = metrics;
+        this.notLogged = new LongAdder();
+        this.workers = Math.max(1, workers);
+        this.applied = new LongAdder();
+        this.rejected = new LongAdder[Reject.values().length];
+        for (int i = 0; i < rejected.length; i++)
+            rejected[i] = new LongAdder();
+    }
+
+    /**
+     * Reads the file of operations, hands each one to the worker for its subscriber, waits for all of them to be
+     * applied, then prints a summary.
+     * @param file The file of operations
+     * @throws IOException if the file cannot be read
+     */
+    public void run(Path file) throws IOException
+    {
+        long start = System.nanoTime();
+        long total = 0;
+
+        @SuppressWarnings("unchecked")
+        BlockingQueue<String[]>[] queues = (BlockingQueue<String[]>[]) new BlockingQueue<?>[workers];
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++)
+        {
+            BlockingQueue<String[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues[i] = queue;
+            threads[i] = new Thread(() -> work(queue), "batch-worker-" + i);
+            threads[i].start();
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.isBlank() || line.startsWith("#"))
+                    continue;
+
+                total++;
+                String[] fields = line.split(",", -1);
+                if (fields.length != 4)
+                {
+                    rejected[Reject.MALFORMED.ordinal()].increment();
+                    continue;
+                }
+
+                // every operation for the same subscriber goes to the same worker, which keeps them in order
+                int shard = Math.floorMod(NameIndex.hash(fields[1]), workers);
+                queues[shard].put(fields); // waits if that worker has fallen behind
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            for (BlockingQueue<String[]> queue : queues)
+                putUninterruptibly(queue, END);
+            for (Thread thread : threads)
+                joinUninterruptibly(thread);
+        }
+
+        try
+        {
+            log.sync();
+        }
+        catch (IOException e)
+        {
+            System.out.println("The log could not be written to disk: " + e.getMessage());
+        }
+
+        printSummary(total, System.nanoTime() - start);
+    }
+
+    /**
+     * The loop each worker thread runs, applying operations from its queue until it is told to stop
+     * @param queue The worker's queue
+     */
+    private void work(BlockingQueue<String[]> queue)
+    {
+        try
+        {
+            String[] fields;
+            while ((fields = queue.take()) != END)
+            {
+                Reject reject;
+                try
+                {
+                    reject = apply(fields);
+                }
+                catch (RuntimeException e)
+                {
+                    // keep emptying the queue, or the reader would wait forever to put on it
+                    reject = Reject.FAILED;
+                }
+
+                if (reject == null)
+                    applied.increment();
+                else
+                    rejected[reject.ordinal()].increment();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Applies a single operation
+     * @param fields The operation, subscriber name, meal name and quantity
+     * @return null if the operation was applied, otherwise the reason it was rejected
+     */
+    private Reject apply(String[] fields)
+    {
+        boolean add = fields[0].trim().equalsIgnoreCase("add");
+        if (!add && !fields[0].trim().equalsIgnoreCase("remove"))
+            return Reject.MALFORMED;
+
+        int quantity;
+        try
+        {
+            quantity = Integer.parseInt(fields[3].trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return Reject.MALFORMED;
+        }
+
+        long start = System.nanoTime();
+        Subscriber subscriber = subscribers.lookup(fields[1]);
+        metrics.recordLookup(subscriber != null, start);
+        if (subscriber == null)
+            return Reject.UNKNOWN_SUBSCRIBER;
+
+        start = System.nanoTime();
+        Meal meal = meals.lookup(fields[2]);
+        metrics.recordLookup(meal != null, start);
+        if (meal == null)
+            return Reject.UNKNOWN_MEAL;
+
+        start = System.nanoTime();
+        try
+        {
+            if (add)
+                subscriber.subscribe(meal, quantity);
+            else
+                subscriber.unsubscribe(meal, quantity);
+        }
+        catch (NotEnoughMealsException e)
+        {
+            metrics.recordStockOut();
+            shortfallHandler.accept(subscriber, meal);
+            return Reject.NOT_ENOUGH_MEALS;
+        }
+        catch (IllegalArgumentException e)
+        {
+            metrics.recordRejected();
+            return Reject.NEGATIVE_QUANTITY;
+        }
+        catch (IllegalStateException e)
+        {
+            metrics.recordRejected();
+            return add ? Reject.SUBSCRIPTION_LIMIT : Reject.NOT_ENOUGH_SUBSCRIBED;
+        }
+
+        try
+        {
+            log.append(add ? WriteAheadLog.ADD : WriteAheadLog.REMOVE, subscriber, meal, quantity);
+        }
+        catch (IOException e)
+        {
+            notLogged.increment();
+        }
+
+        if (add)
+            metrics.recordAdd(quantity, start);
+        else
+            metrics.recordRemove(quantity, start);
+        return null;
+    }
+
+    /**
+     * Prints how many operations were applied and rejected, and how quickly
+     * @param total Number of operations read
+     * @param elapsedNanos Time taken in nanoseconds
+     */
+    private void printSummary(long total, long elapsedNanos)
+    {
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println("Processed " + total + " operations in " + String.format("%.3f", seconds) + "s ("
+                + String.format("%.0f", total / Math.max(seconds, 1e-9)) + " per second) using " + workers + " workers");
+        System.out.println("Applied: " + applied.sum());
+        if (notLogged.sum() > 0)
+            System.out.println("    of which could not be written to the log: " + notLogged.sum());
+
+        long totalRejected = 0;
+        for (LongAdder r : rejected)
+            totalRejected += r.sum();
+        System.out.println("Rejected: " + totalRejected);
+
+        for (Reject reject : Reject.values())
+        {
+            long count = rejected[reject.ordinal()].sum();
+            if (count > 0)
+                System.out.println("    " + reject.description + ": " + count);
+        }
+    }
+
+    /**
+     * Puts an operation on a queue, waiting for space even if interrupted. The workers always empty their queues,
+     * so this cannot wait forever.
+     * @param queue The queue
+     * @param fields The operation
+     */
+    private static void putUninterruptibly(BlockingQueue<String[]> queue, String[] fields)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                queue.put(fields);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Waits for a thread to finish, even if interrupted
+     * @param thread The thread to wait for
+     */
+    private static void joinUninterruptibly(Thread thread)
+    {
+        boolean interrupted = false;
+        while (thread.isAlive())
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * A Bloom filter of names, used to tell very cheaply that a name is definitely not a subscriber or meal before doing
+ * any more expensive searching. A name which was added is always reported as possibly present, while a name which
+ * was never added is usually, but not always, reported as absent.
+ * Names are hashed the same way as NameIndex, as if they had been normalised, so checking a name allocates nothing.
+ * Names cannot be removed, so a removed name may still be reported as possibly present until the filter is rebuilt.
+ */
+public class BloomFilter
+{
+    /**
+     * The bits of the filter
+     */
+    private final long[] bits;
+    /**
+     * Number of bits, which is always a multiple of 64
+     */
+    private final long bitCount;
+    /**
+     * Number of bits set for each name
+     */
+    private final int hashCount;
+
+    /**
+     * Constructor for an empty filter sized to keep false positives at about the given rate
+     * @param expectedNames How many names will be added
+     * @param falsePositiveRate How often an absent name may be reported as possibly present, e.g. 0.01
+     */
+    public BloomFilter(int expectedNames, double falsePositiveRate)
+    {
+        int n = Math.max(expectedNames, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+
+        this.bits = new long[(int) Math.max(1, (m + 63) / 64)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a name to the filter
+     * @param name The name, normalised or not
+     */
+    public void add(CharSequence name)
+    {
+        int h1 = NameIndex.hash(name);
+        int h2 = second(h1);
+
+        for (int i = 0; i < hashCount; i++)
+        {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks whether a name might have been added
+     * @param name The name, normalised or not
+     * @return false if the name was definitely never added, true if it might have been
+     */
+    public boolean mightContain(CharSequence name)
+    {
+        int h1 = NameIndex.hash(name);
+        int h2 = second(h1);
+
+        for (int i = 0; i < hashCount; i++)
+        {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Derives a second hash from the first by scrambling its bits, so each name only has to be walked once.
+     * The bits set for a name are h1, h1 + h2, h1 + 2*h2 and so on.
+     * @param h1 The first hash
+     * @return The second hash, which is always odd
+     */
+    private static int second(int h1)
+    {
+        int h = h1 * 0x9E3779B9;
+        h ^= h >>> 15;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h | 1;
+    }
+}
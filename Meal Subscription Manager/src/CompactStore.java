@@ -0,0 +1,425 @@
+import java.util.*;
+/**
+ * An optional, more compact way of holding subscribers in memory. Each Subscriber normally holds two Strings and an
+ * ArrayList of Subscription objects, and with millions of subscribers the object headers and pointers take up most
+ * of the heap. CompactStore instead keeps everything in a few large arrays:
+ * each distinct first name and surname is stored once in a dictionary and referred to by its position in it,
+ * meals are given small integer ids, and as a subscriber can only have three subscriptions, each subscriber gets
+ * three fixed slots holding a meal id and a quantity.
+ * The rest of the program still works with Subscribers and Subscriptions, through the SubscriberView and
+ * SubscriptionView classes, which read and write the arrays directly. The views take the place of the original
+ * Subscribers in each meal's index of subscribers.
+ * As SubscriberView extends Subscriber, each view also carries Subscriber's own fields, which it leaves empty. With
+ * compressed pointers that is 24 of the 48 bytes of a view, which is still a small part of what an ordinary
+ * Subscriber takes up with its names, their lower case keys and its list of Subscriptions.
+ * The dictionary is built by the constructor and never changes afterwards, so views can read names from it without
+ * any locking. Like a MappedStore's, subscribers in a CompactStore cannot be renamed.
+ */
+public class CompactStore
+{
+    /**
+     * Meal id stored in a slot which is not in use
+     */
+    private static final short EMPTY = -1;
+
+    /**
+     * Every distinct name, in the order they were first seen
+     */
+    private final String[] names;
+    /**
+     * Each name in the dictionary in lower case, used for sorting
+     */
+    private final String[] keys;
+    /**
+     * The meals, with each meal's id being its position in the array
+     */
+    private final Meal[] meals;
+    /**
+     * The id of each meal
+     */
+    private final IdentityHashMap<Meal, Short> mealIds;
+    /**
+     * Dictionary position of each subscriber's first name
+     */
+    private final int[] firstNames;
+    /**
+     * Dictionary position of each subscriber's surname
+     */
+    private final int[] surnames;
+    /**
+     * Meal id in each subscription slot, MAX_SUBSCRIPTIONS slots per subscriber, or EMPTY
+     */
+    private final short[] slotMeals;
+    /**
+     * Quantity in each subscription slot
+     */
+    private final int[] slotQuantities;
+    /**
+     * One view for each subscriber, which is what the rest of the program works with
+     */
+    private final SubscriberView[] views;
+
+    /**
+     * Builds a compact store from ordinary Subscriber objects, copying their names and subscriptions into the arrays.
+     * @param subscribers The subscribers to copy
+     * @param meals Every meal the subscribers can be subscribed to
+     * @throws IllegalArgumentException if there are too many meals to give them short ids
+     */
+    public CompactStore(Subscriber[] subscribers, Meal[] meals)
+    {
+        if (meals.length > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Too many meals for a compact store: " + meals.length);
+
+        this.meals = meals.clone();
+        this.mealIds = new IdentityHashMap<>();
+        for (short i = 0; i < meals.length; i++)
+            mealIds.put(meals[i], i);
+
+        int n = subscribers.length;
+        this.firstNames = new int[n];
+        this.surnames = new int[n];
+        this.slotMeals = new short[n * Subscriber.MAX_SUBSCRIPTIONS];
+        this.slotQuantities = new int[n * Subscriber.MAX_SUBSCRIPTIONS];
+        this.views = new SubscriberView[n];
+        Arrays.fill(slotMeals, EMPTY);
+
+        ArrayList<String> dictionary = new ArrayList<>();
+        HashMap<String, Integer> nameIds = new HashMap<>();
+        for (int i = 0; i < n; i++)
+        {
+            firstNames[i] = nameId(subscribers[i].getFirstName(), dictionary, nameIds);
+            surnames[i] = nameId(subscribers[i].getSurname(), dictionary, nameIds);
+        }
+        this.names = dictionary.toArray(new String[0]);
+        this.keys = new String[names.length];
+        for (int i = 0; i < names.length; i++)
+            keys[i] = names[i].toLowerCase();
+
+        for (int i = 0; i < n; i++)
+        {
+            Subscriber s = subscribers[i];
+            views[i] = new SubscriberView(this, i);
+
+            for (Subscription sub : s.getSubscriptions())
+            {
+                sub.getMeal().indexSubscriber(s, 0);
+                views[i].setSubscriptions(sub.getMeal(), sub.getQuantity());
+            }
+        }
+    }
+
+    /**
+     * Views getter
+     * @return A Subscriber view of every subscriber, in the same order they were given to the constructor
+     */
+    public Subscriber[] getSubscribers()
+    {
+        return views.clone();
+    }
+
+    /**
+     * Gets the dictionary position of a name while the dictionary is being built, adding it if it is new
+     * @param name The name
+     * @param dictionary Every distinct name so far, in the order they were first seen
+     * @param nameIds The position of each name so far
+     * @return Its position in the dictionary
+     */
+    private static int nameId(String name, ArrayList<String> dictionary, HashMap<String, Integer> nameIds)
+    {
+        Integer id = nameIds.get(name);
+        if (id == null)
+        {
+            id = dictionary.size();
+            dictionary.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Gets the name at a position in the dictionary
+     * @param id The position
+     * @return The name
+     */
+    private String name(int id)
+    {
+        return names[id];
+    }
+
+    /**
+     * Gets the lower case name at a position in the dictionary
+     * @param id The position
+     * @return The name in lower case
+     */
+    private String key(int id)
+    {
+        return keys[id];
+    }
+
+    /**
+     * Gets the id of a meal
+     * @param m The meal
+     * @return Its id
+     * @throws IllegalArgumentException if the meal is not in the store
+     */
+    private short mealId(Meal m)
+    {
+        Short id = mealIds.get(m);
+        if (id == null)
+            throw new IllegalArgumentException(m.getName() + " is not one of the store's meals");
+        return id;
+    }
+
+    /**
+     * A Subscriber whose names and subscriptions are held in a CompactStore. There is exactly one view per subscriber,
+     * so synchronizing on it works just like synchronizing on an ordinary Subscriber.
+     * The fields inherited from Subscriber are left empty, which costs about half of each view's size but lets the
+     * rest of the program use views as ordinary Subscribers.
+     */
+    public static class SubscriberView extends Subscriber
+    {
+        /**
+         * The store holding the subscriber
+         */
+        private final CompactStore store;
+        /**
+         * The subscriber's position in the store
+         */
+        private final int index;
+
+        /**
+         * Constructor for a view of one subscriber
+         * @param store The store holding the subscriber
+         * @param index The subscriber's position in the store
+         */
+        private SubscriberView(CompactStore store, int index)
+        {
+            this.store = store;
+            this.index = index;
+        }
+
+        public String getFirstName()
+        {
+            return store.name(store.firstNames[index]);
+        }
+
+        public String getSurname()
+        {
+            return store.name(store.surnames[index]);
+        }
+
+        protected String getFirstNameKey()
+        {
+            return store.key(store.firstNames[index]);
+        }
+
+        protected String getSurnameKey()
+        {
+            return store.key(store.surnames[index]);
+        }
+
+        /**
+         * The dictionary never changes once the store is built, so subscribers in a compact store cannot be renamed
+         * @param firstName First name
+         * @param surname Surname
+         * @throws UnsupportedOperationException always
+         */
+        public void setName(String firstName, String surname)
+        {
+            throw new UnsupportedOperationException("Subscribers in a compact store cannot be renamed");
+        }
+
+        /**
+         * Subscriptions getter. As the subscriptions are held in the store's slots, this returns a new list of views
+         * each time, and changing the list itself has no effect.
+         * @return Subscriptions
+         */
+        public synchronized ArrayList<Subscription> getSubscriptions()
+        {
+            ArrayList<Subscription> list = new ArrayList<>(Subscriber.MAX_SUBSCRIPTIONS);
+            int first = index * Subscriber.MAX_SUBSCRIPTIONS;
+
+            for (int slot = first; slot < first + Subscriber.MAX_SUBSCRIPTIONS; slot++)
+            {
+                if (store.slotMeals[slot] != EMPTY)
+                    list.add(new SubscriptionView(this, slot));
+            }
+            return list;
+        }
+
+        public synchronized int getSubscriptionCount()
+        {
+            int count = 0;
+            int first = index * Subscriber.MAX_SUBSCRIPTIONS;
+
+            for (int slot = first; slot < first + Subscriber.MAX_SUBSCRIPTIONS; slot++)
+            {
+                if (store.slotMeals[slot] != EMPTY)
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+         * Adds a quantity of a meal to the subscription in the slot holding that meal, or to the first empty slot.
+         * @param meal The chosen meal
+         * @param quantity The desired amount
+         * @throws IllegalStateException if this would be a new subscription and every slot is already in use
+         */
+        public synchronized void setSubscriptions(Meal meal, int quantity)
+        {
+            short id = store.mealId(meal);
+            int slot = findSlot(id);
+
+            if (slot == -1) // not subscribed yet, so takes the first free slot
+            {
+                slot = findSlot(EMPTY);
+                if (slot == -1)
+                    throw new IllegalStateException(getFirstName() + " has reached the maximum number of meal subscriptions ("
+                            + Subscriber.MAX_SUBSCRIPTIONS + ")!");
+
+                store.slotMeals[slot] = id;
+                store.slotQuantities[slot] = 0;
+            }
+            store.slotQuantities[slot] += quantity;
+            meal.indexSubscriber(this, store.slotQuantities[slot]);
+            EventBus.post(EventBus.Type.QUANTITY, this, meal, store.slotQuantities[slot]);
+        }
+
+        public synchronized int removeSubscriptions(Meal meal, int quantity)
+        {
+            if (quantity < 0)
+                throw new IllegalArgumentException(quantity + " is a negative number!");
+
+            int slot = findSlot(store.mealId(meal));
+
+            if (slot == -1 || store.slotQuantities[slot] < quantity)
+                throw new IllegalStateException("Cannot remove " + quantity + " " + meal.getName() + " from " + getName());
+
+            store.slotQuantities[slot] -= quantity;
+            if (store.slotQuantities[slot] == 0) // frees the slot if quantity is set to 0
+                store.slotMeals[slot] = EMPTY;
+            meal.indexSubscriber(this, store.slotQuantities[slot]);
+            EventBus.post(EventBus.Type.QUANTITY, this, meal, store.slotQuantities[slot]);
+
+            return store.slotQuantities[slot];
+        }
+
+        public synchronized Subscription searchSubscriptions(Meal m)
+        {
+            Short id = store.mealIds.get(m);
+            int slot = (id == null) ? -1 : findSlot(id);
+
+            return (slot == -1) ? null : new SubscriptionView(this, slot);
+        }
+
+        /**
+         * Finds the slot holding a meal
+         * @param id The meal id, or EMPTY to find a free slot
+         * @return The position of the slot in the store, or -1 if not found
+         */
+        private int findSlot(short id)
+        {
+            int first = index * Subscriber.MAX_SUBSCRIPTIONS;
+
+            for (int slot = first; slot < first + Subscriber.MAX_SUBSCRIPTIONS; slot++)
+            {
+                if (store.slotMeals[slot] == id)
+                    return slot;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A Subscription held in one of a CompactStore's slots. Once the slot is freed, the view reports a quantity of 0.
+     * Its setters make their changes through the subscriber's own methods, so the meals' indexes of their subscribers
+     * are kept up to date and the changes are published as events, as with any other change to a subscription.
+     */
+    public static class SubscriptionView extends Subscription
+    {
+        /**
+         * The subscriber the slot belongs to
+         */
+        private final SubscriberView owner;
+        /**
+         * The position of the slot in the store
+         */
+        private int slot;
+        /**
+         * The meal id the slot held when the view was created, or was given by setMeal()
+         */
+        private short mealId;
+
+        /**
+         * Constructor for a view of one slot
+         * @param owner The subscriber the slot belongs to
+         * @param slot The position of the slot in the store
+         */
+        private SubscriptionView(SubscriberView owner, int slot)
+        {
+            super(null, 0);
+            this.owner = owner;
+            this.slot = slot;
+            this.mealId = owner.store.slotMeals[slot];
+        }
+
+        public Meal getMeal()
+        {
+            synchronized (owner)
+            {
+                return owner.store.meals[mealId];
+            }
+        }
+
+        public int getQuantity()
+        {
+            synchronized (owner)
+            {
+                return (owner.store.slotMeals[slot] == mealId) ? owner.store.slotQuantities[slot] : 0;
+            }
+        }
+
+        /**
+         * Moves the subscription to another meal, keeping its quantity. If the subscriber already has the other meal,
+         * the quantities are added together in its slot, which this view then refers to.
+         * @param m The meal
+         */
+        public void setMeal(Meal m)
+        {
+            synchronized (owner)
+            {
+                short id = owner.store.mealId(m);
+                int quantity = getQuantity();
+                if (quantity > 0 && id != mealId)
+                {
+                    owner.removeSubscriptions(getMeal(), quantity);
+                    owner.setSubscriptions(m, quantity);
+                    slot = owner.findSlot(id);
+                }
+                mealId = id;
+            }
+        }
+
+        /**
+         * Sets the quantity, freeing the slot if it is 0
+         * @param q The quantity
+         * @throws IllegalStateException if the quantity is negative, or the slot has been freed and the subscriber
+         * already has the maximum number of meals
+         */
+        public void setQuantity(int q)
+        {
+            synchronized (owner)
+            {
+                int quantity = getQuantity();
+                if (q > quantity)
+                {
+                    owner.setSubscriptions(getMeal(), q - quantity);
+                    slot = owner.findSlot(mealId); // a freed slot may have been taken again as a different one
+                }
+                else if (q < quantity)
+                    owner.removeSubscriptions(getMeal(), quantity - q);
+            }
+        }
+    }
+}
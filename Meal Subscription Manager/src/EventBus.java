@@ -0,0 +1,394 @@
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * Passes changes to subscriptions and stock on to anything which needs to react to them, such as letters and metrics,
+ * without whoever made the change having to wait for it, in the style of the LMAX Disruptor.
+ * Events are held in a ring of preallocated Event objects, which are filled in and reused, so publishing allocates
+ * nothing. A publisher claims the next slot by incrementing a counter, fills it in, then marks it published with the
+ * number of times the ring has wrapped round. As orders come in from many threads, claiming is a single atomic
+ * increment rather than a lock, and each slot still only has one writer at a time.
+ * Each consumer has its own thread and its own position in the ring. It takes every event published since it last
+ * looked in one batch, and tells its Handler which event ends the batch, so work such as updating a shared counter
+ * can be done once per batch. A publisher only waits if the slowest consumer is a whole ring behind.
+ * Mutators throughout the program publish to the bus given to install(), and do nothing if none has been installed,
+ * e.g. while the input file and log are being loaded.
+ */
+public class EventBus implements Closeable
+{
+    /**
+     * The kinds of event
+     */
+    public enum Type
+    {
+        /**
+         * A subscriber's quantity of a meal changed. The value is the new quantity, 0 if they are no longer subscribed.
+         */
+        QUANTITY,
+        /**
+         * A meal's number available changed. The value is the new number, and there is no subscriber.
+         */
+        STOCK,
+        /**
+         * A subscriber could not have a meal as there were not enough left. The value is 0.
+         */
+        SHORTFALL
+    }
+
+    /**
+     * One event in the ring. Events are reused once every consumer has handled them, so a Handler should copy out
+     * anything it wants to keep.
+     */
+    public static final class Event
+    {
+        /**
+         * The kind of event
+         */
+        private Type type;
+        /**
+         * The subscriber changed, or null
+         */
+        private Subscriber subscriber;
+        /**
+         * The meal changed
+         */
+        private Meal meal;
+        /**
+         * The new quantity or number available
+         */
+        private int value;
+
+        /**
+         * Type getter
+         * @return The kind of event
+         */
+        public Type getType()
+        {
+            return type;
+        }
+
+        /**
+         * Subscriber getter
+         * @return The subscriber changed, or null for a STOCK event
+         */
+        public Subscriber getSubscriber()
+        {
+            return subscriber;
+        }
+
+        /**
+         * Meal getter
+         * @return The meal changed
+         */
+        public Meal getMeal()
+        {
+            return meal;
+        }
+
+        /**
+         * Value getter
+         * @return The new quantity or number available
+         */
+        public int getValue()
+        {
+            return value;
+        }
+    }
+
+    /**
+     * Handles events on a consumer's thread
+     */
+    public interface Handler
+    {
+        /**
+         * Handles one event. This must not publish events itself, as the ring may be full of events waiting for it.
+         * @param event The event, which is only valid until this returns
+         * @param endOfBatch Whether this is the last event in the batch
+         */
+        void onEvent(Event event, boolean endOfBatch);
+    }
+
+    /**
+     * How many times an idle consumer checks for events before it starts sleeping between checks
+     */
+    private static final int SPINS = 100;
+    /**
+     * How long an idle consumer sleeps between checks
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The bus mutators publish to, or null
+     */
+    private static volatile EventBus installed;
+
+    /**
+     * The events, reused each time round
+     */
+    private final Event[] ring;
+    /**
+     * Turns a sequence number into a position in the ring
+     */
+    private final int mask;
+    /**
+     * Turns a sequence number into the number of times the ring has wrapped round
+     */
+    private final int shift;
+    /**
+     * The highest sequence number claimed by a publisher
+     */
+    private final AtomicLong claimed;
+    /**
+     * For each slot, the number of times the ring had wrapped round when it was last published, or -1
+     */
+    private final AtomicIntegerArray published;
+    /**
+     * The consumers
+     */
+    private final Consumer[] consumers;
+    /**
+     * The lowest sequence number every consumer had handled when a publisher last looked, so publishers don't have to
+     * check every consumer each time
+     */
+    private volatile long gate;
+    /**
+     * Whether the bus is still taking events
+     */
+    private volatile boolean running;
+    /**
+     * Whether every consumer has stopped, after which nothing will ever free a slot
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor which starts a thread for each handler
+     * @param capacity Number of events in the ring, which must be a power of 2
+     * @param handlers The handlers, each of which sees every event
+     * @throws IllegalArgumentException if the capacity isn't a power of 2
+     */
+    public EventBus(int capacity, Handler... handlers)
+    {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("The capacity must be a power of 2, not " + capacity);
+
+        this.ring = new Event[capacity];
+        for (int i = 0; i < capacity; i++)
+            ring[i] = new Event();
+        this.mask = capacity - 1;
+        this.shift = Integer.numberOfTrailingZeros(capacity);
+        this.claimed = new AtomicLong(-1);
+        this.published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            published.set(i, -1);
+        this.gate = -1;
+        this.running = true;
+
+        this.consumers = new Consumer[handlers.length];
+        for (int i = 0; i < handlers.length; i++)
+            consumers[i] = new Consumer(handlers[i], "events-" + i);
+    }
+
+    /**
+     * Sets the bus mutators publish to
+     * @param bus The bus, or null to stop publishing
+     */
+    public static void install(EventBus bus)
+    {
+        installed = bus;
+    }
+
+    /**
+     * Publishes an event to the installed bus, if there is one
+     * @param type The kind of event
+     * @param s The subscriber changed, or null
+     * @param m The meal changed
+     * @param value The new quantity or number available
+     */
+    public static void post(Type type, Subscriber s, Meal m, int value)
+    {
+        EventBus bus = installed;
+        if (bus != null)
+            bus.publish(type, s, m, value);
+    }
+
+    /**
+     * Publishes an event, waiting if the slowest consumer is a whole ring behind. Events published once the bus is
+     * closing may be dropped.
+     * Once a sequence number has been claimed, its slot is always published, as the consumers can't get past it until
+     * it is. They don't stop while there is a claimed event they haven't handled, so waiting for room is safe even
+     * while the bus is closing. Only if they have already stopped is the event written without waiting, as nothing
+     * will read it.
+     * @param type The kind of event
+     * @param s The subscriber changed, or null
+     * @param m The meal changed
+     * @param value The new quantity or number available
+     */
+    public void publish(Type type, Subscriber s, Meal m, int value)
+    {
+        if (!running)
+            return;
+
+        long sequence = claimed.incrementAndGet();
+        long wrap = sequence - ring.length; // the event this one overwrites
+        if (wrap > gate)
+        {
+            long consumed;
+            while (wrap > (consumed = consumed()) && !stopped)
+                LockSupport.parkNanos(1);
+            if (!stopped)
+                gate = consumed;
+        }
+
+        int slot = (int) sequence & mask;
+        Event e = ring[slot];
+        e.type = type;
+        e.subscriber = s;
+        e.meal = m;
+        e.value = value;
+        published.set(slot, (int) (sequence >>> shift)); // makes the fields above visible to the consumers
+    }
+
+    /**
+     * Waits until every consumer has handled every event published so far, or they have stopped
+     */
+    public void awaitConsumed()
+    {
+        long target = claimed.get();
+        while (consumed() < target && !stopped)
+            LockSupport.parkNanos(IDLE_NANOS);
+    }
+
+    /**
+     * Stops taking events, waits for the consumers to handle every event already published, then stops them.
+     * If this is the installed bus, it is uninstalled.
+     */
+    public void close()
+    {
+        if (!running)
+            return;
+        running = false;
+
+        boolean interrupted = false;
+        for (Consumer c : consumers)
+        {
+            while (c.thread.isAlive())
+            {
+                try
+                {
+                    c.thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        stopped = true;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (installed == this)
+            installed = null;
+    }
+
+    /**
+     * Finds the lowest sequence number every consumer has handled
+     * @return The sequence number
+     */
+    private long consumed()
+    {
+        long lowest = Long.MAX_VALUE;
+        for (Consumer c : consumers)
+            lowest = Math.min(lowest, c.sequence.get());
+        return lowest;
+    }
+
+    /**
+     * Finds the end of the run of published events starting at a sequence number. Publishers can finish in a
+     * different order to the one they claimed in, so this stops at the first event not yet published.
+     * @param from The first sequence number to check
+     * @param to The highest sequence number claimed
+     * @return The last published sequence number in the run, or from - 1 if from itself isn't published yet
+     */
+    private long publishedUpTo(long from, long to)
+    {
+        for (long sequence = from; sequence <= to; sequence++)
+        {
+            if (published.get((int) sequence & mask) != (int) (sequence >>> shift))
+                return sequence - 1;
+        }
+        return to;
+    }
+
+    /**
+     * One consumer, with its own thread and position in the ring
+     */
+    private final class Consumer implements Runnable
+    {
+        /**
+         * Handles the events
+         */
+        private final Handler handler;
+        /**
+         * The highest sequence number handled
+         */
+        private final AtomicLong sequence;
+        /**
+         * The consumer's thread
+         */
+        private final Thread thread;
+
+        /**
+         * Constructor which starts the consumer's thread
+         * @param handler Handles the events
+         * @param name The thread's name
+         */
+        private Consumer(Handler handler, String name)
+        {
+            this.handler = handler;
+            this.sequence = new AtomicLong(-1);
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Handles batches of events until the bus is closed and every event published has been handled. When there
+         * are none, it spins for a while, then sleeps between checks.
+         */
+        public void run()
+        {
+            long next = 0;
+            int idle = 0;
+
+            while (true)
+            {
+                long last = publishedUpTo(next, claimed.get());
+                if (last >= next)
+                {
+                    for (long s = next; s <= last; s++)
+                    {
+                        try
+                        {
+                            handler.onEvent(ring[(int) s & mask], s == last);
+                        }
+                        catch (RuntimeException e) // carries on, so one bad event doesn't stop the others
+                        {
+                            System.out.println("An event could not be handled on " + thread.getName() + ": " + e);
+                        }
+                    }
+                    sequence.set(last);
+                    next = last + 1;
+                    idle = 0;
+                }
+                else if (!running && next > claimed.get())
+                    return;
+                else if (idle++ < SPINS)
+                    Thread.onSpinWait();
+                else
+                    LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+}
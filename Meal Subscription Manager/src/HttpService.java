@@ -0,0 +1,671 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+/**
+ * Serves the same operations as the menu over HTTP, using the JDK's built-in HttpServer, so many clients can take
+ * orders at once instead of one operator at the console. Responses are JSON.
+ * <ul>
+ *     <li>GET /meals?from=&amp;limit= lists meals, optionally from a given name onwards</li>
+ *     <li>GET /subscribers?from=&amp;limit= lists subscribers and their subscriptions</li>
+ *     <li>GET /subscriber?name= looks up a single subscriber</li>
+ *     <li>GET /meal?name= looks up a single meal and everyone subscribed to it</li>
+ *     <li>POST /add and POST /remove take subscriber, meal and quantity parameters, in the query string or a form body</li>
+ *     <li>POST /order takes subscriber and changes parameters, e.g. changes=Curry:2,Fish:-1, and applies every change
+ *     or none of them</li>
+ * </ul>
+ * Lists of subscribers also give their total, row count and where the rows start in X-Total, X-Rows and X-Rows-Offset
+ * headers, which ShardRouter uses to join lists from several shards.
+ * Each request runs on its own virtual thread when the JDK supports them (Java 21 onwards), or on a cached thread pool
+ * otherwise. The model is already safe to share between threads: meal stock is taken with compare-and-set,
+ * each Subscriber's methods are synchronized, the write-ahead log commits orders from every thread in groups, and the
+ * lists of subscribers and meals are only read while the service is running.
+ */
+public class HttpService
+{
+    /**
+     * How many rows a listing returns if no limit is given
+     */
+    private static final int DEFAULT_LIMIT = 100;
+    /**
+     * The most rows a listing can return at once
+     */
+    private static final int MAX_LIMIT = 1000;
+    /**
+     * Header on a list of subscribers giving how many there are altogether, so ShardRouter can add them up
+     */
+    static final String TOTAL_HEADER = "X-Total";
+    /**
+     * Header on a list of subscribers giving how many are in the response
+     */
+    static final String ROWS_HEADER = "X-Rows";
+    /**
+     * Header on a list of subscribers giving the byte offset in the body where the rows start, so ShardRouter can
+     * join the rows from several shards without parsing them. The rows end just before the closing "]}".
+     */
+    static final String ROWS_OFFSET_HEADER = "X-Rows-Offset";
+
+    /**
+     * The subscribers, which must have a name index
+     */
+    private final SortedList<Subscriber> subscribers;
+    /**
+     * The meals, which must have a name index
+     */
+    private final SortedLinkedList<Meal> meals;
+    /**
+     * Called when there are not enough meals left to fulfil an order, e.g. to write a letter
+     */
+    private final BiConsumer<Subscriber, Meal> shortfallHandler;
+    /**
+     * The log every change is written to before it is confirmed
+     */
+    private final WriteAheadLog log;
+    /**
+     * Where orders are recorded
+     */
+    private final Metrics metrics;
+    /**
+     * The server, once started
+     */
+    private HttpServer server;
+    /**
+     * Runs each request, once started
+     */
+    private ExecutorService executor;
+
+    /**
+     * Constructor for a service which has not been started
+     * @param subscribers The subscribers, which must have a name index
+     * @param meals The meals, which must have a name index
+     * @param shortfallHandler Called when there are not enough meals left to fulfil an order
+     * @param log The log every change is written to
+     * @param metrics Where orders are recorded
+     */
+    public HttpService(SortedList<Subscriber> subscribers, SortedLinkedList<Meal> meals,
+                       BiConsumer<Subscriber, Meal> shortfallHandler, WriteAheadLog log, Metrics metrics)
+    {
+        this.subscribers = subscribers;
+        this.meals = meals;
+        this.shortfallHandler = shortfallHandler;
+        this.log = log;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts serving requests
+     * @param port The port to listen on, or 0 for any free port
+     * @return The port being listened on
+     * @throws IOException if the port cannot be bound
+     */
+    public int start(int port) throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/meals", exchange -> handle(exchange, "GET", this::listMeals));
+        server.createContext("/subscribers", exchange -> handle(exchange, "GET", this::listSubscribers));
+        server.createContext("/subscriber", exchange -> handle(exchange, "GET", this::lookupSubscriber));
+        server.createContext("/meal", exchange -> handle(exchange, "GET", this::lookupMeal));
+        server.createContext("/add", exchange -> handle(exchange, "POST", params -> order(params, true)));
+        server.createContext("/remove", exchange -> handle(exchange, "POST", params -> order(params, false)));
+        server.createContext("/order", exchange -> handle(exchange, "POST", this::multiOrder));
+
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, gives any in progress a few seconds to finish, then stops the threads
+     */
+    public void stop()
+    {
+        server.stop(2);
+        executor.shutdown();
+        try
+        {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates an executor which runs each task on a new virtual thread, if this JDK has them, otherwise a cached pool
+     * of ordinary threads. Virtual threads are looked up reflectively so the program still builds for Java 17.
+     * @return The executor
+     */
+    static ExecutorService newExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool(r ->
+            {
+                Thread t = new Thread(r, "http-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Whether newExecutor() uses virtual threads on this JDK
+     * @return true if it does
+     */
+    static boolean hasVirtualThreads()
+    {
+        try
+        {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * A response to send back: a status code and a JSON body
+     */
+    private static class Response
+    {
+        /**
+         * HTTP status code
+         */
+        private final int status;
+        /**
+         * JSON body
+         */
+        private final String body;
+        /**
+         * For a list of subscribers, where in the body the rows start, otherwise -1
+         */
+        private final int rowsStart;
+        /**
+         * For a list of subscribers, how many are in the body
+         */
+        private final int rows;
+        /**
+         * For a list of subscribers, how many there are altogether
+         */
+        private final long total;
+
+        private Response(int status, String body)
+        {
+            this(status, body, -1, 0, 0);
+        }
+
+        private Response(int status, String body, int rowsStart, int rows, long total)
+        {
+            this.status = status;
+            this.body = body;
+            this.rowsStart = rowsStart;
+            this.rows = rows;
+            this.total = total;
+        }
+
+        /**
+         * Creates an error response
+         * @param status HTTP status code
+         * @param message What went wrong
+         * @return The response
+         */
+        private static Response error(int status, String message)
+        {
+            return new Response(status, "{\"error\":" + quote(message) + "}");
+        }
+    }
+
+    /**
+     * Works out the response to a request from its parameters
+     */
+    private interface Handler
+    {
+        /**
+         * Handles a request
+         * @param params The request's parameters, from the query string and any form body
+         * @return The response
+         * @throws IOException if the response cannot be worked out
+         */
+        Response handle(Map<String, String> params) throws IOException;
+    }
+
+    /**
+     * Checks the method, reads the parameters, runs the handler and sends its response
+     * @param exchange The request and response
+     * @param method The only method allowed
+     * @param handler What to do with the request
+     * @throws IOException if the response cannot be sent
+     */
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException
+    {
+        Response response;
+        try
+        {
+            if (!exchange.getRequestMethod().equals(method))
+            {
+                exchange.getResponseHeaders().set("Allow", method);
+                response = Response.error(405, "Use " + method);
+            }
+            else
+                response = handler.handle(parameters(exchange));
+        }
+        catch (IllegalArgumentException e) // e.g. a malformed parameter
+        {
+            response = Response.error(400, e.getMessage());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            response = Response.error(500, e.toString());
+        }
+
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        if (response.rowsStart >= 0)
+        {
+            int offset = response.body.substring(0, response.rowsStart).getBytes(StandardCharsets.UTF_8).length;
+            exchange.getResponseHeaders().set(TOTAL_HEADER, Long.toString(response.total));
+            exchange.getResponseHeaders().set(ROWS_HEADER, Integer.toString(response.rows));
+            exchange.getResponseHeaders().set(ROWS_OFFSET_HEADER, Integer.toString(offset));
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Lists meals with the number available
+     * @param params from (optional name to start at) and limit
+     * @return The meals
+     */
+    private Response listMeals(Map<String, String> params)
+    {
+        String from = params.get("from");
+        int position = (from == null) ? 0 : meals.ceilingIndex(new Meal(from.trim()));
+        Iterator<Meal> it = meals.iterator(position);
+
+        StringBuilder json = new StringBuilder("{\"total\":").append(meals.size()).append(",\"meals\":[");
+        for (int i = 0, limit = limit(params); i < limit && it.hasNext(); i++)
+        {
+            if (i > 0)
+                json.append(',');
+            meal(json, it.next());
+        }
+        return new Response(200, json.append("]}").toString());
+    }
+
+    /**
+     * Lists subscribers with their subscriptions
+     * @param params from (optional name to start at, a single word being a surname) and limit
+     * @return The subscribers
+     */
+    private Response listSubscribers(Map<String, String> params)
+    {
+        String from = params.get("from");
+        int position = 0;
+        if (from != null)
+        {
+            String[] words = from.trim().split("\\s+", 2);
+            Subscriber probe = (words.length == 1) ? new Subscriber("", words[0]) : new Subscriber(words[0], words[1]);
+            position = subscribers.ceilingIndex(probe);
+        }
+        Iterator<Subscriber> it = subscribers.iterator(position);
+
+        int total = subscribers.size();
+        StringBuilder json = new StringBuilder("{\"total\":").append(total).append(",\"subscribers\":[");
+        int rowsStart = json.length();
+        int rows = 0;
+        for (int limit = limit(params); rows < limit && it.hasNext(); rows++)
+        {
+            if (rows > 0)
+                json.append(',');
+            subscriber(json, it.next());
+        }
+        return new Response(200, json.append("]}").toString(), rowsStart, rows, total);
+    }
+
+    /**
+     * Looks up a single subscriber by name
+     * @param params name
+     * @return The subscriber and their subscriptions, or 404
+     */
+    private Response lookupSubscriber(Map<String, String> params)
+    {
+        long start = System.nanoTime();
+        Subscriber s = subscribers.lookup(required(params, "name"));
+        metrics.recordLookup(s != null, start);
+
+        if (s == null)
+            return Response.error(404, "Subscriber not found");
+        return new Response(200, subscriber(new StringBuilder(), s).toString());
+    }
+
+    /**
+     * Looks up a single meal by name, with everyone subscribed to it, found through the meal's index of subscribers
+     * @param params name
+     * @return The meal and its subscribers with their quantities, or 404
+     */
+    private Response lookupMeal(Map<String, String> params)
+    {
+        long start = System.nanoTime();
+        Meal m = meals.lookup(required(params, "name"));
+        metrics.recordLookup(m != null, start);
+
+        if (m == null)
+            return Response.error(404, "Meal not found");
+
+        StringBuilder json = meal(new StringBuilder(), m);
+        json.setLength(json.length() - 1); // reopens the meal object to add its subscribers
+        json.append(",\"subscribers\":[");
+        int rowsStart = json.length();
+        int rows = 0;
+        for (Map.Entry<Subscriber, Integer> entry : subscribers.subscribersTo(m).entrySet())
+        {
+            if (rows++ > 0)
+                json.append(',');
+            json.append("{\"name\":").append(quote(entry.getKey().getName()));
+            json.append(",\"quantity\":").append(entry.getValue()).append('}');
+        }
+        return new Response(200, json.append("]}").toString(), rowsStart, rows, rows);
+    }
+
+    /**
+     * Adds meals to or removes meals from a subscription, applying the same rules as the menu.
+     * The change is added to the log while holding the subscriber's lock, and if it can't be, it is undone, which
+     * can't fail as nothing else can have changed the subscriber in the meantime. The response waits for it to reach
+     * the disk once the lock is released, as Order.apply() does, and meals removed are only put back in stock then.
+     * @param params subscriber, meal and quantity
+     * @param add true to add meals, false to remove them
+     * @return The subscriber's subscriptions and the meal's stock afterwards, or an error
+     * @throws IOException if the change cannot be written to the log
+     */
+    private Response order(Map<String, String> params, boolean add) throws IOException
+    {
+        String subscriberName = required(params, "subscriber");
+        String mealName = required(params, "meal");
+        int quantity;
+        try
+        {
+            quantity = Integer.parseInt(required(params, "quantity").trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("quantity must be a whole number");
+        }
+
+        long start = System.nanoTime();
+        Subscriber s = subscribers.lookup(subscriberName);
+        metrics.recordLookup(s != null, start);
+        if (s == null)
+            return Response.error(404, "Subscriber not found");
+
+        start = System.nanoTime();
+        Meal m = meals.lookup(mealName);
+        metrics.recordLookup(m != null, start);
+        if (m == null)
+            return Response.error(404, "Meal not found");
+
+        start = System.nanoTime();
+        long sequence;
+        synchronized (s.getLock())
+        {
+            try
+            {
+                if (add)
+                    s.subscribe(m, quantity);
+                else
+                    s.removeSubscriptions(m, quantity); // the stock is put back once this has been logged
+            }
+            catch (NotEnoughMealsException e)
+            {
+                metrics.recordStockOut();
+                shortfallHandler.accept(s, m);
+                return Response.error(409, e.getMessage());
+            }
+            catch (IllegalArgumentException | IllegalStateException e) // a negative quantity, or breaking a rule
+            {
+                metrics.recordRejected();
+                return Response.error(e instanceof IllegalArgumentException ? 400 : 409, e.getMessage());
+            }
+
+            try
+            {
+                sequence = log.append(add ? WriteAheadLog.ADD : WriteAheadLog.REMOVE, s, m, quantity);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                if (add)
+                    s.unsubscribe(m, quantity);
+                else
+                    s.setSubscriptions(m, quantity);
+                throw e;
+            }
+        }
+        log.awaitDurable(sequence); // after unlocking, so a virtual thread waiting here doesn't pin its carrier
+
+        if (add)
+            metrics.recordAdd(quantity, start);
+        else
+        {
+            m.release(quantity);
+            metrics.recordRemove(quantity, start);
+        }
+
+        StringBuilder json = new StringBuilder("{\"subscriber\":");
+        subscriber(json, s).append(",\"meal\":");
+        return new Response(200, meal(json, m).append('}').toString());
+    }
+
+    /**
+     * Applies several changes to one subscriber's subscriptions as an Order, so either all of them are made or none.
+     * The order is written to the log as one record before the response is sent, and undone if it can't be.
+     * @param params subscriber, and changes as a comma-separated list of meal:change, e.g. Curry:2,Fish:-1
+     * @return The subscriber's subscriptions afterwards, or an error
+     * @throws IOException if the order cannot be written to the log, in which case nothing is changed
+     */
+    private Response multiOrder(Map<String, String> params) throws IOException
+    {
+        String subscriberName = required(params, "subscriber");
+        String[] changes = required(params, "changes").split(",");
+
+        long start = System.nanoTime();
+        Subscriber s = subscribers.lookup(subscriberName);
+        metrics.recordLookup(s != null, start);
+        if (s == null)
+            return Response.error(404, "Subscriber not found");
+
+        Order order = new Order(s);
+        for (String change : changes)
+        {
+            int colon = change.lastIndexOf(':');
+            if (colon < 0 || !change.substring(colon + 1).trim().matches("[+-]?[0-9]{1,9}"))
+                throw new IllegalArgumentException("Each change must be a meal and a whole number, e.g. Curry:2");
+
+            start = System.nanoTime();
+            Meal m = meals.lookup(change.substring(0, colon));
+            metrics.recordLookup(m != null, start);
+            if (m == null)
+                return Response.error(404, "Meal not found: " + change.substring(0, colon).trim());
+            order.change(m, Integer.parseInt(change.substring(colon + 1).trim()));
+        }
+
+        start = System.nanoTime();
+        try
+        {
+            order.apply(log);
+        }
+        catch (NotEnoughMealsException e)
+        {
+            metrics.recordStockOut();
+            shortfallHandler.accept(s, e.getMeal());
+            return Response.error(409, e.getMessage());
+        }
+        catch (IllegalStateException e) // not enough of a meal to remove, or too many different meals
+        {
+            metrics.recordRejected();
+            return Response.error(409, e.getMessage());
+        }
+
+        for (int change : order.getChanges().values())
+        {
+            if (change > 0)
+                metrics.recordAdd(change, start);
+            else
+                metrics.recordRemove(-change, start);
+        }
+
+        StringBuilder json = new StringBuilder("{\"subscriber\":");
+        return new Response(200, subscriber(json, s).append('}').toString());
+    }
+
+    /**
+     * Appends a meal as JSON
+     * @param json Where to append it
+     * @param m The meal
+     * @return json
+     */
+    private static StringBuilder meal(StringBuilder json, Meal m)
+    {
+        json.append("{\"name\":").append(quote(m.getName()));
+        return json.append(",\"available\":").append(m.getNumberAvailable()).append('}');
+    }
+
+    /**
+     * Appends a subscriber and their subscriptions as JSON
+     * @param json Where to append it
+     * @param s The subscriber
+     * @return json
+     */
+    private static StringBuilder subscriber(StringBuilder json, Subscriber s)
+    {
+        synchronized (s.getLock()) // stops the subscriptions changing while they are written
+        {
+            json.append("{\"name\":").append(quote(s.getName())).append(",\"subscriptions\":[");
+
+            List<Subscription> subscriptions = s.getSubscriptions();
+            for (int i = 0; i < subscriptions.size(); i++)
+            {
+                Subscription sub = subscriptions.get(i);
+                if (i > 0)
+                    json.append(',');
+                json.append("{\"meal\":").append(quote(sub.getMeal().getName()));
+                json.append(",\"quantity\":").append(sub.getQuantity()).append('}');
+            }
+            return json.append("]}");
+        }
+    }
+
+    /**
+     * Reads the parameters from the query string and, for a form post, the body
+     * @param exchange The request
+     * @return The parameters, with later values replacing earlier ones
+     * @throws IOException if the body cannot be read
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException
+    {
+        HashMap<String, String> params = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), params);
+
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type != null && type.startsWith("application/x-www-form-urlencoded"))
+        {
+            try (InputStream in = exchange.getRequestBody())
+            {
+                parse(new String(in.readNBytes(64 * 1024), StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Parses URL-encoded parameters, e.g. "name=Anna+Jones&amp;limit=10"
+     * @param encoded The parameters, or null
+     * @param params Where to put them
+     */
+    static void parse(String encoded, Map<String, String> params)
+    {
+        if (encoded == null || encoded.isEmpty())
+            return;
+
+        for (String pair : encoded.split("&"))
+        {
+            int equals = pair.indexOf('=');
+            String key = (equals < 0) ? pair : pair.substring(0, equals);
+            String value = (equals < 0) ? "" : pair.substring(equals + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Gets a parameter which must be there
+     * @param params The parameters
+     * @param name The parameter's name
+     * @return Its value
+     * @throws IllegalArgumentException if it is missing
+     */
+    private static String required(Map<String, String> params, String name)
+    {
+        String value = params.get(name);
+        if (value == null || value.isBlank())
+            throw new IllegalArgumentException("Missing parameter '" + name + "'");
+        return value;
+    }
+
+    /**
+     * Gets the limit parameter of a listing
+     * @param params The parameters
+     * @return The limit, DEFAULT_LIMIT if there is none, and never more than MAX_LIMIT
+     * @throws IllegalArgumentException if it is not a positive whole number
+     */
+    static int limit(Map<String, String> params)
+    {
+        String value = params.get("limit");
+        if (value == null)
+            return DEFAULT_LIMIT;
+
+        try
+        {
+            int limit = Integer.parseInt(value.trim());
+            if (limit <= 0)
+                throw new IllegalArgumentException("limit must be positive");
+            return Math.min(limit, MAX_LIMIT);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("limit must be a whole number");
+        }
+    }
+
+    /**
+     * Quotes a String for JSON
+     * @param s The String
+     * @return The String in double quotes, with any special characters escaped
+     */
+    static String quote(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+/**
+ * Reads the input file through a memory-mapped buffer, as a faster replacement for a Scanner over a FileReader.
+ * The header counts and quantities are parsed straight from the bytes, and the only objects created are the names,
+ * Subscribers and Meals themselves. Everything is collected into arrays which are sorted once at the end
+ * (in parallel for large files), or not at all if the file is already in order.
+ * The file is expected to contain the number of subscribers, one "First Surname" line per subscriber, the number of meals,
+ * then the name and quantity of each meal on separate lines. As when the lines were split on spaces, a subscriber's
+ * first two words are their first name and surname, and any spaces around them or words after them are ignored.
+ */
+public class InputFileLoader
+{
+    /**
+     * Arrays at least this long are sorted with Arrays.parallelSort
+     */
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 16;
+    /**
+     * The mapped contents of the file
+     */
+    private final MappedByteBuffer buffer;
+    /**
+     * Scratch space which names are copied into before being decoded, grown if a longer name turns up
+     */
+    private byte[] scratch;
+    /**
+     * The line currently being read, used in error messages
+     */
+    private int lineNumber;
+    /**
+     * Position in the buffer where the current line starts
+     */
+    private int lineStart;
+    /**
+     * Position in the buffer where the current line ends, not including any line terminator
+     */
+    private int lineEnd;
+    /**
+     * The subscribers read from the file, sorted
+     */
+    private Subscriber[] subscribers;
+    /**
+     * The meals read from the file, sorted
+     */
+    private Meal[] meals;
+
+    /**
+     * Private constructor, as loaders are created through load()
+     * @param buffer The mapped file
+     */
+    private InputFileLoader(MappedByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        this.scratch = new byte[64];
+        this.lineNumber = 0;
+        this.lineEnd = -1;
+    }
+
+    /**
+     * Maps and parses an input file.
+     * @param path Path to the input file
+     * @return The loader, holding the sorted subscribers and meals
+     * @throws IOException if the file cannot be read
+     * @throws InputFormatException if a line of the file is malformed
+     */
+    public static InputFileLoader load(Path path) throws IOException, InputFormatException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to map (over 2GB)");
+
+            InputFileLoader loader = new InputFileLoader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            loader.parse();
+            return loader;
+        }
+    }
+
+    /**
+     * Subscribers getter
+     * @return The subscribers in sorted order
+     */
+    public Subscriber[] getSubscribers()
+    {
+        return subscribers;
+    }
+
+    /**
+     * Meals getter
+     * @return The meals in sorted order
+     */
+    public Meal[] getMeals()
+    {
+        return meals;
+    }
+
+    /**
+     * Reads the whole file, then sorts the subscribers and meals
+     * @throws InputFormatException if a line is malformed
+     */
+    private void parse() throws InputFormatException
+    {
+        int noOfSubscribers = readCount("the number of subscribers");
+        subscribers = new Subscriber[noOfSubscribers];
+        for (int i = 0; i < noOfSubscribers; i++) // splits each line into first and last name at the spaces
+        {
+            nextLine("subscriber " + (i + 1) + " of " + noOfSubscribers);
+
+            int first = skipSpaces(lineStart);
+            int firstEnd = indexOf((byte) ' ', first, lineEnd);
+            int surname = (firstEnd == -1) ? lineEnd : skipSpaces(firstEnd);
+            if (surname == lineEnd)
+                throw new InputFormatException(lineNumber, "expected a first name and surname separated by a space but found '"
+                        + decode(lineStart, lineEnd) + "'");
+            int surnameEnd = indexOf((byte) ' ', surname, lineEnd);
+
+            subscribers[i] = new Subscriber(decode(first, firstEnd), decode(surname, surnameEnd == -1 ? lineEnd : surnameEnd));
+        }
+
+        int noOfMealTypes = readCount("the number of meals");
+        meals = new Meal[noOfMealTypes];
+        for (int i = 0; i < noOfMealTypes; i++) // reads each meal name followed by its quantity
+        {
+            nextLine("the name of meal " + (i + 1) + " of " + noOfMealTypes);
+            if (lineStart == lineEnd)
+                throw new InputFormatException(lineNumber, "expected a meal name but found a blank line");
+            String mealName = decode(lineStart, lineEnd);
+
+            meals[i] = new Meal(mealName, readCount("the number of " + mealName + " available"));
+        }
+
+        sort(subscribers);
+        sort(meals);
+    }
+
+    /**
+     * Moves on to the next line of the file, skipping over a "\r\n" or "\n" terminator
+     * @param expected What the line should contain, used in the error message if the file has ended
+     * @throws InputFormatException if there are no more lines
+     */
+    private void nextLine(String expected) throws InputFormatException
+    {
+        int limit = buffer.limit();
+        int start = lineEnd + 1;
+        if (lineEnd >= 0 && lineEnd < limit && buffer.get(lineEnd) == '\r')
+            start++;
+
+        lineNumber++;
+        if (start >= limit)
+            throw new InputFormatException(lineNumber, "the file ended early, expected " + expected);
+
+        int end = indexOf((byte) '\n', start, limit);
+        if (end == -1)
+            end = limit;
+        lineStart = start;
+        lineEnd = (end > start && buffer.get(end - 1) == '\r') ? end - 1 : end;
+    }
+
+    /**
+     * Reads a line containing a single non-negative integer, without creating a String
+     * @param expected What the number represents, used in error messages
+     * @return The number
+     * @throws InputFormatException if the line is not a valid number
+     */
+    private int readCount(String expected) throws InputFormatException
+    {
+        nextLine(expected);
+
+        long value = 0;
+        for (int i = lineStart; i < lineEnd; i++)
+        {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9' || value > Integer.MAX_VALUE)
+                break;
+            value = value * 10 + (b - '0');
+
+            if (i == lineEnd - 1 && value <= Integer.MAX_VALUE)
+                return (int) value;
+        }
+        throw new InputFormatException(lineNumber, "expected " + expected + " but found '" + decode(lineStart, lineEnd) + "'");
+    }
+
+    /**
+     * Finds the first occurrence of a byte between two positions in the buffer
+     * @param b The byte to look for
+     * @param from Start position, inclusive
+     * @param to End position, exclusive
+     * @return The position of the byte, or -1 if not found
+     */
+    private int indexOf(byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (buffer.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips over any spaces in the current line
+     * @param from Position to start from
+     * @return The position of the first byte which is not a space, or the end of the line if there is none
+     */
+    private int skipSpaces(int from)
+    {
+        while (from < lineEnd && buffer.get(from) == ' ')
+            from++;
+        return from;
+    }
+
+    /**
+     * Decodes part of the buffer as a UTF-8 String
+     * @param from Start position, inclusive
+     * @param to End position, exclusive
+     * @return The decoded String
+     */
+    private String decode(int from, int to)
+    {
+        int length = to - from;
+        if (length > scratch.length)
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+
+        buffer.get(from, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sorts an array once, skipping the sort entirely if it is already in order.
+     * This is also used by Snapshot to check the order of what it reads.
+     * @param a The array to sort
+     * @param <E> An object which extends the Comparable interface
+     */
+    static <E extends Comparable<E>> void sort(E[] a)
+    {
+        for (int i = 1; i < a.length; i++)
+        {
+            if (a[i - 1].compareTo(a[i]) > 0) // found an element out of order
+            {
+                if (a.length >= PARALLEL_SORT_THRESHOLD)
+                    Arrays.parallelSort(a);
+                else
+                    Arrays.sort(a);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * A new exception for the case that the input file is not laid out as expected.
+ * The message says which line of the file the problem is on.
+ */
+public class InputFormatException extends Exception
+{
+    /**
+     * Version of the serialized form, as Exceptions are Serializable
+     */
+    private static final long serialVersionUID = 1L;
+
+    public InputFormatException(int lineNumber, String message)
+    {
+        super("Line " + lineNumber + " of the input file: " + message);
+    }
+}
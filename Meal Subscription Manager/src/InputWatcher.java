@@ -0,0 +1,419 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+/**
+ * Watches the input file while the program runs, so subscribers can be added and meals restocked by editing it,
+ * without restarting and losing anything.
+ * A background thread waits on a WatchService for the file to change, then parses it with InputFileLoader, which
+ * takes care of the slow part. The parsed file is handed over to be applied by applyChanges(), which the menu calls
+ * between operations, so the lists are only ever changed on the thread which reads them.
+ * applyChanges() compares the file with what is loaded by walking through both in sorted order, then only inserts or
+ * removes what differs, each in O(log n) time, so nothing is sorted again:
+ * <ul>
+ *     <li>New subscribers and meals are inserted in order.</li>
+ *     <li>Subscribers and meals no longer in the file are removed, unless they still have subscriptions, in which case
+ *     they are kept so that no live subscription is lost.</li>
+ *     <li>If a meal's number in the file has changed since it was last read, the difference is added to or taken from
+ *     its stock, so meals ordered in the meantime are still accounted for. If more is taken away than is left, as
+ *     the rest has already been ordered, the shortfall is reported and taken when the file next changes.</li>
+ * </ul>
+ */
+public class InputWatcher implements Closeable
+{
+    /**
+     * How long to wait after a change for any more changes, so a file saved in several writes is only read once
+     */
+    private static final long SETTLE_MILLIS = 200;
+
+    /**
+     * The input file
+     */
+    private final Path file;
+    /**
+     * Watches the directory holding the input file
+     */
+    private final WatchService watcher;
+    /**
+     * The background thread
+     */
+    private final Thread thread;
+    /**
+     * The latest version of the file which has been parsed but not applied yet
+     */
+    private final AtomicReference<InputFileLoader> pending;
+    /**
+     * Why the latest version of the file could not be parsed, if it couldn't, until it is reported
+     */
+    private final AtomicReference<String> failure;
+    /**
+     * The number of each meal in the file when it was last applied, less any part of a decrease not yet taken from
+     * its stock, by lower case name. Meals kept after leaving the file keep their entry, in case they come back.
+     */
+    private final HashMap<String, Integer> fileStock;
+
+    /**
+     * The changes made by one call to applyChanges()
+     */
+    public static class Changes
+    {
+        /**
+         * Number of subscribers inserted
+         */
+        private int subscribersAdded;
+        /**
+         * Number of subscribers removed
+         */
+        private int subscribersRemoved;
+        /**
+         * Number of subscribers no longer in the file but kept, as they have subscriptions
+         */
+        private int subscribersKept;
+        /**
+         * Number of meals inserted
+         */
+        private int mealsAdded;
+        /**
+         * Number of meals removed
+         */
+        private int mealsRemoved;
+        /**
+         * Number of meals no longer in the file but kept, as they have subscribers
+         */
+        private int mealsKept;
+        /**
+         * Number of meals whose stock was changed
+         */
+        private int mealsRestocked;
+        /**
+         * Each decrease in a meal's stock which could not all be taken, as it had already been ordered, e.g. "3 Curry"
+         */
+        private final ArrayList<String> shortfalls = new ArrayList<>();
+
+        /**
+         * Gets the number of subscribers inserted
+         * @return Number of subscribers
+         */
+        public int getSubscribersAdded()
+        {
+            return subscribersAdded;
+        }
+
+        /**
+         * Gets the number of meals inserted
+         * @return Number of meals
+         */
+        public int getMealsAdded()
+        {
+            return mealsAdded;
+        }
+
+        /**
+         * Whether any subscribers or meals were added or removed, which means anything built from the whole list,
+         * such as a name search, is out of date
+         * @return true if the lists changed
+         */
+        public boolean listsChanged()
+        {
+            return subscribersAdded + subscribersRemoved + mealsAdded + mealsRemoved > 0;
+        }
+
+        /**
+         * Whether anything changed at all
+         * @return true if anything changed
+         */
+        public boolean isEmpty()
+        {
+            return !listsChanged() && mealsRestocked == 0 && shortfalls.isEmpty();
+        }
+
+        /**
+         * toString override
+         * @return A summary of the changes
+         */
+        public String toString()
+        {
+            String summary = subscribersAdded + " subscribers added, " + subscribersRemoved + " removed, "
+                    + mealsAdded + " meals added, " + mealsRemoved + " removed, " + mealsRestocked + " restocked.";
+
+            if (subscribersKept > 0 || mealsKept > 0)
+                summary += " Kept " + subscribersKept + " subscribers and " + mealsKept
+                        + " meals no longer in the file, as they still have subscriptions.";
+            if (!shortfalls.isEmpty())
+                summary += " Could not take away " + String.join(", ", shortfalls)
+                        + " as they have already been ordered. They will be taken when the file next changes.";
+            return summary;
+        }
+    }
+
+    /**
+     * Constructor which reads the file as it is now, to compare later versions with, and starts watching it
+     * @param file The input file
+     * @throws IOException if the file cannot be read or watched
+     * @throws InputFormatException if the file is malformed
+     */
+    public InputWatcher(Path file) throws IOException, InputFormatException
+    {
+        this.file = file.toAbsolutePath();
+        this.pending = new AtomicReference<>();
+        this.failure = new AtomicReference<>();
+        this.fileStock = new HashMap<>();
+        for (Meal m : InputFileLoader.load(file).getMeals())
+            fileStock.put(key(m), m.getNumberAvailable());
+
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "input-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops watching the file
+     * @throws IOException if the WatchService cannot be closed
+     */
+    public void close() throws IOException
+    {
+        watcher.close(); // wakes the background thread, which then stops
+    }
+
+    /**
+     * Takes the reason the latest version of the file could not be read, if there is one
+     * @return The reason, or null if there is nothing to report
+     */
+    public String takeFailure()
+    {
+        return failure.getAndSet(null);
+    }
+
+    /**
+     * Applies the latest version of the file to the subscribers and meals, if it has changed since the last call.
+     * This must be called on the thread which uses the lists.
+     * @param subscribers The subscribers
+     * @param meals The meals
+     * @return The changes made, or null if the file has not changed
+     */
+    public Changes applyChanges(SortedLinkedList<Subscriber> subscribers, SortedLinkedList<Meal> meals)
+    {
+        InputFileLoader loaded = pending.getAndSet(null);
+        if (loaded == null)
+            return null;
+
+        Changes changes = new Changes();
+        applyMeals(loaded.getMeals(), meals, changes);
+        applySubscribers(loaded.getSubscribers(), subscribers, changes);
+        return changes;
+    }
+
+    /**
+     * Merges the meals in the file with the loaded meals
+     * @param fromFile The meals in the file, sorted
+     * @param meals The loaded meals
+     * @param changes Where to count the changes
+     */
+    private void applyMeals(Meal[] fromFile, SortedLinkedList<Meal> meals, Changes changes)
+    {
+        ArrayList<Meal> added = new ArrayList<>();
+        ArrayList<Meal> gone = new ArrayList<>();
+        HashMap<String, Integer> newStock = new HashMap<>();
+
+        Iterator<Meal> it = meals.iterator();
+        Meal current = it.hasNext() ? it.next() : null;
+        for (Meal m : fromFile) // walks through both lists in order, like a merge
+        {
+            while (current != null && current.compareTo(m) < 0)
+            {
+                gone.add(current);
+                current = it.hasNext() ? it.next() : null;
+            }
+            newStock.put(key(m), m.getNumberAvailable());
+
+            if (current != null && current.compareTo(m) == 0)
+            {
+                int change = m.getNumberAvailable() - fileStock.getOrDefault(key(m), m.getNumberAvailable());
+                if (change > 0)
+                    current.release(change);
+                else if (change < 0)
+                {
+                    int taken = take(current, -change);
+                    if (taken < -change) // the rest is still to be taken next time
+                    {
+                        changes.shortfalls.add((-change - taken) + " " + current.getName());
+                        newStock.put(key(m), m.getNumberAvailable() - change - taken);
+                    }
+                    change = -taken;
+                }
+                if (change != 0)
+                    changes.mealsRestocked++;
+                current = it.hasNext() ? it.next() : null;
+            }
+            else
+                added.add(m);
+        }
+        while (current != null)
+        {
+            gone.add(current);
+            current = it.hasNext() ? it.next() : null;
+        }
+
+        for (Meal m : gone)
+        {
+            if (m.getSubscriberCount() > 0)
+            {
+                Integer stock = fileStock.get(key(m));
+                if (stock != null) // so its stock is still changed by the difference if it comes back
+                    newStock.put(key(m), stock);
+                changes.mealsKept++;
+            }
+            else
+            {
+                meals.remove(m);
+                changes.mealsRemoved++;
+            }
+        }
+        for (Meal m : added)
+        {
+            meals.addAndSort(m);
+            changes.mealsAdded++;
+        }
+
+        fileStock.clear();
+        fileStock.putAll(newStock);
+    }
+
+    /**
+     * Takes as much of a number of meals out of stock as there is
+     * @param m The meal
+     * @param number The number to take
+     * @return The number taken, which is less than number if there were not enough
+     */
+    private static int take(Meal m, int number)
+    {
+        while (true)
+        {
+            int taken = Math.min(number, m.getNumberAvailable());
+            try
+            {
+                m.reserve(taken);
+                return taken;
+            }
+            catch (NotEnoughMealsException e) // ordered in the meantime, so tries again with what is left
+            {
+            }
+        }
+    }
+
+    /**
+     * Merges the subscribers in the file with the loaded subscribers
+     * @param fromFile The subscribers in the file, sorted
+     * @param subscribers The loaded subscribers
+     * @param changes Where to count the changes
+     */
+    private static void applySubscribers(Subscriber[] fromFile, SortedLinkedList<Subscriber> subscribers, Changes changes)
+    {
+        ArrayList<Subscriber> added = new ArrayList<>();
+        ArrayList<Subscriber> gone = new ArrayList<>();
+
+        Iterator<Subscriber> it = subscribers.iterator();
+        Subscriber current = it.hasNext() ? it.next() : null;
+        for (Subscriber s : fromFile) // walks through both lists in order, like a merge
+        {
+            while (current != null && current.compareTo(s) < 0)
+            {
+                gone.add(current);
+                current = it.hasNext() ? it.next() : null;
+            }
+
+            if (current != null && current.compareTo(s) == 0)
+                current = it.hasNext() ? it.next() : null;
+            else
+                added.add(s);
+        }
+        while (current != null)
+        {
+            gone.add(current);
+            current = it.hasNext() ? it.next() : null;
+        }
+
+        for (Subscriber s : gone)
+        {
+            if (s.getSubscriptionCount() > 0)
+                changes.subscribersKept++;
+            else
+            {
+                subscribers.remove(s);
+                changes.subscribersRemoved++;
+            }
+        }
+        for (Subscriber s : added)
+        {
+            subscribers.addAndSort(s);
+            changes.subscribersAdded++;
+        }
+    }
+
+    /**
+     * The loop run by the background thread, which parses the file each time it changes until the WatchService is
+     * closed
+     */
+    private void run()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                do
+                {
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || file.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS); // waits for the file to settle
+                }
+                while (key != null);
+
+                if (changed)
+                    parse();
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // close() was called
+        }
+    }
+
+    /**
+     * Parses the file and hands it over to be applied, replacing any earlier version not applied yet
+     */
+    private void parse()
+    {
+        try
+        {
+            pending.set(InputFileLoader.load(file));
+            failure.set(null);
+        }
+        catch (IOException e)
+        {
+            failure.set(e.toString());
+        }
+        catch (InputFormatException e) // says which line of the file is malformed
+        {
+            failure.set(e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the key a meal's number in the file is kept under
+     * @param m The meal
+     * @return Its name in lower case
+     */
+    private static String key(Meal m)
+    {
+        return m.getName().toLowerCase();
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+/**
+ * Owns the stock of every meal when subscribers are split across shard processes, so that however many shards take
+ * orders for a meal at once it is never oversold. Shards reach it over a local socket through Client, which RemoteMeal
+ * uses in place of a local stock level.
+ * The protocol is one line of text per request and one per reply, so it can be tried out with a tool like netcat:
+ * <ul>
+ *     <li>"GET Meal Name" replies "OK available"</li>
+ *     <li>"RESERVE quantity Meal Name" replies "OK available" if the meals were taken, or "SHORT available" if there
+ *     were not enough, in which case nothing is taken</li>
+ *     <li>"RELEASE quantity Meal Name" replies "OK available"</li>
+ * </ul>
+ * Anything else, or a meal which doesn't exist, replies "ERROR" and a message. Each request is applied to the meal
+ * with its usual reserve() and release(), so requests from every connection can run at once.
+ */
+public class Inventory implements Closeable
+{
+    /**
+     * The meals, which must have a name index and are only read while the inventory is running
+     */
+    private final SortedLinkedList<Meal> meals;
+    /**
+     * Accepts connections from shards
+     */
+    private final ServerSocket server;
+    /**
+     * Runs each connection
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructor which starts accepting connections on any free local port
+     * @param meals The meals, which must have a name index
+     * @throws IOException if no port can be bound
+     */
+    public Inventory(SortedLinkedList<Meal> meals) throws IOException
+    {
+        this.meals = meals;
+        this.server = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+        this.executor = HttpService.newExecutor();
+
+        Thread acceptor = new Thread(this::accept, "inventory-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Gets the port shards should connect to
+     * @return The port
+     */
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes those still open
+     * @throws IOException if the server socket cannot be closed
+     */
+    public void close() throws IOException
+    {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Accepts connections until the inventory is closed, running each on its own thread
+     */
+    private void accept()
+    {
+        try
+        {
+            while (true)
+            {
+                Socket socket = server.accept();
+                executor.execute(() -> serve(socket));
+            }
+        }
+        catch (IOException | RejectedExecutionException e)
+        {
+            // close() was called
+        }
+    }
+
+    /**
+     * Answers requests on one connection until the shard closes it
+     * @param socket The connection
+     */
+    private void serve(Socket socket)
+    {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))
+        {
+            socket.setTcpNoDelay(true);
+            String request;
+            while ((request = in.readLine()) != null)
+            {
+                out.write(answer(request));
+                out.write('\n');
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            // the shard has gone, so there is no one to tell
+        }
+    }
+
+    /**
+     * Works out the reply to one request
+     * @param request The request, e.g. "RESERVE 2 Curry"
+     * @return The reply, e.g. "OK 5"
+     */
+    private String answer(String request)
+    {
+        String[] words = request.split(" ", 3);
+        try
+        {
+            if (words[0].equals("GET") && words.length >= 2)
+                return "OK " + meal(request.substring(4)).getNumberAvailable();
+
+            if (words.length < 3 || !(words[0].equals("RESERVE") || words[0].equals("RELEASE")))
+                return "ERROR Unknown request";
+
+            Meal m = meal(words[2]);
+            int quantity = Integer.parseInt(words[1]);
+            if (words[0].equals("RELEASE"))
+            {
+                m.release(quantity);
+                return "OK " + m.getNumberAvailable();
+            }
+
+            try
+            {
+                m.reserve(quantity);
+                return "OK " + m.getNumberAvailable();
+            }
+            catch (NotEnoughMealsException e)
+            {
+                return "SHORT " + m.getNumberAvailable();
+            }
+        }
+        catch (IllegalArgumentException e) // includes NumberFormatException
+        {
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    /**
+     * Looks up a meal by name
+     * @param name The name
+     * @return The meal
+     * @throws IllegalArgumentException if there is no such meal
+     */
+    private Meal meal(String name)
+    {
+        Meal m = meals.lookup(name);
+        if (m == null)
+            throw new IllegalArgumentException("No meal called " + name);
+        return m;
+    }
+
+    /**
+     * The shard's side of the connection to the inventory. Connections are kept open and reused, and a new one is only
+     * opened when every open one is in use, so each thread taking orders at once has its own.
+     */
+    public static class Client implements Closeable
+    {
+        /**
+         * The inventory's port on this machine
+         */
+        private final int port;
+        /**
+         * Connections not in use at the moment
+         */
+        private final ConcurrentLinkedQueue<Connection> idle;
+
+        /**
+         * One open connection to the inventory
+         */
+        private static class Connection
+        {
+            /**
+             * The socket
+             */
+            private final Socket socket;
+            /**
+             * Reads replies
+             */
+            private final BufferedReader in;
+            /**
+             * Writes requests
+             */
+            private final Writer out;
+
+            /**
+             * Constructor which connects to the inventory
+             * @param port The inventory's port on this machine
+             * @throws IOException if it cannot connect
+             */
+            private Connection(int port) throws IOException
+            {
+                this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                socket.setTcpNoDelay(true);
+                this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Constructor for a client which connects when it is first used
+         * @param port The inventory's port on this machine
+         */
+        public Client(int port)
+        {
+            this.port = port;
+            this.idle = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * Sends a request and waits for the reply
+         * @param request The request, e.g. "RESERVE 2 Curry"
+         * @return The reply, e.g. "OK 5"
+         * @throws IOException if the inventory cannot be reached or gives an error
+         */
+        public String send(String request) throws IOException
+        {
+            Connection c = idle.poll();
+            if (c == null)
+                c = new Connection(port);
+
+            String reply;
+            try
+            {
+                c.out.write(request);
+                c.out.write('\n');
+                c.out.flush();
+                reply = c.in.readLine();
+            }
+            catch (IOException e)
+            {
+                c.socket.close(); // not reused, as a reply may still be on its way
+                throw e;
+            }
+
+            if (reply == null)
+            {
+                c.socket.close();
+                throw new EOFException("The inventory closed the connection");
+            }
+            idle.add(c);
+
+            if (reply.startsWith("ERROR "))
+                throw new IOException("The inventory replied: " + reply.substring(6));
+            return reply;
+        }
+
+        /**
+         * Closes every connection not in use
+         * @throws IOException if a connection cannot be closed
+         */
+        public void close() throws IOException
+        {
+            Connection c;
+            while ((c = idle.poll()) != null)
+                c.socket.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+/**
+ * A histogram of latencies in nanoseconds, in the style of HdrHistogram: values are counted in buckets which double
+ * in width with every power of 2, and each power of 2 is split into 16 equal sub-buckets, so any value is reported to
+ * within about 6% whether it is 50 nanoseconds or 50 seconds, using a fixed array of under a thousand counters.
+ * Recording a value just increments one counter, so many threads can record at once without locking or allocating.
+ */
+public class LatencyHistogram
+{
+    /**
+     * Values below this are counted exactly, one bucket each. Above it, each power of 2 has SUB_BUCKETS / 2 buckets.
+     */
+    private static final int SUB_BUCKETS = 32;
+    /**
+     * Number of bits needed for SUB_BUCKETS
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * Number of buckets needed to cover every positive long
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * (SUB_BUCKETS / 2);
+
+    /**
+     * The count in each bucket
+     */
+    private final AtomicLongArray counts;
+    /**
+     * The largest value recorded
+     */
+    private final LongAccumulator max;
+
+    /**
+     * Constructor for an empty histogram
+     */
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.max = new LongAccumulator(Long::max, 0);
+    }
+
+    /**
+     * Records a latency. Negative values, e.g. from a clock adjustment, are counted as 0.
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time since an earlier reading of System.nanoTime()
+     * @param startNanos The earlier reading
+     */
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Takes a copy of the counts and summarises it. Values recorded while the copy is taken may or may not be included.
+     * @return Number of values, the 50th, 90th, 99th and 99.9th percentiles and the maximum, in microseconds
+     */
+    public Map<String, Long> summaryMicros()
+    {
+        return summary(1000);
+    }
+
+    /**
+     * Takes a copy of the counts and summarises it in nanoseconds, for operations too quick to measure in microseconds
+     * @return Number of values, the 50th, 90th, 99th and 99.9th percentiles and the maximum, in nanoseconds
+     */
+    public Map<String, Long> summaryNanos()
+    {
+        return summary(1);
+    }
+
+    /**
+     * Takes a copy of the counts and summarises it. Values recorded while the copy is taken may or may not be included.
+     * @param unit Nanoseconds per unit reported, e.g. 1000 for microseconds
+     * @return Number of values, the 50th, 90th, 99th and 99.9th percentiles and the maximum
+     */
+    private Map<String, Long> summary(long unit)
+    {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+
+        LinkedHashMap<String, Long> summary = new LinkedHashMap<>();
+        summary.put("count", total);
+        summary.put("p50", percentile(copy, total, 0.50) / unit);
+        summary.put("p90", percentile(copy, total, 0.90) / unit);
+        summary.put("p99", percentile(copy, total, 0.99) / unit);
+        summary.put("p999", percentile(copy, total, 0.999) / unit);
+        summary.put("max", max.get() / unit);
+        return summary;
+    }
+
+    /**
+     * Gets the number of values recorded
+     * @return The count
+     */
+    public long count()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    /**
+     * Finds the value below which a given fraction of the values fall
+     * @param copy The counts in each bucket
+     * @param total The sum of the counts
+     * @param fraction The fraction, e.g. 0.99 for the 99th percentile
+     * @return The highest value in the bucket holding that percentile, or 0 if nothing has been recorded
+     */
+    private long percentile(long[] copy, long total, double fraction)
+    {
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += copy[i];
+            if (seen >= target)
+                return Math.min(highestIn(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Works out which bucket a value is counted in
+     * @param value The value, which is not negative
+     * @return The bucket
+     */
+    private static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        // shifts the value down so that it keeps SUB_BUCKET_BITS bits, the top one of which is always set
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int sub = (int) (value >>> shift) - SUB_BUCKETS / 2;
+        return SUB_BUCKETS + (shift - 1) * (SUB_BUCKETS / 2) + sub;
+    }
+
+    /**
+     * Works out the highest value counted in a bucket
+     * @param bucket The bucket
+     * @return The highest value
+     */
+    private static long highestIn(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = (bucket - SUB_BUCKETS) / (SUB_BUCKETS / 2) + 1;
+        long sub = (bucket - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.*;
+/**
+ * The text of a letter, with placeholders for the details of each subscriber. The template is compiled once into the
+ * pieces of fixed text and the placeholders between them, so rendering a letter only appends each piece in turn,
+ * rather than searching the text for placeholders every time.
+ * <ul>
+ *     <li>{name} is the subscriber's full name</li>
+ *     <li>{first} is their first name</li>
+ *     <li>{meals} is the meals they could not have, e.g. "Curry, Fish and Steak"</li>
+ * </ul>
+ * Line breaks in the template are rendered as the system's line separator.
+ */
+public class LetterTemplate
+{
+    /**
+     * The letter written when there is not enough of a meal left
+     */
+    public static final String DEFAULT = "Dear {name},\n"
+            + "\n"
+            + "We regret to inform you that there was not enough {meals} left to fulfil your culinary cravings.\n"
+            + "Please accept our sincerest apologies at this most troubling of times.\n"
+            + "\n"
+            + "Yours gastronomically,\n"
+            + "Fred's Frozen Food Factory\n"
+            + "\n";
+
+    /**
+     * Placeholder for the subscriber's full name
+     */
+    private static final byte NAME = 0;
+    /**
+     * Placeholder for the subscriber's first name
+     */
+    private static final byte FIRST = 1;
+    /**
+     * Placeholder for the meals
+     */
+    private static final byte MEALS = 2;
+
+    /**
+     * The fixed text before each placeholder, and after the last one
+     */
+    private final String[] text;
+    /**
+     * Which placeholder comes after each piece of text
+     */
+    private final byte[] placeholders;
+
+    /**
+     * Constructor which compiles a template
+     * @param template The template, e.g. "Dear {name}, ..."
+     * @throws IllegalArgumentException if it has an unknown or unfinished placeholder
+     */
+    public LetterTemplate(String template)
+    {
+        String n = System.lineSeparator();
+        ArrayList<String> pieces = new ArrayList<>();
+        ByteArrayBuilder fields = new ByteArrayBuilder();
+
+        int from = 0;
+        int open;
+        while ((open = template.indexOf('{', from)) >= 0)
+        {
+            int close = template.indexOf('}', open);
+            if (close < 0)
+                throw new IllegalArgumentException("Unfinished placeholder in the letter template: "
+                        + template.substring(open));
+
+            pieces.add(template.substring(from, open).replace("\n", n));
+            fields.add(placeholder(template.substring(open + 1, close)));
+            from = close + 1;
+        }
+        pieces.add(template.substring(from).replace("\n", n));
+
+        this.text = pieces.toArray(new String[0]);
+        this.placeholders = fields.toArray();
+    }
+
+    /**
+     * Renders a letter to a subscriber
+     * @param out Where to render the letter
+     * @param name The subscriber's full name
+     * @param first Their first name
+     * @param meals The meals they could not have, at least one
+     */
+    public void render(StringBuilder out, String name, String first, List<String> meals)
+    {
+        for (int i = 0; i < placeholders.length; i++)
+        {
+            out.append(text[i]);
+            switch (placeholders[i])
+            {
+                case NAME: out.append(name);
+                break;
+                case FIRST: out.append(first);
+                break;
+                default: joinMeals(out, meals);
+            }
+        }
+        out.append(text[placeholders.length]);
+    }
+
+    /**
+     * Appends a list of meals as English, e.g. "Curry", "Curry and Fish" or "Curry, Fish and Steak"
+     * @param out Where to append them
+     * @param meals The meals
+     */
+    private static void joinMeals(StringBuilder out, List<String> meals)
+    {
+        for (int i = 0; i < meals.size(); i++)
+        {
+            if (i > 0)
+                out.append(i == meals.size() - 1 ? " and " : ", ");
+            out.append(meals.get(i));
+        }
+    }
+
+    /**
+     * Works out which placeholder a name refers to
+     * @param name The name between the braces
+     * @return The placeholder
+     * @throws IllegalArgumentException if there is no such placeholder
+     */
+    private static byte placeholder(String name)
+    {
+        switch (name)
+        {
+            case "name": return NAME;
+            case "first": return FIRST;
+            case "meals": return MEALS;
+            default: throw new IllegalArgumentException("Unknown placeholder in the letter template: {" + name + "}");
+        }
+    }
+
+    /**
+     * A growable array of bytes, as there is no list of primitive bytes
+     */
+    private static class ByteArrayBuilder
+    {
+        /**
+         * The bytes, with spare room at the end
+         */
+        private byte[] bytes = new byte[8];
+        /**
+         * Number of bytes added
+         */
+        private int size;
+
+        /**
+         * Adds a byte
+         * @param b The byte
+         */
+        private void add(byte b)
+        {
+            if (size == bytes.length)
+                bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = b;
+        }
+
+        /**
+         * Copies the bytes added into an array of exactly the right size
+         * @return The bytes
+         */
+        private byte[] toArray()
+        {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
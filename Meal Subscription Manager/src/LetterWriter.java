@@ -0,0 +1,455 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+/**
+ * Writes letters to subscribers who could not have a meal on a background thread, so that whoever is taking an order
+ * doesn't have to wait for the file. write() puts each shortfall on a bounded queue, waiting for space if it is full,
+ * and the background thread takes them off in batches. Rather than a letter for every failed attempt, it only notes
+ * down which meals each subscriber could not have, so trying the same meal again doesn't add anything.
+ * checkpoint() goes on the same queue, behind every shortfall written before it, and the background thread then writes
+ * one letter per subscriber listing all of their meals, sorted by subscriber, in a single sequential pass through the
+ * file. A meal is only ever put in one letter to a subscriber during a run, so a later checkpoint only writes to
+ * subscribers with meals they haven't already been written to about.
+ * Letters are rendered from a LetterTemplate, compiled once when the writer is opened, into a reusable buffer which is
+ * written through a FileChannel whenever enough text has built up or enough time has passed.
+ * close() writes a final checkpoint, forces the file to disk and reports any error writing it.
+ */
+public class LetterWriter implements Closeable
+{
+    /**
+     * How many shortfalls can be waiting to be noted down before write() has to wait
+     */
+    private static final int QUEUE_CAPACITY = 4096;
+    /**
+     * The most requests taken off the queue at once
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * Rendered text is written to the file once it reaches this many characters
+     */
+    private static final int FLUSH_CHARS = 64 * 1024;
+    /**
+     * Rendered text is written to the file at least this often, in milliseconds
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+    /**
+     * The template used by the static render()
+     */
+    private static final LetterTemplate DEFAULT_TEMPLATE = new LetterTemplate(LetterTemplate.DEFAULT);
+
+    /**
+     * The meals one subscriber could not have
+     */
+    private static class Shortfall
+    {
+        /**
+         * The subscriber, kept for sorting and for their name
+         */
+        private final Subscriber subscriber;
+        /**
+         * Meals not yet written to them about, in alphabetical order
+         */
+        private final TreeSet<String> pending;
+        /**
+         * Meals already written to them about during this run, compared the same way as pending
+         */
+        private final TreeSet<String> written;
+
+        private Shortfall(Subscriber subscriber)
+        {
+            this.subscriber = subscriber;
+            this.pending = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            this.written = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        }
+    }
+
+    /**
+     * A shortfall to note down, or a checkpoint to write, waiting on the queue
+     */
+    private static class Request
+    {
+        /**
+         * The subscriber who could not have a meal, or null for a checkpoint
+         */
+        private final Subscriber subscriber;
+        /**
+         * Name of the meal they could not have
+         */
+        private final String meal;
+        /**
+         * For a checkpoint, completed with the number of letters written, otherwise null
+         */
+        private final CompletableFuture<Integer> checkpoint;
+
+        private Request(Subscriber subscriber, String meal, CompletableFuture<Integer> checkpoint)
+        {
+            this.subscriber = subscriber;
+            this.meal = meal;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Marker put on the queue to tell the background thread to stop
+     */
+    private static final Request END = new Request(null, null, null);
+
+    /**
+     * Shortfalls and checkpoints waiting for the background thread
+     */
+    private final BlockingQueue<Request> queue;
+    /**
+     * Shortfalls by subscriber name, only used by the background thread
+     */
+    private final HashMap<String, Shortfall> shortfalls;
+    /**
+     * The file being written to
+     */
+    private final FileChannel channel;
+    /**
+     * The background thread
+     */
+    private final Thread thread;
+    /**
+     * The compiled letter
+     */
+    private final LetterTemplate template;
+    /**
+     * Reusable buffer which letters are rendered into
+     */
+    private final StringBuilder text;
+    /**
+     * Encodes rendered text into bytes
+     */
+    private final CharsetEncoder encoder;
+    /**
+     * Reusable buffer which rendered text is encoded into, grown if needed
+     */
+    private ByteBuffer bytes;
+    /**
+     * When rendered text was last written to the file, from System.nanoTime()
+     */
+    private long lastFlush;
+    /**
+     * Any error the background thread ran into writing the file, after which nothing more is written
+     */
+    private volatile IOException failure;
+    /**
+     * Whether close() has been called
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructor which opens the file, replacing anything already in it, uses the default letter and starts the
+     * background thread
+     * @param path The file to write letters to
+     * @throws IOException if the file cannot be opened
+     */
+    public LetterWriter(Path path) throws IOException
+    {
+        this(path, new LetterTemplate(LetterTemplate.DEFAULT));
+    }
+
+    /**
+     * Constructor which opens the file, replacing anything already in it, and starts the background thread
+     * @param path The file to write letters to
+     * @param template The compiled letter
+     * @throws IOException if the file cannot be opened
+     */
+    public LetterWriter(Path path, LetterTemplate template) throws IOException
+    {
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.shortfalls = new HashMap<>();
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.template = template;
+        this.text = new StringBuilder(FLUSH_CHARS * 2);
+        this.encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(FLUSH_CHARS * 2);
+        this.lastFlush = System.nanoTime();
+        this.thread = new Thread(this::run, "letter-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a note that a subscriber could not have a meal, so that it goes in their letter at the next checkpoint.
+     * Nothing is added if they are already going to be, or have already been, written to about it.
+     * If the queue is full, this waits until the background thread has caught up.
+     * @param s Subscriber
+     * @param m The meal they tried to add
+     * @throws IllegalStateException if the LetterWriter has been closed
+     */
+    public void write(Subscriber s, Meal m)
+    {
+        if (closed)
+            throw new IllegalStateException("The letter writer has been closed");
+
+        put(new Request(s, m.getName(), null));
+    }
+
+    /**
+     * Renders a letter about one meal into a StringBuilder, using the default letter
+     * @param out Where to render the letter
+     * @param name The subscriber's full name
+     * @param meal Name of the meal they could not have
+     */
+    public static void render(StringBuilder out, String name, String meal)
+    {
+        DEFAULT_TEMPLATE.render(out, name, name.substring(0, Math.max(name.indexOf(' '), 0)), List.of(meal));
+    }
+
+    /**
+     * Writes one letter to each subscriber with meals they haven't been written to about yet, in subscriber order,
+     * including every shortfall written before this was called. It returns once the letters are rendered, and the last
+     * of them reach the file within FLUSH_INTERVAL_MILLIS; close() forces them to disk.
+     * @return The number of letters written
+     * @throws IOException if letters could not be written to the file, this time or earlier
+     * @throws IllegalStateException if the LetterWriter has been closed
+     */
+    public int checkpoint() throws IOException
+    {
+        if (closed)
+            throw new IllegalStateException("The letter writer has been closed");
+
+        CompletableFuture<Integer> done = new CompletableFuture<>();
+        put(new Request(null, null, done));
+
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return done.get();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException e)
+                {
+                    if (e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    throw (RuntimeException) e.getCause();
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a final checkpoint, waits for the background thread to write everything, forces the file to disk and
+     * closes it
+     * @throws IOException if any letters could not be written
+     */
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        put(new Request(null, null, new CompletableFuture<>()));
+        put(END);
+
+        boolean interrupted = false;
+        while (thread.isAlive())
+        {
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        try
+        {
+            if (failure == null)
+                channel.force(true);
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Puts a request on the queue, waiting for space even if interrupted
+     * @param request The request
+     */
+    private void put(Request request)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                queue.put(request);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * The loop run by the background thread, which takes requests off the queue in batches until it is told to stop,
+     * and writes out rendered text once it has waited long enough
+     */
+    private void run()
+    {
+        ArrayList<Request> batch = new ArrayList<>(BATCH_SIZE);
+
+        while (true)
+        {
+            try
+            {
+                Request first = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null)
+                {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // only close() can stop the thread, so carry on
+            }
+
+            for (Request request : batch)
+            {
+                if (request == END)
+                {
+                    flush();
+                    return;
+                }
+
+                if (request.checkpoint == null)
+                    note(request.subscriber, request.meal);
+                else
+                {
+                    try
+                    {
+                        int written = writeLetters();
+                        if (failure == null)
+                            request.checkpoint.complete(written);
+                        else
+                            request.checkpoint.completeExceptionally(failure);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        request.checkpoint.completeExceptionally(e);
+                    }
+                }
+            }
+            batch.clear();
+
+            long sinceFlush = System.nanoTime() - lastFlush;
+            if (text.length() > 0 && sinceFlush >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS))
+                flush();
+        }
+    }
+
+    /**
+     * Notes down that a subscriber could not have a meal, unless they are already going to be, or have already been,
+     * written to about it
+     * @param s Subscriber
+     * @param meal Name of the meal they tried to add
+     */
+    private void note(Subscriber s, String meal)
+    {
+        Shortfall shortfall = shortfalls.computeIfAbsent(s.getName(), name -> new Shortfall(s));
+        if (!shortfall.written.contains(meal))
+            shortfall.pending.add(meal);
+    }
+
+    /**
+     * Renders one letter to each subscriber with meals they haven't been written to about yet, in subscriber order,
+     * writing the text to the file whenever enough has built up
+     * @return The number of letters rendered
+     */
+    private int writeLetters()
+    {
+        ArrayList<Shortfall> due = new ArrayList<>();
+        for (Shortfall shortfall : shortfalls.values())
+        {
+            if (!shortfall.pending.isEmpty())
+                due.add(shortfall);
+        }
+        due.sort((a, b) -> a.subscriber.compareTo(b.subscriber));
+
+        ArrayList<String> meals = new ArrayList<>();
+        for (Shortfall shortfall : due)
+        {
+            meals.clear();
+            meals.addAll(shortfall.pending);
+            shortfall.written.addAll(shortfall.pending);
+            shortfall.pending.clear();
+
+            Subscriber s = shortfall.subscriber;
+            template.render(text, s.getName(), s.getFirstName(), meals);
+            if (text.length() >= FLUSH_CHARS)
+                flush();
+        }
+        return due.size();
+    }
+
+    /**
+     * Encodes the rendered text and writes it to the file, then empties the text buffer ready for reuse.
+     * If writing fails, the error is kept for checkpoint() and close() to throw, and nothing more is written.
+     */
+    private void flush()
+    {
+        lastFlush = System.nanoTime();
+        if (text.length() == 0 || failure != null)
+        {
+            text.setLength(0);
+            return;
+        }
+
+        int needed = (int) (text.length() * encoder.maxBytesPerChar());
+        if (needed > bytes.capacity())
+            bytes = ByteBuffer.allocate(needed);
+
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text), bytes, true);
+        encoder.flush(bytes);
+        bytes.flip();
+
+        try
+        {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.util.*;
+/**
+ * Writes listings of meals and subscribers to any Writer, such as the console or a file, laid out the same way as
+ * the m and s menu options always have: names padded to a fixed-width column, followed by a number.
+ * Rows are rendered straight into the Writer rather than built up as Strings first. Names are written as they are,
+ * padding is written from a constant array of spaces and numbers are converted into a reusable array of digits,
+ * so nothing is allocated per row. Wrapping a BufferedWriter means a long listing is written in large blocks rather
+ * than a line at a time, and it can be streamed from any position in a SortedLinkedList using its iterator.
+ */
+public class ListingWriter implements Flushable
+{
+    /**
+     * Width of the name column. Longer names are followed by a single space instead.
+     */
+    public static final int NAME_WIDTH = 20;
+    /**
+     * Spaces used for padding
+     */
+    private static final char[] SPACES = "                    ".toCharArray();
+    /**
+     * Line separator, looked up once
+     */
+    private static final String NEW_LINE = System.lineSeparator();
+
+    /**
+     * Writes one row of a listing
+     * @param <E> The type of object in each row
+     */
+    public interface Row<E>
+    {
+        /**
+         * Writes an object as a row of the listing
+         * @param out The listing
+         * @param e The object
+         * @throws IOException if the row cannot be written
+         */
+        void write(ListingWriter out, E e) throws IOException;
+    }
+
+    /**
+     * Where the listing is written
+     */
+    private final Writer out;
+    /**
+     * Reusable array numbers are converted into
+     */
+    private final char[] digits;
+
+    /**
+     * Constructor for a listing written to a Writer, which should be buffered
+     * @param out Where to write the listing
+     */
+    public ListingWriter(Writer out)
+    {
+        this.out = out;
+        this.digits = new char[11];
+    }
+
+    /**
+     * Creates a listing written to the console through a large buffer. Closing its Writer would close System.out,
+     * so it should only be flushed.
+     * @return The listing
+     */
+    public static ListingWriter toConsole()
+    {
+        return new ListingWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+    }
+
+    /**
+     * Writes a meal and its number available on one line
+     * @param m The meal
+     * @throws IOException if the row cannot be written
+     */
+    public void writeMeal(Meal m) throws IOException
+    {
+        column(m.getName());
+        number(m.getNumberAvailable());
+        out.write(NEW_LINE);
+    }
+
+    /**
+     * Writes a subscriber's name, then each of their subscriptions on its own line, then a blank line
+     * @param s The subscriber
+     * @throws IOException if the rows cannot be written
+     */
+    public void writeSubscriber(Subscriber s) throws IOException
+    {
+        synchronized (s.getLock()) // stops the subscriptions changing while they are written
+        {
+            out.write(s.getFirstName());
+            out.write(' ');
+            out.write(s.getSurname());
+            out.write(':');
+            out.write(NEW_LINE);
+
+            List<Subscription> subscriptions = s.getSubscriptions();
+            if (subscriptions.isEmpty())
+            {
+                out.write("No meals!");
+                out.write(NEW_LINE);
+            }
+            for (int i = 0; i < subscriptions.size(); i++)
+            {
+                Subscription sub = subscriptions.get(i);
+                column(sub.getMeal().getName());
+                number(sub.getQuantity());
+                out.write(NEW_LINE);
+            }
+            out.write(NEW_LINE);
+        }
+    }
+
+    /**
+     * Writes rows from an iterator until it runs out or enough have been written
+     * @param rows The objects to write, e.g. from SortedLinkedList.iterator(from)
+     * @param max The most rows to write
+     * @param row How to write each object, e.g. ListingWriter::writeMeal
+     * @param <E> The type of object in each row
+     * @return The number of rows written
+     * @throws IOException if the rows cannot be written
+     */
+    public <E> int writeRows(Iterator<E> rows, int max, Row<E> row) throws IOException
+    {
+        int written = 0;
+        while (written < max && rows.hasNext())
+        {
+            row.write(this, rows.next());
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Writes out anything still buffered
+     * @throws IOException if it cannot be written
+     */
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    /**
+     * Appends a name padded to the width of the name column to a StringBuilder, for code printing single lines
+     * in the same layout as a listing
+     * @param sb The StringBuilder
+     * @param name The name
+     * @return The StringBuilder
+     */
+    public static StringBuilder column(StringBuilder sb, String name)
+    {
+        sb.append(name);
+        int padding = Math.max(1, NAME_WIDTH - name.length());
+        return sb.append(SPACES, 0, padding);
+    }
+
+    /**
+     * Writes a name padded to the width of the name column
+     * @param name The name
+     * @throws IOException if it cannot be written
+     */
+    private void column(String name) throws IOException
+    {
+        out.write(name);
+        out.write(SPACES, 0, Math.max(1, NAME_WIDTH - name.length()));
+    }
+
+    /**
+     * Writes a number without creating a String for it
+     * @param n The number
+     * @throws IOException if it cannot be written
+     */
+    private void number(int n) throws IOException
+    {
+        if (n == Integer.MIN_VALUE) // can't be negated
+        {
+            out.write(Integer.toString(n));
+            return;
+        }
+
+        int start = digits.length;
+        int value = Math.abs(n);
+        do
+        {
+            digits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        while (value > 0);
+
+        if (n < 0)
+            digits[--start] = '-';
+        out.write(digits, start, digits.length - start);
+    }
+}
@@ -0,0 +1,768 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * Puts the subscription model under synthetic load, to see how changes to the code hold up under something like
+ * production traffic. It has three commands:
+ * <ul>
+ *     <li>"generate" writes an input file with any number of subscribers and meals, whose stock follows a Zipf
+ *     distribution, so a few meals are far more popular than the rest</li>
+ *     <li>"run" loads an input file and has a number of simulated customers add and remove meals at once, choosing
+ *     meals with the same skew, then reports throughput, latency percentiles, the stock-out rate and any broken
+ *     invariants, e.g. a meal sold more times than it was stocked</li>
+ *     <li>"replay" applies a session recorded by "run" with --record, so performance can be compared like-for-like</li>
+ * </ul>
+ * Each subscriber belongs to one customer, picked from the hash of their name, so everything that happens to a
+ * subscriber happens on one thread in a fixed order, and customers only compete with each other for stock.
+ * A replay gives each customer the same subscribers, and so the same operations in the same order. With one customer,
+ * a replay always ends in exactly the same state, which is summed up by the fingerprint printed at the end.
+ * Recordings are in the same format as a batch file, so they can also be applied with MainProgram --batch.
+ */
+public class LoadGenerator
+{
+    /**
+     * First names to choose from
+     */
+    private static final String[] FIRST_NAMES = {"Anna", "Carl", "Ted", "Maria", "James", "Olivia", "Noah", "Amelia",
+            "Oliver", "Isla", "George", "Ava", "Harry", "Mia", "Jack", "Freya", "Leo", "Grace", "Oscar", "Lily"};
+    /**
+     * Surnames, which are given a letter suffix so that every subscriber's name is different
+     */
+    private static final String[] SURNAMES = {"Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson",
+            "Davies", "Robinson", "Wright", "Thompson", "Evans", "Walker", "White", "Roberts", "Green", "Hall", "Wood"};
+    /**
+     * Meal names, which are numbered if more meals are wanted than there are names
+     */
+    private static final String[] DISHES = {"Curry", "Chilli", "Lasagne", "Steak", "Fish", "Mushroom Stew",
+            "Spaghetti", "Risotto", "Paella", "Moussaka", "Goulash", "Shepherd's Pie", "Fish Pie", "Ratatouille",
+            "Jambalaya", "Tagine", "Pad Thai", "Ramen", "Biryani", "Stroganoff", "Cottage Pie", "Cassoulet", "Dhal",
+            "Enchiladas"};
+    /**
+     * How many meals are stocked for each subscriber in a generated file, shared between the meals by popularity
+     */
+    private static final double STOCK_PER_SUBSCRIBER = 2;
+    /**
+     * How likely a customer is to remove meals rather than add them, if the subscriber has any
+     */
+    private static final double REMOVE_CHANCE = 0.3;
+    /**
+     * The most meals added or removed at once
+     */
+    private static final int MAX_QUANTITY = 3;
+    /**
+     * The most invariant violations printed, after which they are only counted
+     */
+    private static final int MAX_VIOLATIONS_SHOWN = 10;
+
+    /**
+     * The subscribers, sorted
+     */
+    private final Subscriber[] subscribers;
+    /**
+     * The meals, sorted
+     */
+    private final Meal[] meals;
+    /**
+     * The stock of each meal before the load was applied
+     */
+    private final int[] initialStock;
+    /**
+     * Number of simulated customers
+     */
+    private final int customers;
+    /**
+     * The indexes of the subscribers belonging to each customer
+     */
+    private final int[][] owned;
+    /**
+     * Time taken by each add, whether it was applied or not
+     */
+    private final LatencyHistogram addLatency;
+    /**
+     * Time taken by each remove, whether it was applied or not
+     */
+    private final LatencyHistogram removeLatency;
+    /**
+     * Number of adds applied
+     */
+    private final LongAdder added;
+    /**
+     * Number of removes applied
+     */
+    private final LongAdder removed;
+    /**
+     * Number of adds rejected as there were not enough meals left
+     */
+    private final LongAdder stockOuts;
+    /**
+     * Number of adds rejected as the subscriber already had the maximum number of meals
+     */
+    private final LongAdder overLimit;
+    /**
+     * Number of removes rejected as the subscriber did not have that many of the meal
+     */
+    private final LongAdder notHeld;
+
+    public static void main(String[] args) throws IOException
+    {
+        String usage = "Usage: generate <input file> [--subscribers <number>] [--meals <number>] [--skew <number>]"
+                + " [--seed <number>]\n"
+                + "       run <input file> [--customers <number>] [--operations <number>] [--skew <number>]"
+                + " [--seed <number>] [--record <file>]\n"
+                + "       replay <recording> <input file> [--customers <number>]";
+
+        int paths = args.length > 0 && args[0].equals("replay") ? 2 : 1;
+        if (args.length < 1 + paths || !(args[0].equals("generate") || args[0].equals("run") || args[0].equals("replay")))
+        {
+            System.out.println(usage);
+            return;
+        }
+
+        int subscriberCount = 1_000_000;
+        int mealCount = 20;
+        double skew = 1.0;
+        long seed = 1;
+        int customers = -1;
+        long operations = 1_000_000;
+        Path record = null;
+
+        for (int i = 1 + paths; i < args.length; i++) // the options can be given in any order
+        {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            if (args[i].equals("--subscribers") && value.matches("[1-9][0-9]{0,8}"))
+                subscriberCount = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--meals") && value.matches("[1-9][0-9]{0,5}"))
+                mealCount = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--skew") && value.matches("[0-9]{1,2}(\\.[0-9]+)?"))
+                skew = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--seed") && value.matches("-?[0-9]{1,18}"))
+                seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("--customers") && value.matches("[1-9][0-9]{0,3}"))
+                customers = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--operations") && value.matches("[1-9][0-9]{0,17}"))
+                operations = Long.parseLong(args[++i]);
+            else if (args[i].equals("--record") && !value.isEmpty())
+                record = Paths.get(args[++i]);
+            else
+            {
+                System.out.println("Unknown argument '" + args[i] + "'.");
+                System.out.println(usage);
+                return;
+            }
+        }
+
+        if (args[0].equals("generate"))
+        {
+            long start = System.nanoTime();
+            generate(Paths.get(args[1]), subscriberCount, mealCount, skew, seed);
+            System.out.println("Wrote " + subscriberCount + " subscribers and " + mealCount + " meals to " + args[1]
+                    + " in " + String.format("%.3f", (System.nanoTime() - start) / 1e9) + "s.");
+            return;
+        }
+
+        Path recording = args[0].equals("replay") ? Paths.get(args[1]) : null;
+        if (customers < 0)
+        {
+            customers = recording == null ? Runtime.getRuntime().availableProcessors()
+                    : recordedCustomers(recording);
+        }
+
+        LoadGenerator load;
+        try
+        {
+            long start = System.nanoTime();
+            load = new LoadGenerator(InputFileLoader.load(Paths.get(args[paths])), customers);
+            System.out.println("Loaded " + load.subscribers.length + " subscribers and " + load.meals.length
+                    + " meals in " + String.format("%.3f", (System.nanoTime() - start) / 1e9) + "s.");
+        }
+        catch (InputFormatException e)
+        {
+            System.out.println(args[paths] + " is not a valid input file: " + e.getMessage());
+            return;
+        }
+
+        if (recording == null)
+            load.run(operations, skew, seed, record);
+        else
+            load.replay(recording);
+    }
+
+    /**
+     * Constructor which shares the subscribers out between the customers
+     * @param input The loaded input file
+     * @param customers Number of simulated customers
+     */
+    private LoadGenerator(InputFileLoader input, int customers)
+    {
+        this.subscribers = input.getSubscribers();
+        this.meals = input.getMeals();
+        this.initialStock = new int[meals.length];
+        for (int i = 0; i < meals.length; i++)
+            initialStock[i] = meals[i].getNumberAvailable();
+
+        this.customers = customers;
+        int[] counts = new int[customers];
+        for (Subscriber s : subscribers)
+            counts[customer(s.getName())]++;
+        this.owned = new int[customers][];
+        for (int c = 0; c < customers; c++)
+            owned[c] = new int[counts[c]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < subscribers.length; i++)
+        {
+            int c = customer(subscribers[i].getName());
+            owned[c][counts[c]++] = i;
+        }
+
+        this.addLatency = new LatencyHistogram();
+        this.removeLatency = new LatencyHistogram();
+        this.added = new LongAdder();
+        this.removed = new LongAdder();
+        this.stockOuts = new LongAdder();
+        this.overLimit = new LongAdder();
+        this.notHeld = new LongAdder();
+    }
+
+    /**
+     * Writes an input file of generated subscribers and meals. Subscribers are written in a random order, as they would
+     * be in a real file, and each meal is stocked in proportion to its popularity.
+     * @param file Where to write the file
+     * @param subscriberCount Number of subscribers
+     * @param mealCount Number of meals
+     * @param skew The Zipf exponent, where 0 makes every meal equally popular and higher numbers favour a few
+     * @param seed Random seed, so the same file can be generated again
+     * @throws IOException if the file cannot be written
+     */
+    private static void generate(Path file, int subscriberCount, int mealCount, double skew, long seed) throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+
+        int[] order = new int[subscriberCount];
+        for (int i = 0; i < subscriberCount; i++)
+            order[i] = i;
+        shuffle(order, random);
+
+        int[] popularity = new int[mealCount]; // popularity[rank] is the meal with that rank
+        for (int i = 0; i < mealCount; i++)
+            popularity[i] = i;
+        shuffle(popularity, random); // so that popularity doesn't follow the order of the names
+        double[] cumulative = zipf(mealCount, skew);
+
+        try (BufferedWriter out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16))
+        {
+            out.write(Integer.toString(subscriberCount));
+            out.newLine();
+            for (int i : order)
+            {
+                out.write(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+                out.write(' ');
+                out.write(SURNAMES[i % SURNAMES.length]);
+                out.write(suffix(i / SURNAMES.length));
+                out.newLine();
+            }
+
+            out.write(Integer.toString(mealCount));
+            out.newLine();
+            for (int rank = 0; rank < mealCount; rank++)
+            {
+                double share = cumulative[rank] - (rank == 0 ? 0 : cumulative[rank - 1]);
+                out.write(mealName(popularity[rank]));
+                out.newLine();
+                out.write(Long.toString(Math.min(Integer.MAX_VALUE,
+                        Math.max(1, Math.round(share * STOCK_PER_SUBSCRIBER * subscriberCount)))));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Has every customer apply its share of the operations at once, then prints a report
+     * @param operations Total number of operations
+     * @param skew The Zipf exponent meals are chosen with, by their stock, the most stocked being the most popular
+     * @param seed Random seed, which each customer's own seed is made from
+     * @param record Where to record the operations, or null not to
+     * @throws IOException if the recording cannot be written
+     */
+    private void run(long operations, double skew, long seed, Path record) throws IOException
+    {
+        Integer[] ranked = new Integer[meals.length];
+        for (int i = 0; i < meals.length; i++)
+            ranked[i] = i;
+        Arrays.sort(ranked, (a, b) -> initialStock[b] != initialStock[a] ? Integer.compare(initialStock[b], initialStock[a])
+                : Integer.compare(a, b));
+        double[] cumulative = zipf(meals.length, skew);
+
+        Path[] parts = new Path[customers];
+        if (record != null)
+        {
+            for (int c = 0; c < customers; c++)
+                parts[c] = Files.createTempFile(record.toAbsolutePath().getParent(), "load-", ".part");
+        }
+
+        IOException[] failures = new IOException[customers];
+        Runnable[] work = new Runnable[customers];
+        for (int c = 0; c < customers; c++)
+        {
+            int customer = c;
+            long share = operations / customers + (c < operations % customers ? 1 : 0);
+            work[c] = () ->
+            {
+                try
+                {
+                    simulate(customer, share, ranked, cumulative, seed, parts[customer]);
+                }
+                catch (IOException e)
+                {
+                    failures[customer] = e;
+                }
+            };
+        }
+        long elapsed = runCustomers(work);
+
+        if (record != null)
+        {
+            joinParts(parts, record, "# customers=" + customers + " seed=" + seed + " skew=" + skew);
+            for (IOException e : failures)
+            {
+                if (e != null)
+                    throw e;
+            }
+        }
+        printReport(elapsed);
+    }
+
+    /**
+     * Applies a recorded session, with each customer's operations read and looked up in advance so that only applying
+     * them is timed
+     * @param recording The recording
+     * @throws IOException if it cannot be read
+     */
+    private void replay(Path recording) throws IOException
+    {
+        HashMap<String, Integer> subscriberIndex = new HashMap<>(subscribers.length * 2);
+        for (int i = 0; i < subscribers.length; i++)
+            subscriberIndex.put(subscribers[i].getName(), i);
+        HashMap<String, Integer> mealIndex = new HashMap<>();
+        for (int i = 0; i < meals.length; i++)
+            mealIndex.put(meals[i].getName(), i);
+
+        Script[] scripts = new Script[customers];
+        for (int c = 0; c < customers; c++)
+            scripts[c] = new Script();
+
+        long skipped = 0;
+        try (BufferedReader in = Files.newBufferedReader(recording, StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.isBlank() || line.startsWith("#"))
+                    continue;
+
+                String[] fields = line.split(",", -1);
+                Integer s = fields.length == 4 ? subscriberIndex.get(fields[1]) : null;
+                Integer m = fields.length == 4 ? mealIndex.get(fields[2]) : null;
+                boolean add = fields[0].equals("add");
+                if (s == null || m == null || !(add || fields[0].equals("remove")) || !fields[3].matches("[1-9][0-9]{0,8}"))
+                {
+                    skipped++;
+                    continue;
+                }
+
+                int quantity = Integer.parseInt(fields[3]);
+                scripts[customer(fields[1])].add(s, m, add ? quantity : -quantity);
+            }
+        }
+        if (skipped > 0)
+            System.out.println("Skipped " + skipped + " operations which don't match this input file.");
+
+        Runnable[] work = new Runnable[customers];
+        for (int c = 0; c < customers; c++)
+        {
+            Script script = scripts[c];
+            work[c] = () ->
+            {
+                for (int i = 0; i < script.size; i += 3)
+                    apply(subscribers[script.ops[i]], meals[script.ops[i + 1]], script.ops[i + 2]);
+            };
+        }
+        printReport(runCustomers(work));
+    }
+
+    /**
+     * The loop each customer runs, choosing one of its subscribers at random and adding or removing a random meal
+     * @param customer The customer
+     * @param operations Number of operations to apply
+     * @param ranked The meals' indexes from most to least popular
+     * @param cumulative The Zipf distribution over the ranks
+     * @param seed Random seed
+     * @param part Where to record the operations, or null not to
+     * @throws IOException if the operations cannot be recorded
+     */
+    private void simulate(int customer, long operations, Integer[] ranked, double[] cumulative, long seed, Path part)
+            throws IOException
+    {
+        int[] mine = owned[customer];
+        if (mine.length == 0)
+            return;
+
+        SplittableRandom random = new SplittableRandom(seed + customer * 0x9E3779B97F4A7C15L);
+        try (BufferedWriter out = part == null ? null : Files.newBufferedWriter(part, StandardCharsets.UTF_8))
+        {
+            for (long i = 0; i < operations; i++)
+            {
+                Subscriber s = subscribers[mine[random.nextInt(mine.length)]];
+                ArrayList<Subscription> subscriptions = s.getSubscriptions(); // only changed by this thread
+
+                Meal m;
+                int change;
+                if (!subscriptions.isEmpty() && random.nextDouble() < REMOVE_CHANCE)
+                {
+                    Subscription sub = subscriptions.get(random.nextInt(subscriptions.size()));
+                    m = sub.getMeal();
+                    change = -(1 + random.nextInt(sub.getQuantity()));
+                }
+                else
+                {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+                    m = meals[ranked[Math.min(rank < 0 ? -rank - 1 : rank, meals.length - 1)]];
+                    change = 1 + random.nextInt(MAX_QUANTITY);
+                }
+
+                apply(s, m, change);
+                if (out != null)
+                {
+                    out.write(change > 0 ? "add," : "remove,");
+                    out.write(s.getName());
+                    out.write(',');
+                    out.write(m.getName());
+                    out.write(',');
+                    out.write(Integer.toString(Math.abs(change)));
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds or removes meals through Subscriber.subscribe() and unsubscribe(), timing it and counting the outcome
+     * @param s The subscriber
+     * @param m The meal
+     * @param change The number to add, or remove if negative
+     */
+    private void apply(Subscriber s, Meal m, int change)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            if (change > 0)
+            {
+                s.subscribe(m, change);
+                added.increment();
+            }
+            else
+            {
+                s.unsubscribe(m, -change);
+                removed.increment();
+            }
+        }
+        catch (NotEnoughMealsException e)
+        {
+            stockOuts.increment();
+        }
+        catch (IllegalStateException e)
+        {
+            (change > 0 ? overLimit : notHeld).increment();
+        }
+        (change > 0 ? addLatency : removeLatency).recordSince(start);
+    }
+
+    /**
+     * Starts a thread for each customer and waits for all of them to finish
+     * @param work What each customer does
+     * @return The time taken in nanoseconds
+     */
+    private static long runCustomers(Runnable[] work)
+    {
+        Thread[] threads = new Thread[work.length];
+        for (int c = 0; c < work.length; c++)
+            threads[c] = new Thread(work[c], "customer-" + c);
+
+        long start = System.nanoTime();
+        for (Thread thread : threads)
+            thread.start();
+
+        boolean interrupted = false;
+        for (Thread thread : threads)
+        {
+            while (thread.isAlive())
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Prints throughput, outcomes, latencies and invariant checks, and a fingerprint of the final state
+     * @param elapsedNanos Time the customers took
+     */
+    private void printReport(long elapsedNanos)
+    {
+        double seconds = elapsedNanos / 1e9;
+        long adds = addLatency.count();
+        long removes = removeLatency.count();
+
+        System.out.println("Applied " + (adds + removes) + " operations in " + String.format("%.3f", seconds) + "s ("
+                + String.format("%.0f", (adds + removes) / Math.max(seconds, 1e-9)) + " per second) with " + customers
+                + (customers == 1 ? " customer" : " customers"));
+        System.out.println("Adds: " + adds + " (" + added.sum() + " applied, " + stockOuts.sum() + " out of stock, "
+                + overLimit.sum() + " over the limit of " + Subscriber.MAX_SUBSCRIPTIONS + " meals)");
+        System.out.println("Removes: " + removes + " (" + removed.sum() + " applied, " + notHeld.sum()
+                + " more than subscribed)");
+        System.out.println("Stock-out rate: " + String.format("%.2f", adds == 0 ? 0 : 100.0 * stockOuts.sum() / adds)
+                + "% of adds");
+        System.out.println("Add latency in nanoseconds: " + addLatency.summaryNanos());
+        System.out.println("Remove latency in nanoseconds: " + removeLatency.summaryNanos());
+
+        List<String> violations = checkInvariants();
+        if (violations.isEmpty())
+            System.out.println("Invariants: all held");
+        else
+        {
+            System.out.println("Invariants: " + violations.size() + " violations");
+            for (String violation : violations.subList(0, Math.min(violations.size(), MAX_VIOLATIONS_SHOWN)))
+                System.out.println("    " + violation);
+        }
+        System.out.println("State fingerprint: " + Long.toHexString(fingerprint()));
+    }
+
+    /**
+     * Checks that no meal was oversold or lost, no stock or subscription went negative, no subscriber has more than the
+     * maximum number of meals, and every meal's index of subscribers matches their subscriptions
+     * @return A description of each violation, empty if every invariant held
+     */
+    private List<String> checkInvariants()
+    {
+        ArrayList<String> violations = new ArrayList<>();
+        IdentityHashMap<Meal, Integer> mealIndex = new IdentityHashMap<>();
+        for (int i = 0; i < meals.length; i++)
+            mealIndex.put(meals[i], i);
+
+        long[] subscribed = new long[meals.length];
+        for (Subscriber s : subscribers)
+        {
+            if (s.getSubscriptionCount() > Subscriber.MAX_SUBSCRIPTIONS)
+                violations.add(s.getName() + " has " + s.getSubscriptionCount() + " meals");
+
+            for (Subscription sub : s.getSubscriptions())
+            {
+                if (sub.getQuantity() <= 0)
+                    violations.add(s.getName() + " has " + sub.getQuantity() + " " + sub.getMeal().getName());
+
+                Integer indexed = sub.getMeal().getSubscribers().get(s);
+                if (indexed == null || indexed != sub.getQuantity())
+                {
+                    violations.add(sub.getMeal().getName() + " lists " + s.getName() + " with " + indexed
+                            + " rather than " + sub.getQuantity());
+                }
+                subscribed[mealIndex.get(sub.getMeal())] += sub.getQuantity();
+            }
+        }
+
+        for (int i = 0; i < meals.length; i++)
+        {
+            int available = meals[i].getNumberAvailable();
+            if (available < 0)
+                violations.add(meals[i].getName() + " has " + available + " available");
+
+            long difference = subscribed[i] + available - initialStock[i];
+            if (difference > 0)
+                violations.add(meals[i].getName() + " was oversold by " + difference);
+            else if (difference < 0)
+                violations.add(meals[i].getName() + " lost " + -difference + " from stock");
+        }
+        return violations;
+    }
+
+    /**
+     * Sums up the final state, so that two runs can be checked to have ended in the same state
+     * @return A hash of every meal's stock and every subscription
+     */
+    private long fingerprint()
+    {
+        long hash = 1;
+        for (Meal m : meals)
+            hash = hash * 31 + m.getNumberAvailable();
+        for (Subscriber s : subscribers)
+        {
+            for (Subscription sub : s.getSubscriptions())
+                hash = (hash * 31 + sub.getMeal().getName().hashCode()) * 31 + sub.getQuantity();
+        }
+        return hash;
+    }
+
+    /**
+     * Works out which customer a subscriber belongs to
+     * @param name The subscriber's full name
+     * @return The customer
+     */
+    private int customer(String name)
+    {
+        return Math.floorMod(NameIndex.hash(name), customers);
+    }
+
+    /**
+     * Reads the number of customers a recording was made with from its first line
+     * @param recording The recording
+     * @return The number of customers, or 1 if it doesn't say
+     * @throws IOException if the recording cannot be read
+     */
+    private static int recordedCustomers(Path recording) throws IOException
+    {
+        try (BufferedReader in = Files.newBufferedReader(recording, StandardCharsets.UTF_8))
+        {
+            String header = in.readLine();
+            if (header != null && header.matches("# customers=[1-9][0-9]{0,3} .*"))
+                return Integer.parseInt(header.substring(12, header.indexOf(' ', 12)));
+            return 1;
+        }
+    }
+
+    /**
+     * Joins each customer's recorded operations into one file after a header, then deletes them
+     * @param parts Each customer's operations
+     * @param record Where to write the recording
+     * @param header The header line
+     * @throws IOException if the recording cannot be written
+     */
+    private static void joinParts(Path[] parts, Path record, String header) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(record, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            out.write(StandardCharsets.UTF_8.encode(header + "\n"));
+            for (Path part : parts)
+            {
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ))
+                {
+                    long position = 0;
+                    while (position < in.size())
+                        position += in.transferTo(position, in.size() - position, out);
+                }
+            }
+        }
+        finally
+        {
+            for (Path part : parts)
+                Files.deleteIfExists(part);
+        }
+        System.out.println("Recorded the session to " + record + ".");
+    }
+
+    /**
+     * Works out the cumulative Zipf distribution, where the chance of rank k (from 0) is in proportion to 1/(k+1)^skew
+     * @param n Number of ranks
+     * @param skew The exponent
+     * @return The chance of each rank or any before it, the last being 1
+     */
+    private static double[] zipf(int n, double skew)
+    {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++)
+        {
+            total += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = total;
+        }
+        for (int k = 0; k < n; k++)
+            cumulative[k] /= total;
+        return cumulative;
+    }
+
+    /**
+     * Shuffles an array in place
+     * @param a The array
+     * @param random Where the randomness comes from
+     */
+    private static void shuffle(int[] a, SplittableRandom random)
+    {
+        for (int i = a.length - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /**
+     * Gives a meal its name, numbering the names once every dish has been used
+     * @param i The meal's number
+     * @return e.g. "Curry" or "Curry (2)"
+     */
+    private static String mealName(int i)
+    {
+        String dish = DISHES[i % DISHES.length];
+        return i < DISHES.length ? dish : dish + " (" + (i / DISHES.length + 1) + ")";
+    }
+
+    /**
+     * Turns a number into a lower case letter suffix, e.g. 0 is "a", 26 is "ba"
+     * @param i The number
+     * @return The suffix
+     */
+    private static String suffix(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        do
+        {
+            sb.append((char) ('a' + i % 26));
+            i /= 26;
+        }
+        while (i > 0);
+        return sb.reverse().toString();
+    }
+
+    /**
+     * One customer's operations for a replay, three ints each: the subscriber's index, the meal's index and the change
+     */
+    private static class Script
+    {
+        /**
+         * The operations, with spare room at the end
+         */
+        private int[] ops = new int[48];
+        /**
+         * Number of ints used
+         */
+        private int size;
+
+        /**
+         * Adds an operation
+         * @param subscriber The subscriber's index
+         * @param meal The meal's index
+         * @param change The number to add, or remove if negative
+         */
+        private void add(int subscriber, int meal, int change)
+        {
+            if (size + 3 > ops.length)
+                ops = Arrays.copyOf(ops, ops.length * 2);
+            ops[size++] = subscriber;
+            ops[size++] = meal;
+            ops[size++] = change;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 import java.util.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.Function;
 
 /**
  * The driver class for the program, containing the main method and multiple auxiliary methods which help the overall
@@ -8,9 +11,9 @@ import java.io.*;
 public class MainProgram
 {
     /**
-     * Declaring the SortedLinkedList of subscribers
+     * Declaring the sorted list of subscribers, which is a SortedLinkedList unless they are in a MappedStore
      */
-    private static SortedLinkedList<Subscriber> subscribers;
+    private static SortedList<Subscriber> subscribers;
     /**
      * Declaring the SortedLinkedList of meals
      */
@@ -20,28 +23,236 @@ public class MainProgram
      */
     private static Scanner k;
     /**
-     * PrintWriter to write letters to a file
+     * Collects the meals subscribers could not have, and writes their letters to a file at each checkpoint
      */
-    private static PrintWriter f;
+    private static LetterWriter letters;
     /**
      * This boolean helps to decide when the program needs to finish running
      */
     private static boolean done;
+    /**
+     * The text file subscribers and meals are read from
+     */
+    private static final Path INPUT_FILE = Paths.get("src/input_data.txt");
+    /**
+     * The binary snapshot which subscriptions are saved to, and loaded from at startup if it exists
+     */
+    private static final Path SNAPSHOT_FILE = Paths.get("snapshot.bin");
+    /**
+     * The log of changes made since the last snapshot
+     */
+    private static final Path LOG_FILE = Paths.get("subscriptions.wal");
+    /**
+     * The directory each shard's snapshot, log and letters are kept in with --shards
+     */
+    private static final Path SHARD_DIR = Paths.get("shards");
+    /**
+     * Logs every change to subscriptions, so they are not lost if the program crashes
+     */
+    private static WriteAheadLog log;
+    /**
+     * Sequence number of the last logged change in the snapshot loaded or saved last, 0 if there was none
+     */
+    private static long snapshotSequence;
+    /**
+     * The file subscribers are memory-mapped from with --mapped, or null to hold them on the heap
+     */
+    private static Path mappedFile;
+    /**
+     * Prefix and fuzzy search over subscriber names, used to suggest names when a lookup fails.
+     * Built the first time it is needed by subscriberSearch(), so batch mode never pays for it.
+     */
+    private static NameSearch<Subscriber> subscriberSearch;
+    /**
+     * Prefix and fuzzy search over meal names, built by mealSearch()
+     */
+    private static NameSearch<Meal> mealSearch;
+    /**
+     * The most "did you mean" suggestions shown when a name is not found
+     */
+    private static final int SUGGESTIONS = 5;
+    /**
+     * How many meals or subscribers are shown at a time by the m and s options, which can be changed with --page-size
+     */
+    private static int pageSize = 20;
+    /**
+     * Counters and latencies for everything that happens to orders, published over JMX
+     */
+    private static Metrics metrics;
+    /**
+     * Passes changes and shortfalls on to the letters and metrics, each on its own thread
+     */
+    private static EventBus events;
+    /**
+     * Number of events the event bus holds before publishers have to wait for its consumers
+     */
+    private static final int EVENT_CAPACITY = 1 << 14;
+    /**
+     * Applies changes to the input file while the menu is running, with --watch, or null if it isn't watched
+     */
+    private static InputWatcher watcher;
+    /**
+     * Whether subscribers are kept in a CompactStore, with --compact
+     */
+    private static boolean compact;
 
     public static void main(String[] args) throws IOException
     {
+        boolean watch = false;
+        Path batchFile = null;
+        Path metricsFile = null;
+        Path reportFile = null;
+        int servePort = -1;
+        int shardCount = 0;
+        int shard = -1;
+        int inventoryPort = -1;
+
+        for (int i = 0; i < args.length; i++) // the options can be given in any order
+        {
+            if (args[i].equals("--compact"))
+                compact = true;
+            else if (args[i].equals("--batch") && i + 1 < args.length)
+                batchFile = Paths.get(args[++i]);
+            else if (args[i].equals("--page-size") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]{0,8}"))
+                pageSize = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--metrics") && i + 1 < args.length)
+                metricsFile = Paths.get(args[++i]);
+            else if (args[i].equals("--serve") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,5}"))
+                servePort = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--report") && i + 1 < args.length)
+                reportFile = Paths.get(args[++i]);
+            else if (args[i].equals("--mapped") && i + 1 < args.length)
+                mappedFile = Paths.get(args[++i]);
+            else if (args[i].equals("--watch"))
+                watch = true;
+            else if (args[i].equals("--shards") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]?"))
+                shardCount = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--shard") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,2}"))
+                shard = Integer.parseInt(args[++i]); // only used by ShardRouter when it starts each shard
+            else if (args[i].equals("--inventory") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,5}"))
+                inventoryPort = Integer.parseInt(args[++i]);
+            else
+            {
+                System.out.println("Unknown argument '" + args[i]
+                        + "'. Usage: [--compact] [--batch <file>] [--page-size <number>] [--metrics <file>]"
+                        + " [--serve <port>] [--report <file>] [--mapped <file>] [--watch] [--shards <number>]");
+                return;
+            }
+        }
+
+        if (compact && mappedFile != null)
+        {
+            System.out.println("--compact and --mapped cannot be used together.");
+            return;
+        }
+        if (watch && (mappedFile != null || batchFile != null || reportFile != null || servePort >= 0))
+        {
+            System.out.println("--watch only works with the menu, and not with --mapped, whose subscribers cannot be added to.");
+            return;
+        }
+        if (shardCount > 0 && (servePort < 0 || compact || mappedFile != null || batchFile != null || reportFile != null))
+        {
+            System.out.println("--shards only works with --serve, and not with --compact, --mapped, --batch or --report.");
+            return;
+        }
+
+        metrics = new Metrics();
+        if (metricsFile != null) // also writes the metrics to a file every few seconds
+            metrics.dumpTo(metricsFile);
+
+        if (shard >= 0) // started by ShardRouter, so serves one range of subscribers until the router stops it
+        {
+            serveShard(shard, inventoryPort);
+            return;
+        }
 
         k= new Scanner(System.in); //keyboard input
-        f = new PrintWriter("letters.txt"); //prints to 'letters.txt'
+        letters = new LetterWriter(Paths.get("letters.txt")); //prints to 'letters.txt'
         done = false;
 
-        readFile();
+        if (mappedFile != null && isMappedFileCurrent())
+            openMappedFile();
+        else if (Files.exists(SNAPSHOT_FILE))
+            readSnapshot();
+        else
+            readFile();
+        try
+        {
+            replayLog();
+            recoverShards();
+        }
+        catch (IOException e) // changes nothing, so the log is left as it is for someone to look at
+        {
+            System.out.println(e.getMessage());
+            System.out.println("Nothing has been changed or saved.");
+            if (log != null)
+                log.close();
+            letters.close();
+            metrics.close();
+            return;
+        }
+
+        if (mappedFile != null && !(subscribers instanceof MappedStore) && saveSnapshot()) // builds the mapped file
+            openMappedFile();
+        if (compact)
+            compactSubscribers();
+        metrics.watchMeals(meals);
+        startEvents(); // after loading, as loading changes nothing new
+
+        if (batchFile != null || reportFile != null) // applies a file of orders and/or writes a report, then exits
+        {
+            boolean finished = false;
+            try
+            {
+                if (batchFile != null)
+                {
+                    BatchProcessor batch = new BatchProcessor(subscribers, meals, MainProgram::writeLetter, log,
+                            metrics, Runtime.getRuntime().availableProcessors());
+                    batch.run(batchFile);
+                }
+                if (reportFile != null)
+                    writeReport(Report.of(subscribers, meals), reportFile.toString());
+                finished = true;
+            }
+            finally // still writes the letters and closes the log if the batch fails, as its orders are in the log
+            {
+                events.close();
+                try
+                {
+                    letters.close();
+                    if (finished)
+                        saveSnapshot();
+                }
+                finally
+                {
+                    log.close();
+                    metrics.close();
+                }
+            }
+            return;
+        }
+
+        if (servePort >= 0 && shardCount > 0) // splits the subscribers between shard processes
+        {
+            serveSharded(servePort, shardCount);
+            return;
+        }
+        if (servePort >= 0) // takes orders over HTTP instead of the menu until Enter is pressed
+        {
+            serve(servePort);
+            return;
+        }
+
+        if (watch)
+            watchInputFile();
+
         printWelcome();
 
         while (!done)
         {
             printMenu();
             String response = k.nextLine();
+            applyInputChanges(); // so the option chosen sees the file as it is now
 
             switch (response) // decides how to proceed depending on which option the user selects
             {
@@ -59,50 +270,285 @@ public class MainProgram
                 case "r": removeMeals();
                 nextOption();
                 break;
+                case "c": changeMeals();
+                nextOption();
+                break;
+                case "w": blankLine();
+                saveSnapshot();
+                checkpointLetters();
+                nextOption();
+                break;
+                case "l": listToFile();
+                nextOption();
+                break;
+                case "u": displayMealSubscribers();
+                nextOption();
+                break;
+                case "t": displayReport();
+                nextOption();
+                break;
                 default: // error message if the user enters something other than one of the menu options
                     blankLine();
-                    System.out.println("'" + response + "' is not valid. Please enter either m,s,a,r, or f");
+                    System.out.println("'" + response + "' is not valid. Please enter either m,s,a,r,c,w,l,u,t, or f");
                     blankLine();
             }
         }
-        f.close();
     }
 
     /**
-     * Reads the input file and adds and sorts subscribers and meals to their respective SortedLinkedLists.
+     * Reads the input file and loads subscribers and meals into their respective SortedLinkedLists.
+     * InputFileLoader hands them over already sorted, so the lists do not need to sort them again.
+     * If the file cannot be read, the lists are left empty.
      */
     private static void readFile()
     {
+        SortedLinkedList<Subscriber> loaded = new SortedLinkedList<>(Subscriber::getName);
+        subscribers = loaded;
+        meals = new SortedLinkedList<>(Meal::getName);
+
+        long start = System.nanoTime();
         try
         {
-            Scanner fileIn = new Scanner(new FileReader("src/input_data.txt"));
+            snapshotSequence = 0;
+            InputFileLoader loader = InputFileLoader.load(INPUT_FILE);
 
-            subscribers = new SortedLinkedList<>();
+            loaded.loadSorted(loader.getSubscribers());
+            meals.loadSorted(loader.getMeals());
+            metrics.recordLoad(start);
+        }
+        catch (IOException e)
+        {
+            System.out.println(e.toString());
+        }
+        catch (InputFormatException e) // says which line of the file is malformed
+        {
+            System.out.println(e.getMessage());
+        }
+    }
 
-            int noOfSubscribers = Integer.parseInt(fileIn.nextLine());
-            for (int i = 0; i < noOfSubscribers; i++) // splits each line of input into first and last name fields, then adds and sorts.
-            {
-                String[] split = fileIn.nextLine().split(" ");
+    /**
+     * Loads subscribers, meals and subscriptions from the snapshot saved last time, falling back to the input file
+     * if the snapshot cannot be read
+     */
+    private static void readSnapshot()
+    {
+        try
+        {
+            Snapshot snapshot = Snapshot.load(SNAPSHOT_FILE);
+            snapshotSequence = snapshot.getLogSequence();
+
+            SortedLinkedList<Subscriber> loaded = new SortedLinkedList<>(Subscriber::getName);
+            loaded.loadSorted(snapshot.getSubscribers());
+            subscribers = loaded;
+            meals = new SortedLinkedList<>(Meal::getName);
+            meals.loadSorted(snapshot.getMeals());
+        }
+        catch (IOException e)
+        {
+            System.out.println(e.getMessage());
+            System.out.println("Reading " + INPUT_FILE + " instead.");
+            readFile();
+        }
+    }
 
-                Subscriber s = new Subscriber(split[0], split[1]);
-                subscribers.addAndSort(s);
-            }
+    /**
+     * Moves every subscriber and their subscriptions into a CompactStore, replacing the Subscriber objects in the list
+     * with views of the store. The list stays in the same order, so it doesn't need sorting again.
+     */
+    private static void compactSubscribers()
+    {
+        Subscriber[] loaded = subscribers.toArray(new Subscriber[0]);
+        CompactStore store = new CompactStore(loaded, meals.toArray(new Meal[0]));
 
-            meals = new SortedLinkedList<>();
+        SortedLinkedList<Subscriber> compacted = new SortedLinkedList<>(Subscriber::getName);
+        compacted.loadSorted(store.getSubscribers());
+        subscribers = compacted;
+    }
 
-            int noOfMealTypes = Integer.parseInt(fileIn.nextLine());
-            for (int i = 0; i < noOfMealTypes; i++) // similarly, reads the meals and quantities then adds and sorts
-            {
-                String mealName = fileIn.nextLine();
-                int mealNumber = Integer.parseInt(fileIn.nextLine());
+    /**
+     * Starts watching the input file for changes, which are applied between menu options by applyInputChanges()
+     */
+    private static void watchInputFile()
+    {
+        try
+        {
+            watcher = new InputWatcher(INPUT_FILE);
+            System.out.println("Watching " + INPUT_FILE + " for changes.");
+        }
+        catch (IOException | InputFormatException e)
+        {
+            System.out.println(INPUT_FILE + " cannot be watched: " + e.getMessage());
+        }
+    }
 
-                Meal m = new Meal(mealName, mealNumber);
-                meals.addAndSort(m);
-            }
+    /**
+     * Applies any changes made to the input file since the last menu option, inserting and removing only the
+     * subscribers and meals which changed. The snapshot is then saved, so the changes are kept if the program
+     * crashes, as the log only holds changes to subscriptions.
+     */
+    private static void applyInputChanges()
+    {
+        if (watcher == null)
+            return;
+
+        String failure = watcher.takeFailure();
+        if (failure != null)
+        {
+            blankLine();
+            System.out.println(INPUT_FILE + " changed but could not be read, so it has been ignored: " + failure);
         }
-        catch (FileNotFoundException e)
+
+        InputWatcher.Changes changes = watcher.applyChanges((SortedLinkedList<Subscriber>) subscribers, meals);
+        if (changes == null || changes.isEmpty())
+            return;
+
+        if (changes.listsChanged())
         {
-            System.out.println(e.toString());
+            subscriberSearch = null; // rebuilt with the new names when next needed
+            mealSearch = null;
+            // the store only holds subscriptions to the meals it was made with, and new subscribers are ordinary ones
+            if (compact && (changes.getMealsAdded() > 0 || changes.getSubscribersAdded() > 0))
+                compactSubscribers();
+            metrics.watchMeals(meals);
+        }
+
+        blankLine();
+        System.out.println(INPUT_FILE + " changed: " + changes);
+        saveSnapshot();
+    }
+
+    /**
+     * Checks whether the mapped file can be opened as it is, which is when it holds every change the snapshot does,
+     * going by the log sequence numbers in their headers, as they are saved together and the snapshot may have been
+     * saved since without --mapped. Clocks and file times are not trusted for this.
+     * @return true if the mapped file is up to date
+     */
+    private static boolean isMappedFileCurrent()
+    {
+        long mapped;
+        try
+        {
+            mapped = MappedStore.readLogSequence(mappedFile);
+        }
+        catch (IOException e) // missing, or not a store file this version can open
+        {
+            return false;
+        }
+
+        try
+        {
+            return mapped >= Snapshot.readLogSequence(SNAPSHOT_FILE);
+        }
+        catch (IOException e) // no snapshot, or one which cannot be loaded anyway
+        {
+            return true;
+        }
+    }
+
+    /**
+     * Maps the subscribers from the mapped file, and reads the meals from it. The subscribers stay in the file,
+     * so the heap stays the same size however many there are.
+     * @throws IOException if the file cannot be read
+     */
+    private static void openMappedFile() throws IOException
+    {
+        MappedStore store = MappedStore.open(mappedFile);
+
+        meals = new SortedLinkedList<>(Meal::getName);
+        meals.loadSorted(store.getMeals());
+        subscribers = store;
+        snapshotSequence = store.getLogSequence();
+        System.out.println("Mapped " + store.size() + " subscribers from " + mappedFile + ".");
+    }
+
+    /**
+     * Opens the log and replays any changes made since the last snapshot was saved, e.g. before a crash
+     * @throws IOException if the log cannot be opened or read, or does not match what was loaded
+     */
+    private static void replayLog() throws IOException
+    {
+        log = new WriteAheadLog(LOG_FILE);
+        int replayed = log.replay(subscribers, meals, snapshotSequence);
+
+        if (replayed > 0)
+            System.out.println("Replayed " + replayed + " changes from " + LOG_FILE + ".");
+    }
+
+    /**
+     * Logs a change to a subscription, warning the user if it could not be written
+     * @param type WriteAheadLog.ADD or WriteAheadLog.REMOVE
+     * @param s The subscriber
+     * @param m The meal
+     * @param quantity The quantity added or removed
+     */
+    private static void logChange(byte type, Subscriber s, Meal m, int quantity)
+    {
+        try
+        {
+            log.log(type, s, m, quantity);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Warning - this change could not be written to the log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logs every change in an order as one record, warning the user if it could not be written
+     * @param order The order, which has been applied
+     */
+    private static void logOrder(Order order)
+    {
+        try
+        {
+            log.logOrder(order);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Warning - this change could not be written to the log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves every subscriber, meal and subscription to the snapshot file, and to the mapped file with --mapped,
+     * then empties the log and deletes any shard files, as everything in them is now saved
+     * @return true if everything was saved
+     */
+    private static boolean saveSnapshot()
+    {
+        try
+        {
+            long sequence = log.checkpoint();
+            Snapshot.write(SNAPSHOT_FILE, meals, subscribers, sequence);
+            if (mappedFile != null)
+                MappedStore.write(mappedFile, meals, subscribers, sequence);
+            snapshotSequence = sequence;
+            log.truncate(); // if it crashes before this, replaying skips what the snapshot already holds
+            ShardRouter.deleteFiles(SHARD_DIR); // any shards' changes are in the snapshot now too
+            System.out.println("Saved " + subscribers.size() + " subscribers and " + meals.size() + " meals to "
+                    + SNAPSHOT_FILE + (mappedFile == null ? "." : " and " + mappedFile + "."));
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.out.println("The snapshot could not be saved: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes a letter to each subscriber who couldn't have a meal since the last checkpoint
+     */
+    private static void checkpointLetters()
+    {
+        events.awaitConsumed(); // so every shortfall so far is in the letters
+        try
+        {
+            System.out.println("Wrote " + letters.checkpoint() + " letters to letters.txt.");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Some letters could not be written: " + e.getMessage());
         }
     }
 
@@ -152,42 +598,408 @@ public class MainProgram
         System.out.println("s - Display information about all the subscribers");
         System.out.println("a - Add meals to a subscription");
         System.out.println("r - Remove meals from a subscription");
+        System.out.println("c - Change several meals in a subscription at once");
+        System.out.println("w - Save a snapshot of all subscriptions");
+        System.out.println("l - List subscribers or meals to a file");
+        System.out.println("u - Display the subscribers to a meal");
+        System.out.println("t - Display totals across all subscribers and meals");
         System.out.println("f - Finish the program");
     }
 
     /**
-     * Prints a goodbye message and sets done to true, ending the program
+     * Serves the menu's operations over HTTP until Enter is pressed, then finishes as the f option does
+     * @param port The port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    private static void serve(int port) throws IOException
+    {
+        HttpService service = new HttpService(subscribers, meals, MainProgram::writeLetter, log, metrics);
+        port = service.start(port);
+        System.out.println("Serving on http://localhost:" + port + "/ using "
+                + (HttpService.hasVirtualThreads() ? "virtual threads" : "a thread pool") + " - press Enter to stop.");
+
+        if (k.hasNextLine())
+            k.nextLine();
+        service.stop();
+        finish();
+    }
+
+    /**
+     * Splits the subscribers between shard processes, each serving a range of surnames, and routes requests to them
+     * until Enter is pressed. The meals stay in this process as the inventory the shards take stock from.
+     * The snapshot is saved first, as the shards' logs are replayed on top of it, both when they stop and if this
+     * process crashes, so the snapshot then holds every shard's changes.
+     * @param port The port to listen on
+     * @param count The number of shards
+     * @throws IOException if the shards cannot be started or the port cannot be bound
+     */
+    private static void serveSharded(int port, int count) throws IOException
+    {
+        if (!saveSnapshot())
+            return;
+
+        ShardRouter router = new ShardRouter(SHARD_DIR, count);
+        port = router.start(port, subscribers, meals, snapshotSequence);
+        subscribers = new SortedLinkedList<>(Subscriber::getName); // the shards hold them until they stop
+        System.out.println("Routing http://localhost:" + port + "/ to " + count + " shards - press Enter to stop.");
+
+        if (k.hasNextLine())
+            k.nextLine();
+        router.stop();
+
+        EventBus.install(null); // reloading the shards' changes isn't a change here
+        readSnapshot();
+        recoverShards();
+        finish();
+    }
+
+    /**
+     * Replays any shard logs written since the snapshot was saved onto the subscribers and meals, which is every
+     * change the shards made, e.g. if the program crashed while running --shards. Every shard numbers its records on
+     * from the snapshot the shards were started from, so records no later than the snapshot's sequence number have
+     * already been replayed into it and are skipped, just as for the main log, and saveSnapshot() deletes the logs.
+     * The main log is then moved past every shard record, so the next snapshot is numbered after them all.
+     * The shards took stock from the same meals at once, so the logs are in no particular order with respect to each
+     * other. Their stock changes are added up across every log and applied once at the end.
+     * @throws IOException if a log cannot be read, or they take more of a meal than there is
+     */
+    private static void recoverShards() throws IOException
+    {
+        WriteAheadLog.Replay replay = new WriteAheadLog.Replay(subscribers, meals, snapshotSequence);
+        for (Path shardLog : ShardRouter.logFiles(SHARD_DIR))
+        {
+            try (WriteAheadLog shardChanges = new WriteAheadLog(shardLog))
+            {
+                shardChanges.readInto(replay);
+            }
+        }
+        replay.apply();
+        log.advance(replay.getSequence());
+
+        if (replay.getApplied() > 0)
+            System.out.println("Replayed " + replay.getApplied() + " changes from the shards' logs.");
+    }
+
+    /**
+     * Serves one shard's range of subscribers over HTTP, for ShardRouter, until it closes this process's standard
+     * input. The subscribers are loaded from the shard's snapshot, and their meals are replaced with RemoteMeals,
+     * which take stock from the router's inventory. Changes are logged to the shard's own log.
+     * @param shard The shard's number
+     * @param inventoryPort The port the router's inventory is listening on
+     * @throws IOException if the shard's files cannot be read or written, or it cannot start serving
+     */
+    private static void serveShard(int shard, int inventoryPort) throws IOException
+    {
+        Inventory.Client inventory = new Inventory.Client(inventoryPort);
+        Snapshot snapshot = Snapshot.load(ShardRouter.snapshotFile(SHARD_DIR, shard));
+
+        Meal[] stored = snapshot.getMeals();
+        RemoteMeal[] remoteMeals = new RemoteMeal[stored.length];
+        HashMap<String, RemoteMeal> remote = new HashMap<>();
+        for (int i = 0; i < stored.length; i++) // in the same order, so they are still sorted
+        {
+            remoteMeals[i] = new RemoteMeal(stored[i].getName(), inventory);
+            remote.put(stored[i].getName(), remoteMeals[i]);
+        }
+        meals = new SortedLinkedList<>(Meal::getName);
+        meals.loadSorted(remoteMeals);
+        for (Subscriber s : snapshot.getSubscribers())
+        {
+            for (Subscription sub : s.getSubscriptions()) // also indexes s under the remote meal
+                sub.setMeal(remote.get(sub.getMeal().getName()));
+        }
+        SortedLinkedList<Subscriber> loaded = new SortedLinkedList<>(Subscriber::getName);
+        loaded.loadSorted(snapshot.getSubscribers());
+        subscribers = loaded;
+
+        letters = new LetterWriter(ShardRouter.lettersFile(SHARD_DIR, shard));
+        startEvents();
+        log = new WriteAheadLog(ShardRouter.logFile(SHARD_DIR, shard));
+        log.advance(snapshot.getLogSequence()); // numbers this shard's records after the main snapshot
+        HttpService service = new HttpService(subscribers, meals, MainProgram::writeLetter, log, metrics);
+        System.out.println("READY " + service.start(0)); // tells the router which port to send requests to
+
+        while (System.in.read() != -1) // waits until the router closes standard input
+        {
+            // nothing is sent on it
+        }
+        service.stop();
+        events.close();
+        letters.close();
+        log.close();
+        inventory.close();
+        metrics.close();
+    }
+
+    /**
+     * Writes out any letters still waiting, saves a snapshot, prints a goodbye message and sets done to true,
+     * ending the program
      */
     private static void finish()
     {
+        events.close(); // hands the last shortfalls to the letters
+        try
+        {
+            letters.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Some letters could not be written: " + e.getMessage());
+        }
+
+        blankLine();
+        saveSnapshot();
         blankLine();
+
+        try
+        {
+            log.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("The log could not be closed: " + e.getMessage());
+        }
+        metrics.close();
+        if (watcher != null)
+        {
+            try
+            {
+                watcher.close();
+            }
+            catch (IOException e)
+            {
+                System.out.println("The input file could not stop being watched: " + e.getMessage());
+            }
+        }
         System.out.println("Bye for now!");
         done = true;
     }
 
     /**
-     * Loops through the SortedLinkedList of meals and prints each meal's info
+     * Prints every subscriber to a chosen meal and how many they have, found through the meal's index of subscribers
+     * rather than by searching every subscriber. Then offers to write each of them a letter saying there is not enough
+     * of the meal left, e.g. when it has been recalled.
      */
-    private static void displayMeals()
+    private static void displayMealSubscribers()
     {
+        Meal chosenMeal = null;
+
+        while (chosenMeal == null) // prompts the user to enter a valid meal
+        {
+            blankLine();
+            chosenMeal = chooseMeal();
+        }
+
+        Map<Subscriber, Integer> subscribed = subscribers.subscribersTo(chosenMeal);
+
         blankLine();
-        for (Meal m : meals)
+        if (subscribed.isEmpty())
+        {
+            System.out.println("Nobody is subscribed to " + chosenMeal.getName() + "!");
+            return;
+        }
+
+        long total = 0;
+        for (Map.Entry<Subscriber, Integer> entry : subscribed.entrySet())
+        {
+            total += entry.getValue();
+            System.out.println(ListingWriter.column(new StringBuilder(), entry.getKey().getName()).append(entry.getValue()));
+        }
+
+        blankLine();
+        System.out.println(subscribed.size() + " subscribers have " + total + " " + chosenMeal.getName()
+                + " between them.");
+        System.out.println("Enter y to write each of them a letter saying there is not enough "
+                + chosenMeal.getName() + " left, or press Enter to go back:");
+
+        if (k.nextLine().trim().equalsIgnoreCase("y"))
+        {
+            for (Subscriber s : subscribed.keySet())
+                writeLetter(s, chosenMeal);
+
+            blankLine();
+            System.out.println("Letters to " + subscribed.size() + " subscribers will be written when your work is"
+                    + " saved.");
+        }
+    }
+
+    /**
+     * Works out totals across every subscriber and meal in one parallel pass and prints them, then offers to save them
+     * as a CSV file
+     */
+    private static void displayReport()
+    {
+        Report report = Report.of(subscribers, meals);
+
+        blankLine();
+        try
+        {
+            Writer console = new OutputStreamWriter(System.out);
+            report.writeText(console);
+            console.flush();
+        }
+        catch (IOException e)
+        {
+            System.out.println("The report could not be printed: " + e.getMessage());
+        }
+
+        System.out.println("Enter a file name to save the report as CSV, or press Enter to go back:");
+        String file = k.nextLine().trim();
+        if (!file.isEmpty())
+            writeReport(report, file);
+    }
+
+    /**
+     * Writes a report to a CSV file
+     * @param report The report
+     * @param file The file name
+     */
+    private static void writeReport(Report report, String file)
+    {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(file)),
+                StandardCharsets.UTF_8)))
         {
-            m.printInfo();
+            report.writeCsv(writer);
+            System.out.println("Wrote the report to " + file + ".");
         }
+        catch (IOException | InvalidPathException e)
+        {
+            System.out.println("Could not write to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints each meal's info, a page at a time
+     */
+    private static void displayMeals()
+    {
+        displayPages(meals, ListingWriter::writeMeal, MainProgram::mealProbe);
     }
 
     /**
-     * Loops through the SortedLinkedList of subscribers and prints each subscriber's info
+     * Prints each subscriber's info, a page at a time
      */
     private static void displaySubscribers()
+    {
+        displayPages(subscribers, ListingWriter::writeSubscriber, MainProgram::subscriberProbe);
+    }
+
+    /**
+     * Prints a list a page at a time. After each page, the user can carry on to the next page, jump to a name,
+     * or go back to the menu. Each page is streamed from the list's iterator into one buffered writer, so only the
+     * rows on the page are ever visited.
+     * @param list The list to print
+     * @param row How to print each element
+     * @param probe Creates an element to search for from a name, for jumping to it
+     * @param <E> Subscriber or Meal
+     */
+    private static <E extends Comparable<E>> void displayPages(SortedList<E> list, ListingWriter.Row<E> row,
+                                                               Function<String, E> probe)
+    {
+        ListingWriter out = ListingWriter.toConsole(); // flushed after each page, but never closed as that closes System.out
+        int position = 0;
+
+        try
+        {
+            while (true)
+            {
+                blankLine();
+                int first = position;
+                position += out.writeRows(list.iterator(position), pageSize, row);
+                out.flush();
+
+                if (position >= list.size())
+                    return;
+
+                System.out.println("Showing " + (first + 1) + " to " + position + " of " + list.size()
+                        + ". Press Enter for the next page, enter a name to jump to it, or q to go back to the menu:");
+                String input = k.nextLine().trim();
+
+                if (input.equalsIgnoreCase("q"))
+                    return;
+                if (!input.isEmpty()) // starts the next page at the first name not before the one entered
+                    position = list.ceilingIndex(probe.apply(input));
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes every subscriber or meal, or every one from a given name onwards, to a text file in the same layout as
+     * the m and s options. The list is streamed straight into the file through one buffered writer.
+     */
+    private static void listToFile()
     {
         blankLine();
-        for (Subscriber s : subscribers)
+        System.out.println("Enter s to list subscribers or m to list meals:");
+        String choice = k.nextLine().trim();
+
+        if (!choice.equals("s") && !choice.equals("m"))
         {
-            s.printInfo();
+            System.out.println("'" + choice + "' is not valid.");
+            return;
+        }
+
+        System.out.println("Enter a name to start from, or leave blank to start from the beginning:");
+        String from = k.nextLine().trim();
+        System.out.println("Enter the name of the file to write to:");
+        String file = k.nextLine().trim();
+
+        long start = System.nanoTime();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(file)),
+                StandardCharsets.UTF_8), 1 << 16))
+        {
+            ListingWriter out = new ListingWriter(writer);
+            int written;
+
+            if (choice.equals("s"))
+            {
+                int position = from.isEmpty() ? 0 : subscribers.ceilingIndex(subscriberProbe(from));
+                written = out.writeRows(subscribers.iterator(position), Integer.MAX_VALUE, ListingWriter::writeSubscriber);
+            }
+            else
+            {
+                int position = from.isEmpty() ? 0 : meals.ceilingIndex(mealProbe(from));
+                written = out.writeRows(meals.iterator(position), Integer.MAX_VALUE, ListingWriter::writeMeal);
+            }
+
             blankLine();
+            System.out.println("Wrote " + written + (choice.equals("s") ? " subscribers" : " meals") + " to " + file
+                    + " in " + (System.nanoTime() - start) / 1_000_000 + "ms.");
         }
+        catch (IOException | InvalidPathException e)
+        {
+            System.out.println("Could not write to " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a Subscriber to search for from a name. A single word is taken as a surname, as subscribers are sorted
+     * by surname first.
+     * @param name The name as entered by the user
+     * @return A Subscriber with that name and no subscriptions
+     */
+    private static Subscriber subscriberProbe(String name)
+    {
+        String[] words = name.trim().split("\\s+", 2);
+
+        if (words.length == 1)
+            return new Subscriber("", words[0]);
+        else
+            return new Subscriber(words[0], words[1]);
+    }
+
+    /**
+     * Creates a Meal to search for from a name
+     * @param name The name as entered by the user
+     * @return A Meal with that name
+     */
+    private static Meal mealProbe(String name)
+    {
+        return new Meal(name.trim());
     }
 
     /**
@@ -199,37 +1011,16 @@ public class MainProgram
         Meal chosenMeal = null; // declaring the chosen meal and subscriber objects for later use
         Subscriber chosenSub = null;
 
-        boolean foundSubscriber = false;
-        int counter = 2; // keeps track of how many attempts the user has made
-
-        while (!foundSubscriber) // loop which prompts the user for input until a valid choice is made
+        while (chosenSub == null) // loop which prompts the user for input until a valid choice is made
         {
             blankLine();
-            chosenSub = chooseSubscriber(); // calls the chooseSubscriber() method which returns the user's chosen subscriber
-
-            if (chosenSub == null) // handles any case in which an invalid subscriber was entered
-            {
-                counter--;
-
-                blankLine();
-                System.out.println("Subscriber not found!");
-
-                if (counter <= 0) // prints a reminder of valid subscribers if the user enters incorrectly twice
-                {
-                    blankLine();
-                    System.out.println("Reminder - here is a list of valid subscribers:");
-                    displaySubscribers();
-                }
-            }
-            else
-                foundSubscriber = true;
+            chosenSub = chooseSubscriber(); // returns the user's chosen subscriber, or suggests names if not found
         }
 
         blankLine();
         chosenSub.printInfo();
 
         boolean foundMeal = false; // the following block of code operates very similarly to the above section
-        int counter2 = 2;
 
         while (!foundMeal)
         {
@@ -237,21 +1028,10 @@ public class MainProgram
             chosenMeal = chooseMeal();
 
             if (chosenMeal == null)
-            {
-                counter2--;
-
-                blankLine();
-                System.out.println("Meal not found!");
-
-                if(counter2 <= 0)
-                {
-                    blankLine();
-                    System.out.println("Reminder - here is a list of valid meals:");
-                    displayMeals();
-                }
-            }
+                continue;
             else if (chosenMeal.getNumberAvailable() == 0) // checks if there are not enough meals and prints a letter if so
             {
+                metrics.recordStockOut();
                 blankLine();
                 System.out.println("No " + chosenMeal.getName() + " left!");
                 writeLetter(chosenSub, chosenMeal);
@@ -261,10 +1041,12 @@ public class MainProgram
                 foundMeal = true;
         }
 
-        if (chosenSub.getSubscriptions().size() == 3 && chosenSub.searchSubscriptions(chosenMeal) == null) // checks if the subscriber already has 3 subscriptions and if they are trying to add a new one or edit an existing one
+        if (chosenSub.getSubscriptionCount() == Subscriber.MAX_SUBSCRIPTIONS && chosenSub.searchSubscriptions(chosenMeal) == null) // checks if the subscriber already has 3 subscriptions and if they are trying to add a new one or edit an existing one
         {
+            metrics.recordRejected();
             blankLine();
-            System.out.println(chosenSub.getFirstName() + " has reached the maximum number of meal subscriptions (3)!");
+            System.out.println(chosenSub.getFirstName() + " has reached the maximum number of meal subscriptions ("
+                    + Subscriber.MAX_SUBSCRIPTIONS + ")!");
             System.out.println("To delete one, remove all meals of that type");
             return;
         }
@@ -284,21 +1066,18 @@ public class MainProgram
                 String input = k.nextLine();
                 number = Integer.parseInt(input);
 
-                if (chosenMeal.getNumberAvailable() - number < 0)
-                {
-                    throw new NotEnoughMealsException
-                            ("There is not enough " + chosenMeal.getName() + " left to add " + number +
-                                    " to this subscription.");
-                }
-                else if (number < 0)
+                if (number < 0)
                 {
+                    metrics.recordRejected();
                     System.out.println(number + " is a negative number!");
                     System.out.println("Please enter a number between 0 - " + chosenMeal.getNumberAvailable() + ":");
                 }
-                else // adds the meal
+                else // takes the meals out of stock, which throws NotEnoughMealsException if there aren't enough left
                 {
-                    chosenSub.setSubscriptions(chosenMeal, number);
-                    chosenMeal.setNumberAvailable(chosenMeal.getNumberAvailable() - number);
+                    long start = System.nanoTime();
+                    chosenSub.subscribe(chosenMeal, number);
+                    logChange(WriteAheadLog.ADD, chosenSub, chosenMeal, number);
+                    metrics.recordAdd(number, start);
                     valid = true;
                 }
             }
@@ -308,6 +1087,7 @@ public class MainProgram
             }
             catch (NotEnoughMealsException e) // prints a letter if there are not enough to fulfil the request
             {
+                metrics.recordStockOut();
                 System.out.println(e.getMessage());
                 writeLetter(chosenSub, chosenMeal);
                 System.out.println("Please enter a number between 0 - " + chosenMeal.getNumberAvailable() + ":");
@@ -319,62 +1099,223 @@ public class MainProgram
     }
 
     /**
-     * Prints a letter to file informing the subscriber that the request was not processed
+     * Publishes a shortfall, so that the meal goes in the single letter the subscriber is sent at the next checkpoint.
+     * The letter is noted down by the letters' event consumer, so whoever is taking the order doesn't wait for it.
      * @param s Subscriber
      * @param m The meal they tried to add
      */
     private static void writeLetter(Subscriber s, Meal m)
     {
-        f.println("Dear " + s.getName() + ",");
-        f.println();
-        f.println("We regret to inform you that there was not enough " + m.getName()
-                + " left to fulfil your culinary cravings.");
-        f.println("Please accept our sincerest apologies at this most troubling of times.");
-        f.println();
-        f.println("Yours gastronomically,");
-        f.println("Fred's Frozen Food Factory");
-        f.println();
+        long start = System.nanoTime();
+        events.publish(EventBus.Type.SHORTFALL, s, m, 0);
+        metrics.recordLetter(start);
+    }
+
+    /**
+     * Starts the event bus, with one consumer noting down letters for shortfalls and another keeping the metrics
+     * which follow changes, and installs it so every change to a subscription or stock level is published to it
+     */
+    private static void startEvents()
+    {
+        events = new EventBus(EVENT_CAPACITY, MainProgram::handleLetterEvent, metrics::onEvent);
+        EventBus.install(events);
     }
 
     /**
-     * Searches for the chosen subscriber and returns it if valid.
+     * Notes down a letter for each shortfall. Run by the letters' event consumer.
+     * @param e The event
+     * @param endOfBatch Whether this is the last event in the batch
+     */
+    private static void handleLetterEvent(EventBus.Event e, boolean endOfBatch)
+    {
+        if (e.getType() == EventBus.Type.SHORTFALL)
+            letters.write(e.getSubscriber(), e.getMeal());
+    }
+
+    /**
+     * Looks up the chosen subscriber by name and returns it if valid.
+     * If not, it says so and suggests the closest subscriber names instead.
      * @return Chosen subscriber, or null if not found
      */
     private static Subscriber chooseSubscriber()
     {
         System.out.println("Please select a subscriber by entering their full name:");
-        String input = k.nextLine().toLowerCase();
+        String input = k.nextLine();
 
-        String[] names = input.split(" "); // splits the input into first and last name
+        NameSearch<Subscriber> search = subscriberSearch();
+        long start = System.nanoTime();
+        Subscriber s = null;
+        if (search == null || search.mightContain(input)) // the Bloom filter turns most unknown names away straight away
+            s = subscribers.lookup(input); // case-insensitive lookup in the name index
+        metrics.recordLookup(s != null, start);
 
-        if (names.length != 2)
-            return null;
+        if (s == null)
+        {
+            blankLine();
+            System.out.println("Subscriber not found!");
+            printSuggestions(search == null ? nearbySubscribers(input) : search.suggest(input, SUGGESTIONS),
+                    Subscriber::getName);
+        }
+        return s;
+    }
 
-        Subscriber searchItem = new Subscriber(names[0], names[1]);
-        int result = binarySearch(subscribers, searchItem); // Binary search for the subscriber
+    /**
+     * Gets the subscribers whose names come straight after a name in sorted order, used as suggestions with
+     * --mapped, where there is no search over every name
+     * @param name The name as entered by the user
+     * @return Up to SUGGESTIONS subscribers
+     */
+    private static List<Subscriber> nearbySubscribers(String name)
+    {
+        ArrayList<Subscriber> nearby = new ArrayList<>(SUGGESTIONS);
+        Iterator<Subscriber> it = subscribers.iterator(subscribers.ceilingIndex(subscriberProbe(name)));
 
-        if (result == -1) // not found
-            return null;
-        else
-            return subscribers.get(result);
+        while (nearby.size() < SUGGESTIONS && it.hasNext())
+            nearby.add(it.next());
+        return nearby;
     }
 
     /**
-     * Searches for the chosen meal and returns it if valid.
+     * Looks up the chosen meal by name and returns it if valid.
+     * If not, it says so and suggests the closest meal names instead.
      * @return Chosen meal, or null if not found
      */
     private static Meal chooseMeal()
     {
         System.out.println("Please select a meal by entering its name:");
-        String input = k.nextLine().toLowerCase();
+        String input = k.nextLine();
 
-        Meal searchItem = new Meal(input);
-        int result = binarySearch(meals, searchItem); // Binary search
+        NameSearch<Meal> search = mealSearch();
+        long start = System.nanoTime();
+        Meal m = null;
+        if (search.mightContain(input))
+            m = meals.lookup(input);
+        metrics.recordLookup(m != null, start);
 
-        if (result == -1) // not found
-            return null;
-        else
-            return meals.get(result);
+        if (m == null)
+        {
+            blankLine();
+            System.out.println("Meal not found!");
+            printSuggestions(search.suggest(input, SUGGESTIONS), Meal::getName);
+        }
+        return m;
+    }
+
+    /**
+     * Gets the search over subscriber names, building it the first time. There is none with --mapped, as it would
+     * hold every name on the heap.
+     * @return The subscriber search, or null with --mapped
+     */
+    private static NameSearch<Subscriber> subscriberSearch()
+    {
+        if (subscriberSearch == null && !(subscribers instanceof MappedStore))
+            subscriberSearch = NameSearch.of(Subscriber::getName, subscribers);
+        return subscriberSearch;
+    }
+
+    /**
+     * Gets the search over meal names, building it the first time
+     * @return The meal search
+     */
+    private static NameSearch<Meal> mealSearch()
+    {
+        if (mealSearch == null)
+            mealSearch = NameSearch.of(Meal::getName, meals);
+        return mealSearch;
+    }
+
+    /**
+     * Prints "did you mean" suggestions after a name was not found, if there are any
+     * @param suggestions The closest matches, best first
+     * @param name Function which gets the name of a suggestion
+     * @param <E> Subscriber or Meal
+     */
+    private static <E> void printSuggestions(List<E> suggestions, Function<E, String> name)
+    {
+        if (suggestions.isEmpty())
+            return;
+
+        blankLine();
+        System.out.println("Did you mean:");
+        for (E e : suggestions)
+            System.out.println("    " + name.apply(e));
+    }
+
+    /**
+     * Allows the user to add and remove several meals in a subscriber's subscriptions at once, e.g. swapping one meal
+     * for another. The changes are applied together as an Order, so if any of them can't be made, none are.
+     */
+    private static void changeMeals()
+    {
+        Subscriber chosenSub = null;
+
+        while (chosenSub == null)
+        {
+            blankLine();
+            chosenSub = chooseSubscriber();
+        }
+
+        blankLine();
+        chosenSub.printInfo();
+        blankLine();
+        System.out.println("Enter each meal followed by the number to add, or a negative number to remove, e.g. Curry 2 or Fish -1.");
+        System.out.println("Enter a blank line when done:");
+
+        Order order = new Order(chosenSub);
+        String input;
+        while (!(input = k.nextLine().trim()).isEmpty()) // reads changes until a blank line
+        {
+            int space = input.lastIndexOf(' ');
+            if (space < 0 || !input.substring(space + 1).matches("[+-]?[0-9]{1,9}"))
+            {
+                System.out.println("Invalid format, please enter a meal name and a number:");
+                continue;
+            }
+
+            Meal m = meals.lookup(input.substring(0, space));
+            if (m == null)
+                System.out.println("'" + input.substring(0, space).trim() + "' is not a meal, please try again:");
+            else
+                order.change(m, Integer.parseInt(input.substring(space + 1)));
+        }
+
+        blankLine();
+        if (order.isEmpty())
+        {
+            System.out.println("Nothing to change!");
+            return;
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            order.apply();
+        }
+        catch (NotEnoughMealsException e) // prints a letter for the meal there wasn't enough of
+        {
+            metrics.recordStockOut();
+            System.out.println(e.getMessage() + " Nothing has been changed.");
+            writeLetter(chosenSub, e.getMeal());
+            return;
+        }
+        catch (IllegalStateException e) // not enough of a meal to remove, or too many different meals
+        {
+            metrics.recordRejected();
+            System.out.println(e.getMessage() + " Nothing has been changed.");
+            return;
+        }
+
+        logOrder(order);
+        for (int change : order.getChanges().values())
+        {
+            if (change > 0)
+                metrics.recordAdd(change, start);
+            else
+                metrics.recordRemove(-change, start);
+        }
+
+        System.out.println(chosenSub.getFirstName() + "'s subscription has been changed:");
+        chosenSub.printInfo();
     }
 
     /**
@@ -387,25 +1328,15 @@ public class MainProgram
         Meal chosenMeal = null;
         Subscription chosenSubscription = null;
 
-        boolean foundSubscriber = false;
-
-        while (!foundSubscriber) // loops through prompting the user to choose a subscriber
+        while (chosenSub == null) // loops through prompting the user to choose a subscriber
         {
             blankLine();
             chosenSub = chooseSubscriber();
-
-            if (chosenSub == null)
-            {
-                blankLine();
-                System.out.println("Subscriber not found!");
-            }
-            else
-                foundSubscriber = true;
         }
 
         blankLine();
 
-        if (chosenSub.getSubscriptions().isEmpty()) // returns back to the menu if the user chooses a subscriber with no meals
+        if (chosenSub.getSubscriptionCount() == 0) // returns back to the menu if the user chooses a subscriber with no meals
         {
             System.out.println(chosenSub.getFirstName() + " has no subscriptions to remove from!");
             return;
@@ -421,10 +1352,7 @@ public class MainProgram
             chosenMeal = chooseMeal();
 
             if (chosenMeal == null)
-            {
-                blankLine();
-                System.out.println("Meal not found!");
-            }
+                continue;
             else if (chosenSub.searchSubscriptions(chosenMeal) == null)
             {
                 blankLine();
@@ -455,20 +1383,24 @@ public class MainProgram
 
                 if (chosenSubscription.getQuantity() - number < 0)
                 {
+                    metrics.recordRejected();
                     blankLine();
                     System.out.println("You are trying to remove too many meals!");
                     System.out.println("Please enter a number between 0 - " + chosenSubscription.getQuantity() + ":");
                 }
                 else if (number < 0)
                 {
+                    metrics.recordRejected();
                     blankLine();
                     System.out.println(number + " is a negative number!");
                     System.out.println("Please enter a number between 0 - " + chosenSubscription.getQuantity() + ":");
                 }
-                else // removes the meal(s)
+                else // removes the meal(s) and puts them back in stock
                 {
-                    chosenSubscription.setQuantity(chosenSubscription.getQuantity() - number);
-                    chosenMeal.setNumberAvailable(chosenMeal.getNumberAvailable() + number);
+                    long start = System.nanoTime();
+                    chosenSub.unsubscribe(chosenMeal, number);
+                    logChange(WriteAheadLog.REMOVE, chosenSub, chosenMeal, number);
+                    metrics.recordRemove(number, start);
                     valid = true;
                 }
             }
@@ -481,9 +1413,8 @@ public class MainProgram
         }
         blankLine();
 
-        if (chosenSubscription.getQuantity() == 0) // removes a subscription from the ArrayList if quantity is set to 0
+        if (chosenSubscription.getQuantity() == 0) // the subscription will have been removed if quantity is set to 0
         {
-            chosenSub.getSubscriptions().remove(chosenSubscription);
             System.out.println("Subscription successfully removed from " + chosenSub.getFirstName() + "'s account!");
         }
         else
@@ -504,39 +1435,6 @@ public class MainProgram
         blankLine();
     }
 
-    /**
-     * Binary Search algorithm I included for scalability. Checks through a SortedLinkedList for the Meal or Subscriber
-     * @param a The list to search through
-     * @param searchItem The item to find
-     * @return The index of the found item, or -1 if not found
-     * @param <E> An object which extends the Comparable interface
-     */
-    private static <E extends Comparable<E>> int binarySearch(SortedLinkedList<E> a, E searchItem)
-    {
-        int first = 0;
-        int last = a.size() - 1;
-        int mid = -1;
-        boolean found = false;
-
-        while (first <= last && !found)
-        {
-            mid = (first + last)/2;
-            int result = a.get(mid).compareTo(searchItem);
-            if (result == 0)
-                found = true;
-            else
-                if (result > 0)
-                    last = mid - 1;
-                else
-                    first = mid + 1;
-        }
-
-        if (found)
-            return mid;
-        else
-            return -1;
-    }
-
     /**
      * Generates a random greeting upon opening the program
      * @return Random greeting
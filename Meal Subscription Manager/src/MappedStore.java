@@ -0,0 +1,851 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+/**
+ * A way of holding subscribers which keeps them off the Java heap altogether, for datasets too large to fit in it.
+ * Every subscriber is a fixed-width record in a memory-mapped file, so the operating system pages records in and out
+ * as they are used and the heap stays the same size however many subscribers there are.
+ * The records are written in name order, so the file is its own ordered name index: looking a subscriber up is a
+ * binary search over the records, and the i-th subscriber is simply the i-th record.
+ * <p>
+ * The file starts with a header holding a magic number, a format version, the record size, the number of subscribers,
+ * where the records start and the sequence number of the last change in the WriteAheadLog it holds, followed by each
+ * meal's name and number available. Each 128-byte record then holds
+ * the first name and surname as a length byte followed by up to 47 bytes of UTF-8, and Subscriber.MAX_SUBSCRIPTIONS
+ * slots, each a 2-byte meal id (-1 for an empty slot), 2 unused bytes and a 4-byte quantity.
+ * <p>
+ * The file is mapped copy-on-write, so changes made while the program runs are kept in memory and never touch the
+ * file, and write() saves a whole new file atomically, just as a Snapshot is saved. The file on disk is therefore
+ * always exactly what was last saved, and the write-ahead log can be replayed on top of it after a crash.
+ * <p>
+ * get() returns a new flyweight view of a record each time rather than keeping one object per subscriber.
+ * As there can be more than one view of the same record, views synchronize on one of a fixed set of lock objects
+ * chosen by record number rather than on themselves, and getLock() returns it.
+ * To keep the heap flat, changes to views do not update the meals' indexes of their subscribers, and
+ * subscribersTo() scans the records instead.
+ */
+public class MappedStore extends AbstractList<Subscriber> implements SortedList<Subscriber>, RandomAccess
+{
+    /**
+     * Magic number at the start of every file, "FFFM" for Fred's Frozen Food Map
+     */
+    private static final int MAGIC = 0x4646464D;
+    /**
+     * Version of the file format, increased whenever the format changes
+     */
+    private static final short VERSION = 2;
+    /**
+     * Size of the fixed part of the header, before the meals
+     */
+    private static final int HEADER_SIZE = 32;
+    /**
+     * The records start on a multiple of this, so no record is split across pages
+     */
+    private static final int PAGE_SIZE = 4096;
+    /**
+     * Number of bits in the size of each record
+     */
+    private static final int RECORD_BITS = 7;
+    /**
+     * Size of each record in bytes
+     */
+    private static final int RECORD_SIZE = 1 << RECORD_BITS;
+    /**
+     * The most bytes of UTF-8 each name can take up in a record
+     */
+    private static final int NAME_BYTES = 47;
+    /**
+     * Position of the first name within a record
+     */
+    private static final int FIRST_NAME = 0;
+    /**
+     * Position of the surname within a record
+     */
+    private static final int SURNAME = FIRST_NAME + 1 + NAME_BYTES;
+    /**
+     * Position of the first subscription slot within a record
+     */
+    private static final int SLOTS = SURNAME + 1 + NAME_BYTES;
+    /**
+     * Size of each subscription slot
+     */
+    private static final int SLOT_SIZE = 8;
+    /**
+     * Meal id stored in a slot which is not in use
+     */
+    private static final short EMPTY = -1;
+    /**
+     * Number of bits in the number of records mapped together, 2^23 records making 1GB, as a single mapping
+     * cannot be larger than 2GB
+     */
+    private static final int SEGMENT_BITS = 30 - RECORD_BITS;
+    /**
+     * Number of lock objects shared between the records
+     */
+    private static final int LOCK_STRIPES = 1024;
+
+    /**
+     * The meals, with each meal's id being its position in the array
+     */
+    private final Meal[] meals;
+    /**
+     * The id of each meal
+     */
+    private final IdentityHashMap<Meal, Short> mealIds;
+    /**
+     * The records, mapped 2^SEGMENT_BITS at a time
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * Number of subscribers
+     */
+    private final int size;
+    /**
+     * Locks shared between the records, chosen by record number
+     */
+    private final Object[] locks;
+    /**
+     * Sequence number of the last change in the log which the file holds
+     */
+    private final long logSequence;
+
+    /**
+     * Private constructor, as stores are created through open()
+     * @param meals The meals
+     * @param segments The mapped records
+     * @param size Number of subscribers
+     * @param logSequence Sequence number of the last change in the log which the file holds
+     */
+    private MappedStore(Meal[] meals, MappedByteBuffer[] segments, int size, long logSequence)
+    {
+        this.meals = meals;
+        this.mealIds = new IdentityHashMap<>();
+        for (short i = 0; i < meals.length; i++)
+            mealIds.put(meals[i], i);
+        this.segments = segments;
+        this.size = size;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+        this.logSequence = logSequence;
+    }
+
+    /**
+     * Writes a store file. It is written to a temporary file first, forced to disk and then moved into place, so a
+     * crash part way through never leaves a half-written file behind, and a store which currently has the file mapped
+     * carries on using the old one.
+     * @param path Where to write the file
+     * @param meals The meals
+     * @param subscribers The subscribers, in sorted order
+     * @param logSequence Sequence number of the last change in the log which the file holds, from
+     * WriteAheadLog.checkpoint()
+     * @throws IOException if the file cannot be written, a name is too long for a record or there are too many meals
+     */
+    public static void write(Path path, List<Meal> meals, List<Subscriber> subscribers, long logSequence)
+            throws IOException
+    {
+        if (meals.size() > Short.MAX_VALUE)
+            throw new IOException("Too many meals for a mapped store: " + meals.size());
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        IdentityHashMap<Meal, Integer> mealIds = new IdentityHashMap<>();
+        ArrayList<byte[]> mealNames = new ArrayList<>(meals.size());
+        int mealTableSize = 0;
+        for (Meal m : meals) // each meal's id is its position in the list
+        {
+            mealIds.put(m, mealIds.size());
+            byte[] name = m.getName().getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF)
+                throw new IOException("The name of " + m.getName() + " is too long");
+            mealNames.add(name);
+            mealTableSize += 2 + name.length + 4;
+        }
+        long recordsStart = roundUp(HEADER_SIZE + mealTableSize);
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(RECORD_SIZE);
+            out.writeInt(subscribers.size());
+            out.writeInt(meals.size());
+            out.writeLong(recordsStart);
+            out.writeLong(logSequence);
+
+            for (int i = 0; i < meals.size(); i++)
+            {
+                out.writeShort(mealNames.get(i).length);
+                out.write(mealNames.get(i));
+                out.writeInt(meals.get(i).getNumberAvailable());
+            }
+            out.write(new byte[(int) (recordsStart - HEADER_SIZE - mealTableSize)]);
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (Subscriber s : subscribers)
+            {
+                Arrays.fill(record.array(), (byte) 0);
+                putName(record, FIRST_NAME, s.getFirstName());
+                putName(record, SURNAME, s.getSurname());
+                for (int slot = 0; slot < Subscriber.MAX_SUBSCRIPTIONS; slot++)
+                    record.putShort(SLOTS + slot * SLOT_SIZE, EMPTY);
+
+                synchronized (s.getLock()) // stops the subscriptions changing while they are written
+                {
+                    int slot = 0;
+                    for (Subscription sub : s.getSubscriptions())
+                    {
+                        Integer id = mealIds.get(sub.getMeal());
+                        if (id == null)
+                            throw new IOException(s.getName() + " is subscribed to " + sub.getMeal().getName()
+                                    + ", which is not in the list of meals");
+                        if (sub.getQuantity() == 0 || slot == Subscriber.MAX_SUBSCRIPTIONS)
+                            continue;
+
+                        record.putShort(SLOTS + slot * SLOT_SIZE, id.shortValue());
+                        record.putInt(SLOTS + slot * SLOT_SIZE + 4, sub.getQuantity());
+                        slot++;
+                    }
+                }
+                out.write(record.array());
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+
+        Snapshot.replace(temp, path);
+    }
+
+    /**
+     * Maps a store file written by write(). The meals are read onto the heap, while the subscribers stay in the file.
+     * @param path The file
+     * @return The store
+     * @throws IOException if the file cannot be read or is not a valid store file
+     */
+    public static MappedStore open(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException(path + " is not a mapped store file");
+            short version = header.getShort();
+            if (version != VERSION)
+                throw new IOException(path + " uses mapped store format version " + version + ", expected " + VERSION);
+            if (header.getShort() != RECORD_SIZE)
+                throw new IOException(path + " is corrupt: wrong record size");
+
+            int size = header.getInt();
+            int mealCount = header.getInt();
+            long recordsStart = header.getLong();
+            long logSequence = header.getLong();
+            if (size < 0 || recordsStart < HEADER_SIZE || recordsStart > Integer.MAX_VALUE
+                    || recordsStart + ((long) size << RECORD_BITS) > channel.size())
+                throw new IOException(path + " is corrupt: the file ended early");
+            if (mealCount < 0 || mealCount > (recordsStart - HEADER_SIZE) / (2 + 4))
+                throw new IOException(path + " is corrupt: it cannot hold " + mealCount + " meals");
+
+            Meal[] meals = new Meal[mealCount];
+
+            ByteBuffer mealTable = read(channel, HEADER_SIZE, (int) recordsStart - HEADER_SIZE);
+            for (int i = 0; i < meals.length; i++)
+            {
+                byte[] name = new byte[Short.toUnsignedInt(mealTable.getShort())];
+                mealTable.get(name);
+                meals[i] = new Meal(new String(name, StandardCharsets.UTF_8), mealTable.getInt());
+            }
+
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) (((long) size + (1 << SEGMENT_BITS) - 1) >> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++)
+            {
+                long first = (long) i << SEGMENT_BITS;
+                long records = Math.min(1 << SEGMENT_BITS, size - first);
+                segments[i] = channel.map(FileChannel.MapMode.PRIVATE, recordsStart + (first << RECORD_BITS),
+                        records << RECORD_BITS);
+            }
+            return new MappedStore(meals, segments, size, logSequence);
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException(path + " is corrupt: the file ended early");
+        }
+    }
+
+    /**
+     * Reads only the header of a store file, to find out which changes it holds without mapping it
+     * @param path The file
+     * @return Sequence number of the last change in the log which the file holds
+     * @throws IOException if the file cannot be read or is not a store file
+     */
+    public static long readLogSequence(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException(path + " is not a mapped store file");
+            short version = header.getShort();
+            if (version != VERSION)
+                throw new IOException(path + " uses mapped store format version " + version + ", expected " + VERSION);
+            return header.getLong(HEADER_SIZE - 8);
+        }
+    }
+
+    /**
+     * Reads part of a file into a buffer on the heap
+     * @param channel The file
+     * @param position Where to start reading
+     * @param length The most bytes to read
+     * @return The buffer, ready to read from, which is shorter than length if the file ended first
+     * @throws IOException if the file cannot be read
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0)
+        {
+            // keeps reading until the buffer is full or the file ends
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Log sequence getter
+     * @return Sequence number of the last change in the log which the file holds, so replaying skips up to it
+     */
+    public long getLogSequence()
+    {
+        return logSequence;
+    }
+
+    /**
+     * Meals getter
+     * @return The meals in the order they were written, which is sorted if they were written from a sorted list
+     */
+    public Meal[] getMeals()
+    {
+        return meals.clone();
+    }
+
+    /**
+     * Gets everyone subscribed to a meal, sorted by name, with their quantities, by scanning the records, as views
+     * don't fill in the meal's index of its subscribers
+     * @param m The meal
+     * @return Each subscriber to the meal and how many they have
+     */
+    public Map<Subscriber, Integer> subscribersTo(Meal m)
+    {
+        LinkedHashMap<Subscriber, Integer> found = new LinkedHashMap<>();
+        Short id = mealIds.get(m);
+        for (int i = 0; id != null && i < size; i++)
+        {
+            int quantity = quantityOf(i, id);
+            if (quantity > 0)
+                found.put(get(i), quantity);
+        }
+        return found;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Gets a new view of a record
+     * @param index Position of the subscriber
+     * @return The view
+     */
+    public Subscriber get(int index)
+    {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+        return new RecordView(this, index);
+    }
+
+    public Iterator<Subscriber> iterator(int from)
+    {
+        return listIterator(from);
+    }
+
+    /**
+     * Looks up a subscriber by name with a binary search over the records, ignoring case and extra whitespace
+     * @param name The name as entered by the user, first name then surname
+     * @return A view of the subscriber, or null if not found
+     */
+    public Subscriber lookup(CharSequence name)
+    {
+        String normalised = NameIndex.normalise(name.toString());
+        int space = normalised.indexOf(' ');
+        if (space < 0)
+            return null;
+
+        int index = ceiling(normalised.substring(space + 1), normalised.substring(0, space));
+        if (index == size)
+            return null;
+
+        Subscriber s = get(index);
+        return NameIndex.normalise(s.getName()).equals(normalised) ? s : null;
+    }
+
+    public int ceilingIndex(Subscriber key)
+    {
+        return ceiling(key.getSurnameKey(), key.getFirstNameKey());
+    }
+
+    /**
+     * Finds the first record which is not less than a name, comparing in the same way as Subscriber.compareTo
+     * @param surnameKey The surname in lower case
+     * @param firstNameKey The first name in lower case
+     * @return Its position, or size if there is none
+     */
+    private int ceiling(String surnameKey, String firstNameKey)
+    {
+        int low = 0;
+        int high = size;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            int comparison = name(middle, SURNAME).toLowerCase().compareTo(surnameKey);
+            if (comparison == 0)
+                comparison = name(middle, FIRST_NAME).toLowerCase().compareTo(firstNameKey);
+
+            if (comparison < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Gets the buffer holding a record
+     * @param index Position of the record
+     * @return The buffer
+     */
+    private ByteBuffer segment(int index)
+    {
+        return segments[index >>> SEGMENT_BITS];
+    }
+
+    /**
+     * Gets the position of a record in its buffer
+     * @param index Position of the record
+     * @return Its position in the buffer
+     */
+    private static int offset(int index)
+    {
+        return (index & ((1 << SEGMENT_BITS) - 1)) << RECORD_BITS;
+    }
+
+    /**
+     * Reads a name from a record
+     * @param index Position of the record
+     * @param field FIRST_NAME or SURNAME
+     * @return The name
+     */
+    private String name(int index, int field)
+    {
+        ByteBuffer segment = segment(index);
+        int position = offset(index) + field;
+        byte[] bytes = new byte[Byte.toUnsignedInt(segment.get(position))];
+        segment.get(position + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a name into a record being built
+     * @param record The record
+     * @param field FIRST_NAME or SURNAME
+     * @param name The name
+     * @throws IOException if the name is too long to fit
+     */
+    private static void putName(ByteBuffer record, int field, String name) throws IOException
+    {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > NAME_BYTES)
+            throw new IOException("'" + name + "' is too long for a mapped store, which allows " + NAME_BYTES + " bytes");
+
+        record.put(field, (byte) bytes.length);
+        record.put(field + 1, bytes);
+    }
+
+    /**
+     * Gets the quantity of a meal in a record's slots
+     * @param index Position of the record
+     * @param id The meal id
+     * @return The quantity, or 0 if the subscriber isn't subscribed to it
+     */
+    private int quantityOf(int index, short id)
+    {
+        ByteBuffer segment = segment(index);
+        int first = offset(index) + SLOTS;
+
+        synchronized (locks[index & (LOCK_STRIPES - 1)])
+        {
+            for (int slot = first; slot < first + Subscriber.MAX_SUBSCRIPTIONS * SLOT_SIZE; slot += SLOT_SIZE)
+            {
+                if (segment.getShort(slot) == id)
+                    return segment.getInt(slot + 4);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Rounds a position up to the start of the next page
+     * @param position The position
+     * @return The position of the page
+     */
+    private static long roundUp(long position)
+    {
+        return (position + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * A flyweight Subscriber reading and writing one record of a MappedStore. Any number of views of the same record
+     * can exist at once; they all synchronize on the same lock and compare as equal.
+     */
+    public static class RecordView extends Subscriber
+    {
+        /**
+         * The store holding the record
+         */
+        private final MappedStore store;
+        /**
+         * Position of the record
+         */
+        private final int index;
+
+        /**
+         * Constructor for a view of one record
+         * @param store The store holding the record
+         * @param index Position of the record
+         */
+        private RecordView(MappedStore store, int index)
+        {
+            this.store = store;
+            this.index = index;
+        }
+
+        public String getFirstName()
+        {
+            return store.name(index, FIRST_NAME);
+        }
+
+        public String getSurname()
+        {
+            return store.name(index, SURNAME);
+        }
+
+        protected String getFirstNameKey()
+        {
+            return getFirstName().toLowerCase();
+        }
+
+        protected String getSurnameKey()
+        {
+            return getSurname().toLowerCase();
+        }
+
+        /**
+         * Records are kept in name order, so subscribers in a mapped store cannot be renamed
+         * @param firstName First name
+         * @param surname Surname
+         * @throws UnsupportedOperationException always
+         */
+        public void setName(String firstName, String surname)
+        {
+            throw new UnsupportedOperationException("Subscribers in a mapped store cannot be renamed");
+        }
+
+        public Object getLock()
+        {
+            return store.locks[index & (LOCK_STRIPES - 1)];
+        }
+
+        /**
+         * Subscriptions getter. As the subscriptions are held in the record's slots, this returns a new list of views
+         * each time, and changing the list itself has no effect.
+         * @return Subscriptions
+         */
+        public ArrayList<Subscription> getSubscriptions()
+        {
+            ArrayList<Subscription> list = new ArrayList<>(Subscriber.MAX_SUBSCRIPTIONS);
+
+            synchronized (getLock())
+            {
+                for (int slot = 0; slot < Subscriber.MAX_SUBSCRIPTIONS; slot++)
+                {
+                    if (mealIdAt(slot) != EMPTY)
+                        list.add(new SlotView(this, slot));
+                }
+            }
+            return list;
+        }
+
+        public int getSubscriptionCount()
+        {
+            int count = 0;
+
+            synchronized (getLock())
+            {
+                for (int slot = 0; slot < Subscriber.MAX_SUBSCRIPTIONS; slot++)
+                {
+                    if (mealIdAt(slot) != EMPTY)
+                        count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Adds a quantity of a meal to the subscription in the slot holding that meal, or to the first empty slot.
+         * @param meal The chosen meal
+         * @param quantity The desired amount
+         * @throws IllegalStateException if this would be a new subscription and every slot is already in use
+         */
+        public void setSubscriptions(Meal meal, int quantity)
+        {
+            short id = mealId(meal);
+
+            synchronized (getLock())
+            {
+                int slot = findSlot(id);
+
+                if (slot == -1) // not subscribed yet, so takes the first free slot
+                {
+                    slot = findSlot(EMPTY);
+                    if (slot == -1)
+                        throw new IllegalStateException(getFirstName() + " has reached the maximum number of meal subscriptions ("
+                                + Subscriber.MAX_SUBSCRIPTIONS + ")!");
+
+                    setSlot(slot, id, 0);
+                }
+                setSlot(slot, id, quantityAt(slot) + quantity);
+                EventBus.post(EventBus.Type.QUANTITY, this, meal, quantityAt(slot));
+            }
+        }
+
+        public int removeSubscriptions(Meal meal, int quantity)
+        {
+            if (quantity < 0)
+                throw new IllegalArgumentException(quantity + " is a negative number!");
+
+            synchronized (getLock())
+            {
+                int slot = findSlot(mealId(meal));
+
+                if (slot == -1 || quantityAt(slot) < quantity)
+                    throw new IllegalStateException("Cannot remove " + quantity + " " + meal.getName() + " from " + getName());
+
+                int left = quantityAt(slot) - quantity;
+                setSlot(slot, (left == 0) ? EMPTY : mealIdAt(slot), left); // frees the slot if quantity is set to 0
+                EventBus.post(EventBus.Type.QUANTITY, this, meal, left);
+                return left;
+            }
+        }
+
+        public void subscribe(Meal meal, int quantity) throws NotEnoughMealsException
+        {
+            synchronized (getLock()) // checks the limit and adds the meals in one step for every view of the record
+            {
+                super.subscribe(meal, quantity);
+            }
+        }
+
+        public void unsubscribe(Meal meal, int quantity)
+        {
+            synchronized (getLock())
+            {
+                super.unsubscribe(meal, quantity);
+            }
+        }
+
+        public Subscription searchSubscriptions(Meal m)
+        {
+            Short id = store.mealIds.get(m);
+
+            synchronized (getLock())
+            {
+                int slot = (id == null) ? -1 : findSlot(id);
+                return (slot == -1) ? null : new SlotView(this, slot);
+            }
+        }
+
+        public String toString()
+        {
+            synchronized (getLock())
+            {
+                return super.toString();
+            }
+        }
+
+        public void printInfo()
+        {
+            synchronized (getLock())
+            {
+                super.printInfo();
+            }
+        }
+
+        /**
+         * Equals override, as there can be more than one view of the same record
+         * @param o The object to compare with
+         * @return true if o is a view of the same record
+         */
+        public boolean equals(Object o)
+        {
+            return o instanceof RecordView && ((RecordView) o).store == store && ((RecordView) o).index == index;
+        }
+
+        /**
+         * hashCode override to match equals
+         * @return The position of the record
+         */
+        public int hashCode()
+        {
+            return index;
+        }
+
+        /**
+         * Gets the id of a meal
+         * @param m The meal
+         * @return Its id
+         * @throws IllegalArgumentException if the meal is not in the store
+         */
+        private short mealId(Meal m)
+        {
+            Short id = store.mealIds.get(m);
+            if (id == null)
+                throw new IllegalArgumentException(m.getName() + " is not one of the store's meals");
+            return id;
+        }
+
+        /**
+         * Finds the slot holding a meal
+         * @param id The meal id, or EMPTY to find a free slot
+         * @return The slot, or -1 if not found
+         */
+        private int findSlot(short id)
+        {
+            for (int slot = 0; slot < Subscriber.MAX_SUBSCRIPTIONS; slot++)
+            {
+                if (mealIdAt(slot) == id)
+                    return slot;
+            }
+            return -1;
+        }
+
+        /**
+         * Reads the meal id in a slot
+         * @param slot The slot
+         * @return The meal id, or EMPTY
+         */
+        private short mealIdAt(int slot)
+        {
+            return store.segment(index).getShort(offset(index) + SLOTS + slot * SLOT_SIZE);
+        }
+
+        /**
+         * Reads the quantity in a slot
+         * @param slot The slot
+         * @return The quantity
+         */
+        private int quantityAt(int slot)
+        {
+            return store.segment(index).getInt(offset(index) + SLOTS + slot * SLOT_SIZE + 4);
+        }
+
+        /**
+         * Writes a slot
+         * @param slot The slot
+         * @param id The meal id, or EMPTY
+         * @param quantity The quantity
+         */
+        private void setSlot(int slot, short id, int quantity)
+        {
+            ByteBuffer segment = store.segment(index);
+            int position = offset(index) + SLOTS + slot * SLOT_SIZE;
+            segment.putShort(position, id);
+            segment.putInt(position + 4, quantity);
+        }
+    }
+
+    /**
+     * A Subscription held in one of a record's slots. Once the slot is freed, the view reports a quantity of 0.
+     */
+    public static class SlotView extends Subscription
+    {
+        /**
+         * The subscriber the slot belongs to
+         */
+        private final RecordView owner;
+        /**
+         * The slot
+         */
+        private final int slot;
+        /**
+         * The meal id the slot held when the view was created
+         */
+        private final short mealId;
+
+        /**
+         * Constructor for a view of one slot
+         * @param owner The subscriber the slot belongs to
+         * @param slot The slot
+         */
+        private SlotView(RecordView owner, int slot)
+        {
+            super(null, 0);
+            this.owner = owner;
+            this.slot = slot;
+            this.mealId = owner.mealIdAt(slot);
+        }
+
+        public Meal getMeal()
+        {
+            return owner.store.meals[mealId];
+        }
+
+        public int getQuantity()
+        {
+            synchronized (owner.getLock())
+            {
+                return (owner.mealIdAt(slot) == mealId) ? owner.quantityAt(slot) : 0;
+            }
+        }
+
+        public void setMeal(Meal m)
+        {
+            synchronized (owner.getLock())
+            {
+                Meal old = getMeal();
+                owner.setSlot(slot, owner.mealId(m), owner.quantityAt(slot));
+                EventBus.post(EventBus.Type.QUANTITY, owner, old, 0);
+                EventBus.post(EventBus.Type.QUANTITY, owner, m, owner.quantityAt(slot));
+            }
+        }
+
+        public void setQuantity(int q)
+        {
+            synchronized (owner.getLock())
+            {
+                Meal m = getMeal();
+                owner.setSlot(slot, (q == 0) ? EMPTY : owner.mealIdAt(slot), q);
+                EventBus.post(EventBus.Type.QUANTITY, owner, m, q);
+            }
+        }
+    }
+}
@@ -1,7 +1,14 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * The Meal class. This stores the name of each meal as well as the number available.
  * Contains getters and setters and some overridden methods. Similarly to subscriber, Meal implements the Comparable interface.
+ * The number available is held in an AtomicInteger, and reserve() and release() change it with compare-and-set, so
+ * many threads can take orders for the same meal at once without ever overselling it.
+ * Each meal also keeps an index of the subscribers subscribed to it and how many each has, which Subscriber keeps up
+ * to date whenever a subscription changes, so finding everyone subscribed to a meal doesn't mean searching through
+ * every subscriber.
  */
 public class Meal implements Comparable<Meal>
 {
@@ -10,10 +17,57 @@ public class Meal implements Comparable<Meal>
      * Field for meal name
      */
     private String name;
+    /**
+     * The name in lower case, worked out once so that comparing meals doesn't convert both names every time
+     */
+    private String sortKey;
     /**
      * Field for the number available
      */
-    private int numberAvailable;
+    private final AtomicInteger numberAvailable;
+    /**
+     * Every subscriber subscribed to this meal, and the quantity they are subscribed to.
+     * Subscriber does not override hashCode(), so each subscriber is its own key.
+     */
+    private final ConcurrentHashMap<Subscriber, Integer> subscribers;
+    /**
+     * The text printInfo() and toString() last rendered, thrown away when the name or number available is set
+     */
+    private volatile Rendering rendered;
+
+    /**
+     * Rendered text, with the name and number available it was rendered from. Both are checked by value before the
+     * text is reused, in the same way as Subscription's line: the number also changes through reserve() and
+     * release(), and comparing the name costs nothing while it is the same String.
+     */
+    private static final class Rendering
+    {
+        /**
+         * The name rendered
+         */
+        private final String name;
+        /**
+         * The number available rendered
+         */
+        private final int stock;
+        /**
+         * The line printed by printInfo()
+         */
+        private final String line;
+        /**
+         * The text returned by toString()
+         */
+        private final String text;
+
+        private Rendering(String name, int stock)
+        {
+            this.name = name;
+            this.stock = stock;
+            this.line = ListingWriter.column(new StringBuilder(ListingWriter.NAME_WIDTH + 11), name).append(stock)
+                    .toString();
+            this.text = name + ": " + stock + " available";
+        }
+    }
 
     /**
      * The constructor for a new meal
@@ -23,7 +77,9 @@ public class Meal implements Comparable<Meal>
     public Meal(String name, int numberAvailable)
     {
         this.name = name;
-        this.numberAvailable = numberAvailable;
+        this.sortKey = name.toLowerCase();
+        this.numberAvailable = new AtomicInteger(numberAvailable);
+        this.subscribers = new ConcurrentHashMap<>();
     }
 
     /**
@@ -33,7 +89,9 @@ public class Meal implements Comparable<Meal>
     public Meal(String name)
     {
         this.name = name;
-        this.numberAvailable = 0;
+        this.sortKey = name.toLowerCase();
+        this.numberAvailable = new AtomicInteger(0);
+        this.subscribers = new ConcurrentHashMap<>();
     }
 
     /**
@@ -52,6 +110,8 @@ public class Meal implements Comparable<Meal>
     public void setName(String name)
     {
         this.name = name;
+        this.sortKey = name.toLowerCase();
+        this.rendered = null;
     }
 
     /**
@@ -60,16 +120,105 @@ public class Meal implements Comparable<Meal>
      */
     public int getNumberAvailable()
     {
-        return numberAvailable;
+        return numberAvailable.get();
     }
 
     /**
-     * Number available setter
+     * Number available setter. This overwrites the stock level, so should not be used to take or return orders -
+     * use reserve() and release() for that.
      * @param numberAvailable Number available
      */
     public void setNumberAvailable(int numberAvailable)
     {
-        this.numberAvailable = numberAvailable;
+        if (numberAvailable < 0)
+            throw new IllegalArgumentException("The number of " + name + " available cannot be negative");
+
+        this.numberAvailable.set(numberAvailable);
+        this.rendered = null;
+        EventBus.post(EventBus.Type.STOCK, null, this, numberAvailable);
+    }
+
+    /**
+     * Atomically takes a number of meals out of stock. If another thread changes the stock level in the meantime,
+     * the check is simply retried against the new level.
+     * @param number Number of meals to take
+     * @throws NotEnoughMealsException if fewer than number are available, in which case the stock is left unchanged
+     */
+    public void reserve(int number) throws NotEnoughMealsException
+    {
+        if (number < 0)
+            throw new IllegalArgumentException("Cannot reserve a negative number of meals");
+
+        int available;
+        do
+        {
+            available = numberAvailable.get();
+
+            if (available < number)
+            {
+                throw new NotEnoughMealsException
+                        ("There is not enough " + name + " left to add " + number + " to this subscription.", this);
+            }
+        }
+        while (!numberAvailable.compareAndSet(available, available - number));
+        EventBus.post(EventBus.Type.STOCK, null, this, available - number);
+    }
+
+    /**
+     * Atomically puts a number of meals back into stock, e.g. when they are removed from a subscription
+     * @param number Number of meals to return
+     */
+    public void release(int number)
+    {
+        if (number < 0)
+            throw new IllegalArgumentException("Cannot release a negative number of meals");
+
+        EventBus.post(EventBus.Type.STOCK, null, this, numberAvailable.addAndGet(number));
+    }
+
+    /**
+     * Subscribers getter. The map is read-only, and is kept up to date as subscriptions change, so it is safe to
+     * iterate over while orders are being taken, though it may or may not show changes made in the meantime.
+     * @return Every subscriber subscribed to this meal, and the quantity they are subscribed to
+     */
+    public Map<Subscriber, Integer> getSubscribers()
+    {
+        return Collections.unmodifiableMap(subscribers);
+    }
+
+    /**
+     * Gets the subscribers subscribed to this meal, sorted by name. This takes time in proportion to the number of
+     * subscribers to this meal, however many subscribers there are in total.
+     * @return The subscribers
+     */
+    public Subscriber[] getSubscribersSorted()
+    {
+        Subscriber[] sorted = subscribers.keySet().toArray(new Subscriber[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Gets the number of subscribers subscribed to this meal
+     * @return Number of subscribers
+     */
+    public int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    /**
+     * Records the quantity of this meal a subscriber is now subscribed to. This is only called by Subscriber and
+     * CompactStore when a subscription changes, while holding the subscriber's lock.
+     * @param s The subscriber
+     * @param quantity Their new quantity, with 0 meaning they are no longer subscribed
+     */
+    void indexSubscriber(Subscriber s, int quantity)
+    {
+        if (quantity == 0)
+            subscribers.remove(s);
+        else
+            subscribers.put(s, quantity);
     }
 
     /**
@@ -78,18 +227,18 @@ public class Meal implements Comparable<Meal>
      */
     public String toString()
     {
-        return name + ": " + numberAvailable + " available";
+        return render().text;
     }
 
     /**
-     * compareTo override which compares by meal name.
+     * compareTo override which compares by meal name, ignoring case. The lower case names are worked out when the name
+     * is set, so comparing allocates nothing.
      * @param m the meal to be compared.
      * @return the result of the comparison
      */
     public int compareTo(Meal m)
     {
-        String formattedName = name.toLowerCase();
-        return formattedName.compareTo(m.name.toLowerCase());
+        return sortKey.compareTo(m.sortKey);
     }
 
     /**
@@ -103,15 +252,31 @@ public class Meal implements Comparable<Meal>
     }
 
     /**
-     * Similar to the printInfo method in Subscription, this one calculates whitespace and prints the meal along with
-     * its number available spaced apart neatly.
+     * Similar to the toString method in Subscription, this one pads the name to a fixed width and prints the meal along
+     * with its number available spaced apart neatly.
      */
     public void printInfo()
     {
-        int i = 20 - getName().length();
-        String spaces = String.format("%1$"+i+"s", "");
+        System.out.println(render().line);
+    }
+
+    /**
+     * Gets the rendered text, rendering it again only if the name or number available has changed since it was last
+     * rendered
+     * @return The rendered text
+     */
+    private Rendering render()
+    {
+        String n = getName();
+        int stock = getNumberAvailable();
 
-        System.out.println(getName() + spaces + getNumberAvailable());
+        Rendering r = rendered;
+        if (r == null || !r.name.equals(n) || r.stock != stock)
+        {
+            r = new Rendering(n, stock);
+            rendered = r;
+        }
+        return r;
     }
 
 }
@@ -0,0 +1,544 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+/**
+ * Counters and latency histograms for everything that happens to orders: meals added and removed, orders rejected,
+ * stock-outs, letters written and how long name lookups take. Counters are LongAdders and latencies are recorded in
+ * LatencyHistograms, so recording is cheap and safe from any number of threads.
+ * Everything is published as platform MBeans, so it can be watched live from JConsole or VisualVM: the counters and
+ * latencies under "FredsFrozenFood:type=Metrics", and a stock gauge for each meal under
+ * "FredsFrozenFood:type=MealStock,name=...", showing how many are left and how quickly they are running out.
+ * A background thread samples the stock of every meal every few seconds to work out the depletion rates, and can also
+ * write every metric to a text file each time.
+ */
+public class Metrics implements MetricsMXBean, Closeable
+{
+    /**
+     * Domain the MBeans are registered under
+     */
+    private static final String DOMAIN = "FredsFrozenFood";
+    /**
+     * How often meal stock is sampled, in seconds
+     */
+    private static final long SAMPLE_SECONDS = 5;
+    /**
+     * How much each new sample counts towards the depletion rate, the rest coming from earlier samples
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * The stock gauge for a single meal
+     */
+    public interface MealStockMXBean
+    {
+        /**
+         * @return The meal name
+         */
+        String getName();
+
+        /**
+         * @return Number of the meal left in stock
+         */
+        int getNumberAvailable();
+
+        /**
+         * @return How many of the meal are being taken per minute, smoothed over recent samples
+         */
+        double getDepletionPerMinute();
+    }
+
+    /**
+     * Gauge reading a meal's stock directly, with a depletion rate worked out from regular samples
+     */
+    private static class MealStock implements MealStockMXBean
+    {
+        /**
+         * The meal
+         */
+        private final Meal meal;
+        /**
+         * Stock level at the last sample
+         */
+        private int lastStock;
+        /**
+         * Time of the last sample, from System.nanoTime()
+         */
+        private long lastSample;
+        /**
+         * Smoothed number of meals taken per minute
+         */
+        private volatile double perMinute;
+
+        private MealStock(Meal meal)
+        {
+            this.meal = meal;
+            this.lastStock = meal.getNumberAvailable();
+            this.lastSample = System.nanoTime();
+        }
+
+        public String getName()
+        {
+            return meal.getName();
+        }
+
+        public int getNumberAvailable()
+        {
+            return meal.getNumberAvailable();
+        }
+
+        public double getDepletionPerMinute()
+        {
+            return perMinute;
+        }
+
+        /**
+         * Takes a new sample of the stock level and updates the depletion rate. Only called by the sampling thread.
+         */
+        private void sample()
+        {
+            int stock = meal.getNumberAvailable();
+            long now = System.nanoTime();
+            double minutes = (now - lastSample) / 60e9;
+
+            if (minutes > 0)
+                perMinute = SMOOTHING * ((lastStock - stock) / minutes) + (1 - SMOOTHING) * perMinute;
+            lastStock = stock;
+            lastSample = now;
+        }
+    }
+
+    /**
+     * Orders which added meals
+     */
+    private final LongAdder adds;
+    /**
+     * Orders which removed meals
+     */
+    private final LongAdder removes;
+    /**
+     * Meals added
+     */
+    private final LongAdder mealsAdded;
+    /**
+     * Meals removed
+     */
+    private final LongAdder mealsRemoved;
+    /**
+     * Orders rejected for breaking a rule
+     */
+    private final LongAdder rejected;
+    /**
+     * Orders which ran out of stock
+     */
+    private final LongAdder stockOuts;
+    /**
+     * Letters queued
+     */
+    private final LongAdder letters;
+    /**
+     * Names not found
+     */
+    private final LongAdder lookupMisses;
+    /**
+     * Times a meal's stock ran out
+     */
+    private final LongAdder sellOuts;
+    /**
+     * Sell-outs seen in the batch of events being handled, added to sellOuts at the end of the batch.
+     * Only used by the event consumer's thread.
+     */
+    private long batchSellOuts;
+    /**
+     * How long reading the input file took
+     */
+    private volatile long loadMillis;
+    /**
+     * Latency of name lookups
+     */
+    private final LatencyHistogram lookupLatency;
+    /**
+     * Latency of adding meals
+     */
+    private final LatencyHistogram addLatency;
+    /**
+     * Latency of removing meals
+     */
+    private final LatencyHistogram removeLatency;
+    /**
+     * Latency of queuing letters
+     */
+    private final LatencyHistogram letterLatency;
+    /**
+     * Stock gauges, by the name they are registered under
+     */
+    private final ConcurrentHashMap<ObjectName, MealStock> gauges;
+    /**
+     * Runs the stock sampling and file dumps
+     */
+    private final ScheduledExecutorService sampler;
+    /**
+     * File metrics are written to after every sample, or null
+     */
+    private volatile Path dumpFile;
+
+    /**
+     * Constructor which registers the metrics MBean and starts sampling
+     */
+    public Metrics()
+    {
+        this.adds = new LongAdder();
+        this.removes = new LongAdder();
+        this.mealsAdded = new LongAdder();
+        this.mealsRemoved = new LongAdder();
+        this.rejected = new LongAdder();
+        this.stockOuts = new LongAdder();
+        this.letters = new LongAdder();
+        this.lookupMisses = new LongAdder();
+        this.sellOuts = new LongAdder();
+        this.lookupLatency = new LatencyHistogram();
+        this.addLatency = new LatencyHistogram();
+        this.removeLatency = new LatencyHistogram();
+        this.letterLatency = new LatencyHistogram();
+        this.gauges = new ConcurrentHashMap<>();
+
+        register(name("type=Metrics"), this);
+
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(this::sample, SAMPLE_SECONDS, SAMPLE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a stock gauge for each meal, replacing any gauges from before
+     * @param meals The meals
+     */
+    public void watchMeals(Collection<Meal> meals)
+    {
+        for (ObjectName old : gauges.keySet())
+            unregister(old);
+        gauges.clear();
+
+        for (Meal m : meals)
+        {
+            ObjectName name = name("type=MealStock,name=" + ObjectName.quote(m.getName()));
+            MealStock gauge = new MealStock(m);
+            if (register(name, gauge))
+                gauges.put(name, gauge);
+        }
+    }
+
+    /**
+     * Starts writing every metric to a file after each sample, replacing what was there
+     * @param file The file
+     */
+    public void dumpTo(Path file)
+    {
+        this.dumpFile = file;
+    }
+
+    /**
+     * Records an order which added meals
+     * @param quantity Number of meals added
+     * @param startNanos System.nanoTime() when the order started being applied
+     */
+    public void recordAdd(int quantity, long startNanos)
+    {
+        addLatency.recordSince(startNanos);
+        adds.increment();
+        mealsAdded.add(quantity);
+    }
+
+    /**
+     * Records an order which removed meals
+     * @param quantity Number of meals removed
+     * @param startNanos System.nanoTime() when the order started being applied
+     */
+    public void recordRemove(int quantity, long startNanos)
+    {
+        removeLatency.recordSince(startNanos);
+        removes.increment();
+        mealsRemoved.add(quantity);
+    }
+
+    /**
+     * Records an order rejected for breaking a rule
+     */
+    public void recordRejected()
+    {
+        rejected.increment();
+    }
+
+    /**
+     * Records an order which could not be fulfilled as there were not enough meals left
+     */
+    public void recordStockOut()
+    {
+        stockOuts.increment();
+    }
+
+    /**
+     * Records a letter being queued
+     * @param startNanos System.nanoTime() before it was queued
+     */
+    public void recordLetter(long startNanos)
+    {
+        letterLatency.recordSince(startNanos);
+        letters.increment();
+    }
+
+    /**
+     * Records a subscriber or meal name lookup
+     * @param found Whether the name was found
+     * @param startNanos System.nanoTime() before the lookup
+     */
+    public void recordLookup(boolean found, long startNanos)
+    {
+        lookupLatency.recordSince(startNanos);
+        if (!found)
+            lookupMisses.increment();
+    }
+
+    /**
+     * Follows changes published to the EventBus, counting each time a meal's stock runs out. Run by an event consumer.
+     * @param event The event
+     * @param endOfBatch Whether this is the last event in the batch
+     */
+    public void onEvent(EventBus.Event event, boolean endOfBatch)
+    {
+        if (event.getType() == EventBus.Type.STOCK && event.getValue() == 0)
+            batchSellOuts++;
+
+        if (endOfBatch && batchSellOuts > 0) // one update of the shared counter per batch
+        {
+            sellOuts.add(batchSellOuts);
+            batchSellOuts = 0;
+        }
+    }
+
+    /**
+     * Records how long reading the input file took
+     * @param startNanos System.nanoTime() before it was read
+     */
+    public void recordLoad(long startNanos)
+    {
+        loadMillis = (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    public long getAdds()
+    {
+        return adds.sum();
+    }
+
+    public long getRemoves()
+    {
+        return removes.sum();
+    }
+
+    public long getMealsAdded()
+    {
+        return mealsAdded.sum();
+    }
+
+    public long getMealsRemoved()
+    {
+        return mealsRemoved.sum();
+    }
+
+    public long getRejected()
+    {
+        return rejected.sum();
+    }
+
+    public long getStockOuts()
+    {
+        return stockOuts.sum();
+    }
+
+    public long getLettersWritten()
+    {
+        return letters.sum();
+    }
+
+    public long getLookupMisses()
+    {
+        return lookupMisses.sum();
+    }
+
+    public long getSellOuts()
+    {
+        return sellOuts.sum();
+    }
+
+    public long getLoadMillis()
+    {
+        return loadMillis;
+    }
+
+    public Map<String, Long> getLookupLatency()
+    {
+        return lookupLatency.summaryMicros();
+    }
+
+    public Map<String, Long> getAddLatency()
+    {
+        return addLatency.summaryMicros();
+    }
+
+    public Map<String, Long> getRemoveLatency()
+    {
+        return removeLatency.summaryMicros();
+    }
+
+    public Map<String, Long> getLetterLatency()
+    {
+        return letterLatency.summaryMicros();
+    }
+
+    /**
+     * Writes every metric as text, one per line
+     * @param out Where to write
+     */
+    public void report(PrintWriter out)
+    {
+        out.println("adds=" + getAdds());
+        out.println("removes=" + getRemoves());
+        out.println("mealsAdded=" + getMealsAdded());
+        out.println("mealsRemoved=" + getMealsRemoved());
+        out.println("rejected=" + getRejected());
+        out.println("stockOuts=" + getStockOuts());
+        out.println("lettersWritten=" + getLettersWritten());
+        out.println("lookupMisses=" + getLookupMisses());
+        out.println("sellOuts=" + getSellOuts());
+        out.println("loadMillis=" + getLoadMillis());
+        out.println("lookupLatencyMicros=" + getLookupLatency());
+        out.println("addLatencyMicros=" + getAddLatency());
+        out.println("removeLatencyMicros=" + getRemoveLatency());
+        out.println("letterLatencyMicros=" + getLetterLatency());
+
+        for (MealStock gauge : gauges.values())
+        {
+            out.println("stock." + gauge.getName() + "=" + gauge.getNumberAvailable() + " (" +
+                    String.format("%.1f", gauge.getDepletionPerMinute()) + " per minute)");
+        }
+    }
+
+    /**
+     * Stops sampling, writes the metrics file one last time if there is one, and unregisters every MBean
+     */
+    public void close()
+    {
+        sampler.shutdownNow();
+        dump();
+
+        unregister(name("type=Metrics"));
+        for (ObjectName gauge : gauges.keySet())
+            unregister(gauge);
+        gauges.clear();
+    }
+
+    /**
+     * Samples the stock of every meal, then writes the metrics file if there is one. Run by the sampling thread.
+     */
+    private void sample()
+    {
+        for (MealStock gauge : gauges.values())
+            gauge.sample();
+        dump();
+    }
+
+    /**
+     * Writes every metric to the metrics file, if there is one, through a temporary file so that it is never seen
+     * half written
+     */
+    private void dump()
+    {
+        Path file = dumpFile;
+        if (file == null)
+            return;
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8)))
+        {
+            report(out);
+        }
+        catch (IOException e)
+        {
+            return; // tries again at the next sample
+        }
+
+        try
+        {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            // tries again at the next sample
+        }
+    }
+
+    /**
+     * Creates the name of an MBean in this program's domain
+     * @param properties The key properties, e.g. "type=Metrics"
+     * @return The name
+     */
+    private static ObjectName name(String properties)
+    {
+        try
+        {
+            return new ObjectName(DOMAIN + ":" + properties);
+        }
+        catch (MalformedObjectNameException e)
+        {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Registers an MBean with the platform MBean server, replacing any already registered under the same name,
+     * e.g. by an earlier Metrics
+     * @param name The name
+     * @param bean The MBean
+     * @return true if it was registered
+     */
+    private static boolean register(ObjectName name, Object bean)
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(bean, name);
+            return true;
+        }
+        catch (JMException e)
+        {
+            System.out.println("Warning - metrics could not be published as " + name + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Unregisters an MBean, if it is registered
+     * @param name The name
+     */
+    private static void unregister(ObjectName name)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException e)
+        {
+            // already gone
+        }
+    }
+}
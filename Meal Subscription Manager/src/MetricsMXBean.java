@@ -0,0 +1,77 @@
+import java.util.*;
+/**
+ * The management interface of Metrics, which is what JConsole, VisualVM or any other JMX client sees under
+ * "FredsFrozenFood:type=Metrics". Latency summaries hold the number of values, the 50th, 90th, 99th and 99.9th
+ * percentiles and the maximum, in microseconds.
+ */
+public interface MetricsMXBean
+{
+    /**
+     * @return Number of orders which added meals to a subscription
+     */
+    long getAdds();
+
+    /**
+     * @return Number of orders which removed meals from a subscription
+     */
+    long getRemoves();
+
+    /**
+     * @return Total number of meals added to subscriptions
+     */
+    long getMealsAdded();
+
+    /**
+     * @return Total number of meals removed from subscriptions
+     */
+    long getMealsRemoved();
+
+    /**
+     * @return Number of orders rejected for breaking a rule, e.g. a negative quantity or too many subscriptions
+     */
+    long getRejected();
+
+    /**
+     * @return Number of orders which could not be fulfilled as there were not enough meals left
+     */
+    long getStockOuts();
+
+    /**
+     * @return Number of letters queued to be written
+     */
+    long getLettersWritten();
+
+    /**
+     * @return Number of subscriber and meal names looked up which were not found
+     */
+    long getLookupMisses();
+    /**
+     * @return Number of times a meal's stock ran out
+     */
+    long getSellOuts();
+
+    /**
+     * @return How long reading the input file took, in milliseconds, or 0 if it has not been read
+     */
+    long getLoadMillis();
+
+    /**
+     * @return Summary of how long subscriber and meal name lookups take
+     */
+    Map<String, Long> getLookupLatency();
+
+    /**
+     * @return Summary of how long adding meals to a subscription takes, including logging it
+     */
+    Map<String, Long> getAddLatency();
+
+    /**
+     * @return Summary of how long removing meals from a subscription takes, including logging it
+     */
+    Map<String, Long> getRemoveLatency();
+
+    /**
+     * @return Summary of how long queuing a letter takes
+     */
+    Map<String, Long> getLetterLatency();
+}
@@ -0,0 +1,313 @@
+import java.util.function.Function;
+/**
+ * A case-insensitive index from a name to the object it belongs to, used so that Subscribers and Meals can be looked up
+ * in constant time by what the user types in, rather than by searching through a SortedLinkedList.
+ * Names are normalised before being stored or looked up, so "ted  SMITH " finds the same subscriber as "Ted Smith".
+ * If two objects share a name, only the first one added is indexed.
+ * The index is an open-addressing hash table of normalised names. Looking a name up hashes and compares the raw input
+ * as if it had been normalised, character by character, so get() never creates a normalised copy of it and allocates
+ * nothing at all.
+ * @param <E> The type of object being indexed
+ */
+public class NameIndex<E>
+{
+    /**
+     * Number of slots in a new table, which must be a power of 2
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Function which gets the name of an object, e.g. Subscriber::getName
+     */
+    private final Function<E, String> nameFunction;
+    /**
+     * The normalised name in each slot, or null if the slot is empty
+     */
+    private String[] keys;
+    /**
+     * The hash of the name in each slot
+     */
+    private int[] hashes;
+    /**
+     * The object in each slot
+     */
+    private Object[] values;
+    /**
+     * Number of objects in the index
+     */
+    private int size;
+
+    /**
+     * Constructor for an empty NameIndex
+     * @param nameFunction Function which gets the name of an object
+     */
+    public NameIndex(Function<E, String> nameFunction)
+    {
+        this.nameFunction = nameFunction;
+        clear();
+    }
+
+    /**
+     * Adds an object to the index, unless another object with the same name is already there
+     * @param e The object to add
+     */
+    public void add(E e)
+    {
+        String key = normalise(nameFunction.apply(e));
+        int hash = key.hashCode();
+        if (find(key, hash) >= 0)
+            return;
+
+        if ((size + 1) * 2 > keys.length) // keeps the table at most half full, so probes stay short
+            resize(keys.length * 2);
+
+        int mask = keys.length - 1;
+        int slot = spread(hash) & mask;
+        while (keys[slot] != null)
+            slot = (slot + 1) & mask;
+
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = e;
+        size++;
+    }
+
+    /**
+     * Removes an object from the index if it is the one stored under its name
+     * @param e The object to remove
+     * @return true if the object was removed
+     */
+    public boolean remove(E e)
+    {
+        String name = nameFunction.apply(e);
+        int slot = find(name, hash(name));
+        if (slot < 0 || values[slot] != e)
+            return false;
+
+        delete(slot);
+        return true;
+    }
+
+    /**
+     * Checks whether any object is stored under the same name as the given object
+     * @param e The object whose name to check
+     * @return true if the name is in the index
+     */
+    public boolean containsNameOf(E e)
+    {
+        String name = nameFunction.apply(e);
+        return find(name, hash(name)) >= 0;
+    }
+
+    /**
+     * Looks up an object by name, without allocating anything
+     * @param name The name as entered by the user
+     * @return The object, or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public E get(CharSequence name)
+    {
+        int slot = find(name, hash(name));
+        return (slot < 0) ? null : (E) values[slot];
+    }
+
+    /**
+     * Empties the index
+     */
+    public void clear()
+    {
+        keys = new String[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Calculates the hash of a name as if it had been normalised first, without creating the normalised String.
+     * This is always the same as normalise(name).hashCode().
+     * @param name The name, normalised or not
+     * @return The hash
+     */
+    public static int hash(CharSequence name)
+    {
+        int hash = 0;
+        boolean pendingSpace = false;
+        boolean started = false;
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                pendingSpace = true;
+                continue;
+            }
+
+            if (pendingSpace && started) // a run of whitespace between words counts as a single space
+                hash = 31 * hash + ' ';
+            hash = 31 * hash + Character.toLowerCase(c);
+            pendingSpace = false;
+            started = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Finds the slot holding a name
+     * @param name The name, normalised or not
+     * @param hash The hash of the name, from hash()
+     * @return The slot, or -1 if the name is not in the index
+     */
+    private int find(CharSequence name, int hash)
+    {
+        int mask = keys.length - 1;
+
+        for (int slot = spread(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask)
+        {
+            if (hashes[slot] == hash && matches(keys[slot], name))
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, moving any later names in the same run of slots back so that find() can still reach them
+     * @param slot The slot to empty
+     */
+    private void delete(int slot)
+    {
+        int mask = keys.length - 1;
+        int hole = slot;
+
+        for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask)
+        {
+            int home = spread(hashes[i]) & mask;
+
+            if (((i - home) & mask) >= ((i - hole) & mask)) // the name in slot i can be found from the hole too
+            {
+                keys[hole] = keys[i];
+                hashes[hole] = hashes[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+    }
+
+    /**
+     * Moves every name into a new, larger table
+     * @param capacity Number of slots in the new table
+     */
+    private void resize(int capacity)
+    {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] == null)
+                continue;
+
+            int slot = spread(oldHashes[i]) & mask;
+            while (keys[slot] != null)
+                slot = (slot + 1) & mask;
+
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits, which are the only ones used to pick a slot
+     * @param hash The hash
+     * @return The mixed hash
+     */
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Checks whether a name, once normalised, would equal a normalised key, without creating the normalised name
+     * @param key The normalised key
+     * @param name The name, normalised or not
+     * @return true if they match
+     */
+    private static boolean matches(String key, CharSequence name)
+    {
+        int j = 0; // position reached in key
+        boolean pendingSpace = false;
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                pendingSpace = true;
+                continue;
+            }
+
+            if (pendingSpace && j > 0)
+            {
+                if (j >= key.length() || key.charAt(j) != ' ')
+                    return false;
+                j++;
+            }
+            if (j >= key.length() || key.charAt(j) != Character.toLowerCase(c))
+                return false;
+
+            j++;
+            pendingSpace = false;
+        }
+        return j == key.length();
+    }
+
+    /**
+     * Trims a name, converts it to lower case and collapses any runs of whitespace into a single space
+     * @param name The name to normalise
+     * @return The normalised name
+     */
+    public static String normalise(String name)
+    {
+        StringBuilder sb = null; // only created if the name actually needs changing
+        boolean pendingSpace = false;
+
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                if (sb == null && (c != ' ' || i == 0 || i == name.length() - 1 || pendingSpace))
+                    sb = new StringBuilder(name.length()).append(name, 0, pendingSpace ? i - 1 : i);
+                pendingSpace = true;
+                continue;
+            }
+
+            char lower = Character.toLowerCase(c);
+            if (sb == null && lower != c) // leaves out a single pending space, which is appended again below
+                sb = new StringBuilder(name.length()).append(name, 0, pendingSpace ? i - 1 : i);
+
+            if (sb != null)
+            {
+                if (pendingSpace && sb.length() > 0)
+                    sb.append(' ');
+                sb.append(lower);
+            }
+            pendingSpace = false;
+        }
+        return (sb == null) ? name : sb.toString();
+    }
+}
@@ -0,0 +1,400 @@
+import java.util.*;
+import java.util.function.Function;
+/**
+ * A trie of normalised names, used to find subscribers or meals from a partly typed or misspelt name, e.g. to suggest
+ * "did you mean" names when a lookup fails, rather than printing every subscriber or meal.
+ * It supports finding every name starting with a prefix, and finding names within a small number of edits
+ * (insertions, deletions or substitutions) of what was typed, searching the trie and the edit distance table together
+ * so that whole branches which are already too different are skipped.
+ * Names are normalised in the same way as NameIndex. A BloomFilter of the names is also kept, so that names which
+ * are definitely unknown can be turned away before any searching.
+ * The nodes are stored in parallel arrays rather than as objects, as there can be one node per character of every name.
+ * Children of a node are kept in a linked list sorted by character, so searches visit names in alphabetical order.
+ * @param <E> The type of object being searched for
+ */
+public class NameSearch<E>
+{
+    /**
+     * Rate of false positives the Bloom filter is sized for
+     */
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    /**
+     * Marks the end of a list of children or values
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Function which gets the name of an object, e.g. Subscriber::getName
+     */
+    private final Function<E, String> nameFunction;
+    /**
+     * Filter of every name added
+     */
+    private final BloomFilter filter;
+    /**
+     * The character on the edge leading to each node. Node 0 is the root, which has no character.
+     */
+    private char[] labels;
+    /**
+     * The first child of each node
+     */
+    private int[] firstChild;
+    /**
+     * The next sibling of each node, with a higher character
+     */
+    private int[] nextSibling;
+    /**
+     * The first object whose name ends at each node
+     */
+    private int[] firstValue;
+    /**
+     * Number of nodes in use
+     */
+    private int nodeCount;
+    /**
+     * The objects in the trie, or null where one has been removed
+     */
+    private Object[] values;
+    /**
+     * The next object whose name ends at the same node
+     */
+    private int[] nextValue;
+    /**
+     * Number of places used in values
+     */
+    private int valueCount;
+    /**
+     * Length of the longest name added, which is how deep the trie goes
+     */
+    private int longest;
+
+    /**
+     * A bounded list of the closest matches found so far, in order of edit distance, then of when they were found
+     */
+    private static class Matches
+    {
+        /**
+         * The edit distance of each match
+         */
+        private final int[] distances;
+        /**
+         * The matching objects
+         */
+        private final Object[] values;
+        /**
+         * Number of matches held
+         */
+        private int count;
+
+        /**
+         * Constructor for an empty list of matches
+         * @param limit The most matches to hold
+         */
+        private Matches(int limit)
+        {
+            this.distances = new int[limit];
+            this.values = new Object[limit];
+        }
+
+        /**
+         * Adds a match if it is closer than the furthest one held, dropping that one if the list is full
+         * @param distance The edit distance
+         * @param value The matching object
+         */
+        private void offer(int distance, Object value)
+        {
+            if (count == values.length && distance >= distances[count - 1])
+                return;
+
+            int i = Math.min(count, values.length - 1);
+            while (i > 0 && distances[i - 1] > distance) // shifts further matches down, keeping equal ones first
+            {
+                distances[i] = distances[i - 1];
+                values[i] = values[i - 1];
+                i--;
+            }
+            distances[i] = distance;
+            values[i] = value;
+            count = Math.min(count + 1, values.length);
+        }
+    }
+
+    /**
+     * Constructor for an empty NameSearch
+     * @param nameFunction Function which gets the name of an object
+     * @param expectedSize Roughly how many objects will be added, used to size the Bloom filter
+     */
+    public NameSearch(Function<E, String> nameFunction, int expectedSize)
+    {
+        this.nameFunction = nameFunction;
+        this.filter = new BloomFilter(expectedSize, FALSE_POSITIVE_RATE);
+        this.labels = new char[16];
+        this.firstChild = new int[16];
+        this.nextSibling = new int[16];
+        this.firstValue = new int[16];
+        this.values = new Object[16];
+        this.nextValue = new int[16];
+        newNode('\0'); // the root
+    }
+
+    /**
+     * Creates a NameSearch holding every object in a collection
+     * @param nameFunction Function which gets the name of an object
+     * @param elements The objects to add
+     * @param <E> The type of object being searched for
+     * @return The NameSearch
+     */
+    public static <E> NameSearch<E> of(Function<E, String> nameFunction, Collection<E> elements)
+    {
+        NameSearch<E> search = new NameSearch<>(nameFunction, elements.size());
+        for (E e : elements)
+            search.add(e);
+        return search;
+    }
+
+    /**
+     * Adds an object under its name
+     * @param e The object to add
+     */
+    public void add(E e)
+    {
+        String key = NameIndex.normalise(nameFunction.apply(e));
+        int node = 0;
+
+        for (int i = 0; i < key.length(); i++)
+            node = child(node, key.charAt(i), true);
+
+        if (valueCount == values.length)
+        {
+            values = Arrays.copyOf(values, valueCount * 2);
+            nextValue = Arrays.copyOf(nextValue, valueCount * 2);
+        }
+        values[valueCount] = e;
+        nextValue[valueCount] = firstValue[node];
+        firstValue[node] = valueCount++;
+
+        longest = Math.max(longest, key.length());
+        filter.add(key);
+    }
+
+    /**
+     * Removes an object. Its name may still pass mightContain() afterwards.
+     * @param e The object to remove
+     * @return true if the object was found and removed
+     */
+    public boolean remove(E e)
+    {
+        String key = NameIndex.normalise(nameFunction.apply(e));
+        int node = 0;
+
+        for (int i = 0; i < key.length() && node != NONE; i++)
+            node = child(node, key.charAt(i), false);
+        if (node == NONE)
+            return false;
+
+        int previous = NONE;
+        for (int v = firstValue[node]; v != NONE; previous = v, v = nextValue[v])
+        {
+            if (values[v] == e)
+            {
+                if (previous == NONE)
+                    firstValue[node] = nextValue[v];
+                else
+                    nextValue[previous] = nextValue[v];
+                values[v] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a name might belong to one of the objects, without allocating anything.
+     * When this returns false the name is definitely unknown.
+     * @param name The name as entered by the user
+     * @return false if no object has this name, true if one might
+     */
+    public boolean mightContain(CharSequence name)
+    {
+        return filter.mightContain(name);
+    }
+
+    /**
+     * Finds objects whose names start with a prefix, in alphabetical order
+     * @param prefix The prefix as entered by the user
+     * @param limit The most objects to return
+     * @return Up to limit matching objects
+     */
+    public List<E> startingWith(String prefix, int limit)
+    {
+        ArrayList<E> found = new ArrayList<>(Math.min(limit, 16));
+        String key = NameIndex.normalise(prefix);
+        int node = 0;
+
+        for (int i = 0; i < key.length() && node != NONE; i++)
+            node = child(node, key.charAt(i), false);
+
+        if (node != NONE && limit > 0)
+            collect(node, limit, found);
+        return found;
+    }
+
+    /**
+     * Finds the objects whose names are closest to what was typed, for "did you mean" suggestions.
+     * If any names start with what was typed, those are suggested. Otherwise, names within a small number of edits of
+     * it are suggested, closest first.
+     * Up to 1 edit is allowed for names of 4 characters or fewer, and up to 2 for longer ones. Names 1 edit away are
+     * searched for first, as that search is far quicker, and 2 edits are only tried if nothing closer was found.
+     * @param name The name as entered by the user
+     * @param limit The most suggestions to return
+     * @return Up to limit suggestions, best first
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> suggest(String name, int limit)
+    {
+        String key = NameIndex.normalise(name);
+        List<E> suggestions = startingWith(key, limit);
+        if (key.isEmpty() || !suggestions.isEmpty()) // names starting with what was typed are the best suggestions
+            return suggestions;
+
+        int maxDistance = (key.length() <= 4) ? 1 : 2;
+        int[][] rows = new int[longest + 1][key.length() + 1]; // one row of the edit distance table per trie depth
+        for (int i = 0; i <= key.length(); i++)
+            rows[0][i] = i;
+
+        Matches matches = null;
+        for (int distance = 1; distance <= maxDistance; distance++)
+        {
+            if (matches != null && matches.count > 0) // only looks further if nothing closer was found
+                break;
+
+            matches = new Matches(limit);
+            for (int c = firstChild[0]; c != NONE; c = nextSibling[c])
+                searchWithin(c, 1, key, rows, distance, matches);
+        }
+
+        for (int i = 0; i < matches.count; i++)
+            suggestions.add((E) matches.values[i]);
+        return suggestions;
+    }
+
+    /**
+     * Searches the trie below a node for names within maxDistance edits of the key, filling in the row of the edit
+     * distance table for this node from the row of its parent. If every entry in the row is already over maxDistance,
+     * no name below the node can be close enough, so its children are skipped.
+     * Only the band of the row within maxDistance of the diagonal is worked out, as every entry outside it is
+     * over maxDistance anyway, and the entries either side of the band are set to maxDistance + 1 for the next row.
+     * @param node The node
+     * @param depth The depth of the node, which is the index of its row
+     * @param key The normalised name being searched for
+     * @param rows The edit distance table, one row per depth
+     * @param maxDistance The most edits allowed
+     * @param matches The closest matches found so far
+     */
+    private void searchWithin(int node, int depth, String key, int[][] rows, int maxDistance, Matches matches)
+    {
+        int[] previous = rows[depth - 1];
+        int[] row = rows[depth];
+        char c = labels[node];
+
+        int length = key.length();
+        int from = Math.max(1, depth - maxDistance);
+        int to = Math.min(length, depth + maxDistance);
+        int outside = maxDistance + 1;
+
+        row[0] = Math.min(depth, outside);
+        row[from - 1] = (from == 1) ? row[0] : outside;
+        int smallest = row[from - 1];
+        for (int i = from; i <= to; i++)
+        {
+            int cost = (key.charAt(i - 1) == c) ? 0 : 1;
+            row[i] = Math.min(Math.min(row[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+            smallest = Math.min(smallest, row[i]);
+        }
+        if (to < length)
+            row[to + 1] = outside;
+
+        int distance = (to == length) ? row[length] : outside;
+        if (distance <= maxDistance)
+        {
+            for (int v = firstValue[node]; v != NONE; v = nextValue[v])
+                matches.offer(distance, values[v]);
+        }
+
+        if (smallest <= maxDistance)
+        {
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+                searchWithin(child, depth + 1, key, rows, maxDistance, matches);
+        }
+    }
+
+    /**
+     * Adds every object at or below a node to a list, in alphabetical order, until the list is full
+     * @param node The node
+     * @param limit The most objects the list should hold
+     * @param found The list
+     */
+    @SuppressWarnings("unchecked")
+    private void collect(int node, int limit, ArrayList<E> found)
+    {
+        for (int v = firstValue[node]; v != NONE && found.size() < limit; v = nextValue[v])
+            found.add((E) values[v]);
+
+        for (int c = firstChild[node]; c != NONE && found.size() < limit; c = nextSibling[c])
+            collect(c, limit, found);
+    }
+
+    /**
+     * Finds the child of a node along the edge with a given character, optionally creating it
+     * @param node The node
+     * @param c The character
+     * @param create Whether to create the child if it doesn't exist
+     * @return The child, or NONE if it doesn't exist and create is false
+     */
+    private int child(int node, char c, boolean create)
+    {
+        int previous = NONE;
+        int current = firstChild[node];
+
+        while (current != NONE && labels[current] < c) // children are sorted by character
+        {
+            previous = current;
+            current = nextSibling[current];
+        }
+        if (current != NONE && labels[current] == c)
+            return current;
+        if (!create)
+            return NONE;
+
+        int created = newNode(c);
+        nextSibling[created] = current;
+        if (previous == NONE)
+            firstChild[node] = created;
+        else
+            nextSibling[previous] = created;
+        return created;
+    }
+
+    /**
+     * Creates a node with no children or values, growing the arrays if needed
+     * @param c The character on the edge leading to it
+     * @return The new node
+     */
+    private int newNode(char c)
+    {
+        if (nodeCount == labels.length)
+        {
+            int capacity = nodeCount * 2;
+            labels = Arrays.copyOf(labels, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            firstValue = Arrays.copyOf(firstValue, capacity);
+        }
+
+        labels[nodeCount] = c;
+        firstChild[nodeCount] = NONE;
+        nextSibling[nodeCount] = NONE;
+        firstValue[nodeCount] = NONE;
+        return nodeCount++;
+    }
+}
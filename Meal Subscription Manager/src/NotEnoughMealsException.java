@@ -3,8 +3,33 @@
  */
 public class NotEnoughMealsException extends Exception
 {
+    /**
+     * The meal there weren't enough of, or null if not known
+     */
+    private final Meal meal;
+
     public NotEnoughMealsException(String message)
+    {
+        this(message, null);
+    }
+
+    /**
+     * Constructor which also says which meal there weren't enough of, e.g. when an order has several
+     * @param message The message
+     * @param meal The meal
+     */
+    public NotEnoughMealsException(String message, Meal meal)
     {
         super(message);
+        this.meal = meal;
+    }
+
+    /**
+     * Meal getter
+     * @return The meal there weren't enough of, or null if not known
+     */
+    public Meal getMeal()
+    {
+        return meal;
     }
 }
@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.util.*;
+/**
+ * Several changes to one subscriber's subscriptions which are applied all together or not at all, e.g. adding one
+ * meal and removing another when a customer changes their box.
+ * apply() locks the subscriber, and with the lock held checks the changes against the subscriber's final
+ * subscriptions, so an order can swap one meal for another when the subscriber already has the maximum.
+ * Meals are not locked. Stock is reserved for each meal being added with the meal's own compare-and-set, just as
+ * Subscriber.subscribe() takes it, and if any meal runs short, what was already reserved is put back and nothing is
+ * changed. Stock is therefore never oversold and an order never takes only part of what it needs, but while an order
+ * is reserving, other orders and single changes can see the stock it has taken so far, and may be refused for the
+ * lack of meals it then puts back, just as when two customers race for the last of a meal.
+ * apply(WriteAheadLog) also adds the order to the log while the subscriber is still locked, so the log holds the
+ * subscriber's changes in the order they were made, and if it can't be added the order can always be undone, as
+ * nothing else can have changed the subscriber in the meantime. It only waits for the order to reach the disk once the
+ * lock is released, so a virtual thread waiting for the disk does not pin its carrier thread. Meals removed are only
+ * put back in stock once the order is on disk.
+ */
+public class Order
+{
+    /**
+     * The subscriber whose subscriptions are changed
+     */
+    private final Subscriber subscriber;
+    /**
+     * The change to each meal's quantity, sorted by meal
+     */
+    private final TreeMap<Meal, Integer> changes;
+
+    /**
+     * Constructor for an order with no changes yet
+     * @param subscriber The subscriber whose subscriptions are changed
+     */
+    public Order(Subscriber subscriber)
+    {
+        this.subscriber = subscriber;
+        this.changes = new TreeMap<>();
+    }
+
+    /**
+     * Adds meals to the order. Adding and removing the same meal in one order adds up to a single change.
+     * @param meal The meal
+     * @param quantity The number to add
+     * @return This order
+     * @throws IllegalArgumentException if the quantity is negative
+     */
+    public Order add(Meal meal, int quantity)
+    {
+        if (quantity < 0)
+            throw new IllegalArgumentException(quantity + " is a negative number!");
+        return change(meal, quantity);
+    }
+
+    /**
+     * Removes meals in the order
+     * @param meal The meal
+     * @param quantity The number to remove
+     * @return This order
+     * @throws IllegalArgumentException if the quantity is negative
+     */
+    public Order remove(Meal meal, int quantity)
+    {
+        if (quantity < 0)
+            throw new IllegalArgumentException(quantity + " is a negative number!");
+        return change(meal, -quantity);
+    }
+
+    /**
+     * Adds a change to a meal's quantity to the order
+     * @param meal The meal
+     * @param change The number to add, or remove if negative
+     * @return This order
+     */
+    public Order change(Meal meal, int change)
+    {
+        if (changes.merge(meal, change, Integer::sum) == 0)
+            changes.remove(meal);
+        return this;
+    }
+
+    /**
+     * Subscriber getter
+     * @return The subscriber whose subscriptions are changed
+     */
+    public Subscriber getSubscriber()
+    {
+        return subscriber;
+    }
+
+    /**
+     * Changes getter
+     * @return The change to each meal's quantity, sorted by meal, leaving out any which add up to nothing
+     */
+    public Map<Meal, Integer> getChanges()
+    {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * Whether the order changes anything
+     * @return true if there are no changes
+     */
+    public boolean isEmpty()
+    {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Applies every change in the order, or none of them
+     * @throws NotEnoughMealsException if there are not enough of a meal being added, whose getMeal() says which
+     * @throws IllegalStateException if the subscriber does not have enough of a meal being removed, or would end up
+     * with more than the maximum number of meals
+     */
+    public void apply() throws NotEnoughMealsException
+    {
+        synchronized (subscriber.getLock())
+        {
+            change();
+        }
+        releaseRemoved();
+    }
+
+    /**
+     * Applies every change in the order, or none of them, and logs the order before the response to it is sent.
+     * If it cannot be added to the log, the order is undone, so it is as if it was never applied. If it is added but
+     * the log then fails to reach the disk, the order is not undone, as later changes to the subscriber may already
+     * have been made on top of it, but the log refuses everything from then on, so no snapshot is saved with it and
+     * it is gone at the next startup, just like every other change the disk never saw.
+     * @param log The log to write the order to
+     * @throws NotEnoughMealsException if there are not enough of a meal being added, whose getMeal() says which
+     * @throws IllegalStateException if the subscriber does not have enough of a meal being removed, or would end up
+     * with more than the maximum number of meals
+     * @throws IOException if the order could not be logged
+     */
+    public void apply(WriteAheadLog log) throws NotEnoughMealsException, IOException
+    {
+        long sequence;
+        synchronized (subscriber.getLock())
+        {
+            change();
+            try
+            {
+                sequence = log.appendOrder(this);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                undo();
+                throw e;
+            }
+        }
+        log.awaitDurable(sequence); // after unlocking, so other orders for the subscriber go in the same group
+        releaseRemoved();
+    }
+
+    /**
+     * Checks the order and reserves the stock, then changes the subscriber's subscriptions.
+     * Meals removed are not put back in stock yet. The caller must hold the subscriber's lock.
+     * @throws NotEnoughMealsException if there are not enough of a meal being added
+     * @throws IllegalStateException if the order breaks a subscription rule
+     */
+    private void change() throws NotEnoughMealsException
+    {
+        check();
+        reserve();
+
+        for (Map.Entry<Meal, Integer> change : changes.entrySet())
+        {
+            int quantity = change.getValue();
+            if (quantity > 0)
+                subscriber.setSubscriptions(change.getKey(), quantity);
+            else
+                subscriber.removeSubscriptions(change.getKey(), -quantity);
+        }
+    }
+
+    /**
+     * Reverses change(), putting back the stock reserved for meals added. The caller must still hold the
+     * subscriber's lock it held for change().
+     */
+    private void undo()
+    {
+        for (Map.Entry<Meal, Integer> change : changes.entrySet())
+        {
+            Meal m = change.getKey();
+            int quantity = change.getValue();
+            if (quantity > 0)
+            {
+                subscriber.removeSubscriptions(m, quantity);
+                m.release(quantity);
+            }
+            else
+                subscriber.setSubscriptions(m, -quantity);
+        }
+    }
+
+    /**
+     * Puts the meals removed by the order back in stock
+     */
+    private void releaseRemoved()
+    {
+        for (Map.Entry<Meal, Integer> change : changes.entrySet())
+        {
+            if (change.getValue() < 0)
+                change.getKey().release(-change.getValue());
+        }
+    }
+
+    /**
+     * Checks the subscriber's subscriptions as they would be after the order
+     * @throws IllegalStateException if the subscriber does not have enough of a meal being removed, or would end up
+     * with more than the maximum number of meals
+     */
+    private void check()
+    {
+        int meals = 0;
+        for (Subscription sub : subscriber.getSubscriptions())
+        {
+            if (!changes.containsKey(sub.getMeal()))
+                meals++;
+        }
+
+        for (Map.Entry<Meal, Integer> change : changes.entrySet())
+        {
+            Subscription sub = subscriber.searchSubscriptions(change.getKey());
+            int after = (sub == null ? 0 : sub.getQuantity()) + change.getValue();
+
+            if (after < 0)
+                throw new IllegalStateException("Cannot remove " + -change.getValue() + " " + change.getKey().getName()
+                        + " from " + subscriber.getName());
+            if (after > 0)
+                meals++;
+        }
+
+        if (meals > Subscriber.MAX_SUBSCRIPTIONS)
+            throw new IllegalStateException(subscriber.getFirstName() + " would have " + meals
+                    + " different meals, more than the maximum (" + Subscriber.MAX_SUBSCRIPTIONS + ")!");
+    }
+
+    /**
+     * Takes the stock of every meal being added, putting back what was taken if any meal runs short
+     * @throws NotEnoughMealsException if there are not enough of a meal
+     */
+    private void reserve() throws NotEnoughMealsException
+    {
+        ArrayList<Map.Entry<Meal, Integer>> reserved = new ArrayList<>();
+        try
+        {
+            for (Map.Entry<Meal, Integer> change : changes.entrySet())
+            {
+                if (change.getValue() > 0)
+                {
+                    change.getKey().reserve(change.getValue());
+                    reserved.add(change);
+                }
+            }
+        }
+        catch (NotEnoughMealsException | RuntimeException e)
+        {
+            for (Map.Entry<Meal, Integer> change : reserved) // rolls back, so the order changes nothing
+                change.getKey().release(change.getValue());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.io.*;
+/**
+ * A meal whose stock is owned by an Inventory in another process, used by shards so that every shard takes stock from
+ * the same place. reserve(), release() and getNumberAvailable() ask the inventory, while the name and the index of
+ * subscribers are kept locally like any other meal, the index only holding this shard's subscribers.
+ * If the inventory cannot be reached, an UncheckedIOException is thrown, as the methods being overridden don't
+ * declare IOException.
+ */
+public class RemoteMeal extends Meal
+{
+    /**
+     * The connection to the inventory
+     */
+    private final Inventory.Client inventory;
+
+    /**
+     * Constructor for a meal whose stock is held by an inventory
+     * @param name Meal name, as the inventory knows it
+     * @param inventory The connection to the inventory
+     */
+    public RemoteMeal(String name, Inventory.Client inventory)
+    {
+        super(name);
+        this.inventory = inventory;
+    }
+
+    /**
+     * Asks the inventory how many are available
+     * @return Number available
+     */
+    public int getNumberAvailable()
+    {
+        return available(send("GET " + getName()));
+    }
+
+    /**
+     * The stock is owned by the inventory, so it cannot be overwritten by a shard
+     * @param numberAvailable Number available
+     * @throws UnsupportedOperationException always
+     */
+    public void setNumberAvailable(int numberAvailable)
+    {
+        throw new UnsupportedOperationException("The stock of " + getName() + " is owned by the inventory");
+    }
+
+    /**
+     * Asks the inventory to take a number of meals out of stock, which it does atomically
+     * @param number Number of meals to take
+     * @throws NotEnoughMealsException if fewer than number are available, in which case the stock is left unchanged
+     */
+    public void reserve(int number) throws NotEnoughMealsException
+    {
+        if (number < 0)
+            throw new IllegalArgumentException("Cannot reserve a negative number of meals");
+
+        if (send("RESERVE " + number + " " + getName()).startsWith("SHORT "))
+        {
+            throw new NotEnoughMealsException
+                    ("There is not enough " + getName() + " left to add " + number + " to this subscription.", this);
+        }
+    }
+
+    /**
+     * Asks the inventory to put a number of meals back into stock
+     * @param number Number of meals to return
+     */
+    public void release(int number)
+    {
+        if (number < 0)
+            throw new IllegalArgumentException("Cannot release a negative number of meals");
+
+        send("RELEASE " + number + " " + getName());
+    }
+
+    /**
+     * Sends a request to the inventory
+     * @param request The request
+     * @return The reply
+     * @throws UncheckedIOException if the inventory cannot be reached
+     */
+    private String send(String request)
+    {
+        try
+        {
+            return inventory.send(request);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the number available from a reply
+     * @param reply e.g. "OK 5"
+     * @return e.g. 5
+     */
+    private static int available(String reply)
+    {
+        return Integer.parseInt(reply.substring(reply.indexOf(' ') + 1));
+    }
+}
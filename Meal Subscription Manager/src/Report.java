@@ -0,0 +1,375 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+/**
+ * Totals across every subscriber and meal: the units of each meal committed to subscriptions and how many
+ * subscribers have it, the stock left, how many meals each subscriber has (so how many have none and how many are at
+ * the limit of Subscriber.MAX_SUBSCRIPTIONS) and how many units each subscriber has in total.
+ * The subscribers are split into ranges which are totalled in parallel by a ForkJoinPool. Each range is counted into
+ * its own set of arrays, which are only added together once both halves of a split are done, so the threads never
+ * share anything they write to and the pass scales with the number of cores.
+ * Each subscriber is read while holding its lock, so every subscriber is counted consistently even if orders are
+ * being taken, but orders taken during the pass may or may not be included.
+ */
+public class Report
+{
+    /**
+     * Ranges of subscribers this size or smaller are totalled by one thread rather than being split further
+     */
+    private static final int THRESHOLD = 4096;
+    /**
+     * Number of buckets units per subscriber are counted in: 0, 1, 2-3, 4-7 and so on, one per power of 2
+     */
+    private static final int UNIT_BUCKETS = 33;
+
+    /**
+     * The meals, in the order their totals are held
+     */
+    private final Meal[] meals;
+    /**
+     * Totals across every subscriber
+     */
+    private final Totals totals;
+    /**
+     * Stock left of each meal when the pass finished
+     */
+    private final int[] available;
+    /**
+     * How long the pass took, in milliseconds
+     */
+    private final long millis;
+
+    /**
+     * Totals for a range of subscribers, added together as ranges are combined
+     */
+    private static class Totals
+    {
+        /**
+         * Number of subscribers counted
+         */
+        private long subscribers;
+        /**
+         * Units of each meal committed to subscriptions
+         */
+        private final long[] committed;
+        /**
+         * Number of subscribers subscribed to each meal
+         */
+        private final long[] subscribed;
+        /**
+         * Number of subscribers with each number of meals, from 0 to Subscriber.MAX_SUBSCRIPTIONS
+         */
+        private final long[] mealsPerSubscriber;
+        /**
+         * Number of subscribers whose units add up to a number in each bucket
+         */
+        private final long[] unitsPerSubscriber;
+
+        /**
+         * Constructor for empty totals
+         * @param meals Number of meals
+         */
+        private Totals(int meals)
+        {
+            this.committed = new long[meals];
+            this.subscribed = new long[meals];
+            this.mealsPerSubscriber = new long[Subscriber.MAX_SUBSCRIPTIONS + 1];
+            this.unitsPerSubscriber = new long[UNIT_BUCKETS];
+        }
+
+        /**
+         * Counts one subscriber
+         * @param s The subscriber
+         * @param mealIds The position of each meal in the report
+         */
+        private void add(Subscriber s, IdentityHashMap<Meal, Integer> mealIds)
+        {
+            int count = 0;
+            long units = 0;
+
+            synchronized (s.getLock()) // counts the subscriptions as they were at one moment
+            {
+                for (Subscription sub : s.getSubscriptions())
+                {
+                    int quantity = sub.getQuantity();
+                    Integer id = mealIds.get(sub.getMeal());
+                    if (quantity == 0 || id == null)
+                        continue;
+
+                    committed[id] += quantity;
+                    subscribed[id]++;
+                    units += quantity;
+                    count++;
+                }
+            }
+
+            subscribers++;
+            mealsPerSubscriber[Math.min(count, Subscriber.MAX_SUBSCRIPTIONS)]++;
+            unitsPerSubscriber[Math.min(UNIT_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(units))]++;
+        }
+
+        /**
+         * Adds another range's totals to these
+         * @param other The other range's totals
+         * @return These totals
+         */
+        private Totals merge(Totals other)
+        {
+            subscribers += other.subscribers;
+            for (int i = 0; i < committed.length; i++)
+            {
+                committed[i] += other.committed[i];
+                subscribed[i] += other.subscribed[i];
+            }
+            for (int i = 0; i < mealsPerSubscriber.length; i++)
+                mealsPerSubscriber[i] += other.mealsPerSubscriber[i];
+            for (int i = 0; i < UNIT_BUCKETS; i++)
+                unitsPerSubscriber[i] += other.unitsPerSubscriber[i];
+            return this;
+        }
+    }
+
+    /**
+     * Totals a range of subscribers, splitting it in half and totalling the halves in parallel if it is large
+     */
+    private static class Pass extends RecursiveTask<Totals>
+    {
+        /**
+         * Version of the serialized form, as tasks are Serializable
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Every subscriber
+         */
+        private final List<Subscriber> subscribers;
+        /**
+         * The position of each meal in the report
+         */
+        private final IdentityHashMap<Meal, Integer> mealIds;
+        /**
+         * First subscriber in the range
+         */
+        private final int from;
+        /**
+         * Position after the last subscriber in the range
+         */
+        private final int to;
+
+        /**
+         * Constructor for a pass over a range of subscribers
+         * @param subscribers Every subscriber, in a list with constant-time get()
+         * @param mealIds The position of each meal in the report, which is only read
+         * @param from First subscriber in the range
+         * @param to Position after the last subscriber in the range
+         */
+        private Pass(List<Subscriber> subscribers, IdentityHashMap<Meal, Integer> mealIds, int from, int to)
+        {
+            this.subscribers = subscribers;
+            this.mealIds = mealIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Totals compute()
+        {
+            if (to - from <= THRESHOLD)
+            {
+                Totals totals = new Totals(mealIds.size());
+                for (int i = from; i < to; i++)
+                    totals.add(subscribers.get(i), mealIds);
+                return totals;
+            }
+
+            int middle = (from + to) >>> 1;
+            Pass left = new Pass(subscribers, mealIds, from, middle);
+            left.fork();
+            Totals right = new Pass(subscribers, mealIds, middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Constructor used by of() once the pass is done
+     * @param meals The meals
+     * @param totals Totals across every subscriber
+     * @param millis How long the pass took
+     */
+    private Report(Meal[] meals, Totals totals, long millis)
+    {
+        this.meals = meals;
+        this.totals = totals;
+        this.available = new int[meals.length];
+        for (int i = 0; i < meals.length; i++)
+            available[i] = meals[i].getNumberAvailable();
+        this.millis = millis;
+    }
+
+    /**
+     * Works out the totals in one parallel pass over the subscribers, using the common ForkJoinPool
+     * @param subscribers Every subscriber
+     * @param meals Every meal
+     * @return The report
+     */
+    public static Report of(Collection<Subscriber> subscribers, Collection<Meal> meals)
+    {
+        return of(subscribers, meals, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Works out the totals in one parallel pass over the subscribers
+     * @param subscribers Every subscriber
+     * @param meals Every meal
+     * @param pool The pool the pass runs in
+     * @return The report
+     */
+    public static Report of(Collection<Subscriber> subscribers, Collection<Meal> meals, ForkJoinPool pool)
+    {
+        long start = System.nanoTime();
+        List<Subscriber> all = (subscribers instanceof RandomAccess) // e.g. a MappedStore, which is not copied
+                ? (List<Subscriber>) subscribers : Arrays.asList(subscribers.toArray(new Subscriber[0]));
+        Meal[] mealArray = meals.toArray(new Meal[0]);
+
+        IdentityHashMap<Meal, Integer> mealIds = new IdentityHashMap<>();
+        for (int i = 0; i < mealArray.length; i++)
+            mealIds.put(mealArray[i], i);
+
+        Totals totals = pool.invoke(new Pass(all, mealIds, 0, all.size()));
+        return new Report(mealArray, totals, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Gets the number of subscribers counted
+     * @return Number of subscribers
+     */
+    public long getSubscriberCount()
+    {
+        return totals.subscribers;
+    }
+
+    /**
+     * Gets the number of subscribers with no meals
+     * @return Number of subscribers
+     */
+    public long getWithNoMeals()
+    {
+        return totals.mealsPerSubscriber[0];
+    }
+
+    /**
+     * Gets the number of subscribers who have the maximum number of meals
+     * @return Number of subscribers
+     */
+    public long getAtLimit()
+    {
+        return totals.mealsPerSubscriber[Subscriber.MAX_SUBSCRIPTIONS];
+    }
+
+    /**
+     * Writes the report as text, laid out like the other listings
+     * @param out Where to write the report
+     * @throws IOException if it cannot be written
+     */
+    public void writeText(Writer out) throws IOException
+    {
+        String n = System.lineSeparator();
+        StringBuilder sb = new StringBuilder();
+
+        ListingWriter.column(sb, "Meal").append(String.format("%10s %12s %10s", "Committed", "Subscribers", "Available"));
+        sb.append(n);
+        long committed = 0;
+        for (int i = 0; i < meals.length; i++)
+        {
+            ListingWriter.column(sb, meals[i].getName()).append(String.format("%10d %12d %10d",
+                    totals.committed[i], totals.subscribed[i], available[i])).append(n);
+            committed += totals.committed[i];
+        }
+        sb.append(n);
+
+        sb.append(totals.subscribers).append(" subscribers have ").append(committed).append(" meals between them.");
+        sb.append(n).append(getWithNoMeals()).append(" have no meals and ").append(getAtLimit())
+                .append(" have the maximum of ").append(Subscriber.MAX_SUBSCRIPTIONS).append('.').append(n);
+        sb.append(n);
+
+        ListingWriter.column(sb, "Different meals").append("Subscribers").append(n);
+        for (int i = 0; i < totals.mealsPerSubscriber.length; i++)
+            ListingWriter.column(sb, Integer.toString(i)).append(totals.mealsPerSubscriber[i]).append(n);
+        sb.append(n);
+
+        ListingWriter.column(sb, "Units").append("Subscribers").append(n);
+        for (int i = 0; i <= highestUnitBucket(); i++)
+            ListingWriter.column(sb, unitRange(i)).append(totals.unitsPerSubscriber[i]).append(n);
+        sb.append(n);
+
+        sb.append("Worked out in ").append(millis).append("ms.").append(n);
+        out.write(sb.toString());
+    }
+
+    /**
+     * Writes the report as CSV, one value per row, e.g. "committed,Curry,12", so the whole report is one table
+     * @param out Where to write the report
+     * @throws IOException if it cannot be written
+     */
+    public void writeCsv(Writer out) throws IOException
+    {
+        String n = System.lineSeparator();
+        StringBuilder sb = new StringBuilder("total,key,value").append(n);
+
+        for (int i = 0; i < meals.length; i++)
+        {
+            String name = csv(meals[i].getName());
+            sb.append("committed,").append(name).append(',').append(totals.committed[i]).append(n);
+            sb.append("subscribed,").append(name).append(',').append(totals.subscribed[i]).append(n);
+            sb.append("available,").append(name).append(',').append(available[i]).append(n);
+        }
+        sb.append("subscribers,,").append(totals.subscribers).append(n);
+        sb.append("no_meals,,").append(getWithNoMeals()).append(n);
+        sb.append("at_limit,,").append(getAtLimit()).append(n);
+        for (int i = 0; i < totals.mealsPerSubscriber.length; i++)
+            sb.append("meals_per_subscriber,").append(i).append(',').append(totals.mealsPerSubscriber[i]).append(n);
+        for (int i = 0; i <= highestUnitBucket(); i++)
+            sb.append("units_per_subscriber,").append(unitRange(i)).append(',').append(totals.unitsPerSubscriber[i]).append(n);
+
+        out.write(sb.toString());
+    }
+
+    /**
+     * Finds the last bucket of units per subscriber which isn't empty
+     * @return The bucket, or 0 if they are all empty
+     */
+    private int highestUnitBucket()
+    {
+        int highest = 0;
+        for (int i = 0; i < UNIT_BUCKETS; i++)
+        {
+            if (totals.unitsPerSubscriber[i] > 0)
+                highest = i;
+        }
+        return highest;
+    }
+
+    /**
+     * Describes the range of units counted in a bucket
+     * @param bucket The bucket
+     * @return e.g. "0", "1" or "4-7"
+     */
+    private static String unitRange(int bucket)
+    {
+        if (bucket <= 1)
+            return Integer.toString(bucket);
+        if (bucket == UNIT_BUCKETS - 1)
+            return (1L << (bucket - 1)) + "+";
+        return (1L << (bucket - 1)) + "-" + ((1L << bucket) - 1);
+    }
+
+    /**
+     * Quotes a value for CSV if it contains a comma, quote or line break
+     * @param value The value
+     * @return The value, quoted if needed
+     */
+    private static String csv(String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,649 @@
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+/**
+ * Splits the subscribers into ranges of surnames, each held by its own shard process, and routes HTTP requests to the
+ * shard holding the subscriber they are about. Subscribers are sorted by surname first, so each range is one run of
+ * the sorted list, and the ranges are chosen to hold about the same number of subscribers each, without splitting a
+ * surname between two shards.
+ * The router itself keeps only the meals, which it serves to the shards as their Inventory, so stock is taken from
+ * one place however many shards are taking orders. The shards are started as separate JVMs running MainProgram
+ * --shard, each serving its range with the usual HttpService, and stop when the router closes their standard input.
+ * <ul>
+ *     <li>/add, /remove, /order and /subscriber go to the shard holding the subscriber named.</li>
+ *     <li>/subscribers goes to the shard holding the from name, or the first shard, and a short page is filled from
+ *     the shards after it. The total is added up across every shard.</li>
+ *     <li>/meals goes to the first shard, which reads the stock from the inventory.</li>
+ *     <li>/meal goes to every shard, and their subscribers are joined together in shard order, so still sorted.</li>
+ * </ul>
+ * Each shard starts from its own snapshot file, written by start(), and logs its changes to its own log, which
+ * MainProgram replays on top of the main snapshot when the shards stop, or at the next startup after a crash.
+ */
+public class ShardRouter
+{
+    /**
+     * The directory holding each shard's snapshot, log and letters
+     */
+    private final Path dir;
+    /**
+     * The first surname of each shard's range in lower case, with the first shard's being ""
+     */
+    private final String[] firstSurnames;
+    /**
+     * The port each shard is serving on
+     */
+    private final int[] ports;
+    /**
+     * The shard processes
+     */
+    private final Process[] shards;
+    /**
+     * Sends requests on to the shards
+     */
+    private final HttpClient client;
+    /**
+     * Where the shards take stock from, once started
+     */
+    private Inventory inventory;
+    /**
+     * The server, once started
+     */
+    private HttpServer server;
+    /**
+     * Runs each request, once started
+     */
+    private ExecutorService executor;
+
+    /**
+     * A response to send back: a status code, a JSON body and any Allow header
+     */
+    private static class Reply
+    {
+        /**
+         * HTTP status code
+         */
+        private final int status;
+        /**
+         * JSON body
+         */
+        private final byte[] body;
+        /**
+         * The methods allowed, if the wrong one was used, otherwise null
+         */
+        private final String allow;
+
+        private Reply(int status, byte[] body, String allow)
+        {
+            this.status = status;
+            this.body = body;
+            this.allow = allow;
+        }
+
+        /**
+         * Creates a reply from a shard's response
+         * @param response The response
+         * @return The reply
+         */
+        private static Reply of(HttpResponse<byte[]> response)
+        {
+            return new Reply(response.statusCode(), response.body(), response.headers().firstValue("Allow").orElse(null));
+        }
+
+        /**
+         * Creates an error reply
+         * @param status HTTP status code
+         * @param message What went wrong
+         * @return The reply
+         */
+        private static Reply error(int status, String message)
+        {
+            return new Reply(status, ("{\"error\":" + HttpService.quote(message) + "}").getBytes(StandardCharsets.UTF_8), null);
+        }
+    }
+
+    /**
+     * Constructor for a router which has not been started
+     * @param dir The directory to keep each shard's files in
+     * @param count The number of shards
+     */
+    public ShardRouter(Path dir, int count)
+    {
+        this.dir = dir;
+        this.firstSurnames = new String[count];
+        this.ports = new int[count];
+        this.shards = new Process[count];
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    /**
+     * Gets the snapshot a shard starts from
+     * @param dir The directory holding the shards' files
+     * @param shard The shard's number
+     * @return The file
+     */
+    public static Path snapshotFile(Path dir, int shard)
+    {
+        return dir.resolve("shard-" + shard + ".bin");
+    }
+
+    /**
+     * Gets the log a shard writes its changes to
+     * @param dir The directory holding the shards' files
+     * @param shard The shard's number
+     * @return The file
+     */
+    public static Path logFile(Path dir, int shard)
+    {
+        return dir.resolve("shard-" + shard + ".wal");
+    }
+
+    /**
+     * Gets the file a shard writes letters to
+     * @param dir The directory holding the shards' files
+     * @param shard The shard's number
+     * @return The file
+     */
+    public static Path lettersFile(Path dir, int shard)
+    {
+        return dir.resolve("letters-" + shard + ".txt");
+    }
+
+    /**
+     * Finds every shard log in a directory, e.g. left behind by a crash
+     * @param dir The directory holding the shards' files
+     * @return The logs, which may be none
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Path> logFiles(Path dir) throws IOException
+    {
+        ArrayList<Path> logs = new ArrayList<>();
+        if (!Files.isDirectory(dir))
+            return logs;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "shard-*.wal"))
+        {
+            for (Path file : files)
+                logs.add(file);
+        }
+        return logs;
+    }
+
+    /**
+     * Deletes every shard's snapshot and log, once their changes are in the main snapshot. Letters are kept.
+     * @param dir The directory holding the shards' files
+     * @throws IOException if a file cannot be deleted
+     */
+    public static void deleteFiles(Path dir) throws IOException
+    {
+        if (!Files.isDirectory(dir))
+            return;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "shard-*.{bin,wal}"))
+        {
+            for (Path file : files)
+                Files.delete(file);
+        }
+    }
+
+    /**
+     * Splits the subscribers into ranges, writes each range to its shard's snapshot, starts the inventory and the
+     * shards, then starts routing requests
+     * @param port The port to listen on, or 0 for any free port
+     * @param subscribers Every subscriber, which the router doesn't need once this returns
+     * @param meals Every meal, which must have a name index and becomes the inventory
+     * @param logSequence Sequence number of the main snapshot, which each shard's snapshot starts from, so the
+     * shards' log records are numbered after it
+     * @return The port being listened on
+     * @throws IOException if the files cannot be written, a shard doesn't start or the port cannot be bound
+     */
+    public int start(int port, SortedList<Subscriber> subscribers, SortedLinkedList<Meal> meals, long logSequence)
+            throws IOException
+    {
+        Files.createDirectories(dir);
+        int count = shards.length;
+        int[] starts = split(subscribers);
+        for (int i = 0; i < count; i++)
+            Snapshot.write(snapshotFile(dir, i), meals, subscribers.subList(starts[i], starts[i + 1]),
+                    logSequence);
+
+        inventory = new Inventory(meals);
+        try
+        {
+            for (int i = 0; i < count; i++)
+                launch(i);
+        }
+        catch (IOException e)
+        {
+            stop();
+            throw e;
+        }
+
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext("/", this::route);
+        executor = HttpService.newExecutor();
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Splits the subscribers into a range for each shard, of about the same size, moving each split back to the first
+     * subscriber with the same surname, and keeps the first surname of each range for shardFor()
+     * @param subscribers Every subscriber
+     * @return Where each shard's range starts, followed by the number of subscribers
+     */
+    int[] split(SortedList<Subscriber> subscribers)
+    {
+        int count = shards.length;
+        int[] starts = new int[count + 1];
+        starts[count] = subscribers.size();
+        firstSurnames[0] = "";
+
+        for (int i = 1; i < count; i++)
+        {
+            int split = (int) ((long) subscribers.size() * i / count);
+            if (split == subscribers.size()) // fewer subscribers than shards
+            {
+                starts[i] = split;
+                firstSurnames[i] = firstSurnames[i - 1];
+                continue;
+            }
+
+            Subscriber first = new Subscriber("", subscribers.get(split).getSurname());
+            starts[i] = Math.max(starts[i - 1], subscribers.ceilingIndex(first));
+            firstSurnames[i] = subscribers.get(starts[i]).getSurname().toLowerCase();
+        }
+        return starts;
+    }
+
+    /**
+     * Stops routing requests, then stops each shard and waits for it to save its log, then stops the inventory
+     */
+    public void stop()
+    {
+        if (server != null)
+        {
+            server.stop(2);
+            executor.shutdown();
+        }
+
+        for (Process shard : shards)
+        {
+            if (shard == null)
+                continue;
+            try
+            {
+                shard.getOutputStream().close(); // tells the shard to stop
+                if (!shard.waitFor(30, TimeUnit.SECONDS))
+                    shard.destroyForcibly();
+            }
+            catch (IOException e)
+            {
+                shard.destroyForcibly();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                shard.destroyForcibly();
+            }
+        }
+
+        try
+        {
+            if (inventory != null)
+                inventory.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("The inventory could not be closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a shard in a new JVM, with the same classpath and heap settings as this one, and waits for it to say
+     * which port it is serving on. Anything else it prints is copied to this program's output.
+     * @param shard The shard's number
+     * @throws IOException if it cannot be started or stops before it is ready
+     */
+    private void launch(int shard) throws IOException
+    {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String option : java.lang.management.ManagementFactory.getRuntimeMXBean().getInputArguments())
+        {
+            if (option.startsWith("-Xm")) // e.g. -Xmx, so each shard gets the same heap
+                command.add(option);
+        }
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), "MainProgram",
+                "--shard", Integer.toString(shard), "--inventory", Integer.toString(inventory.getPort())));
+
+        shards[shard] = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(shards[shard].getInputStream(), StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = out.readLine()) != null && !line.startsWith("READY "))
+            System.out.println("[shard " + shard + "] " + line);
+        if (line == null)
+            throw new IOException("Shard " + shard + " stopped before it was ready");
+        ports[shard] = Integer.parseInt(line.substring(6).trim());
+
+        Thread copier = new Thread(() ->
+        {
+            try
+            {
+                String rest;
+                while ((rest = out.readLine()) != null)
+                    System.out.println("[shard " + shard + "] " + rest);
+            }
+            catch (IOException e)
+            {
+                // the shard has stopped
+            }
+        }, "shard-" + shard + "-output");
+        copier.setDaemon(true);
+        copier.start();
+    }
+
+    /**
+     * Finds the shard holding a subscriber, by the surname in their name
+     * @param name The subscriber's full name as entered, or just a surname, or null
+     * @param surnameOnly true if name is just a surname
+     * @return The shard's number, which is the first shard if there is no name
+     */
+    int shardFor(String name, boolean surnameOnly)
+    {
+        if (name == null)
+            return 0;
+
+        String normalised = NameIndex.normalise(name);
+        int space = normalised.indexOf(' ');
+        String surname = (surnameOnly || space < 0) ? normalised : normalised.substring(space + 1);
+
+        int shard = 0;
+        for (int i = 1; i < firstSurnames.length; i++) // the last range starting at or before the surname
+        {
+            if (firstSurnames[i].compareTo(surname) <= 0)
+                shard = i;
+        }
+        return shard;
+    }
+
+    /**
+     * Sends a request on to the shards it is for, and sends their response back
+     * @param exchange The request and response
+     * @throws IOException if the response cannot be sent
+     */
+    private void route(HttpExchange exchange) throws IOException
+    {
+        String path = exchange.getRequestURI().getPath();
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody())
+        {
+            body = in.readNBytes(64 * 1024);
+        }
+
+        HashMap<String, String> params = new HashMap<>();
+        HttpService.parse(exchange.getRequestURI().getRawQuery(), params);
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type != null && type.startsWith("application/x-www-form-urlencoded"))
+            HttpService.parse(new String(body, StandardCharsets.UTF_8), params);
+
+        Reply reply;
+        try
+        {
+            switch (path)
+            {
+                case "/add":
+                case "/remove":
+                case "/order": reply = forward(shardFor(params.get("subscriber"), false), exchange, body);
+                break;
+                case "/subscriber": reply = forward(shardFor(params.get("name"), false), exchange, body);
+                break;
+                case "/subscribers":
+                    String from = params.get("from");
+                    reply = list(shardFor(from, from != null && from.trim().indexOf(' ') < 0), params, exchange, body);
+                break;
+                case "/meals": reply = forward(0, exchange, body);
+                break;
+                case "/meal": reply = forwardToAll(exchange, body);
+                break;
+                default: reply = Reply.error(404, "Not found");
+            }
+        }
+        catch (IOException e)
+        {
+            reply = Reply.error(502, "A shard could not be reached: " + e);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            reply = Reply.error(503, "Stopping");
+        }
+
+        if (reply.allow != null)
+            exchange.getResponseHeaders().set("Allow", reply.allow);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(reply.status, reply.body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(reply.body);
+        }
+    }
+
+    /**
+     * Sends a request on to one shard
+     * @param shard The shard's number
+     * @param exchange The request
+     * @param body The request's body
+     * @return The shard's response
+     * @throws IOException if the shard cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Reply forward(int shard, HttpExchange exchange, byte[] body) throws IOException, InterruptedException
+    {
+        return Reply.of(client.send(request(shard, exchange, body), HttpResponse.BodyHandlers.ofByteArray()));
+    }
+
+    /**
+     * The rows of a shard's list of subscribers, found from the headers HttpService sends with it
+     */
+    private static class Rows
+    {
+        /**
+         * The shard's whole response body
+         */
+        private final byte[] body;
+        /**
+         * Where the rows start in the body
+         */
+        private final int start;
+        /**
+         * Where the rows end in the body, before the closing "]}"
+         */
+        private final int end;
+        /**
+         * How many rows there are
+         */
+        private final int count;
+        /**
+         * How many subscribers the shard has altogether
+         */
+        private final long total;
+
+        private Rows(byte[] body, int start, int end, int count, long total)
+        {
+            this.body = body;
+            this.start = start;
+            this.end = end;
+            this.count = count;
+            this.total = total;
+        }
+
+        /**
+         * Reads the rows' position, count and total from a shard's response
+         * @param response The response, which must be a list of subscribers
+         * @return The rows
+         * @throws IOException if the headers are missing or don't fit the body
+         */
+        private static Rows of(HttpResponse<byte[]> response) throws IOException
+        {
+            HttpHeaders headers = response.headers();
+            byte[] body = response.body();
+            try
+            {
+                int start = Integer.parseInt(headers.firstValue(HttpService.ROWS_OFFSET_HEADER).orElse("-1"));
+                int count = Integer.parseInt(headers.firstValue(HttpService.ROWS_HEADER).orElse("-1"));
+                long total = Long.parseLong(headers.firstValue(HttpService.TOTAL_HEADER).orElse("-1"));
+                int end = body.length - 2;
+                if (start < 0 || start > end || count < 0 || total < 0)
+                    throw new IOException("A shard sent a list without its row count");
+                return new Rows(body, start, end, count, total);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("A shard sent a list with a malformed row count");
+            }
+        }
+
+        /**
+         * Adds the rows to a list being joined, with a comma before them if needed
+         * @param joined The rows joined so far
+         * @param first Whether nothing has been added to it yet
+         * @return Whether nothing has been added to it, now these rows have been
+         */
+        private boolean appendTo(ByteArrayOutputStream joined, boolean first)
+        {
+            if (count == 0)
+                return first;
+            if (!first)
+                joined.write(',');
+            joined.write(body, start, end - start);
+            return false;
+        }
+    }
+
+    /**
+     * Sends a /subscribers request on to the shard holding the from name, and if that shard runs out before the page
+     * is full, fills the rest of it from the start of each shard after it in turn, as they hold the surnames which
+     * follow. Every other shard is asked for one row, for its total, so the total counts every shard's subscribers.
+     * The totals, row counts and rows are taken from each shard using the headers HttpService sends with the list.
+     * If any shard fails, its response is sent back instead.
+     * @param first The shard holding the from name
+     * @param params The request's parameters
+     * @param exchange The request
+     * @param body The request's body
+     * @return The joined response
+     * @throws IOException if a shard cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Reply list(int first, Map<String, String> params, HttpExchange exchange, byte[] body)
+            throws IOException, InterruptedException
+    {
+        HttpResponse<byte[]> firstResponse = client.send(request(first, exchange, body),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (firstResponse.statusCode() != 200) // e.g. a bad limit
+            return Reply.of(firstResponse);
+
+        int remaining = HttpService.limit(params);
+        long total = 0;
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        boolean empty = true;
+        for (int i = 0; i < shards.length; i++)
+        {
+            boolean wanted = (i == first) || (i > first && remaining > 0);
+            HttpResponse<byte[]> response = firstResponse;
+            if (i != first)
+            {
+                HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + ports[i]
+                        + "/subscribers?limit=" + (wanted ? remaining : 1))).GET().build();
+                response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200)
+                    return Reply.of(response);
+            }
+
+            Rows shardRows = Rows.of(response);
+            total += shardRows.total;
+            if (!wanted)
+                continue;
+
+            empty = shardRows.appendTo(rows, empty);
+            remaining -= shardRows.count;
+        }
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        joined.writeBytes(("{\"total\":" + total + ",\"subscribers\":[").getBytes(StandardCharsets.UTF_8));
+        rows.writeTo(joined);
+        joined.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return new Reply(200, joined.toByteArray(), null);
+    }
+
+    /**
+     * Sends a /meal request to every shard at once and joins their lists of subscribers together, using the headers
+     * HttpService sends with the list to find each shard's rows. If any shard does not find the meal, or fails, its
+     * response is sent back instead.
+     * @param exchange The request
+     * @param body The request's body
+     * @return The joined response
+     * @throws IOException if a shard cannot be reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Reply forwardToAll(HttpExchange exchange, byte[] body) throws IOException, InterruptedException
+    {
+        ArrayList<CompletableFuture<HttpResponse<byte[]>>> pending = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++)
+            pending.add(client.sendAsync(request(i, exchange, body), HttpResponse.BodyHandlers.ofByteArray()));
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        boolean empty = true;
+        for (CompletableFuture<HttpResponse<byte[]>> future : pending)
+        {
+            HttpResponse<byte[]> response;
+            try
+            {
+                response = future.get();
+            }
+            catch (ExecutionException e)
+            {
+                throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+            if (response.statusCode() != 200)
+                return Reply.of(response);
+
+            Rows rows = Rows.of(response);
+            if (joined.size() == 0) // the meal itself is taken from the first shard
+                joined.write(rows.body, 0, rows.start);
+            empty = rows.appendTo(joined, empty);
+        }
+
+        joined.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return new Reply(200, joined.toByteArray(), null);
+    }
+
+    /**
+     * Builds the request to send on to a shard, with the same method, path, query string and body
+     * @param shard The shard's number
+     * @param exchange The original request
+     * @param body The original request's body
+     * @return The request
+     */
+    private HttpRequest request(int shard, HttpExchange exchange, byte[] body)
+    {
+        URI uri = exchange.getRequestURI();
+        String query = uri.getRawQuery();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + ports[shard]
+                + uri.getRawPath() + (query == null ? "" : "?" + query)));
+
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (type != null)
+            builder.header("Content-Type", type);
+        return builder.method(exchange.getRequestMethod(), (body.length == 0)
+                ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(body)).build();
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+/**
+ * Saves and loads a compact binary snapshot of every meal, subscriber and subscription, so that subscriptions survive
+ * the program being closed and a large deployment can start up without reparsing the text input file.
+ * The file starts with a magic number, a format version and the sequence number of the last change to subscriptions
+ * it holds, so records in the WriteAheadLog up to that number are not replayed on top of it. The meals and then the
+ * subscribers follow.
+ * Each meal is written once, with its name and number available, and subscriptions refer to meals by their position
+ * in that list rather than repeating the name. Every subscriber record starts with its length in bytes, then the first
+ * name, surname, number of subscriptions, and a meal id and quantity for each subscription.
+ * Strings are written as a 2-byte length followed by UTF-8 bytes. Meals and subscribers are written in sorted order,
+ * so loading them doesn't need to sort again.
+ */
+public class Snapshot
+{
+    /**
+     * Magic number at the start of every snapshot, "FFFS" for Fred's Frozen Food Snapshot
+     */
+    private static final int MAGIC = 0x46464653;
+    /**
+     * Version of the file format, increased whenever the format changes
+     */
+    private static final short VERSION = 2;
+
+    /**
+     * The meals read from the snapshot, sorted
+     */
+    private final Meal[] meals;
+    /**
+     * The subscribers read from the snapshot, sorted
+     */
+    private final Subscriber[] subscribers;
+    /**
+     * Sequence number of the last change in the log which the snapshot holds
+     */
+    private final long logSequence;
+
+    /**
+     * Private constructor, as snapshots are created through load()
+     * @param meals The meals
+     * @param subscribers The subscribers
+     * @param logSequence Sequence number of the last change in the log which the snapshot holds
+     */
+    private Snapshot(Meal[] meals, Subscriber[] subscribers, long logSequence)
+    {
+        this.meals = meals;
+        this.subscribers = subscribers;
+        this.logSequence = logSequence;
+    }
+
+    /**
+     * Meals getter
+     * @return The meals in sorted order
+     */
+    public Meal[] getMeals()
+    {
+        return meals;
+    }
+
+    /**
+     * Subscribers getter
+     * @return The subscribers in sorted order, with their subscriptions
+     */
+    public Subscriber[] getSubscribers()
+    {
+        return subscribers;
+    }
+
+    /**
+     * Log sequence getter
+     * @return Sequence number of the last change in the log which the snapshot holds, so replaying skips up to it
+     */
+    public long getLogSequence()
+    {
+        return logSequence;
+    }
+
+    /**
+     * Writes a snapshot. It is written to a temporary file first, forced to disk and then moved into place, so a crash
+     * part way through never leaves a half-written snapshot behind, and once this returns the snapshot will still be
+     * there after a crash.
+     * @param path Where to write the snapshot
+     * @param meals The meals
+     * @param subscribers The subscribers
+     * @param logSequence Sequence number of the last change in the log which the snapshot holds, from
+     * WriteAheadLog.checkpoint()
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(Path path, List<Meal> meals, List<Subscriber> subscribers, long logSequence)
+            throws IOException
+    {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        IdentityHashMap<Meal, Integer> mealIds = new IdentityHashMap<>();
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(logSequence);
+
+            out.writeInt(meals.size());
+            for (Meal m : meals) // each meal's id is its position in the list
+            {
+                mealIds.put(m, mealIds.size());
+                writeString(out, m.getName());
+                out.writeInt(m.getNumberAvailable());
+            }
+
+            out.writeInt(subscribers.size());
+            for (Subscriber s : subscribers)
+            {
+                byte[] firstName = s.getFirstName().getBytes(StandardCharsets.UTF_8);
+                byte[] surname = s.getSurname().getBytes(StandardCharsets.UTF_8);
+
+                synchronized (s.getLock()) // stops the subscriptions changing while they are written
+                {
+                    ArrayList<Subscription> subscriptions = s.getSubscriptions();
+
+                    out.writeInt(2 + firstName.length + 2 + surname.length + 1 + 8 * subscriptions.size());
+                    writeBytes(out, firstName);
+                    writeBytes(out, surname);
+                    out.writeByte(subscriptions.size());
+                    for (Subscription sub : subscriptions)
+                    {
+                        Integer id = mealIds.get(sub.getMeal());
+                        if (id == null)
+                            throw new IOException(s.getName() + " is subscribed to " + sub.getMeal().getName()
+                                    + ", which is not in the list of meals");
+
+                        out.writeInt(id);
+                        out.writeInt(sub.getQuantity());
+                    }
+                }
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+
+        replace(temp, path);
+    }
+
+    /**
+     * Moves a temporary file which has been forced to disk over the real one, then forces the directory holding it,
+     * so the move itself survives a crash
+     * @param temp The temporary file
+     * @param path The file it replaces
+     * @throws IOException if the file cannot be moved or the directory cannot be forced
+     */
+    static void replace(Path temp, Path path) throws IOException
+    {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ))
+        {
+            directory.force(true);
+        }
+        catch (AccessDeniedException e)
+        {
+            // some systems, such as Windows, cannot open a directory to force it
+        }
+    }
+
+    /**
+     * Reads only the header of a snapshot, to find out which changes it holds without loading it
+     * @param path The snapshot file
+     * @return Sequence number of the last change in the log which the snapshot holds
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static long readLogSequence(Path path) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path)))
+        {
+            if (in.readInt() != MAGIC)
+                throw new IOException(path + " is not a snapshot file");
+            short version = in.readShort();
+            if (version != VERSION)
+                throw new IOException(path + " uses snapshot format version " + version + ", expected " + VERSION);
+            return in.readLong();
+        }
+        catch (EOFException e)
+        {
+            throw new IOException(path + " is not a snapshot file");
+        }
+    }
+
+    /**
+     * Maps and reads a snapshot
+     * @param path The snapshot file
+     * @return The snapshot, holding the sorted meals and subscribers
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static Snapshot load(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to map (over 2GB)");
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 6 || buffer.getInt() != MAGIC)
+                throw new IOException(path + " is not a snapshot file");
+            short version = buffer.getShort();
+            if (version != VERSION)
+                throw new IOException(path + " uses snapshot format version " + version + ", expected " + VERSION);
+            long logSequence = buffer.getLong();
+
+            Meal[] meals = new Meal[readCount(buffer, 2 + 4, path, "meals")];
+            for (int i = 0; i < meals.length; i++)
+                meals[i] = new Meal(readString(buffer), buffer.getInt());
+
+            Subscriber[] subscribers = new Subscriber[readCount(buffer, 4 + 2 + 2 + 1, path, "subscribers")];
+            for (int i = 0; i < subscribers.length; i++)
+            {
+                int end = buffer.getInt() + buffer.position();
+
+                subscribers[i] = new Subscriber(readString(buffer), readString(buffer));
+                int count = buffer.get();
+                for (int j = 0; j < count; j++)
+                {
+                    int id = buffer.getInt();
+                    int quantity = buffer.getInt();
+                    if (id < 0 || id >= meals.length)
+                        throw new IOException(path + " is corrupt: subscriber " + (i + 1) + " refers to meal " + id);
+
+                    subscribers[i].setSubscriptions(meals[id], quantity);
+                }
+                if (buffer.position() != end)
+                    throw new IOException(path + " is corrupt: subscriber " + (i + 1) + " has the wrong record length");
+            }
+
+            InputFileLoader.sort(meals); // only actually sorts if the file was not written in order
+            InputFileLoader.sort(subscribers);
+            return new Snapshot(meals, subscribers, logSequence);
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException(path + " is corrupt: the file ended early");
+        }
+    }
+
+    /**
+     * Reads how many meals or subscribers follow, checking the rest of the file is long enough to hold them, so a
+     * corrupt count is refused before anything is allocated for it
+     * @param buffer Where to read from
+     * @param smallest The fewest bytes each one takes up
+     * @param path The file, for the message
+     * @param what What is being counted, for the message
+     * @return The count
+     * @throws IOException if the count is negative or more than the rest of the file could hold
+     */
+    private static int readCount(ByteBuffer buffer, int smallest, Path path, String what) throws IOException
+    {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / smallest)
+            throw new IOException(path + " is corrupt: it cannot hold " + count + " " + what);
+        return count;
+    }
+
+    /**
+     * Writes a String as a 2-byte length followed by its UTF-8 bytes
+     * @param out Where to write
+     * @param s The String
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a 2-byte length followed by the bytes themselves
+     * @param out Where to write
+     * @param bytes The bytes
+     * @throws IOException if writing fails, or there are too many bytes
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException
+    {
+        if (bytes.length > 0xFFFF)
+            throw new IOException("Name is too long to write to a snapshot");
+
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String written by writeString
+     * @param buffer Where to read from
+     * @return The String
+     */
+    private static String readString(ByteBuffer buffer)
+    {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
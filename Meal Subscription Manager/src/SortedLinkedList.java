@@ -1,33 +1,508 @@
 import java.util.*;
+import java.util.function.Function;
 /**
- * This class extends LinkedList (of generic type E), and therefore has all the same methods you could invoke on a LinkedList,
- * with the addition of an Insertion Sort algorithm.
- *It is the class which is used to store Subscribers and Meals, as well as order them lexicographically.
+ * This class stores elements of generic type E in ascending order, and is used to store Subscribers and Meals
+ * lexicographically (compareTo is overridden differently in the Subscriber and Meal classes).
+ * It originally extended LinkedList and ran an Insertion Sort after every add, but as each get(i) and set(j) walks the
+ * list, loading a large input file became painfully slow. It is now an indexable skip list: every node has forward links
+ * on several levels, and each link remembers how many elements it jumps over (its span). This gives O(log n) insertion,
+ * indexed access, lookup and removal, while still behaving like any other List for iterating over.
+ * Elements which compare as equal are kept in the order they were added.
+ * A SortedLinkedList can optionally keep a NameIndex of its elements up to date, so they can be looked up by name.
  */
-public class SortedLinkedList<E extends Comparable<E>> extends LinkedList<E>
+public class SortedLinkedList<E extends Comparable<E>> extends AbstractList<E> implements SortedList<E>
 {
+    /**
+     * The maximum number of levels a node can have, which comfortably covers billions of elements
+     */
+    private static final int MAX_LEVEL = 32;
+    /**
+     * Sentinel node at the start of every level, which holds no value
+     */
+    private final Node<E> head;
+    /**
+     * Number of levels currently in use
+     */
+    private int level;
+    /**
+     * Number of elements in the list
+     */
+    private int size;
+    /**
+     * Random number generator used to decide how many levels a new node gets
+     */
+    private final Random random;
+    /**
+     * Reusable array holding the last node visited on each level during a search
+     */
+    private final Node<E>[] update;
+    /**
+     * Reusable array holding the position of each node in update
+     */
+    private final int[] rank;
+    /**
+     * Index of the elements by name, or null if the list was created without one
+     */
+    private final NameIndex<E> names;
+
+    /**
+     * A single node of the skip list.
+     * @param <E> Type of the stored value
+     */
+    private static class Node<E>
+    {
+        /**
+         * The stored element
+         */
+        private final E value;
+        /**
+         * The next node on each level
+         */
+        private final Node<E>[] next;
+        /**
+         * How many positions each forward link moves along the list
+         */
+        private final int[] span;
+
+        @SuppressWarnings("unchecked")
+        private Node(E value, int height)
+        {
+            this.value = value;
+            this.next = (Node<E>[]) new Node<?>[height];
+            this.span = new int[height];
+        }
+    }
 
     /**
-     * This Insertion Sort algorithm first adds a generic element to a SortedLinkedList,
-     * then compares elements based on the compareTo method it calls
-     * (compareTo is overridden differently in the Subscriber and Meal classes).
+     * Constructor for an empty SortedLinkedList without a name index
+     */
+    public SortedLinkedList()
+    {
+        this(null);
+    }
+
+    /**
+     * Constructor for an empty SortedLinkedList which maintains a NameIndex of its elements
+     * @param nameFunction Function which gets the name of an element, or null for no name index
+     */
+    @SuppressWarnings("unchecked")
+    public SortedLinkedList(Function<E, String> nameFunction)
+    {
+        this.names = (nameFunction == null) ? null : new NameIndex<>(nameFunction);
+        this.head = new Node<>(null, MAX_LEVEL);
+        this.level = 1;
+        this.size = 0;
+        this.random = new Random();
+        this.update = (Node<E>[]) new Node<?>[MAX_LEVEL];
+        this.rank = new int[MAX_LEVEL];
+    }
+
+    /**
+     * Adds an element in its sorted position in O(log n) time, after any elements it compares as equal to.
+     * @param e The element to add
      */
     public void addAndSort(E e)
     {
-        this.add(e);
+        Node<E> x = head;
+        for (int i = level - 1; i >= 0; i--) // finds the last node on each level which should come before e
+        {
+            rank[i] = (i == level - 1) ? 0 : rank[i + 1];
+            while (x.next[i] != null && x.next[i].value.compareTo(e) <= 0)
+            {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
 
-        for (int i = 1; i < this.size(); i++) // Outer loop
+        int height = randomLevel();
+        if (height > level) // the head spans the whole list on any newly used levels
         {
-            E value = this.get(i);
-            int j;
-            for (j = i; j > 0; j--) // Inner loop
+            for (int i = level; i < height; i++)
             {
-                if (this.get(j-1).compareTo(value) < 0)
-                    break;
-                else
-                    this.set(j, this.get(j-1));
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
             }
-            this.set(j, value);
+            level = height;
+        }
+
+        Node<E> node = new Node<>(e, height);
+        for (int i = 0; i < height; i++) // links the new node in and splits the spans either side of it
+        {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        for (int i = height; i < level; i++) // links above the new node now jump over one more element
+        {
+            update[i].span[i]++;
         }
+        if (names != null)
+            names.add(e);
+
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Bulk-loading alternative to calling addAndSort for every element. The new elements are merged with the existing
+     * ones, sorted once, and the skip list is rebuilt in a single pass.
+     * @param c The elements to add
+     */
+    public void addAllAndSort(Collection<? extends E> c)
+    {
+        Object[] all = new Object[size + c.size()];
+        int i = 0;
+        for (E e : this)
+            all[i++] = e;
+        for (E e : c)
+            all[i++] = e;
+
+        Arrays.sort(all); // stable, and very fast when most of the input is already in order
+        rebuild(all);
+    }
+
+    /**
+     * Replaces the contents of the list with elements which are already in sorted order, without sorting them again.
+     * This is used by InputFileLoader, which sorts its arrays itself.
+     * @param sorted The elements, in ascending order
+     */
+    public void loadSorted(E[] sorted)
+    {
+        rebuild(sorted);
+    }
+
+    /**
+     * Gets the element at a given position in O(log n) time
+     * @param index Position of the element
+     * @return The element
+     */
+    public E get(int index)
+    {
+        Objects.checkIndex(index, size);
+
+        return nodeAt(index).value;
+    }
+
+    /**
+     * Finds the node at a given position in O(log n) time
+     * @param index Position of the node
+     * @return The node
+     */
+    private Node<E> nodeAt(int index)
+    {
+        int target = index + 1;
+        int traversed = 0;
+        Node<E> x = head;
+        for (int i = level - 1; i >= 0; i--)
+        {
+            while (x.next[i] != null && traversed + x.span[i] <= target)
+            {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            if (traversed == target)
+                break;
+        }
+        return x;
+    }
+
+    /**
+     * Looks up an element by name in constant time using the name index, without allocating anything
+     * @param name The name as entered by the user
+     * @return The element, or null if not found
+     * @throws UnsupportedOperationException if the list was created without a name index
+     */
+    public E lookup(CharSequence name)
+    {
+        if (names == null)
+            throw new UnsupportedOperationException("This list has no name index");
+
+        return names.get(name);
+    }
+
+    /**
+     * Searches for an element in O(log n) time using compareTo.
+     * @param key The element to find
+     * @return The index of the first element comparing equal to key, or -1 if not found
+     */
+    public int search(E key)
+    {
+        int index = ceilingIndex(key);
+
+        if (index < size && get(index).compareTo(key) == 0)
+            return index;
+        else
+            return -1;
+    }
+
+    /**
+     * Finds where a key would be placed in the list.
+     * @param key The element to compare against
+     * @return The index of the first element which is not less than key, or size() if there is none
+     */
+    public int ceilingIndex(E key)
+    {
+        int traversed = 0;
+        Node<E> x = head;
+        for (int i = level - 1; i >= 0; i--)
+        {
+            while (x.next[i] != null && x.next[i].value.compareTo(key) < 0)
+            {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+        return traversed;
+    }
+
+    /**
+     * Removes the element at a given position in O(log n) time
+     * @param index Position of the element
+     * @return The removed element
+     */
+    public E remove(int index)
+    {
+        Objects.checkIndex(index, size);
+
+        int target = index + 1;
+        int traversed = 0;
+        Node<E> x = head;
+        for (int i = level - 1; i >= 0; i--) // finds the node before the target on each level
+        {
+            while (x.next[i] != null && traversed + x.span[i] < target)
+            {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        Node<E> node = x.next[0];
+        for (int i = 0; i < level; i++)
+        {
+            if (update[i].next[i] == node)
+            {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            }
+            else
+                update[i].span[i]--;
+        }
+        while (level > 1 && head.next[level - 1] == null) // drops any levels which are now empty
+            level--;
+
+        size--;
+        modCount++;
+
+        if (names != null && names.remove(node.value)) // another element may share the removed element's name
+        {
+            int other = search(node.value);
+            if (other != -1)
+                names.add(get(other));
+        }
+        return node.value;
+    }
+
+    /**
+     * Removes a given element, looking it up in O(log n) time rather than scanning the whole list
+     * @param o The element to remove
+     * @return true if the element was found and removed
+     */
+    public boolean remove(Object o)
+    {
+        int index = indexOf(o);
+
+        if (index == -1)
+            return false;
+
+        remove(index);
+        return true;
+    }
+
+    /**
+     * Looks up the position of an element using compareTo, then checks the run of elements comparing equal to it
+     * for the one which is actually equal.
+     * @param o The element to find
+     * @return The index of the element, or -1 if not found
+     */
+    @SuppressWarnings("unchecked")
+    public int indexOf(Object o)
+    {
+        if (o == null)
+            return -1;
+
+        E key;
+        int index;
+        try
+        {
+            key = (E) o;
+            index = ceilingIndex(key);
+        }
+        catch (ClassCastException e)
+        {
+            return -1;
+        }
+
+        for (; index < size; index++)
+        {
+            E value = get(index);
+            if (value.compareTo(key) != 0)
+                break;
+            if (value.equals(o))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether an element is in the list in O(log n) time
+     * @param o The element to find
+     * @return true if found
+     */
+    public boolean contains(Object o)
+    {
+        return indexOf(o) != -1;
+    }
+
+    /**
+     * Adds an element in its sorted position. This is the same as addAndSort, so that addAll and other List methods
+     * keep the list ordered.
+     * @param e The element to add
+     * @return true
+     */
+    public boolean add(E e)
+    {
+        addAndSort(e);
+        return true;
+    }
+
+    /**
+     * Adds every element of a collection using the bulk-loading path
+     * @param c The elements to add
+     * @return true if the list changed
+     */
+    public boolean addAll(Collection<? extends E> c)
+    {
+        if (c.isEmpty())
+            return false;
+
+        addAllAndSort(c);
+        return true;
+    }
+
+    /**
+     * Removes every element from the list
+     */
+    public void clear()
+    {
+        rebuild(new Object[0]);
+    }
+
+    /**
+     * Size getter
+     * @return The number of elements in the list
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Iterates through the bottom level of the skip list, which visits every element in order in O(n) time.
+     * @return An iterator over the elements in sorted order
+     */
+    public Iterator<E> iterator()
+    {
+        return iterator(0);
+    }
+
+    /**
+     * Iterator which starts part way through the list. Finding the starting position takes O(log n) time, and each
+     * element after it takes O(1), so this is much quicker than calling get() for every position.
+     * @param from Position of the first element to return
+     * @return The iterator
+     */
+    public Iterator<E> iterator(int from)
+    {
+        if (from < 0 || from > size)
+            throw new IndexOutOfBoundsException("Index: " + from + ", Size: " + size);
+
+        Node<E> start = (from == size) ? null : nodeAt(from);
+        return new Iterator<>()
+        {
+            private Node<E> current = start;
+            private final int expectedModCount = modCount;
+
+            public boolean hasNext()
+            {
+                return current != null;
+            }
+
+            public E next()
+            {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if (current == null)
+                    throw new NoSuchElementException();
+
+                E value = current.value;
+                current = current.next[0];
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Replaces the contents of the skip list with an array which is already sorted, linking each level in one pass.
+     * @param sorted The sorted elements
+     */
+    @SuppressWarnings("unchecked")
+    private void rebuild(Object[] sorted)
+    {
+        if (names != null)
+            names.clear();
+        Arrays.fill(head.next, null);
+        Arrays.fill(head.span, 0);
+        Arrays.fill(update, head);
+        Arrays.fill(rank, 0);
+        level = 1;
+
+        for (int r = 1; r <= sorted.length; r++) // update and rank hold the last node added to each level
+        {
+            int height = randomLevel();
+            Node<E> node = new Node<>((E) sorted[r - 1], height);
+
+            for (int i = 0; i < height; i++)
+            {
+                update[i].next[i] = node;
+                update[i].span[i] = r - rank[i];
+                update[i] = node;
+                rank[i] = r;
+            }
+            level = Math.max(level, height);
+
+            if (names != null)
+                names.add(node.value);
+        }
+        for (int i = 0; i < MAX_LEVEL; i++) // the last node on each level spans to the end of the list
+            update[i].span[i] = sorted.length - rank[i];
+
+        size = sorted.length;
+        modCount++;
+    }
+
+    /**
+     * Picks how many levels a new node should have, with each extra level a quarter as likely as the one below
+     * @return Number of levels
+     */
+    private int randomLevel()
+    {
+        int height = 1;
+        while (height < MAX_LEVEL && random.nextInt(4) == 0)
+            height++;
+        return height;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,50 @@
+import java.util.*;
+/**
+ * A List kept in ascending order whose elements can also be looked up by name. SortedLinkedList is the usual one,
+ * holding its elements on the heap, while MappedStore holds subscribers in a memory-mapped file. Code which only looks
+ * subscribers and meals up, pages through them or changes their subscriptions works with either.
+ * @param <E> The type of element, which is ordered by its compareTo
+ */
+public interface SortedList<E extends Comparable<E>> extends List<E>
+{
+    /**
+     * Looks up an element by name, ignoring case and extra whitespace
+     * @param name The name as entered by the user
+     * @return The element, or null if not found
+     */
+    E lookup(CharSequence name);
+
+    /**
+     * Finds where a key would be placed in the list.
+     * @param key The element to compare against
+     * @return The index of the first element which is not less than key, or size() if there is none
+     */
+    int ceilingIndex(E key);
+
+    /**
+     * Iterator which starts part way through the list, without walking through the elements before it
+     * @param from Position of the first element to return
+     * @return The iterator
+     */
+    Iterator<E> iterator(int from);
+
+    /**
+     * Gets everyone in a list of subscribers who is subscribed to a meal, sorted by name, with their quantities.
+     * This reads the meal's own index of its subscribers, so it takes time in proportion to the number subscribed to
+     * it. Lists which don't keep that index up to date override it.
+     * @param m The meal
+     * @return Each subscriber to the meal and how many they have
+     */
+    default Map<Subscriber, Integer> subscribersTo(Meal m)
+    {
+        LinkedHashMap<Subscriber, Integer> found = new LinkedHashMap<>();
+        Map<Subscriber, Integer> index = m.getSubscribers();
+        for (Subscriber s : m.getSubscribersSorted())
+        {
+            Integer quantity = index.get(s);
+            if (quantity != null) // it may have been removed in the meantime
+                found.put(s, quantity);
+        }
+        return found;
+    }
+}
@@ -5,9 +5,15 @@ import java.util.*;
  * I made the choice to store Subscriptions in an ArrayList rather than a SortedLinkedList, as the functionality of each data structure is
  * largely the same, however each Subscriber can only have a maximum of three subscriptions,
  * eliminating the need for scalable searching or sorting algorithms.
+ * Methods which read or change the subscriptions are synchronized on the Subscriber, so orders for the same subscriber
+ * can safely come in from more than one thread.
  */
 public class Subscriber implements Comparable<Subscriber>
 {
+    /**
+     * The maximum number of different meals a subscriber can be subscribed to
+     */
+    public static final int MAX_SUBSCRIPTIONS = 3;
     /**
      * First name field
      */
@@ -16,6 +22,14 @@ public class Subscriber implements Comparable<Subscriber>
      * Surname field
      */
     private String surname;
+    /**
+     * First name in lower case, worked out once for comparing subscribers
+     */
+    private String firstNameKey;
+    /**
+     * Surname in lower case, worked out once for comparing subscribers
+     */
+    private String surnameKey;
     /**
      * The subscriber's list of subscriptions
      */
@@ -30,9 +44,14 @@ public class Subscriber implements Comparable<Subscriber>
      */
     public Subscriber(String firstName, String surname, ArrayList<Subscription> subscriptions)
     {
-        this.firstName = firstName;
-        this.surname = surname;
+        setName(firstName, surname);
         this.subscriptions = subscriptions;
+
+        for (Subscription s : subscriptions)
+        {
+            s.setSubscriber(this);
+            s.getMeal().indexSubscriber(this, s.getQuantity());
+        }
     }
 
     /**
@@ -42,11 +61,19 @@ public class Subscriber implements Comparable<Subscriber>
      */
     public Subscriber(String firstName, String surname)
     {
-        this.firstName = firstName;
-        this.surname = surname;
+        setName(firstName, surname);
         this.subscriptions = new ArrayList<>();
     }
 
+    /**
+     * This constructor leaves every field empty, and is used by subclasses which store their names and subscriptions
+     * somewhere else, such as the views in CompactStore. These override every method which uses the fields, so the
+     * rest of the class only uses the getters and setters.
+     */
+    protected Subscriber()
+    {
+    }
+
     /**
      * First name getter
      * @return First name
@@ -65,18 +92,35 @@ public class Subscriber implements Comparable<Subscriber>
         return surname;
     }
 
+    /**
+     * Lower case first name getter, used for sorting
+     * @return First name in lower case
+     */
+    protected String getFirstNameKey()
+    {
+        return firstNameKey;
+    }
+
+    /**
+     * Lower case surname getter, used for sorting
+     * @return Surname in lower case
+     */
+    protected String getSurnameKey()
+    {
+        return surnameKey;
+    }
+
     /**
      * Full name getter
      * @return First name followed by surname
      */
     public String getName()
     {
-        return firstName + " " + surname;
+        return getFirstName() + " " + getSurname();
     }
 
     /**
-     * Full name setter.
-     * This method is unused in the current system but may be useful in a later version.
+     * Full name setter, which also works out the lower case names used for sorting.
      * @param firstName First name
      * @param surname Surname
      */
@@ -84,10 +128,24 @@ public class Subscriber implements Comparable<Subscriber>
     {
         this.firstName = firstName;
         this.surname = surname;
+        this.firstNameKey = firstName.toLowerCase();
+        this.surnameKey = surname.toLowerCase();
+    }
+
+    /**
+     * Gets the object to synchronize on when reading several of the subscriber's details at once, e.g. to list their
+     * subscriptions while other threads may be placing orders. This is the subscriber itself, unless it is a view
+     * of a record held somewhere else which can have more than one view.
+     * @return The lock
+     */
+    public Object getLock()
+    {
+        return this;
     }
 
     /**
-     * Subscriptions getter
+     * Subscriptions getter. Code iterating over the list while other threads may be placing orders should synchronize
+     * on getLock().
      * @return Subscriptions
      */
     public ArrayList<Subscription> getSubscriptions()
@@ -95,13 +153,24 @@ public class Subscriber implements Comparable<Subscriber>
         return subscriptions;
     }
 
+    /**
+     * Number of subscriptions getter
+     * @return How many different meals the subscriber is subscribed to
+     */
+    public synchronized int getSubscriptionCount()
+    {
+        return subscriptions.size();
+    }
+
     /**
      * This method checks if a meal exists inside a subscriber's subscriptions.
      * If it exists, it will add the desired quantity. If not, it will create a new Subscription and add it.
+     * Either way, the meal's index of subscribers is updated and the change is published, by the Subscription's
+     * setQuantity() for one which exists.
      * @param meal The chosen meal
      * @param quantity The desired amount
      */
-    public void setSubscriptions(Meal meal, int quantity)
+    public synchronized void setSubscriptions(Meal meal, int quantity)
     {
         boolean subscriptionExists = false;
 
@@ -109,17 +178,79 @@ public class Subscriber implements Comparable<Subscriber>
         {
             if(s.getMeal().equals(meal))
             {
-                s.setQuantity(s.getQuantity() + quantity); // if so, adds quantity
+                s.setQuantity(s.getQuantity() + quantity); // if so, adds quantity, indexes and publishes it
                 subscriptionExists = true;
             }
         }
 
         if (!subscriptionExists) // if not, creates new subscription and adds
         {
-            Subscription s = new Subscription(meal, quantity);
+            Subscription s = new Subscription(this, meal, quantity);
             this.subscriptions.add(s);
+            meal.indexSubscriber(this, quantity);
+            EventBus.post(EventBus.Type.QUANTITY, this, meal, quantity);
         }
+    }
 
+    /**
+     * Removes a quantity of a meal from the subscriber's subscriptions, deleting the Subscription entirely if its
+     * quantity reaches 0. The meal's index of subscribers is updated to match.
+     * @param meal The chosen meal
+     * @param quantity The amount to remove
+     * @return The quantity left in the subscription
+     * @throws IllegalArgumentException if the quantity is negative
+     * @throws IllegalStateException if the subscriber does not have that many of the meal
+     */
+    public synchronized int removeSubscriptions(Meal meal, int quantity)
+    {
+        if (quantity < 0)
+            throw new IllegalArgumentException(quantity + " is a negative number!");
+
+        Subscription s = searchSubscriptions(meal);
+
+        if (s == null || s.getQuantity() < quantity)
+            throw new IllegalStateException("Cannot remove " + quantity + " " + meal.getName() + " from " + getName());
+
+        s.setQuantity(s.getQuantity() - quantity); // indexes and publishes the new quantity
+        if (s.getQuantity() == 0) // removes a subscription from the ArrayList if quantity is set to 0
+            subscriptions.remove(s);
+
+        return s.getQuantity();
+    }
+
+    /**
+     * Adds a quantity of a meal to the subscriber's subscriptions, taking it out of stock.
+     * This applies all the rules of the add menu in one step, so it can be used by other ways of taking orders.
+     * @param meal The chosen meal
+     * @param quantity The amount to add
+     * @throws NotEnoughMealsException if there are not enough of the meal left
+     * @throws IllegalArgumentException if the quantity is negative
+     * @throws IllegalStateException if this would be a new subscription and the subscriber already has the maximum
+     */
+    public synchronized void subscribe(Meal meal, int quantity) throws NotEnoughMealsException
+    {
+        if (quantity < 0)
+            throw new IllegalArgumentException(quantity + " is a negative number!");
+
+        if (getSubscriptionCount() >= MAX_SUBSCRIPTIONS && searchSubscriptions(meal) == null)
+            throw new IllegalStateException(getFirstName() + " has reached the maximum number of meal subscriptions ("
+                    + MAX_SUBSCRIPTIONS + ")!");
+
+        meal.reserve(quantity);
+        setSubscriptions(meal, quantity);
+    }
+
+    /**
+     * Removes a quantity of a meal from the subscriber's subscriptions and puts it back in stock
+     * @param meal The chosen meal
+     * @param quantity The amount to remove
+     * @throws IllegalArgumentException if the quantity is negative
+     * @throws IllegalStateException if the subscriber does not have that many of the meal
+     */
+    public synchronized void unsubscribe(Meal meal, int quantity)
+    {
+        removeSubscriptions(meal, quantity);
+        meal.release(quantity);
     }
 
     /**
@@ -128,28 +259,28 @@ public class Subscriber implements Comparable<Subscriber>
      */
     public String toString()
     {
-        return firstName + " " + surname +  " " + subscriptions;
+        synchronized (getLock()) // stops the subscriptions changing while they are listed
+        {
+            return getName() + " " + getSubscriptions();
+        }
     }
 
     /**
      * compareTo override which first compares by surname, then by first name.
-     * It first converts the names to lowercase to ensure that a Subscriber will be accurately compared to another
-     * whether the user enters the name with capitals or not.
+     * It compares the lower case names to ensure that a Subscriber will be accurately compared to another
+     * whether the user enters the name with capitals or not. These are worked out when the name is set, so comparing
+     * allocates nothing, and the first names are only compared when the surnames are the same.
      * @param s the other subscription to compare to
      * @return The difference between surnames, or the difference between first names if surnames are identical
      */
     public int compareTo(Subscriber s)
     {
-        String formattedSurname = surname.toLowerCase();
-        String formattedFirstName = firstName.toLowerCase();
-
-        int surnameComp = formattedSurname.compareTo(s.surname.toLowerCase());
-        int firstNameComp = formattedFirstName.compareTo(s.firstName.toLowerCase());
+        int surnameComp = getSurnameKey().compareTo(s.getSurnameKey());
 
         if (surnameComp != 0) // If two subscribers have the same surname, compare and order by first name
             return surnameComp;
         else
-            return firstNameComp;
+            return getFirstNameKey().compareTo(s.getFirstNameKey());
     }
 
     /**
@@ -159,7 +290,7 @@ public class Subscriber implements Comparable<Subscriber>
      */
     public boolean equals(Subscriber other)
     {
-        return (firstName.equals(other.firstName) && surname.equals(other.surname));
+        return (getFirstName().equals(other.getFirstName()) && getSurname().equals(other.getSurname()));
     }
 
     /**
@@ -168,7 +299,7 @@ public class Subscriber implements Comparable<Subscriber>
      * @param m The meal to search for
      * @return the Subscription if found, null if not.
      */
-    public Subscription searchSubscriptions(Meal m)
+    public synchronized Subscription searchSubscriptions(Meal m)
     {
         for (Subscription s : subscriptions)
         {
@@ -180,17 +311,23 @@ public class Subscriber implements Comparable<Subscriber>
 
     /**
      * This method prints a subscriber's name, followed by their subscriptions.
+     * The text is not kept, as the subscriptions can change without going through this object, but each
+     * Subscription keeps its own line, so printing an unchanged subscriber only joins existing lines.
      */
     public void printInfo()
     {
-        System.out.println(getName() + ":");
-
-        if (getSubscriptions().isEmpty()) // checks if subscriber has no meals added
-            System.out.println("No meals!");
-        else
+        String n = System.lineSeparator();
+        StringBuilder sb;
+        synchronized (getLock()) // stops the subscriptions changing while they are listed
         {
-            for (Subscription s : getSubscriptions()) // prints the subscriptions line by line
-                System.out.println(s.toString());
+            List<Subscription> subs = getSubscriptions();
+            sb = new StringBuilder(32 + subs.size() * (ListingWriter.NAME_WIDTH + 8));
+            sb.append(getName()).append(':').append(n);
+            if (subs.isEmpty()) // checks if subscriber has no meals added
+                sb.append("No meals!").append(n);
+            for (Subscription s : subs) // the subscriptions line by line
+                sb.append(s).append(n);
         }
+        System.out.print(sb);
     }
 }
\ No newline at end of file
@@ -3,6 +3,9 @@
  * The fields and methods are very similar to the meal class, and I could well have chosen to use a list of Meal items
  * to store a subscriber's choices, but I decided a Meal and a Subscription were semantically separate,
  * so it would be simpler to create an extra class to represent subscriptions.
+ * A subscription made by a Subscriber knows who it belongs to, so changing it directly through setMeal() or
+ * setQuantity() updates the meal's index of its subscribers and publishes a QUANTITY event on the EventBus, just as
+ * changing it through the subscriber does.
  */
 public class Subscription
 {
@@ -14,6 +17,43 @@ public class Subscription
      * Field for meal quantity
      */
     private int quantity;
+    /**
+     * The subscriber it belongs to, or null if it hasn't been given to one
+     */
+    private Subscriber subscriber;
+    /**
+     * The line toString() last rendered, thrown away when the meal or quantity is set
+     */
+    private volatile Rendering rendered;
+
+    /**
+     * A rendered line, with the meal name and quantity it was rendered from. Both are checked by value before the line
+     * is reused, in the same way as Meal's text, as a meal can be renamed, and a view's quantity can change, without
+     * going through the setters.
+     */
+    private static final class Rendering
+    {
+        /**
+         * The meal name rendered
+         */
+        private final String name;
+        /**
+         * The quantity rendered
+         */
+        private final int quantity;
+        /**
+         * The line
+         */
+        private final String text;
+
+        private Rendering(String name, int quantity)
+        {
+            this.name = name;
+            this.quantity = quantity;
+            this.text = ListingWriter.column(new StringBuilder(ListingWriter.NAME_WIDTH + 11), name).append(quantity)
+                    .toString();
+        }
+    }
 
     /**
      * Constructor for Subscription using Meal and Quantity as parameters
@@ -22,10 +62,32 @@ public class Subscription
      */
     public Subscription(Meal meal, int quantity)
     {
+        this(null, meal, quantity);
+    }
+
+    /**
+     * Constructor for a subscription belonging to a subscriber. This doesn't index or publish anything, as the
+     * subscriber does so when it adds the subscription.
+     * @param subscriber The subscriber it belongs to
+     * @param meal The meal
+     * @param quantity The quantity of the meal
+     */
+    public Subscription(Subscriber subscriber, Meal meal, int quantity)
+    {
+        this.subscriber = subscriber;
         this.meal = meal;
         this.quantity = quantity;
     }
 
+    /**
+     * Subscriber setter, only called by Subscriber when it is given a subscription made without one
+     * @param s The subscriber it belongs to
+     */
+    void setSubscriber(Subscriber s)
+    {
+        this.subscriber = s;
+    }
+
     /**
      * Meal getter
      * @return Meal
@@ -45,33 +107,72 @@ public class Subscription
     }
 
     /**
-     * Meal setter
+     * Meal setter. If the subscription belongs to a subscriber, they are moved from the old meal's index of
+     * subscribers to the new one's, and the change is published as the old meal going to 0 and the new one to the
+     * quantity.
      * @param m Meal
      */
     public void setMeal(Meal m)
     {
-        this.meal = m;
+        if (subscriber == null)
+        {
+            this.meal = m;
+            this.rendered = null;
+            return;
+        }
+
+        synchronized (subscriber.getLock())
+        {
+            Meal old = this.meal;
+            this.meal = m;
+            this.rendered = null;
+            old.indexSubscriber(subscriber, 0);
+            m.indexSubscriber(subscriber, quantity);
+            EventBus.post(EventBus.Type.QUANTITY, subscriber, old, 0);
+            EventBus.post(EventBus.Type.QUANTITY, subscriber, m, quantity);
+        }
     }
 
     /**
-     * Quantity setter
+     * Quantity setter. If the subscription belongs to a subscriber, the meal's index of subscribers is updated and the
+     * change is published. Setting it to 0 doesn't take it out of the subscriber's list; removeSubscriptions() does.
      * @param q Quantity
      */
     public void setQuantity(int q)
     {
-        this.quantity = q;
+        if (subscriber == null)
+        {
+            this.quantity = q;
+            this.rendered = null;
+            return;
+        }
+
+        synchronized (subscriber.getLock())
+        {
+            this.quantity = q;
+            this.rendered = null;
+            meal.indexSubscriber(subscriber, q);
+            EventBus.post(EventBus.Type.QUANTITY, subscriber, meal, q);
+        }
     }
 
     /**
-     * toString override which calculates a set amount of whitespace to add between the meal name and quantity.
+     * toString override which pads the meal name to a fixed width before the quantity.
      * This ensures the subscriptions align neatly when printed to the console.
+     * The line is kept and returned again until the subscription changes, so it is the same String each time.
      * @return Meal name, whitespace and meal quantity
      */
     public String toString()
     {
-        int i = 20 - getMeal().getName().length(); // calculate the number of spaces based on the number of characters in meal name
-        String spaces = String.format("%1$"+i+"s", ""); // format string accordingly
+        String name = getMeal().getName();
+        int q = getQuantity();
 
-        return meal.getName() + spaces + quantity;
+        Rendering r = rendered;
+        if (r == null || !r.name.equals(name) || r.quantity != q)
+        {
+            r = new Rendering(name, q);
+            rendered = r;
+        }
+        return r.text;
     }
 }
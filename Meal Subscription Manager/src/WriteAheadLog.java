@@ -0,0 +1,756 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+/**
+ * An append-only log of every change made to subscriptions, so that a crash doesn't lose the orders taken since the
+ * last snapshot. The file starts with a magic number and a format version. Each record is then written as its length,
+ * a CRC32 checksum, then its sequence number, the type of change (add or remove), the subscriber's full name, the meal
+ * name and the quantity. An Order is written as one record holding the subscriber's name and each meal's name and
+ * change, so it is replayed all together or, if cut off, not at all.
+ * Orders are applied in memory first, then logged, and an order only counts as taken once log() has returned.
+ * Rather than forcing the file to disk once per order, a background thread collects every record waiting to be
+ * written, writes them together and forces the file to disk once for the whole group (group commit), so many threads
+ * can take orders at once without each waiting for its own disk write. Callers which don't need to wait for each
+ * record, such as a batch of orders, can use append() and then sync() once at the end.
+ * At startup the log is replayed on top of whatever was loaded, and once a new snapshot has been saved the log is
+ * truncated, folding its contents into the snapshot. Sequence numbers carry on rising across truncations, and each
+ * snapshot saves the number checkpoint() gives it, so records which are already in the snapshot, e.g. because the
+ * program crashed after saving it but before truncating the log, are skipped rather than replayed twice.
+ */
+public class WriteAheadLog implements Closeable
+{
+    /**
+     * Record type for meals added to a subscription
+     */
+    public static final byte ADD = 1;
+    /**
+     * Record type for meals removed from a subscription
+     */
+    public static final byte REMOVE = 2;
+    /**
+     * Record type for an Order, holding several changes to one subscriber's subscriptions
+     */
+    public static final byte ORDER = 3;
+
+    /**
+     * Magic number at the start of every log, "FFFL" for Fred's Frozen Food Log
+     */
+    private static final int MAGIC = 0x4646464C;
+    /**
+     * Version of the file format, increased whenever the format changes
+     */
+    private static final short VERSION = 1;
+    /**
+     * Size of the magic number and version at the start of the file
+     */
+    private static final int FILE_HEADER_SIZE = 6;
+    /**
+     * Size of the length and checksum written before each record
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * Size of the sequence number at the start of each record, after its length and checksum
+     */
+    private static final int SEQUENCE_SIZE = 8;
+
+    /**
+     * The log file
+     */
+    private final FileChannel channel;
+    /**
+     * Guards everything below
+     */
+    private final ReentrantLock lock;
+    /**
+     * Signalled when there are records waiting to be written, or the log is closing
+     */
+    private final Condition work;
+    /**
+     * Signalled when a group of records has been forced to disk
+     */
+    private final Condition committed;
+    /**
+     * Records waiting to be written
+     */
+    private ArrayList<ByteBuffer> pending;
+    /**
+     * Sequence number of the last record added to pending
+     */
+    private long appended;
+    /**
+     * Sequence number of the last record forced to disk
+     */
+    private long durable;
+    /**
+     * Any error the background thread ran into, after which nothing more can be logged
+     */
+    private IOException failure;
+    /**
+     * Whether close() has been called
+     */
+    private boolean closed;
+    /**
+     * The background thread which writes and forces groups of records
+     */
+    private final Thread committer;
+
+    /**
+     * Constructor which opens the log file, creating it if it does not exist, and starts the background thread.
+     * replay() should be called before anything new is logged.
+     * @param path The log file
+     * @throws IOException if the file cannot be opened, or is not a log
+     */
+    public WriteAheadLog(Path path) throws IOException
+    {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            checkHeader(path);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        this.lock = new ReentrantLock();
+        this.work = lock.newCondition();
+        this.committed = lock.newCondition();
+        this.pending = new ArrayList<>();
+        this.committer = new Thread(this::commitLoop, "wal-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Checks the file starts with the magic number and version, writing them if the file is new
+     * @param path The log file, for the message
+     * @throws IOException if the file cannot be read or written, or is not a log
+     */
+    private void checkHeader(Path path) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (channel.size() < FILE_HEADER_SIZE) // new, or cut off while the header was being written
+        {
+            header.putInt(MAGIC).putShort(VERSION).flip();
+            channel.truncate(0);
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            channel.force(true);
+        }
+        else
+        {
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+            {
+                // keeps reading until the header is full
+            }
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new IOException(path + " is not a log file");
+            short version = header.getShort();
+            if (version != VERSION)
+                throw new IOException(path + " uses log format version " + version + ", expected " + VERSION);
+        }
+        channel.position(channel.size());
+    }
+
+    /**
+     * Replays every change logged since a snapshot onto the subscribers and meals loaded from it. Every record is read
+     * and checked before anything is changed, so a log which doesn't belong to what was loaded changes nothing.
+     * The next record logged follows on from the last one replayed.
+     * If the log ends with a partly written or corrupt record, e.g. from a crash, it is cut off there.
+     * @param subscribers The subscribers, which must have a name index
+     * @param meals The meals, which must have a name index
+     * @param after The sequence number saved in the snapshot, or 0 if there is none; records up to it are skipped
+     * @return The number of records applied
+     * @throws IOException if the log cannot be read, or takes more of a meal than there is, so it doesn't belong to
+     * what was loaded
+     */
+    public int replay(SortedList<Subscriber> subscribers, SortedLinkedList<Meal> meals, long after) throws IOException
+    {
+        Replay replay = new Replay(subscribers, meals, after);
+        readInto(replay);
+        replay.apply();
+        advance(replay.getSequence());
+        return replay.getApplied();
+    }
+
+    /**
+     * Reads every record in the log into a Replay without changing anything yet, so that several logs can be replayed
+     * together. If the log ends with a partly written or corrupt record, e.g. from a crash, it is cut off there.
+     * @param replay Where to collect the changes
+     * @throws IOException if the log cannot be read
+     */
+    public void readInto(Replay replay) throws IOException
+    {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer.position(FILE_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        int goodEnd = FILE_HEADER_SIZE;
+
+        while (buffer.remaining() >= HEADER_SIZE)
+        {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= SEQUENCE_SIZE || length > buffer.remaining())
+                break;
+
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break;
+            buffer.position(buffer.position() + length);
+            goodEnd = buffer.position();
+
+            replay.read(record);
+        }
+
+        if (goodEnd < channel.size()) // cuts off a torn record at the end
+            channel.truncate(goodEnd);
+        channel.position(goodEnd);
+    }
+
+    /**
+     * Changes read from one or more logs by readInto(), which are checked as they are read but only made by apply(),
+     * once every log has been read. Each record is checked against the subscriptions as the records before it leave
+     * them, and skipped if it no longer matches, e.g. a subscriber removed from the input file since. The stock taken
+     * is added up across every log and checked before anything is changed, as logs written by shards which took stock
+     * from the same meals at once are in no particular order with respect to each other.
+     */
+    public static class Replay
+    {
+        /**
+         * The subscribers, which must have a name index
+         */
+        private final SortedList<Subscriber> subscribers;
+        /**
+         * The meals, which must have a name index
+         */
+        private final SortedLinkedList<Meal> meals;
+        /**
+         * Records with this sequence number or lower are already in the snapshot, so are skipped
+         */
+        private final long after;
+        /**
+         * The highest sequence number read, or after if none was higher
+         */
+        private long sequence;
+        /**
+         * Each subscriber's quantity of each meal changed so far, as it will be once the changes are made
+         */
+        private final HashMap<Subscriber, IdentityHashMap<Meal, Integer>> quantities;
+        /**
+         * The subscriber each record accepted so far is for, in the order they were read
+         */
+        private final ArrayList<Subscriber> changedSubscribers;
+        /**
+         * The meals each record accepted so far changes
+         */
+        private final ArrayList<Meal[]> changedMeals;
+        /**
+         * The change to each of those meals, negative for a removal
+         */
+        private final ArrayList<int[]> changes;
+        /**
+         * The number of each meal taken by the records accepted, negative if put back
+         */
+        private final IdentityHashMap<Meal, Integer> stockChanges;
+        /**
+         * Number of records skipped as they no longer matched a subscriber or meal
+         */
+        private int skipped;
+
+        /**
+         * Constructor for replaying logs on top of a snapshot
+         * @param subscribers The subscribers loaded from the snapshot, which must have a name index
+         * @param meals The meals loaded from the snapshot, which must have a name index
+         * @param after The sequence number saved in the snapshot, or 0 if there is none; records up to it are skipped
+         */
+        public Replay(SortedList<Subscriber> subscribers, SortedLinkedList<Meal> meals, long after)
+        {
+            this.subscribers = subscribers;
+            this.meals = meals;
+            this.after = after;
+            this.sequence = after;
+            this.quantities = new HashMap<>();
+            this.changedSubscribers = new ArrayList<>();
+            this.changedMeals = new ArrayList<>();
+            this.changes = new ArrayList<>();
+            this.stockChanges = new IdentityHashMap<>();
+        }
+
+        /**
+         * Sequence number getter
+         * @return The highest sequence number read, which a log written after the replay should carry on from
+         */
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * Applied getter
+         * @return The number of records accepted, which apply() makes
+         */
+        public int getApplied()
+        {
+            return changedSubscribers.size();
+        }
+
+        /**
+         * Reads a record, accepting it if it comes after the snapshot and can still be applied
+         * @param record The record, after its length and checksum
+         */
+        private void read(ByteBuffer record)
+        {
+            long recordSequence = record.getLong();
+            if (recordSequence <= after) // already in the snapshot
+                return;
+            sequence = Math.max(sequence, recordSequence);
+
+            byte type = record.get();
+            Subscriber s = subscribers.lookup(readString(record));
+            int count = (type == ORDER) ? Byte.toUnsignedInt(record.get()) : 1;
+            Meal[] recordMeals = new Meal[count];
+            int[] recordChanges = new int[count];
+            boolean found = s != null; // e.g. removed from the input file since
+
+            for (int i = 0; i < count; i++)
+            {
+                recordMeals[i] = meals.lookup(readString(record));
+                recordChanges[i] = (type == REMOVE) ? -record.getInt() : record.getInt();
+                found &= recordMeals[i] != null;
+            }
+            if (!found)
+            {
+                skipped++;
+                return;
+            }
+
+            IdentityHashMap<Meal, Integer> held = quantities.computeIfAbsent(s, k -> new IdentityHashMap<>());
+            for (int i = 0; i < count; i++) // checks every removal first, so a record is never half applied
+            {
+                if (recordChanges[i] < 0 && quantity(s, held, recordMeals[i]) < -recordChanges[i])
+                {
+                    skipped++;
+                    return;
+                }
+            }
+            for (int i = 0; i < count; i++)
+            {
+                held.put(recordMeals[i], quantity(s, held, recordMeals[i]) + recordChanges[i]);
+                stockChanges.merge(recordMeals[i], recordChanges[i], Integer::sum);
+            }
+            changedSubscribers.add(s);
+            changedMeals.add(recordMeals);
+            changes.add(recordChanges);
+        }
+
+        /**
+         * Gets how many of a meal a subscriber will have once the changes accepted so far are made
+         * @param s The subscriber
+         * @param held The subscriber's quantities changed so far
+         * @param m The meal
+         * @return The quantity, 0 if they won't have it
+         */
+        private static int quantity(Subscriber s, IdentityHashMap<Meal, Integer> held, Meal m)
+        {
+            Integer quantity = held.get(m);
+            if (quantity != null)
+                return quantity;
+
+            Subscription sub = s.searchSubscriptions(m);
+            return (sub == null) ? 0 : sub.getQuantity();
+        }
+
+        /**
+         * Makes every change accepted, then takes the stock they add up to from each meal. Every meal is checked
+         * before anything is changed, so logs which don't match what was loaded change nothing at all.
+         * @throws IOException if more of a meal was taken than there is, e.g. the log was written after a different
+         * snapshot
+         */
+        public void apply() throws IOException
+        {
+            for (Map.Entry<Meal, Integer> change : stockChanges.entrySet())
+            {
+                Meal m = change.getKey();
+                if (m.getNumberAvailable() - change.getValue() < 0)
+                    throw new IOException("The log takes " + change.getValue() + " " + m.getName() + " but only "
+                            + m.getNumberAvailable() + " are available, so it does not match the snapshot");
+            }
+
+            for (int i = 0; i < changedSubscribers.size(); i++)
+            {
+                Subscriber s = changedSubscribers.get(i);
+                for (int j = 0; j < changes.get(i).length; j++)
+                {
+                    if (changes.get(i)[j] > 0)
+                        s.setSubscriptions(changedMeals.get(i)[j], changes.get(i)[j]);
+                    else if (changes.get(i)[j] < 0)
+                        s.removeSubscriptions(changedMeals.get(i)[j], -changes.get(i)[j]);
+                }
+            }
+            for (Map.Entry<Meal, Integer> change : stockChanges.entrySet())
+            {
+                Meal m = change.getKey();
+                m.setNumberAvailable(m.getNumberAvailable() - change.getValue());
+            }
+
+            if (skipped > 0)
+                System.out.println(skipped + " records in the log no longer matched a subscriber or meal and were skipped.");
+        }
+    }
+
+    /**
+     * Logs a change to a subscription and waits until it is safely on disk
+     * @param type ADD or REMOVE
+     * @param s The subscriber
+     * @param m The meal
+     * @param quantity The quantity added or removed
+     * @throws IOException if the log cannot be written
+     */
+    public void log(byte type, Subscriber s, Meal m, int quantity) throws IOException
+    {
+        awaitDurable(append(type, s, m, quantity));
+    }
+
+    /**
+     * Waits until every record appended so far is safely on disk
+     * @throws IOException if the log cannot be written
+     */
+    public void sync() throws IOException
+    {
+        long sequence;
+
+        lock.lock();
+        try
+        {
+            sequence = appended;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Adds a change to a subscription to the next group of records to be written, without waiting for it to be on disk
+     * @param type ADD or REMOVE
+     * @param s The subscriber
+     * @param m The meal
+     * @param quantity The quantity added or removed
+     * @return The record's sequence number, which can be passed to awaitDurable()
+     * @throws IOException if the log has been closed or can no longer be written
+     */
+    public long append(byte type, Subscriber s, Meal m, int quantity) throws IOException
+    {
+        byte[] name = s.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] meal = m.getName().getBytes(StandardCharsets.UTF_8);
+        int length = SEQUENCE_SIZE + 1 + 2 + name.length + 2 + meal.length + 4;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length).putInt(0).putLong(0);
+        record.put(type);
+        record.putShort((short) name.length).put(name);
+        record.putShort((short) meal.length).put(meal);
+        record.putInt(quantity);
+        return enqueue(record);
+    }
+
+    /**
+     * Logs every change in an order as one record and waits until it is safely on disk
+     * @param order The order, which has been applied
+     * @throws IOException if the log cannot be written
+     */
+    public void logOrder(Order order) throws IOException
+    {
+        awaitDurable(appendOrder(order));
+    }
+
+    /**
+     * Adds every change in an order to the next group of records to be written, as one record, without waiting for
+     * it to be on disk
+     * @param order The order, which has been applied
+     * @return The record's sequence number, which can be passed to awaitDurable()
+     * @throws IOException if the log has been closed or can no longer be written
+     */
+    public long appendOrder(Order order) throws IOException
+    {
+        Map<Meal, Integer> changes = order.getChanges();
+        byte[] name = order.getSubscriber().getName().getBytes(StandardCharsets.UTF_8);
+        byte[][] mealNames = new byte[changes.size()][];
+        int length = SEQUENCE_SIZE + 1 + 2 + name.length + 1;
+
+        int i = 0;
+        for (Meal m : changes.keySet())
+        {
+            mealNames[i] = m.getName().getBytes(StandardCharsets.UTF_8);
+            length += 2 + mealNames[i++].length + 4;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.putInt(length).putInt(0).putLong(0);
+        record.put(ORDER);
+        record.putShort((short) name.length).put(name);
+        record.put((byte) changes.size());
+        i = 0;
+        for (int change : changes.values())
+        {
+            record.putShort((short) mealNames[i].length).put(mealNames[i++]);
+            record.putInt(change);
+        }
+        return enqueue(record);
+    }
+
+    /**
+     * Fills in a record's sequence number and adds it to the next group of records to be written. Its checksum is
+     * filled in by the background thread, as it covers the sequence number, which is only known once the lock is held.
+     * @param record The record, with space for its length, checksum and sequence number at the start and its length
+     * filled in
+     * @return The record's sequence number
+     * @throws IOException if the log has been closed or can no longer be written
+     */
+    private long enqueue(ByteBuffer record) throws IOException
+    {
+        record.flip();
+
+        lock.lock();
+        try
+        {
+            if (closed)
+                throw new IOException("The log has been closed");
+            if (failure != null)
+                throw failure;
+
+            record.putLong(HEADER_SIZE, ++appended);
+            pending.add(record);
+            work.signal();
+            return appended;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the next record's sequence number follow on from a sequence number, if it is higher than the last one,
+     * e.g. one saved in a snapshot
+     * @param sequence The sequence number
+     */
+    public void advance(long sequence)
+    {
+        lock.lock();
+        try
+        {
+            while (durable < appended && failure == null) // so durable never passes a record still being written
+                committed.awaitUninterruptibly();
+
+            if (sequence > appended)
+            {
+                appended = sequence;
+                durable = sequence;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for every record appended so far to be on disk, then takes a new sequence number for a snapshot of
+     * everything they changed. No record will have it, so the snapshot saved with it is always newer than every
+     * record before it and older than every record after it, even when nothing was logged in between.
+     * This should only be called while no orders are being taken.
+     * @return The sequence number to save in the snapshot
+     * @throws IOException if the log could not be written
+     */
+    public long checkpoint() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            while (durable < appended && failure == null)
+                committed.awaitUninterruptibly();
+            if (failure != null)
+                throw failure;
+
+            durable = ++appended;
+            return appended;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record, and every record before it, is safely on disk
+     * @param sequence The record's sequence number, from append()
+     * @throws IOException if the log could not be written
+     */
+    public void awaitDurable(long sequence) throws IOException
+    {
+        lock.lock();
+        try
+        {
+            while (durable < sequence && failure == null) // waits for the group this record is in to be forced
+                committed.awaitUninterruptibly();
+
+            if (durable < sequence)
+                throw failure;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empties the log, leaving only its header. This should only be called once everything in it has been saved in a
+     * new snapshot, and while no orders are being taken. Sequence numbers carry on from where they were.
+     * @throws IOException if the file cannot be truncated
+     */
+    public void truncate() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            while (durable < appended && failure == null)
+                committed.awaitUninterruptibly();
+
+            channel.truncate(FILE_HEADER_SIZE);
+            channel.position(FILE_HEADER_SIZE);
+            channel.force(true);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for any records still waiting to be written, then closes the log
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        lock.lock();
+        try
+        {
+            closed = true;
+            work.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        boolean interrupted = false;
+        while (committer.isAlive())
+        {
+            try
+            {
+                committer.join();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        channel.close();
+    }
+
+    /**
+     * The loop run by the background thread, which takes every record waiting, writes them all, forces the file to disk
+     * once, then wakes up every thread waiting on those records
+     */
+    private void commitLoop()
+    {
+        CRC32 crc = new CRC32();
+        while (true)
+        {
+            ArrayList<ByteBuffer> group;
+            long sequence;
+
+            lock.lock();
+            try
+            {
+                while (pending.isEmpty() && !closed)
+                    work.awaitUninterruptibly();
+
+                if (pending.isEmpty()) // closed, and nothing left to write
+                    return;
+
+                group = pending;
+                pending = new ArrayList<>();
+                sequence = appended;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try
+            {
+                ByteBuffer[] buffers = group.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer b : buffers)
+                {
+                    crc.reset();
+                    crc.update(b.array(), HEADER_SIZE, b.limit() - HEADER_SIZE);
+                    b.putInt(4, (int) crc.getValue());
+                    remaining += b.remaining();
+                }
+
+                while (remaining > 0)
+                    remaining -= channel.write(buffers);
+                channel.force(false);
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+            lock.lock();
+            try
+            {
+                if (error == null)
+                    durable = sequence;
+                else
+                    failure = error;
+                committed.signalAll();
+
+                if (error != null)
+                    return;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads a String written as a 2-byte length followed by UTF-8 bytes
+     * @param buffer Where to read from
+     * @return The String
+     */
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
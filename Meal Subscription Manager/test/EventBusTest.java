@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for EventBus: events reach every handler in order, close() waits for everything published before it, and
+ * closing while publishers are waiting for room in a full ring never hangs.
+ */
+public class EventBusTest
+{
+    /**
+     * Every handler sees every event in the order published, and the last one ends a batch
+     */
+    @Test
+    void deliversEveryEventToEveryHandlerInOrder()
+    {
+        ArrayList<Integer> first = new ArrayList<>();
+        ArrayList<Integer> second = new ArrayList<>();
+        boolean[] lastEndedBatch = new boolean[1];
+        EventBus bus = new EventBus(8, (e, end) -> first.add(e.getValue()), (e, end) ->
+        {
+            second.add(e.getValue());
+            lastEndedBatch[0] = end;
+        });
+
+        for (int i = 0; i < 1000; i++)
+            bus.publish(EventBus.Type.STOCK, null, null, i);
+        bus.close();
+
+        ArrayList<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            expected.add(i);
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+        assertTrue(lastEndedBatch[0]);
+    }
+
+    /**
+     * Closing while publishers are waiting on a full ring lets them all finish
+     */
+    @Test
+    void closingWhileTheRingIsFullNeverHangs()
+    {
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () ->
+        {
+            for (int round = 0; round < 50; round++)
+            {
+                AtomicLong handled = new AtomicLong();
+                EventBus bus = new EventBus(4, (e, end) ->
+                {
+                    if (handled.incrementAndGet() % 3 == 0) // a slow handler, so the ring fills up
+                        Thread.yield();
+                });
+
+                Thread[] publishers = new Thread[4];
+                for (int i = 0; i < publishers.length; i++)
+                {
+                    publishers[i] = new Thread(() ->
+                    {
+                        for (int j = 0; j < 2000; j++)
+                            bus.publish(EventBus.Type.QUANTITY, null, null, j);
+                    });
+                    publishers[i].start();
+                }
+                Thread.sleep(round % 3);
+                bus.close();
+                for (Thread t : publishers)
+                    t.join();
+            }
+        });
+    }
+
+    /**
+     * post() goes to the installed bus, and does nothing before one is installed or after it is closed
+     */
+    @Test
+    void postsOnlyToTheInstalledBus()
+    {
+        AtomicLong handled = new AtomicLong();
+        EventBus.post(EventBus.Type.STOCK, null, null, 1); // nothing installed, so nothing happens
+
+        EventBus bus = new EventBus(16, (e, end) -> handled.incrementAndGet());
+        EventBus.install(bus);
+        EventBus.post(EventBus.Type.STOCK, null, null, 1);
+        bus.close();
+        EventBus.post(EventBus.Type.STOCK, null, null, 1); // closing uninstalls it
+
+        assertEquals(1, handled.get());
+    }
+
+    /**
+     * Changing a subscriber's Subscription directly publishes the new quantity, as changing it through the subscriber
+     * does, while a subscription which doesn't belong to anyone publishes nothing
+     */
+    @Test
+    void publishesChangesMadeDirectlyToASubscription()
+    {
+        ArrayList<String> seen = new ArrayList<>();
+        EventBus bus = new EventBus(16, (e, end) -> seen.add(e.getSubscriber().getName() + " " + e.getMeal().getName()
+                + " " + e.getValue()));
+        Subscriber ted = new Subscriber("Ted", "Smith");
+        Meal curry = new Meal("Curry", 10);
+        EventBus.install(bus);
+        try
+        {
+            ted.setSubscriptions(curry, 2);
+            ted.searchSubscriptions(curry).setQuantity(5);
+            new Subscription(curry, 1).setQuantity(3);
+        }
+        finally
+        {
+            bus.close();
+        }
+
+        assertEquals(List.of("Ted Smith Curry 2", "Ted Smith Curry 5"), seen);
+    }
+
+    /**
+     * The capacity must be a power of 2
+     */
+    @Test
+    void refusesACapacityWhichIsNotAPowerOfTwo()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new EventBus(12));
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for InputFileLoader: the file is read and sorted, names are split into words as they always were, and a
+ * malformed line is reported with its line number
+ */
+public class InputFileLoaderTest
+{
+    /**
+     * Where the input file is written
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Writes and loads an input file
+     * @param text The file's contents
+     * @return The loader
+     * @throws Exception if it cannot be written or loaded
+     */
+    private InputFileLoader load(String text) throws Exception
+    {
+        Path file = dir.resolve("input_data.txt");
+        Files.writeString(file, text);
+        return InputFileLoader.load(file);
+    }
+
+    /**
+     * Subscribers and meals are read, with either line ending, and sorted
+     */
+    @Test
+    void readsAndSortsEverything() throws Exception
+    {
+        InputFileLoader loaded = load("2\r\nTed Smith\r\nAnna Jones\r\n2\nFish\n8\nCurry\n2\n");
+
+        assertEquals("Anna Jones", loaded.getSubscribers()[0].getName());
+        assertEquals("Ted Smith", loaded.getSubscribers()[1].getName());
+        assertEquals("Curry", loaded.getMeals()[0].getName());
+        assertEquals(2, loaded.getMeals()[0].getNumberAvailable());
+        assertEquals(8, loaded.getMeals()[1].getNumberAvailable());
+    }
+
+    /**
+     * Spaces around a name are ignored, and so are any words after the surname
+     */
+    @Test
+    void takesTheFirstTwoWordsOfAName() throws Exception
+    {
+        InputFileLoader loaded = load("3\nTed Smith \n  Anna  Jones\nMary Ann Young\n0\n");
+
+        assertEquals("Mary", loaded.getSubscribers()[0].getFirstName());
+        assertEquals("Ann", loaded.getSubscribers()[0].getSurname());
+        assertEquals("Anna", loaded.getSubscribers()[1].getFirstName());
+        assertEquals("Jones", loaded.getSubscribers()[1].getSurname());
+        assertEquals("Ted Smith", loaded.getSubscribers()[2].getName());
+    }
+
+    /**
+     * A subscriber without a surname, or a count which is not a number, says which line it is on
+     */
+    @Test
+    void reportsTheLineOfAMalformedEntry() throws Exception
+    {
+        InputFormatException e = assertThrows(InputFormatException.class, () -> load("2\nTed Smith\nAnna \n0\n"));
+        assertTrue(e.getMessage().startsWith("Line 3 "), e.getMessage());
+
+        e = assertThrows(InputFormatException.class, () -> load("1\nTed Smith\nlots\n"));
+        assertTrue(e.getMessage().startsWith("Line 3 "), e.getMessage());
+    }
+}
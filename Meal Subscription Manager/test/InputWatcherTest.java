@@ -0,0 +1,198 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for InputWatcher: once the input file is edited, only what differs is inserted, removed or restocked, and
+ * subscribers and meals which still have subscriptions are kept
+ */
+public class InputWatcherTest
+{
+    /**
+     * Where the input file is written
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * The input file
+     */
+    private Path file;
+    /**
+     * The subscribers, as loaded from the first version of the file
+     */
+    private SortedLinkedList<Subscriber> subscribers;
+    /**
+     * The meals, as loaded from the first version of the file
+     */
+    private SortedLinkedList<Meal> meals;
+
+    /**
+     * Writes an input file
+     * @param names Each subscriber's full name
+     * @param meals Each meal's name followed by its number available
+     * @throws Exception if it cannot be written
+     */
+    private void write(List<String> names, String... meals) throws Exception
+    {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(names.size()));
+        lines.addAll(names);
+        lines.add(Integer.toString(meals.length / 2));
+        lines.addAll(List.of(meals));
+        Files.write(file.resolveSibling("input.tmp"), lines);
+        Files.move(file.resolveSibling("input.tmp"), file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE); // so the watcher never reads half a file
+    }
+
+    /**
+     * Waits for the watcher to pick up the latest version of the file and applies it
+     * @param watcher The watcher
+     * @return The changes made
+     * @throws Exception if interrupted
+     */
+    private InputWatcher.Changes awaitChanges(InputWatcher watcher) throws Exception
+    {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        InputWatcher.Changes changes;
+        while ((changes = watcher.applyChanges(subscribers, meals)) == null)
+        {
+            assertTrue(System.nanoTime() < deadline, "the change to the file was never picked up");
+            assertNull(watcher.takeFailure());
+            Thread.sleep(50);
+        }
+        return changes;
+    }
+
+    /**
+     * Gets the names of everything in a list, in order
+     * @param list The subscribers or meals
+     * @return Their names
+     */
+    private static List<String> names(List<?> list)
+    {
+        ArrayList<String> names = new ArrayList<>();
+        for (Object o : list)
+            names.add(o instanceof Meal ? ((Meal) o).getName() : ((Subscriber) o).getName());
+        return names;
+    }
+
+    /**
+     * Writes the first version of the file and loads it, as the program does at startup
+     * @throws Exception if it cannot be written or loaded
+     */
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        file = dir.resolve("input_data.txt");
+        write(List.of("Ted Smith", "Anna Jones", "Carl Smith"), "Curry", "4", "Chilli", "6", "Fish", "8");
+
+        InputFileLoader loaded = InputFileLoader.load(file);
+        subscribers = new SortedLinkedList<>(Subscriber::getName);
+        subscribers.loadSorted(loaded.getSubscribers());
+        meals = new SortedLinkedList<>(Meal::getName);
+        meals.loadSorted(loaded.getMeals());
+    }
+
+    /**
+     * New subscribers and meals are inserted in order, and ones no longer in the file are removed unless they are
+     * still subscribed to
+     */
+    @Test
+    void insertsAndRemovesOnlyWhatDiffers() throws Exception
+    {
+        Subscriber ted = subscribers.lookup("Ted Smith");
+        Subscriber anna = subscribers.lookup("Anna Jones");
+        ted.subscribe(meals.lookup("Fish"), 2);
+
+        try (InputWatcher watcher = new InputWatcher(file))
+        {
+            write(List.of("Anna Jones", "Bob Brown", "Zed Adams"), "Curry", "4", "Pie", "3");
+            InputWatcher.Changes changes = awaitChanges(watcher);
+
+            assertTrue(changes.listsChanged());
+            assertEquals(1, changes.getMealsAdded());
+            assertEquals(List.of("Zed Adams", "Bob Brown", "Anna Jones", "Ted Smith"), names(subscribers));
+            assertEquals(List.of("Curry", "Fish", "Pie"), names(meals));
+            assertSame(anna, subscribers.lookup("Anna Jones")); // kept, not replaced
+            assertSame(ted, subscribers.lookup("Ted Smith"));
+            assertNull(subscribers.lookup("Carl Smith"));
+            assertNotNull(meals.lookup("Pie"));
+        }
+    }
+
+    /**
+     * A change in a meal's number in the file is added to or taken from its stock, so meals ordered in the meantime
+     * are still accounted for
+     */
+    @Test
+    void restocksByTheDifferenceInTheFile() throws Exception
+    {
+        Meal curry = meals.lookup("Curry");
+        Meal chilli = meals.lookup("Chilli");
+        subscribers.lookup("Ted Smith").subscribe(curry, 3);
+
+        try (InputWatcher watcher = new InputWatcher(file))
+        {
+            write(List.of("Ted Smith", "Anna Jones", "Carl Smith"), "Curry", "9", "Chilli", "2", "Fish", "8");
+            InputWatcher.Changes changes = awaitChanges(watcher);
+
+            assertFalse(changes.listsChanged());
+            assertFalse(changes.isEmpty());
+            assertEquals(6, curry.getNumberAvailable());
+            assertEquals(2, chilli.getNumberAvailable());
+            assertEquals(8, meals.lookup("Fish").getNumberAvailable());
+        }
+    }
+
+    /**
+     * A decrease which cannot all be taken, as the meals have been ordered, is reported, and the rest is taken once
+     * the file next changes and there is stock to take it from
+     */
+    @Test
+    void takesAShortfallWhenTheFileNextChanges() throws Exception
+    {
+        Meal curry = meals.lookup("Curry");
+        Subscriber ted = subscribers.lookup("Ted Smith");
+        ted.subscribe(curry, 3);
+
+        try (InputWatcher watcher = new InputWatcher(file))
+        {
+            write(List.of("Ted Smith", "Anna Jones", "Carl Smith"), "Curry", "1", "Chilli", "6", "Fish", "8");
+            InputWatcher.Changes changes = awaitChanges(watcher);
+
+            assertTrue(changes.toString().contains("Could not take away 2 Curry"), changes.toString());
+            assertEquals(0, curry.getNumberAvailable());
+
+            ted.unsubscribe(curry, 3);
+            write(List.of("Ted Smith", "Anna Jones", "Carl Smith"), "Curry", "1", "Chilli", "6", "Fish", "9");
+            changes = awaitChanges(watcher);
+
+            assertFalse(changes.toString().contains("Could not take away"), changes.toString());
+            assertEquals(1, curry.getNumberAvailable());
+        }
+    }
+
+    /**
+     * A meal kept after leaving the file, as it is still subscribed to, is restocked by the difference if it comes
+     * back
+     */
+    @Test
+    void restocksAKeptMealWhichComesBack() throws Exception
+    {
+        Meal fish = meals.lookup("Fish");
+        subscribers.lookup("Ted Smith").subscribe(fish, 2);
+
+        try (InputWatcher watcher = new InputWatcher(file))
+        {
+            write(List.of("Ted Smith", "Anna Jones", "Carl Smith"), "Curry", "4", "Chilli", "6");
+            awaitChanges(watcher);
+            assertSame(fish, meals.lookup("Fish"));
+
+            write(List.of("Ted Smith", "Anna Jones", "Carl Smith"), "Curry", "4", "Chilli", "6", "Fish", "10");
+            awaitChanges(watcher);
+            assertEquals(8, fish.getNumberAvailable());
+        }
+    }
+}
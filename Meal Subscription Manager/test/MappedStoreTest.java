@@ -0,0 +1,128 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for MappedStore: records come back in order and can be looked up by name, changes made through views are seen
+ * by every view of the record but never reach the file, and the meal scan finds every subscriber to a meal.
+ */
+public class MappedStoreTest
+{
+    /**
+     * Where the store file is written
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * The store file
+     */
+    private Path file;
+
+    /**
+     * Writes a store of three subscribers, in order, and two meals
+     * @throws Exception if it cannot be written
+     */
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        Meal curry = new Meal("Curry", 10);
+        Meal fish = new Meal("Fish", 5);
+        Subscriber bob = new Subscriber("Bob", "Brown");
+        Subscriber anna = new Subscriber("Anna", "Jones");
+        Subscriber ted = new Subscriber("Ted", "Smith");
+        anna.subscribe(fish, 2);
+        ted.subscribe(curry, 3);
+        ted.subscribe(fish, 1);
+
+        file = dir.resolve("subscribers.map");
+        MappedStore.write(file, List.of(curry, fish), List.of(bob, anna, ted), 42);
+    }
+
+    /**
+     * Every subscriber, subscription and meal comes back in the order written
+     */
+    @Test
+    void readsBackWhatWasWritten() throws Exception
+    {
+        MappedStore store = MappedStore.open(file);
+        Meal[] meals = store.getMeals();
+
+        assertEquals(3, store.size());
+        assertEquals(42, store.getLogSequence());
+        assertEquals(42, MappedStore.readLogSequence(file));
+        assertEquals("Bob Brown", store.get(0).getName());
+        assertEquals("Anna Jones", store.get(1).getName());
+        assertEquals("Ted Smith", store.get(2).getName());
+        assertEquals("Curry", meals[0].getName());
+        assertEquals(7, meals[0].getNumberAvailable());
+        assertEquals(2, meals[1].getNumberAvailable());
+
+        assertEquals(0, store.get(0).getSubscriptionCount());
+        assertEquals(2, store.get(1).searchSubscriptions(meals[1]).getQuantity());
+        assertEquals(3, store.get(2).searchSubscriptions(meals[0]).getQuantity());
+        assertEquals(1, store.get(2).searchSubscriptions(meals[1]).getQuantity());
+    }
+
+    /**
+     * lookup and ceilingIndex find records by name with a binary search
+     */
+    @Test
+    void findsSubscribersByName() throws Exception
+    {
+        MappedStore store = MappedStore.open(file);
+
+        assertEquals(store.get(1), store.lookup("  anna   JONES "));
+        assertNull(store.lookup("Anna Smith"));
+        assertNull(store.lookup("Jones"));
+        assertEquals(2, store.ceilingIndex(new Subscriber("", "K")));
+        assertEquals(3, store.ceilingIndex(new Subscriber("", "Z")));
+    }
+
+    /**
+     * Changes made through one view are seen through another, and reopening the file starts again from what was
+     * written
+     */
+    @Test
+    void keepsChangesInMemoryOnly() throws Exception
+    {
+        MappedStore store = MappedStore.open(file);
+        Meal[] meals = store.getMeals();
+
+        store.get(0).subscribe(meals[0], 4);
+        store.get(2).unsubscribe(meals[1], 1);
+
+        assertEquals(4, store.get(0).searchSubscriptions(meals[0]).getQuantity());
+        assertNull(store.get(2).searchSubscriptions(meals[1]));
+        assertEquals(3, meals[0].getNumberAvailable());
+        assertEquals(3, meals[1].getNumberAvailable());
+        assertEquals(Map.of(store.get(0), 4, store.get(2), 3), store.subscribersTo(meals[0]));
+        assertEquals(List.of(store.get(1)), new ArrayList<>(store.subscribersTo(meals[1]).keySet()));
+
+        MappedStore reopened = MappedStore.open(file);
+        assertEquals(0, reopened.get(0).getSubscriptionCount());
+        assertEquals(1, reopened.get(2).searchSubscriptions(reopened.getMeals()[1]).getQuantity());
+    }
+
+    /**
+     * A file which is not a store, or which has a corrupt number of meals, is refused
+     */
+    @Test
+    void refusesAFileWhichIsNotAStore() throws Exception
+    {
+        byte[] whole = Files.readAllBytes(file);
+        for (int count : new int[] { -1, Integer.MAX_VALUE }) // the number of meals, after the record count
+        {
+            byte[] corrupt = whole.clone();
+            ByteBuffer.wrap(corrupt).putInt(12, count);
+            Files.write(file, corrupt);
+            assertThrows(IOException.class, () -> MappedStore.open(file));
+        }
+
+        Files.write(file, "4\nTed Smith\n".getBytes());
+        assertThrows(IOException.class, () -> MappedStore.open(file));
+    }
+}
@@ -0,0 +1,204 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for Order: every change is made or none of them, the limit on meals is checked against the result, and many
+ * orders at once neither oversell nor lose stock.
+ */
+public class OrderTest
+{
+    /**
+     * Where the log is kept
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * The subscriber making the orders
+     */
+    private Subscriber ted;
+    /**
+     * Meals with 10 in stock
+     */
+    private Meal curry, fish, pie;
+    /**
+     * A meal with 1 in stock
+     */
+    private Meal chilli;
+
+    /**
+     * Makes a fresh subscriber and meals for each test
+     */
+    @BeforeEach
+    void setUp()
+    {
+        ted = new Subscriber("Ted", "Smith");
+        curry = new Meal("Curry", 10);
+        fish = new Meal("Fish", 10);
+        pie = new Meal("Pie", 10);
+        chilli = new Meal("Chilli", 1);
+    }
+
+    /**
+     * Gets how many of a meal a subscriber has
+     * @param s The subscriber
+     * @param m The meal
+     * @return The quantity, 0 if they don't have it
+     */
+    private static int quantity(Subscriber s, Meal m)
+    {
+        Subscription sub = s.searchSubscriptions(m);
+        return (sub == null) ? 0 : sub.getQuantity();
+    }
+
+    /**
+     * Removing one meal and adding another works when the subscriber already has the maximum
+     */
+    @Test
+    void swapsAMealWhenTheSubscriberHasTheMaximum() throws Exception
+    {
+        ted.subscribe(curry, 1);
+        ted.subscribe(fish, 1);
+        ted.subscribe(pie, 2);
+
+        new Order(ted).remove(pie, 2).add(chilli, 1).apply();
+
+        assertEquals(3, ted.getSubscriptionCount());
+        assertEquals(0, quantity(ted, pie));
+        assertEquals(1, quantity(ted, chilli));
+        assertEquals(10, pie.getNumberAvailable());
+        assertEquals(0, chilli.getNumberAvailable());
+    }
+
+    /**
+     * When one meal runs short none of the order is made, and the exception names that meal
+     */
+    @Test
+    void changesNothingWhenAMealRunsShort() throws Exception
+    {
+        ted.subscribe(fish, 2);
+        Order order = new Order(ted).add(curry, 2).remove(fish, 1).add(chilli, 5);
+
+        NotEnoughMealsException e = assertThrows(NotEnoughMealsException.class, order::apply);
+
+        assertSame(chilli, e.getMeal());
+        assertEquals(10, curry.getNumberAvailable());
+        assertEquals(8, fish.getNumberAvailable());
+        assertEquals(1, chilli.getNumberAvailable());
+        assertEquals(0, quantity(ted, curry));
+        assertEquals(2, quantity(ted, fish));
+        assertTrue(curry.getSubscribers().isEmpty());
+    }
+
+    /**
+     * Removing more than the subscriber has refuses the whole order
+     */
+    @Test
+    void changesNothingWhenRemovingMoreThanSubscribed() throws Exception
+    {
+        ted.subscribe(fish, 1);
+
+        assertThrows(IllegalStateException.class, () -> new Order(ted).add(curry, 2).remove(fish, 2).apply());
+
+        assertEquals(10, curry.getNumberAvailable());
+        assertEquals(0, quantity(ted, curry));
+        assertEquals(1, quantity(ted, fish));
+    }
+
+    /**
+     * An order which would leave the subscriber with too many meals is refused
+     */
+    @Test
+    void refusesMoreThanTheMaximumNumberOfMeals() throws Exception
+    {
+        ted.subscribe(curry, 1);
+        ted.subscribe(fish, 1);
+
+        assertThrows(IllegalStateException.class, () -> new Order(ted).add(pie, 1).add(chilli, 1).apply());
+
+        assertEquals(2, ted.getSubscriptionCount());
+        assertEquals(10, pie.getNumberAvailable());
+        assertEquals(1, chilli.getNumberAvailable());
+    }
+
+    /**
+     * An order which cannot be logged is undone, including stock held back for removed meals
+     */
+    @Test
+    void undoesAnOrderWhichCannotBeLogged() throws Exception
+    {
+        ted.subscribe(fish, 3);
+        WriteAheadLog log = new WriteAheadLog(dir.resolve("subscriptions.wal"));
+        log.close();
+
+        assertThrows(IOException.class, () -> new Order(ted).add(curry, 2).remove(fish, 3).apply(log));
+
+        assertEquals(10, curry.getNumberAvailable());
+        assertEquals(7, fish.getNumberAvailable());
+        assertEquals(0, quantity(ted, curry));
+        assertEquals(3, quantity(ted, fish));
+        assertEquals(Map.of(ted, 3), fish.getSubscribers());
+    }
+
+    /**
+     * Random orders from 8 threads keep the stock plus what is subscribed equal to what there was
+     */
+    @Test
+    void manyOrdersAtOnceNeitherOversellNorLoseStock() throws Exception
+    {
+        Meal[] meals = { curry, fish, pie, chilli, new Meal("Lasagne", 50) };
+        int[] stock = new int[meals.length];
+        for (int i = 0; i < meals.length; i++)
+        {
+            meals[i].setNumberAvailable(200);
+            stock[i] = 200;
+        }
+        Subscriber[] subscribers = new Subscriber[20];
+        for (int i = 0; i < subscribers.length; i++)
+            subscribers[i] = new Subscriber("Customer", "Number" + i);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        ArrayList<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 8; t++)
+        {
+            long seed = t;
+            done.add(pool.submit(() ->
+            {
+                Random random = new Random(seed);
+                for (int i = 0; i < 5000; i++)
+                {
+                    Order order = new Order(subscribers[random.nextInt(subscribers.length)]);
+                    for (int j = 0; j < 1 + random.nextInt(3); j++)
+                        order.change(meals[random.nextInt(meals.length)], random.nextInt(9) - 4);
+                    try
+                    {
+                        order.apply();
+                    }
+                    catch (NotEnoughMealsException | IllegalStateException e)
+                    {
+                        // refused as a whole, which is checked by the totals below
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : done)
+            f.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        for (int i = 0; i < meals.length; i++)
+        {
+            int subscribed = 0;
+            for (Subscriber s : subscribers)
+                subscribed += quantity(s, meals[i]);
+            assertTrue(meals[i].getNumberAvailable() >= 0);
+            assertEquals(stock[i], meals[i].getNumberAvailable() + subscribed, meals[i].getName());
+        }
+        for (Subscriber s : subscribers)
+            assertTrue(s.getSubscriptionCount() <= Subscriber.MAX_SUBSCRIPTIONS);
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.net.URI;
+import java.net.http.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for how ShardRouter splits the subscribers into surname ranges and routes a name to the shard holding it
+ */
+public class ShardRouterTest
+{
+    /**
+     * Where the shards' files would be kept
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Makes a sorted list of subscribers
+     * @param names Each subscriber's full name
+     * @return The list
+     */
+    private static SortedLinkedList<Subscriber> subscribers(String... names)
+    {
+        SortedLinkedList<Subscriber> list = new SortedLinkedList<>(Subscriber::getName);
+        for (String name : names)
+        {
+            String[] parts = name.split(" ");
+            list.addAndSort(new Subscriber(parts[0], parts[1]));
+        }
+        return list;
+    }
+
+    /**
+     * Checks that every subscriber is routed to the shard whose range holds them
+     * @param router The router, already split
+     * @param starts Where each range starts
+     * @param list The subscribers
+     */
+    private static void assertRoutedToTheirRange(ShardRouter router, int[] starts, SortedLinkedList<Subscriber> list)
+    {
+        for (int i = 1; i < starts.length; i++)
+            assertTrue(starts[i - 1] <= starts[i]);
+        assertEquals(list.size(), starts[starts.length - 1]);
+
+        for (int i = 0; i < list.size(); i++)
+        {
+            int shard = router.shardFor(list.get(i).getName(), false);
+            assertTrue(starts[shard] <= i && i < starts[shard + 1], list.get(i).getName() + " went to shard " + shard);
+        }
+    }
+
+    /**
+     * Each split is moved back so a surname is never split between two shards
+     */
+    @Test
+    void neverSplitsASurname()
+    {
+        SortedLinkedList<Subscriber> list = subscribers("Zed Adams", "Amy Brown", "Bob Brown", "Cat Brown",
+                "Dee Brown", "Anna Jones", "Carl Smith", "Ted Smith", "Ann Young");
+        ShardRouter router = new ShardRouter(dir, 3);
+
+        int[] starts = router.split(list);
+
+        assertArrayEquals(new int[] { 0, 1, 6, 9 }, starts);
+        assertRoutedToTheirRange(router, starts, list);
+    }
+
+    /**
+     * Names are routed by surname, ignoring case and extra whitespace, and names between the ranges go to the range
+     * before them
+     */
+    @Test
+    void routesByTheSurname()
+    {
+        SortedLinkedList<Subscriber> list = subscribers("Zed Adams", "Amy Brown", "Bob Brown", "Cat Brown",
+                "Dee Brown", "Anna Jones", "Carl Smith", "Ted Smith", "Ann Young");
+        ShardRouter router = new ShardRouter(dir, 3);
+        router.split(list);
+
+        assertEquals(0, router.shardFor(null, false));
+        assertEquals(0, router.shardFor("Nobody Aaron", false));
+        assertEquals(1, router.shardFor("  amy   BROWN ", false));
+        assertEquals(1, router.shardFor("Jones", true));
+        assertEquals(1, router.shardFor("New Person", false));
+        assertEquals(2, router.shardFor("Carol Smithers", false));
+        assertEquals(2, router.shardFor("Zara Zimmer", false));
+    }
+
+    /**
+     * With fewer subscribers than shards, some ranges are empty but everyone is still routed to their own
+     */
+    @Test
+    void handlesFewerSubscribersThanShards()
+    {
+        SortedLinkedList<Subscriber> list = subscribers("Zed Adams", "Ann Young");
+        ShardRouter router = new ShardRouter(dir, 4);
+
+        assertRoutedToTheirRange(router, router.split(list), list);
+        assertRoutedToTheirRange(router, router.split(subscribers()), subscribers());
+    }
+
+    /**
+     * A shard's list of subscribers gives the router its total, how many rows it holds and the byte offset where they
+     * start, so the router can join lists without parsing them
+     */
+    @Test
+    void listsSubscribersWithTheirRowCount() throws Exception
+    {
+        SortedLinkedList<Subscriber> list = subscribers("Zoë Adams", "Amy Brown", "Ann Young"); // not ASCII
+        SortedLinkedList<Meal> meals = new SortedLinkedList<>(Meal::getName);
+        HttpService service = new HttpService(list, meals, null, null, new Metrics());
+        int port = service.start(0);
+        try
+        {
+            HttpResponse<byte[]> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + port + "/subscribers?limit=2")).GET().build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            HttpHeaders headers = response.headers();
+            byte[] body = response.body();
+            int offset = Integer.parseInt(headers.firstValue(HttpService.ROWS_OFFSET_HEADER).orElseThrow());
+            String rows = new String(body, offset, body.length - 2 - offset, StandardCharsets.UTF_8);
+
+            assertEquals("3", headers.firstValue(HttpService.TOTAL_HEADER).orElseThrow());
+            assertEquals("2", headers.firstValue(HttpService.ROWS_HEADER).orElseThrow());
+            assertTrue(rows.startsWith("{\"name\":\"Zoë Adams\""), rows);
+            assertTrue(rows.contains("Amy Brown") && !rows.contains("Ann Young"), rows);
+            assertTrue(rows.endsWith("}"), rows);
+        }
+        finally
+        {
+            service.stop();
+        }
+    }
+}
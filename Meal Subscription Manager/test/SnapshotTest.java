@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for Snapshot: what is written comes back the same, in order, and a file which is not a whole snapshot is
+ * refused rather than half loaded
+ */
+public class SnapshotTest
+{
+    /**
+     * Where the snapshot is written
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * Writes a snapshot of two meals and three subscribers, one with no subscriptions
+     * @param file Where to write it
+     * @throws Exception if it cannot be written
+     */
+    private static void writeSome(Path file) throws Exception
+    {
+        Meal curry = new Meal("Curry", 10);
+        Meal fish = new Meal("Fish", 5);
+        Subscriber ted = new Subscriber("Ted", "Smith");
+        Subscriber anna = new Subscriber("Anna", "Jones");
+        Subscriber zoe = new Subscriber("Zoë", "Brontë"); // not ASCII, so the lengths are in bytes
+        ted.subscribe(curry, 3);
+        ted.subscribe(fish, 1);
+        anna.subscribe(fish, 2);
+
+        Snapshot.write(file, List.of(curry, fish), List.of(zoe, anna, ted), 42);
+    }
+
+    /**
+     * Every meal, subscriber and subscription comes back as it was written
+     */
+    @Test
+    void readsBackWhatWasWritten() throws Exception
+    {
+        Path file = dir.resolve("snapshot.bin");
+        writeSome(file);
+
+        Snapshot snapshot = Snapshot.load(file);
+        Meal[] meals = snapshot.getMeals();
+        Subscriber[] subscribers = snapshot.getSubscribers();
+
+        assertEquals(2, meals.length);
+        assertEquals("Curry", meals[0].getName());
+        assertEquals(7, meals[0].getNumberAvailable());
+        assertEquals("Fish", meals[1].getName());
+        assertEquals(2, meals[1].getNumberAvailable());
+
+        assertEquals(42, snapshot.getLogSequence());
+        assertEquals(42, Snapshot.readLogSequence(file));
+        assertEquals(3, subscribers.length);
+        assertEquals("Zoë Brontë", subscribers[0].getName());
+        assertEquals("Anna Jones", subscribers[1].getName());
+        assertEquals("Ted Smith", subscribers[2].getName());
+        assertTrue(subscribers[0].getSubscriptions().isEmpty());
+        assertEquals(2, subscribers[1].searchSubscriptions(meals[1]).getQuantity());
+        assertNull(subscribers[1].searchSubscriptions(meals[0]));
+        assertEquals(3, subscribers[2].searchSubscriptions(meals[0]).getQuantity());
+        assertEquals(1, subscribers[2].searchSubscriptions(meals[1]).getQuantity());
+        assertFalse(Files.exists(dir.resolve("snapshot.bin.tmp")));
+    }
+
+    /**
+     * A file cut short, with a corrupt count, or which is not a snapshot at all, is refused with an IOException
+     */
+    @Test
+    void refusesAFileWhichIsNotAWholeSnapshot() throws Exception
+    {
+        Path file = dir.resolve("snapshot.bin");
+        writeSome(file);
+        byte[] whole = Files.readAllBytes(file);
+
+        Files.write(file, Arrays.copyOf(whole, whole.length - 3));
+        assertThrows(IOException.class, () -> Snapshot.load(file));
+
+        for (int count : new int[] { -1, Integer.MAX_VALUE }) // the number of meals, after the magic, version and sequence
+        {
+            byte[] corrupt = whole.clone();
+            ByteBuffer.wrap(corrupt).putInt(14, count);
+            Files.write(file, corrupt);
+            assertThrows(IOException.class, () -> Snapshot.load(file));
+        }
+
+        Files.write(file, "4\nTed Smith\n".getBytes());
+        assertThrows(IOException.class, () -> Snapshot.load(file));
+    }
+}
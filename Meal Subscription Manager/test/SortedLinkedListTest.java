@@ -0,0 +1,76 @@
+import org.junit.jupiter.api.*;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for SortedLinkedList, checking the skip list against a sorted ArrayList through random inserts and removals
+ */
+public class SortedLinkedListTest
+{
+    /**
+     * Random inserts and removals by index leave the same elements as a sorted ArrayList
+     */
+    @Test
+    void matchesASortedArrayListThroughRandomInsertsAndRemovals()
+    {
+        Random random = new Random(42);
+        SortedLinkedList<Integer> list = new SortedLinkedList<>();
+        ArrayList<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++)
+        {
+            int value = random.nextInt(5000);
+            if (expected.isEmpty() || random.nextInt(3) > 0)
+            {
+                list.addAndSort(value);
+                int at = Collections.binarySearch(expected, value);
+                expected.add(at < 0 ? -at - 1 : at, value);
+            }
+            else
+            {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), list.remove(index));
+            }
+        }
+
+        assertEquals(expected, new ArrayList<>(list));
+        for (int i = 0; i < expected.size(); i += 97)
+            assertEquals(expected.get(i), list.get(i));
+    }
+
+    /**
+     * ceilingIndex, search and iterator(from) find the first element at or after a key
+     */
+    @Test
+    void findsWhereKeysWouldGo()
+    {
+        SortedLinkedList<Integer> list = new SortedLinkedList<>();
+        list.addAllAndSort(List.of(50, 10, 30, 30, 20, 40));
+
+        assertEquals(0, list.ceilingIndex(5));
+        assertEquals(2, list.ceilingIndex(30));
+        assertEquals(2, list.search(30));
+        assertEquals(-1, list.search(35));
+        assertEquals(6, list.ceilingIndex(60));
+
+        Iterator<Integer> it = list.iterator(3);
+        assertEquals(30, it.next());
+        assertEquals(40, it.next());
+    }
+
+    /**
+     * lookup finds elements by normalised name, and forgets removed ones
+     */
+    @Test
+    void keepsItsNameIndexUpToDate()
+    {
+        SortedLinkedList<Meal> meals = new SortedLinkedList<>(Meal::getName);
+        Meal curry = new Meal("Chicken Curry", 1);
+        meals.addAndSort(new Meal("Fish", 1));
+        meals.addAndSort(curry);
+
+        assertSame(curry, meals.lookup("  chicken   CURRY "));
+        assertTrue(meals.remove(curry));
+        assertNull(meals.lookup("Chicken Curry"));
+        assertEquals(1, meals.size());
+    }
+}
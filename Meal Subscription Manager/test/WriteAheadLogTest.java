@@ -0,0 +1,357 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+/**
+ * Tests for WriteAheadLog: replaying what was logged on top of a fresh copy of the subscribers and meals, skipping
+ * what a snapshot already holds, cutting off a torn or corrupt record at the end of the log, and refusing a log which
+ * takes more stock than there is.
+ */
+public class WriteAheadLogTest
+{
+    /**
+     * Where each test keeps its log files
+     */
+    @TempDir
+    Path dir;
+
+    /**
+     * The subscribers and meals as they would be loaded from a snapshot
+     */
+    private static class Model
+    {
+        /**
+         * Ted Smith and Anna Jones
+         */
+        private final SortedLinkedList<Subscriber> subscribers = new SortedLinkedList<>(Subscriber::getName);
+        /**
+         * 10 Curry and 5 Fish
+         */
+        private final SortedLinkedList<Meal> meals = new SortedLinkedList<>(Meal::getName);
+        /**
+         * Subscribers to make changes for
+         */
+        private final Subscriber ted = new Subscriber("Ted", "Smith"), anna = new Subscriber("Anna", "Jones");
+        /**
+         * Meals to subscribe to
+         */
+        private final Meal curry = new Meal("Curry", 10), fish = new Meal("Fish", 5);
+
+        /**
+         * Loads the subscribers and meals into their lists
+         */
+        private Model()
+        {
+            subscribers.addAndSort(ted);
+            subscribers.addAndSort(anna);
+            meals.addAndSort(curry);
+            meals.addAndSort(fish);
+        }
+
+        /**
+         * Gets how many of a meal a subscriber has
+         * @param s The subscriber
+         * @param m The meal
+         * @return The quantity, 0 if they don't have it
+         */
+        private static int quantity(Subscriber s, Meal m)
+        {
+            Subscription sub = s.searchSubscriptions(m);
+            return (sub == null) ? 0 : sub.getQuantity();
+        }
+    }
+
+    /**
+     * Logs some changes through a model, as the program does
+     * @param file The log file
+     * @throws Exception if the changes cannot be made or logged
+     */
+    private static void logSomeChanges(Path file) throws Exception
+    {
+        Model run = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            run.ted.subscribe(run.curry, 3);
+            log.log(WriteAheadLog.ADD, run.ted, run.curry, 3);
+            run.ted.unsubscribe(run.curry, 1);
+            log.log(WriteAheadLog.REMOVE, run.ted, run.curry, 1);
+            run.anna.subscribe(run.curry, 2);
+            log.log(WriteAheadLog.ADD, run.anna, run.curry, 2);
+            run.anna.subscribe(run.fish, 1);
+            log.log(WriteAheadLog.ADD, run.anna, run.fish, 1);
+        }
+    }
+
+    /**
+     * Adds and removals all come back as they were made
+     */
+    @Test
+    void replaysEveryRecord() throws Exception
+    {
+        Path file = dir.resolve("subscriptions.wal");
+        logSomeChanges(file);
+
+        Model loaded = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertEquals(4, log.replay(loaded.subscribers, loaded.meals, 0));
+        }
+        assertEquals(2, Model.quantity(loaded.ted, loaded.curry));
+        assertEquals(2, Model.quantity(loaded.anna, loaded.curry));
+        assertEquals(1, Model.quantity(loaded.anna, loaded.fish));
+        assertEquals(6, loaded.curry.getNumberAvailable());
+        assertEquals(4, loaded.fish.getNumberAvailable());
+    }
+
+    /**
+     * A record cut short by a crash is dropped, and the log is truncated so new records follow the last good one
+     */
+    @Test
+    void cutsOffATornRecordAndCarriesOnAfterIt() throws Exception
+    {
+        Path file = dir.resolve("subscriptions.wal");
+        Model run = new Model();
+        long goodEnd;
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            log.log(WriteAheadLog.ADD, run.ted, run.curry, 2);
+            log.log(WriteAheadLog.ADD, run.anna, run.fish, 1);
+            goodEnd = Files.size(file);
+            log.log(WriteAheadLog.ADD, run.anna, run.curry, 4);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) // as if it crashed mid-write
+        {
+            channel.truncate(goodEnd + 5);
+        }
+
+        Model loaded = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertEquals(2, log.replay(loaded.subscribers, loaded.meals, 0));
+            assertEquals(goodEnd, Files.size(file));
+            log.log(WriteAheadLog.ADD, loaded.ted, loaded.fish, 1);
+        }
+        assertEquals(0, Model.quantity(loaded.anna, loaded.curry));
+        assertEquals(8, loaded.curry.getNumberAvailable());
+
+        Model reloaded = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertEquals(3, log.replay(reloaded.subscribers, reloaded.meals, 0));
+        }
+        assertEquals(1, Model.quantity(reloaded.ted, reloaded.fish));
+        assertEquals(3, reloaded.fish.getNumberAvailable());
+    }
+
+    /**
+     * A record whose checksum does not match is dropped along with everything after it
+     */
+    @Test
+    void stopsAtARecordWithTheWrongChecksum() throws Exception
+    {
+        Path file = dir.resolve("subscriptions.wal");
+        logSomeChanges(file);
+        long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            last.put(0, (byte) (last.get(0) ^ 0x55)).rewind();
+            channel.write(last, size - 1);
+        }
+
+        Model loaded = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertEquals(3, log.replay(loaded.subscribers, loaded.meals, 0));
+        }
+        assertTrue(Files.size(file) < size);
+        assertEquals(0, Model.quantity(loaded.anna, loaded.fish));
+        assertEquals(2, Model.quantity(loaded.anna, loaded.curry));
+        assertEquals(5, loaded.fish.getNumberAvailable());
+    }
+
+    /**
+     * An order is logged as one record and comes back with all of its changes
+     */
+    @Test
+    void replaysAnOrderAllTogether() throws Exception
+    {
+        Path file = dir.resolve("subscriptions.wal");
+        Model run = new Model();
+        run.ted.subscribe(run.fish, 2);
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            log.log(WriteAheadLog.ADD, run.ted, run.fish, 2);
+            Order order = new Order(run.ted).remove(run.fish, 2).add(run.curry, 3);
+            order.apply();
+            log.logOrder(order);
+        }
+
+        Model loaded = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertEquals(2, log.replay(loaded.subscribers, loaded.meals, 0));
+        }
+        assertEquals(0, Model.quantity(loaded.ted, loaded.fish));
+        assertEquals(3, Model.quantity(loaded.ted, loaded.curry));
+        assertEquals(5, loaded.fish.getNumberAvailable());
+        assertEquals(7, loaded.curry.getNumberAvailable());
+    }
+
+    /**
+     * A log which does not match the snapshot is refused without touching the stock or the subscriptions
+     */
+    @Test
+    void refusesALogWhichTakesMoreStockThanThereIs() throws Exception
+    {
+        Path file = dir.resolve("subscriptions.wal");
+        Model run = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            log.log(WriteAheadLog.ADD, run.anna, run.fish, 1);
+            log.log(WriteAheadLog.ADD, run.ted, run.curry, 8);
+        }
+
+        Model loaded = new Model();
+        loaded.curry.setNumberAvailable(5); // a different snapshot
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertThrows(IOException.class, () -> log.replay(loaded.subscribers, loaded.meals, 0));
+        }
+        assertEquals(5, loaded.curry.getNumberAvailable());
+        assertEquals(5, loaded.fish.getNumberAvailable());
+        assertEquals(0, Model.quantity(loaded.ted, loaded.curry));
+        assertEquals(0, Model.quantity(loaded.anna, loaded.fish));
+    }
+
+    /**
+     * If the program stops after saving a snapshot but before truncating the log, replaying the log on top of that
+     * snapshot skips everything it already holds, and only what was logged after it is replayed
+     */
+    @Test
+    void skipsWhatTheSnapshotAlreadyHolds() throws Exception
+    {
+        Path file = dir.resolve("subscriptions.wal");
+        Path snapshotFile = dir.resolve("snapshot.bin");
+        Model run = new Model();
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            run.ted.subscribe(run.curry, 3);
+            log.log(WriteAheadLog.ADD, run.ted, run.curry, 3);
+            Snapshot.write(snapshotFile, run.meals, run.subscribers, log.checkpoint()); // the log is not truncated
+            run.anna.subscribe(run.fish, 2);
+            log.log(WriteAheadLog.ADD, run.anna, run.fish, 2);
+        }
+
+        Snapshot snapshot = Snapshot.load(snapshotFile);
+        SortedLinkedList<Subscriber> subscribers = new SortedLinkedList<>(Subscriber::getName);
+        subscribers.loadSorted(snapshot.getSubscribers());
+        SortedLinkedList<Meal> meals = new SortedLinkedList<>(Meal::getName);
+        meals.loadSorted(snapshot.getMeals());
+        try (WriteAheadLog log = new WriteAheadLog(file))
+        {
+            assertEquals(1, log.replay(subscribers, meals, snapshot.getLogSequence()));
+        }
+        Meal curry = meals.lookup("Curry");
+        Meal fish = meals.lookup("Fish");
+        assertEquals(3, Model.quantity(subscribers.lookup("Ted Smith"), curry));
+        assertEquals(7, curry.getNumberAvailable());
+        assertEquals(2, Model.quantity(subscribers.lookup("Anna Jones"), fish));
+        assertEquals(3, fish.getNumberAvailable());
+    }
+
+    /**
+     * Stock changes from several logs are added up before any are checked, so the order of the logs does not matter
+     */
+    @Test
+    void addsUpStockChangesAcrossLogsInAnyOrder() throws Exception
+    {
+        // Ted gave back 5 Curry on one shard, and Anna then took them on another
+        Path gaveBack = dir.resolve("shard-0.wal");
+        Path took = dir.resolve("shard-1.wal");
+        Model run = new Model();
+        try (WriteAheadLog a = new WriteAheadLog(gaveBack); WriteAheadLog b = new WriteAheadLog(took))
+        {
+            a.log(WriteAheadLog.REMOVE, run.ted, run.curry, 5);
+            b.log(WriteAheadLog.ADD, run.anna, run.curry, 5);
+        }
+
+        Model loaded = new Model();
+        loaded.ted.setSubscriptions(loaded.curry, 5);
+        loaded.curry.setNumberAvailable(0);
+        WriteAheadLog.Replay replay = new WriteAheadLog.Replay(loaded.subscribers, loaded.meals, 0);
+        for (Path file : List.of(took, gaveBack)) // the order which would go below zero one log at a time
+        {
+            try (WriteAheadLog log = new WriteAheadLog(file))
+            {
+                log.readInto(replay);
+            }
+        }
+        replay.apply();
+
+        assertEquals(2, replay.getApplied());
+        assertEquals(0, loaded.curry.getNumberAvailable());
+        assertEquals(0, Model.quantity(loaded.ted, loaded.curry));
+        assertEquals(5, Model.quantity(loaded.anna, loaded.curry));
+    }
+
+    /**
+     * Shards number their records on from the snapshot they started from, so their logs are replayed on top of it,
+     * and once the main log has been moved past them, a snapshot saved afterwards skips every one of them, even if
+     * the shards' logs were never deleted
+     */
+    @Test
+    void skipsShardRecordsOnceASnapshotHoldsThem() throws Exception
+    {
+        Path first = dir.resolve("shard-0.wal");
+        Path second = dir.resolve("shard-1.wal");
+        Model run = new Model();
+        try (WriteAheadLog a = new WriteAheadLog(first); WriteAheadLog b = new WriteAheadLog(second))
+        {
+            a.advance(5); // the sequence number of the snapshot the shards started from
+            b.advance(5);
+            a.log(WriteAheadLog.ADD, run.ted, run.curry, 2);
+            b.log(WriteAheadLog.ADD, run.anna, run.fish, 1);
+            b.log(WriteAheadLog.ADD, run.anna, run.fish, 1);
+        }
+
+        Model loaded = new Model();
+        WriteAheadLog.Replay replay = new WriteAheadLog.Replay(loaded.subscribers, loaded.meals, 5);
+        for (Path file : List.of(first, second))
+        {
+            try (WriteAheadLog log = new WriteAheadLog(file))
+            {
+                log.readInto(replay);
+            }
+        }
+        replay.apply();
+        assertEquals(3, replay.getApplied());
+        assertEquals(7, replay.getSequence());
+
+        long saved;
+        try (WriteAheadLog main = new WriteAheadLog(dir.resolve("subscriptions.wal")))
+        {
+            main.advance(replay.getSequence());
+            saved = main.checkpoint();
+        }
+        assertTrue(saved > 7);
+
+        Model reloaded = new Model();
+        WriteAheadLog.Replay again = new WriteAheadLog.Replay(reloaded.subscribers, reloaded.meals, saved);
+        for (Path file : List.of(first, second))
+        {
+            try (WriteAheadLog log = new WriteAheadLog(file))
+            {
+                log.readInto(again);
+            }
+        }
+        again.apply();
+        assertEquals(0, again.getApplied());
+        assertEquals(10, reloaded.curry.getNumberAvailable());
+    }
+}
@@ -0,0 +1,178 @@
+package benchmarks;
+
+import java.lang.invoke.*;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Handles onto the program's classes. The program lives in the default package, which cannot be referred to from a
+ * named package (and JMH refuses to generate benchmarks in the default package), so the methods being measured are
+ * looked up once through MethodHandles. As the handles are static final constants, the JIT compiles calls through
+ * them just like direct calls.
+ */
+final class App
+{
+    /**
+     * new SortedLinkedList(Function nameFunction)
+     */
+    static final MethodHandle NEW_SORTED_LIST;
+    /**
+     * SortedLinkedList.addAndSort(E e)
+     */
+    static final MethodHandle ADD_AND_SORT;
+    /**
+     * SortedLinkedList.addAllAndSort(Collection c)
+     */
+    static final MethodHandle ADD_ALL_AND_SORT;
+    /**
+     * SortedLinkedList.loadSorted(E[] sorted)
+     */
+    static final MethodHandle LOAD_SORTED;
+    /**
+     * SortedLinkedList.remove(Object o)
+     */
+    static final MethodHandle REMOVE;
+    /**
+     * SortedLinkedList.get(int index)
+     */
+    static final MethodHandle GET;
+    /**
+     * SortedLinkedList.search(E key)
+     */
+    static final MethodHandle SEARCH;
+    /**
+     * SortedLinkedList.lookup(CharSequence name)
+     */
+    static final MethodHandle LOOKUP;
+    /**
+     * new Subscriber(String firstName, String surname)
+     */
+    static final MethodHandle NEW_SUBSCRIBER;
+    /**
+     * Subscriber.getName()
+     */
+    static final MethodHandle SUBSCRIBER_NAME;
+    /**
+     * Subscriber.setSubscriptions(Meal meal, int quantity)
+     */
+    static final MethodHandle SET_SUBSCRIPTIONS;
+    /**
+     * Subscriber.searchSubscriptions(Meal m)
+     */
+    static final MethodHandle SEARCH_SUBSCRIPTIONS;
+    /**
+     * new Meal(String name, int numberAvailable)
+     */
+    static final MethodHandle NEW_MEAL;
+    /**
+     * InputFileLoader.load(Path path)
+     */
+    static final MethodHandle LOAD_INPUT_FILE;
+    /**
+     * LetterWriter.render(StringBuilder out, String name, String meal)
+     */
+    static final MethodHandle RENDER_LETTER;
+    /**
+     * The Subscriber class
+     */
+    static final Class<?> SUBSCRIBER;
+
+    static
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            ClassLoader loader = App.class.getClassLoader();
+
+            Class<?> list = Class.forName("SortedLinkedList", true, loader);
+            Class<?> subscriber = Class.forName("Subscriber", true, loader);
+            Class<?> meal = Class.forName("Meal", true, loader);
+            Class<?> inputFileLoader = Class.forName("InputFileLoader", true, loader);
+            Class<?> letterWriter = Class.forName("LetterWriter", true, loader);
+
+            NEW_SORTED_LIST = lookup.findConstructor(list, MethodType.methodType(void.class, Function.class))
+                    .asType(MethodType.methodType(Object.class, Function.class));
+            ADD_AND_SORT = generic(lookup.findVirtual(list, "addAndSort",
+                    MethodType.methodType(void.class, Comparable.class)));
+            ADD_ALL_AND_SORT = generic(lookup.findVirtual(list, "addAllAndSort",
+                    MethodType.methodType(void.class, java.util.Collection.class)));
+            LOAD_SORTED = lookup.findVirtual(list, "loadSorted", MethodType.methodType(void.class, Comparable[].class))
+                    .asType(MethodType.methodType(void.class, Object.class, Object[].class));
+            REMOVE = lookup.findVirtual(list, "remove", MethodType.methodType(boolean.class, Object.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+            GET = lookup.findVirtual(list, "get", MethodType.methodType(Object.class, int.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, int.class));
+            SEARCH = lookup.findVirtual(list, "search", MethodType.methodType(int.class, Comparable.class))
+                    .asType(MethodType.methodType(int.class, Object.class, Object.class));
+            LOOKUP = generic(lookup.findVirtual(list, "lookup", MethodType.methodType(Comparable.class, CharSequence.class)));
+
+            NEW_SUBSCRIBER = generic(lookup.findConstructor(subscriber,
+                    MethodType.methodType(void.class, String.class, String.class)));
+            SUBSCRIBER_NAME = lookup.findVirtual(subscriber, "getName", MethodType.methodType(String.class))
+                    .asType(MethodType.methodType(String.class, Object.class));
+            SET_SUBSCRIPTIONS = lookup.findVirtual(subscriber, "setSubscriptions",
+                            MethodType.methodType(void.class, meal, int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class, int.class));
+            SEARCH_SUBSCRIPTIONS = generic(lookup.findVirtual(subscriber, "searchSubscriptions",
+                    MethodType.methodType(Class.forName("Subscription", true, loader), meal)));
+            NEW_MEAL = lookup.findConstructor(meal, MethodType.methodType(void.class, String.class, int.class))
+                    .asType(MethodType.methodType(Object.class, String.class, int.class));
+
+            LOAD_INPUT_FILE = lookup.findStatic(inputFileLoader, "load", MethodType.methodType(inputFileLoader, Path.class))
+                    .asType(MethodType.methodType(Object.class, Path.class));
+            RENDER_LETTER = lookup.findStatic(letterWriter, "render",
+                    MethodType.methodType(void.class, StringBuilder.class, String.class, String.class));
+
+            SUBSCRIBER = subscriber;
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App()
+    {
+    }
+
+    /**
+     * Creates a SortedLinkedList of subscribers with a name index
+     * @return The list
+     */
+    static Object newSubscriberList()
+    {
+        Function<Object, String> name = s ->
+        {
+            try
+            {
+                return (String) SUBSCRIBER_NAME.invokeExact(s);
+            }
+            catch (Throwable t)
+            {
+                throw new IllegalStateException(t);
+            }
+        };
+
+        try
+        {
+            return (Object) NEW_SORTED_LIST.invokeExact((Function) name);
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Changes every parameter and the return type of a handle to Object, so it can be called with invokeExact
+     * @param handle The handle
+     * @return The adapted handle
+     */
+    private static MethodHandle generic(MethodHandle handle)
+    {
+        MethodType type = MethodType.genericMethodType(handle.type().parameterCount());
+        if (handle.type().returnType() == void.class)
+            type = type.changeReturnType(void.class);
+        return handle.asType(type);
+    }
+}
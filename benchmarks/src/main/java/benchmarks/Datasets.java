@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generates datasets for the benchmarks. Every subscriber gets a unique name, built from a common first name and
+ * surname with a letter suffix, and subscribers are produced in a random order, as they would be in a real input file.
+ */
+final class Datasets
+{
+    /**
+     * First names to choose from
+     */
+    private static final String[] FIRST_NAMES = {"Anna", "Carl", "Ted", "Maria", "James", "Olivia", "Noah", "Amelia",
+            "Oliver", "Isla", "George", "Ava", "Harry", "Mia", "Jack", "Freya", "Leo", "Grace", "Oscar", "Lily"};
+    /**
+     * Surnames to choose from
+     */
+    private static final String[] SURNAMES = {"Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson",
+            "Davies", "Robinson", "Wright", "Thompson", "Evans", "Walker", "White", "Roberts", "Green", "Hall", "Wood"};
+    /**
+     * The meals in the sample input file, with their stock levels
+     */
+    static final String[] MEALS = {"Curry", "Chilli", "Lasagne", "Steak", "Fish", "Mushroom Stew", "Spaghetti"};
+
+    private Datasets()
+    {
+    }
+
+    /**
+     * Generates the names of n distinct subscribers in a random order
+     * @param n Number of subscribers
+     * @param seed Random seed, so runs can be compared
+     * @return Array of {first name, surname} pairs
+     */
+    static String[][] subscriberNames(int n, long seed)
+    {
+        Random random = new Random(seed);
+        String[][] names = new String[n][];
+
+        for (int i = 0; i < n; i++)
+        {
+            String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String surname = SURNAMES[i % SURNAMES.length] + suffix(i / SURNAMES.length);
+            names[i] = new String[] {first, surname};
+        }
+        Collections.shuffle(Arrays.asList(names), random);
+        return names;
+    }
+
+    /**
+     * Creates Subscriber objects for a set of names
+     * @param names Array of {first name, surname} pairs
+     * @return The subscribers
+     */
+    static Comparable<?>[] subscribers(String[][] names)
+    {
+        Comparable<?>[] subscribers = (Comparable<?>[]) java.lang.reflect.Array.newInstance(App.SUBSCRIBER, names.length);
+        try
+        {
+            for (int i = 0; i < names.length; i++)
+                subscribers[i] = (Comparable<?>) (Object) App.NEW_SUBSCRIBER.invokeExact((Object) names[i][0], (Object) names[i][1]);
+        }
+        catch (Throwable t)
+        {
+            throw new IllegalStateException(t);
+        }
+        return subscribers;
+    }
+
+    /**
+     * Writes an input file in the same format as input_data.txt
+     * @param names Array of {first name, surname} pairs
+     * @param file Where to write the file
+     * @throws IOException if the file cannot be written
+     */
+    static void writeInputFile(String[][] names, Path file) throws IOException
+    {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            out.write(Integer.toString(names.length));
+            out.newLine();
+            for (String[] name : names)
+            {
+                out.write(name[0]);
+                out.write(' ');
+                out.write(name[1]);
+                out.newLine();
+            }
+
+            out.write(Integer.toString(MEALS.length));
+            out.newLine();
+            for (int i = 0; i < MEALS.length; i++)
+            {
+                out.write(MEALS[i]);
+                out.newLine();
+                out.write(Integer.toString(1000 * (i + 1)));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Turns a number into a lower case letter suffix, e.g. 0 is "a", 26 is "ba"
+     * @param i The number
+     * @return The suffix
+     */
+    private static String suffix(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        do
+        {
+            sb.append((char) ('a' + i % 26));
+            i /= 26;
+        }
+        while (i > 0);
+        return sb.reverse().toString();
+    }
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks parsing and sorting a generated input file, which is what readFile does at startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class InputFileBenchmark
+{
+    /**
+     * Number of subscribers in the file
+     */
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * The generated input file
+     */
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("input_data", ".txt");
+        Datasets.writeInputFile(Datasets.subscriberNames(size, 42), file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Loads the file with InputFileLoader
+     */
+    @Benchmark
+    public Object load() throws Throwable
+    {
+        return (Object) App.LOAD_INPUT_FILE.invokeExact(file);
+    }
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks rendering an apology letter into a reused buffer, as the LetterWriter thread does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LetterBenchmark
+{
+    /**
+     * The reused buffer
+     */
+    private final StringBuilder buffer = new StringBuilder(1024);
+
+    /**
+     * Renders one letter
+     */
+    @Benchmark
+    public int render() throws Throwable
+    {
+        buffer.setLength(0);
+        App.RENDER_LETTER.invokeExact(buffer, "Ted Smith", "Mushroom Stew");
+        return buffer.length();
+    }
+}
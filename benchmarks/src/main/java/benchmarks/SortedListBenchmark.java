@@ -0,0 +1,133 @@
+package benchmarks;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for SortedLinkedList holding size subscribers: sorted insertion, indexed access, searching with
+ * compareTo (which replaced MainProgram.binarySearch), lookup by name through the name index, and bulk loading.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SortedListBenchmark
+{
+    /**
+     * How many probes are prepared for each benchmark, cycled through in turn
+     */
+    private static final int PROBES = 4096;
+
+    /**
+     * Number of subscribers in the list
+     */
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    /**
+     * The list being measured
+     */
+    private Object list;
+    /**
+     * The subscribers in the list, in random order
+     */
+    private Comparable<?>[] subscribers;
+    /**
+     * Subscribers which are not in the list, for insertion
+     */
+    private Comparable<?>[] newSubscribers;
+    /**
+     * Names of subscribers in the list as a user would type them, for lookups
+     */
+    private String[] typedNames;
+    /**
+     * Random indexes into the list
+     */
+    private int[] indexes;
+    /**
+     * Which probe to use next
+     */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable
+    {
+        String[][] names = Datasets.subscriberNames(size + PROBES, 42);
+        Comparable<?>[] all = Datasets.subscribers(names);
+
+        subscribers = Arrays.copyOf(all, size);
+        newSubscribers = Arrays.copyOfRange(all, size, size + PROBES);
+
+        Comparable<?>[] sorted = subscribers.clone();
+        Arrays.sort(sorted);
+        list = App.newSubscriberList();
+        App.LOAD_SORTED.invokeExact(list, (Object[]) sorted);
+
+        Random random = new Random(7);
+        typedNames = new String[PROBES];
+        indexes = new int[PROBES];
+        for (int i = 0; i < PROBES; i++)
+        {
+            String[] name = names[random.nextInt(size)];
+            typedNames[i] = (name[0] + " " + name[1]).toLowerCase();
+            indexes[i] = random.nextInt(size);
+        }
+    }
+
+    /**
+     * Inserts a new subscriber in order and removes it again, keeping the list the same size
+     */
+    @Benchmark
+    public boolean addAndSortThenRemove() throws Throwable
+    {
+        Object s = newSubscribers[next++ & (PROBES - 1)];
+        App.ADD_AND_SORT.invokeExact(list, s);
+        return (boolean) App.REMOVE.invokeExact(list, s);
+    }
+
+    /**
+     * Gets the subscriber at a random position
+     */
+    @Benchmark
+    public Object get() throws Throwable
+    {
+        return (Object) App.GET.invokeExact(list, indexes[next++ & (PROBES - 1)]);
+    }
+
+    /**
+     * Searches for a subscriber by comparing against the elements of the list
+     */
+    @Benchmark
+    public int search() throws Throwable
+    {
+        return (int) App.SEARCH.invokeExact(list, (Object) subscribers[indexes[next++ & (PROBES - 1)]]);
+    }
+
+    /**
+     * Looks up a subscriber by the name a user typed in, as chooseSubscriber does
+     */
+    @Benchmark
+    public Object lookup() throws Throwable
+    {
+        return (Object) App.LOOKUP.invokeExact(list, (Object) typedNames[next++ & (PROBES - 1)]);
+    }
+
+    /**
+     * Bulk-loads every subscriber into an empty list
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void addAllAndSort(Blackhole bh) throws Throwable
+    {
+        Object fresh = App.newSubscriberList();
+        App.ADD_ALL_AND_SORT.invokeExact(fresh, (Object) Arrays.asList(subscribers));
+        bh.consume(fresh);
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for a subscriber's own subscriptions, which are capped at three so do not depend on the dataset size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriberBenchmark
+{
+    /**
+     * A subscriber with the maximum of three subscriptions
+     */
+    private Object subscriber;
+    /**
+     * The last of the subscriber's meals, the worst case for a search
+     */
+    private Object subscribedMeal;
+    /**
+     * A meal the subscriber is not subscribed to
+     */
+    private Object otherMeal;
+
+    @Setup
+    public void setUp() throws Throwable
+    {
+        subscriber = (Object) App.NEW_SUBSCRIBER.invokeExact((Object) "Ted", (Object) "Smith");
+        for (int i = 0; i < 3; i++)
+        {
+            subscribedMeal = (Object) App.NEW_MEAL.invokeExact(Datasets.MEALS[i], 1000);
+            App.SET_SUBSCRIPTIONS.invokeExact(subscriber, subscribedMeal, 1);
+        }
+        otherMeal = (Object) App.NEW_MEAL.invokeExact(Datasets.MEALS[3], 1000);
+    }
+
+    /**
+     * Adds to an existing subscription (by 0, so the quantity never overflows)
+     */
+    @Benchmark
+    public void setSubscriptions() throws Throwable
+    {
+        App.SET_SUBSCRIPTIONS.invokeExact(subscriber, subscribedMeal, 0);
+    }
+
+    /**
+     * Finds a meal the subscriber is subscribed to
+     */
+    @Benchmark
+    public Object searchSubscriptionsHit() throws Throwable
+    {
+        return (Object) App.SEARCH_SUBSCRIPTIONS.invokeExact(subscriber, subscribedMeal);
+    }
+
+    /**
+     * Looks for a meal the subscriber is not subscribed to
+     */
+    @Benchmark
+    public Object searchSubscriptionsMiss() throws Throwable
+    {
+        return (Object) App.SEARCH_SUBSCRIPTIONS.invokeExact(subscriber, otherMeal);
+    }
+}